@@ -0,0 +1,77 @@
+package com.coketea.jcurl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * 基准测试使用的固定响应报文
+ */
+final class BenchmarkResponses {
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+    /**
+     * 分块编码时每个chunk的大小
+     */
+    static final int CHUNK_SIZE = 8 * 1024;
+
+    /**
+     * 常见服务器返回的一组响应头
+     */
+    static final String TYPICAL_HEADERS = "Server: nginx/1.24.0\r\n"
+            + "Date: Mon, 06 Jan 2025 08:00:00 GMT\r\n"
+            + "Content-Type: application/json; charset=utf-8\r\n"
+            + "Connection: keep-alive\r\n"
+            + "Vary: Accept-Encoding\r\n"
+            + "Cache-Control: private, max-age=0, no-cache\r\n"
+            + "ETag: \"5e1f9a3c-1b2\"\r\n"
+            + "Last-Modified: Sun, 05 Jan 2025 12:00:00 GMT\r\n"
+            + "X-Request-Id: 7f3c2a1e-9b8d-4c6f-a5e4-3d2c1b0a9f8e\r\n"
+            + "Strict-Transport-Security: max-age=31536000; includeSubDomains\r\n";
+
+    private BenchmarkResponses() {
+    }
+
+    static byte[] body(int size) {
+        byte[] body = new byte[size];
+        for (int i = 0; i < size; i++) {
+            body[i] = (byte) ('a' + i % 26);
+        }
+        return body;
+    }
+
+    /**
+     * @return 以Content-Length标明长度的完整响应
+     */
+    static byte[] contentLength(byte[] body) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(body.length + 1024);
+        write(baos, ("HTTP/1.1 200 OK\r\n" + TYPICAL_HEADERS + "Content-Length: " + body.length + "\r\n\r\n"));
+        baos.write(body, 0, body.length);
+        return baos.toByteArray();
+    }
+
+    /**
+     * @return 以{@link #CHUNK_SIZE}大小分块编码的完整响应
+     */
+    static byte[] chunked(byte[] body) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(body.length + body.length / CHUNK_SIZE * 8 + 1024);
+        write(baos, "HTTP/1.1 200 OK\r\n" + TYPICAL_HEADERS + "Transfer-Encoding: chunked\r\n\r\n");
+        for (int off = 0; off < body.length; off += CHUNK_SIZE) {
+            int size = Math.min(CHUNK_SIZE, body.length - off);
+            write(baos, Integer.toHexString(size) + "\r\n");
+            baos.write(body, off, size);
+            write(baos, "\r\n");
+        }
+        write(baos, "0\r\n\r\n");
+        return baos.toByteArray();
+    }
+
+    private static void write(ByteArrayOutputStream baos, String s) {
+        try {
+            baos.write(s.getBytes(US_ASCII));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
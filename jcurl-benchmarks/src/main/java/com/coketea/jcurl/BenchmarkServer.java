@@ -0,0 +1,145 @@
+package com.coketea.jcurl;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+
+/**
+ * 端到端基准测试使用的本地http服务器，每条连接一个线程，对任何请求都返回同一个固定响应
+ * <p>
+ * 只解析到请求头结束的空行，请求携带"Connection: close"时响应后关闭连接；请求不能带报文体
+ */
+class BenchmarkServer implements Closeable {
+
+    private static final byte[] CONNECTION_CLOSE = "connection: close".getBytes(Charset.forName("US-ASCII"));
+
+    private final ServerSocket serverSocket;
+
+    private final byte[] response;
+
+    private final byte[] closeResponse;
+
+    /**
+     * @param body 每个响应的报文体
+     */
+    BenchmarkServer(byte[] body) throws IOException {
+        this.response = BenchmarkResponses.contentLength(body);
+        this.closeResponse = withConnectionClose(response);
+        this.serverSocket = new ServerSocket(0, 1024, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "benchmark-server-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    String getHost() {
+        return serverSocket.getInetAddress().getHostAddress();
+    }
+
+    int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+            } catch (IOException e) {
+                return;
+            }
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    serve(socket);
+                }
+            }, "benchmark-server-worker");
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            InputStream is = new BufferedInputStream(socket.getInputStream());
+            OutputStream os = socket.getOutputStream();
+            byte[] line = new byte[8192];
+            while (true) {
+                boolean close = false;
+                int lines = 0;
+                int length;
+                while ((length = readLine(is, line)) > 0) {
+                    close |= startsWithIgnoreCase(line, length, CONNECTION_CLOSE);
+                    lines++;
+                }
+                if (length < 0) {
+                    return;
+                }
+                if (lines == 0) {
+                    continue;
+                }
+                os.write(close ? closeResponse : response);
+                os.flush();
+                if (close) {
+                    return;
+                }
+            }
+        } catch (IOException ignored) {
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * @return 行长度，不包含行结束符，-1表示连接已关闭
+     */
+    private static int readLine(InputStream is, byte[] line) throws IOException {
+        int length = 0;
+        int b;
+        while ((b = is.read()) != -1) {
+            if (b == '\n') {
+                return length > 0 && line[length - 1] == '\r' ? length - 1 : length;
+            }
+            if (length < line.length) {
+                line[length++] = (byte) b;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean startsWithIgnoreCase(byte[] line, int length, byte[] prefix) {
+        if (length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (Character.toLowerCase(line[i]) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] withConnectionClose(byte[] response) throws IOException {
+        String text = new String(response, "ISO-8859-1");
+        return text.replace("Connection: keep-alive\r\n", "Connection: close\r\n").getBytes("ISO-8859-1");
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+}
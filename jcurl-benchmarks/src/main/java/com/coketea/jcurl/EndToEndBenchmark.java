@@ -0,0 +1,76 @@
+package com.coketea.jcurl;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 针对本地服务器的端到端吞吐量与延迟分布
+ * <p>
+ * Throughput模式给出每秒请求数，SampleTime模式给出p50/p90/p99等延迟百分位；
+ * reuse为false时请求携带"Connection: close"，每个请求都新建一条连接
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class EndToEndBenchmark {
+
+    @Param({"true", "false"})
+    public boolean reuse;
+
+    @Param({"128", "65536"})
+    public int size;
+
+    private BenchmarkServer server;
+
+    private HttpClient httpClient;
+
+    private NioHttpClient nioHttpClient;
+
+    private Request request;
+
+    @Setup
+    public void setup() throws IOException {
+        server = new BenchmarkServer(BenchmarkResponses.body(size));
+        httpClient = new HttpClient(server.getHost(), server.getPort());
+        nioHttpClient = new NioHttpClient(server.getHost(), server.getPort());
+        request = reuse ? new Request("/")
+                : new Request("GET", "/", Collections.singletonMap("Connection", "close"), (String) null);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        httpClient.close();
+        nioHttpClient.close();
+        server.close();
+    }
+
+    @Benchmark
+    public Response blocking() throws IOException {
+        return httpClient.execute(request);
+    }
+
+    @Benchmark
+    public Response nio() throws InterruptedException, ExecutionException {
+        return nioHttpClient.execute(request).get();
+    }
+}
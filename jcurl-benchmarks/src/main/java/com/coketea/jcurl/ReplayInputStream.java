@@ -0,0 +1,32 @@
+package com.coketea.jcurl;
+
+import java.io.InputStream;
+
+/**
+ * 循环重放同一段字节的输入流，让解析器在不触碰网络的情况下连续解析同一个响应
+ */
+class ReplayInputStream extends InputStream {
+
+    private final byte[] data;
+
+    private int pos;
+
+    ReplayInputStream(byte[] data) {
+        this.data = data;
+    }
+
+    @Override
+    public int read() {
+        int b = data[pos] & 0xff;
+        pos = pos + 1 == data.length ? 0 : pos + 1;
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        int count = Math.min(len, data.length - pos);
+        System.arraycopy(data, pos, b, off, count);
+        pos = pos + count == data.length ? 0 : pos + count;
+        return count;
+    }
+}
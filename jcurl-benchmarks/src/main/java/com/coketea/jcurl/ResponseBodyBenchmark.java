@@ -0,0 +1,69 @@
+package com.coketea.jcurl;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Content-Length与chunked两种报文体的解码开销，阻塞解析器与非阻塞解码器分别测试
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@State(Scope.Thread)
+public class ResponseBodyBenchmark {
+
+    /**
+     * 报文体大小：小响应、64KB、100MB
+     */
+    @Param({"128", "65536", "104857600"})
+    public int size;
+
+    @Param({"length", "chunked"})
+    public String framing;
+
+    private byte[] response;
+
+    private ResponseParser parser;
+
+    private ResponseDecoder decoder;
+
+    @Setup
+    public void setup() {
+        byte[] body = BenchmarkResponses.body(size);
+        response = "chunked".equals(framing) ? BenchmarkResponses.chunked(body) : BenchmarkResponses.contentLength(body);
+        parser = new ResponseParser(new ReplayInputStream(response));
+        decoder = new ResponseDecoder();
+    }
+
+    @Benchmark
+    public Response parser() throws IOException {
+        return parser.parse("GET");
+    }
+
+    /**
+     * 以64KB为单位喂给增量解码器，与非阻塞引擎的读缓冲区大小一致
+     */
+    @Benchmark
+    public Response decoder() throws IOException {
+        decoder.reset("GET");
+        int pos = 0;
+        while (!decoder.isDone()) {
+            pos += decoder.feed(response, pos, Math.min(64 * 1024, response.length - pos));
+        }
+        return decoder.toResponse();
+    }
+}
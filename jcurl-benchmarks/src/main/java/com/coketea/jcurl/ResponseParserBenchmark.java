@@ -0,0 +1,78 @@
+package com.coketea.jcurl;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 状态行与响应头的解析开销，响应不带报文体，每次调用解析一个完整的响应头
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ResponseParserBenchmark {
+
+    private ResponseParser parser;
+
+    /**
+     * 状态行加响应头的行数，包括结尾的空行
+     */
+    private int lineCount;
+
+    @Setup
+    public void setup() {
+        byte[] response = BenchmarkResponses.contentLength(new byte[0]);
+        parser = new ResponseParser(new ReplayInputStream(response));
+        for (byte b : response) {
+            if (b == '\n') {
+                lineCount++;
+            }
+        }
+    }
+
+    @Benchmark
+    public int readLine() throws IOException {
+        int total = 0;
+        for (int i = 0; i < lineCount; i++) {
+            total += parser.readLine();
+        }
+        return total;
+    }
+
+    @Benchmark
+    public void parseHead(Blackhole blackhole) throws IOException {
+        parser.reset();
+        parser.parseResponseStatus();
+        parser.parseResponseHeader();
+        blackhole.consume(parser.getCode());
+        blackhole.consume(parser.getHeaders());
+    }
+
+    /**
+     * 解析并按名称查找响应头，包含响应头名称与值的解码开销
+     */
+    @Benchmark
+    public void parseHeadAndLookup(Blackhole blackhole) throws IOException {
+        parser.reset();
+        parser.parseResponseStatus();
+        parser.parseResponseHeader();
+        Headers headers = parser.getHeaders();
+        blackhole.consume(headers.get("Content-Type"));
+        blackhole.consume(headers.get("Content-Length"));
+        blackhole.consume(headers.get("ETag"));
+    }
+}
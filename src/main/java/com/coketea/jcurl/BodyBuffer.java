@@ -0,0 +1,85 @@
+package com.coketea.jcurl;
+
+import java.util.Arrays;
+
+/**
+ * 长度事先未知的报文体(chunked或者读到连接关闭为止)的累积缓冲区，代替ByteArrayOutputStream
+ * <p>
+ * 底层数组从{@link BufferPool}借出，扩容时换一个更大的数组并归还旧数组，
+ * 读取结束时只复制一次得到报文体，之后必须调用{@link #release()}归还数组
+ */
+class BodyBuffer {
+
+    private final BufferPool bufferPool;
+
+    private byte[] buffer;
+
+    private int count;
+
+    BodyBuffer(BufferPool bufferPool, int initialCapacity) {
+        this.bufferPool = bufferPool;
+        this.buffer = bufferPool.acquire(initialCapacity);
+    }
+
+    /**
+     * 保证至少还有size字节的可写空间
+     */
+    void ensureWritable(int size) {
+        if (buffer.length - count >= size) {
+            return;
+        }
+        long capacity = Math.max((long) buffer.length * 2, (long) count + size);
+        if (capacity > Integer.MAX_VALUE - 8) {
+            if ((long) count + size > Integer.MAX_VALUE - 8) {
+                throw new OutOfMemoryError("Response body too large to buffer");
+            }
+            capacity = Integer.MAX_VALUE - 8;
+        }
+        byte[] bigger = bufferPool.acquire((int) capacity);
+        System.arraycopy(buffer, 0, bigger, 0, count);
+        bufferPool.release(buffer);
+        buffer = bigger;
+    }
+
+    void write(byte[] b, int off, int len) {
+        this.ensureWritable(len);
+        System.arraycopy(b, off, buffer, count, len);
+        count += len;
+    }
+
+    /**
+     * @return 可以直接写入的底层数组，写入位置为{@link #size()}
+     */
+    byte[] array() {
+        return buffer;
+    }
+
+    /**
+     * 标记直接写入底层数组的len个字节
+     */
+    void advance(int len) {
+        count += len;
+    }
+
+    int size() {
+        return count;
+    }
+
+    /**
+     * 清空内容，保留底层数组继续使用
+     */
+    void clear() {
+        count = 0;
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(buffer, count);
+    }
+
+    void release() {
+        if (buffer != null) {
+            bufferPool.release(buffer);
+            buffer = null;
+        }
+    }
+}
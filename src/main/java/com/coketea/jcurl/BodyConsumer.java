@@ -0,0 +1,17 @@
+package com.coketea.jcurl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 以回调方式逐段接收响应报文体
+ */
+public interface BodyConsumer {
+
+    /**
+     * 接收一段报文体数据
+     * @param slice 只读的数据片段，直接引用连接的读缓冲区，只在本次回调期间有效，需要保留的数据必须自行复制
+     * @throws IOException 抛出异常时终止读取并关闭连接
+     */
+    void accept(ByteBuffer slice) throws IOException;
+}
@@ -0,0 +1,43 @@
+package com.coketea.jcurl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * 流式读取的响应报文体，HTTP/1.1从连接直接读取，HTTP/2从流缓存的数据帧读取
+ * <p>
+ * 报文体读完时请求结束，提前关闭时放弃剩余的报文体
+ */
+abstract class BodyInputStream extends InputStream implements ReadableByteChannel {
+
+    /**
+     * 把报文体逐段交给回调，读取到报文体结束为止
+     * @param consumer 数据回调
+     * @return 报文体总字节数
+     * @throws IOException
+     */
+    abstract long consume(BodyConsumer consumer) throws IOException;
+
+    /**
+     * 把剩余的报文体写入目标通道
+     * @param target 目标通道，写入从其当前位置开始
+     * @return 写入的字节数
+     * @throws IOException
+     */
+    abstract long transferTo(WritableByteChannel target) throws IOException;
+
+    /**
+     * @return 报文体剩余的字节数，长度未知时返回-1
+     */
+    abstract long getRemainingLength();
+
+    /**
+     * @return 读取报文体使用的缓冲区池
+     */
+    abstract BufferPool getBufferPool();
+
+    @Override
+    public abstract void close();
+}
@@ -0,0 +1,55 @@
+package com.coketea.jcurl;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 读写路径上使用的缓冲区池，响应解析缓冲区、请求头编码缓冲区、报文体传输与解压缓冲区都从这里借出并归还
+ * <p>
+ * 借出的缓冲区在归还之后不能再访问，同一个缓冲区也不能归还两次；借出的缓冲区没有归还时只是不能被复用
+ */
+public interface BufferPool {
+
+    /**
+     * 默认的缓冲区池，没有单独指定时所有连接池与NioHttpClient共用
+     */
+    BufferPool DEFAULT = new ThreadLocalBufferPool();
+
+    /**
+     * 借出一个堆内数组，内容未清零
+     * @param minCapacity 最小长度
+     * @return 长度不小于minCapacity的数组
+     */
+    byte[] acquire(int minCapacity);
+
+    /**
+     * 归还{@link #acquire(int)}借出的数组
+     */
+    void release(byte[] buffer);
+
+    /**
+     * 借出一个直接缓冲区，position为0，limit等于capacity
+     * @param minCapacity 最小容量
+     * @return 容量不小于minCapacity的直接缓冲区
+     */
+    ByteBuffer acquireDirect(int minCapacity);
+
+    /**
+     * 归还{@link #acquireDirect(int)}借出的直接缓冲区
+     */
+    void release(ByteBuffer buffer);
+
+    /**
+     * @return 借出缓冲区的总次数
+     */
+    long getAcquireCount();
+
+    /**
+     * @return 因为池中没有可复用的缓冲区而新分配的次数，稳定运行时应该接近于不再增长
+     */
+    long getAllocationCount();
+
+    /**
+     * @return 新分配的缓冲区的总字节数
+     */
+    long getAllocatedBytes();
+}
@@ -0,0 +1,309 @@
+package com.coketea.jcurl;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 缓存中的一个响应，以及计算新鲜度与重新验证所需的信息
+ * <p>
+ * 新鲜度按照Cache-Control的max-age、Expires、Last-Modified启发式的顺序确定，
+ * 过期但带有ETag或Last-Modified的响应可以用条件请求重新验证
+ */
+final class CacheEntry {
+
+    private static final String CACHE_CONTROL = "Cache-Control";
+
+    private static final String ETAG = "ETag";
+
+    private static final String LAST_MODIFIED = "Last-Modified";
+
+    private static final String VARY = "Vary";
+
+    /**
+     * 304响应中不能覆盖已缓存响应头的字段
+     */
+    private static final String[] NOT_MODIFIED_IGNORED = {
+            Constance.HTTP_RESPONSE_HEADER_KEY_CONTENT_LENGTH,
+            Constance.HTTP_RESPONSE_HEADER_KEY_CONTENT_ENCODING,
+            Constance.HTTP_RESPONSE_HEADER_KEY_TRANSFER_ENCODING
+    };
+
+    private final String key;
+
+    private final Response response;
+
+    /**
+     * 收到响应时的本地时间，毫秒
+     */
+    private final long receivedMillis;
+
+    /**
+     * Vary中列出的请求头在原始请求中的值
+     */
+    private final Map<String, String> varyHeaders;
+
+    /**
+     * 近似的内存占用，报文体加上响应头的字节数
+     */
+    private final long size;
+
+    CacheEntry(String key, Response response, long receivedMillis, Map<String, String> varyHeaders) {
+        this.key = key;
+        this.response = response;
+        this.receivedMillis = receivedMillis;
+        this.varyHeaders = varyHeaders;
+        long size = response.getBody().length + key.length() + 64;
+        Headers headers = response.getHeaders();
+        for (int i = 0; i < headers.size(); i++) {
+            size += headers.getName(i).length() + headers.getValue(i).length() + 4;
+        }
+        this.size = size;
+    }
+
+    /**
+     * @param key 缓存键
+     * @param request 原始请求
+     * @param response 收到的响应
+     * @param now 当前时间，毫秒
+     * @return 响应可以被缓存时返回缓存项，否则返回null
+     */
+    static CacheEntry of(String key, Request request, Response response, long now) {
+        if (!isCacheable(request, response)) {
+            return null;
+        }
+        Map<String, String> varyHeaders = Collections.emptyMap();
+        String vary = response.getHeader(VARY);
+        if (vary != null) {
+            varyHeaders = new LinkedHashMap<String, String>();
+            for (String name : vary.split(",")) {
+                name = name.trim();
+                if (name.length() > 0) {
+                    varyHeaders.put(name, requestHeader(request, name));
+                }
+            }
+        }
+        return new CacheEntry(key, response, now, varyHeaders);
+    }
+
+    /**
+     * @return GET请求的200、203、300、301、404、410响应，没有no-store且有明确的过期时间或验证器时可以缓存
+     */
+    static boolean isCacheable(Request request, Response response) {
+        if (!"GET".equals(request.getMethod())) {
+            return false;
+        }
+        switch (response.getCode()) {
+            case 200:
+            case 203:
+            case 300:
+            case 301:
+            case 404:
+            case 410:
+                break;
+            default:
+                return false;
+        }
+        String requestCacheControl = requestHeader(request, CACHE_CONTROL);
+        String cacheControl = response.getHeader(CACHE_CONTROL);
+        if (directive(requestCacheControl, "no-store") != null || directive(cacheControl, "no-store") != null) {
+            return false;
+        }
+        if ("*".equals(trim(response.getHeader(VARY)))) {
+            return false;
+        }
+        return directive(cacheControl, "max-age") != null || response.getHeader("Expires") != null
+                || directive(cacheControl, "no-cache") != null || response.getHeader(ETAG) != null
+                || response.getHeader(LAST_MODIFIED) != null;
+    }
+
+    String getKey() {
+        return key;
+    }
+
+    Response getResponse() {
+        return response;
+    }
+
+    long getReceivedMillis() {
+        return receivedMillis;
+    }
+
+    Map<String, String> getVaryHeaders() {
+        return varyHeaders;
+    }
+
+    long size() {
+        return size;
+    }
+
+    /**
+     * @return 请求中Vary列出的请求头与缓存时的请求一致
+     */
+    boolean matches(Request request) {
+        for (Map.Entry<String, String> entry : varyHeaders.entrySet()) {
+            String value = requestHeader(request, entry.getKey());
+            if (value == null ? entry.getValue() != null : !value.equals(entry.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param request 当前请求，请求中的no-cache或max-age=0要求重新验证
+     * @param now 当前时间，毫秒
+     * @return 是否可以不经过服务器直接使用
+     */
+    boolean isFresh(Request request, long now) {
+        String requestCacheControl = requestHeader(request, CACHE_CONTROL);
+        if (directive(requestCacheControl, "no-cache") != null
+                || directive(response.getHeader(CACHE_CONTROL), "no-cache") != null) {
+            return false;
+        }
+        long age = this.age(now);
+        long lifetime = this.freshnessLifetime();
+        String requestMaxAge = directive(requestCacheControl, "max-age");
+        if (requestMaxAge != null) {
+            lifetime = Math.min(lifetime, seconds(requestMaxAge) * 1000L);
+        }
+        return age < lifetime;
+    }
+
+    /**
+     * @return 是否带有ETag或Last-Modified，可以发送条件请求
+     */
+    boolean hasValidators() {
+        return response.getHeader(ETAG) != null || response.getHeader(LAST_MODIFIED) != null;
+    }
+
+    /**
+     * @return 带有If-None-Match与If-Modified-Since的条件请求
+     */
+    Request conditionalRequest(Request request) {
+        String etag = response.getHeader(ETAG);
+        if (etag != null) {
+            request = request.withHeader("If-None-Match", etag);
+        }
+        String lastModified = response.getHeader(LAST_MODIFIED);
+        if (lastModified != null) {
+            request = request.withHeader("If-Modified-Since", lastModified);
+        }
+        return request;
+    }
+
+    /**
+     * 服务器端返回304，用304中的响应头更新缓存的响应，报文体不变
+     * @param notModified 304响应
+     * @param now 当前时间，毫秒
+     * @return 更新后的缓存项
+     */
+    CacheEntry revalidated(Response notModified, long now) {
+        Headers merged = response.getHeaders().with(notModified.getHeaders().without(NOT_MODIFIED_IGNORED));
+        Response updated = new Response(response.getCode(), response.getStatus(), merged, response.getBody());
+        return new CacheEntry(key, updated, now, varyHeaders);
+    }
+
+    /**
+     * @return 响应从服务器端生成到现在经过的时间，毫秒
+     */
+    private long age(long now) {
+        long age = Math.max(0, now - receivedMillis);
+        String ageHeader = response.getHeader("Age");
+        if (ageHeader != null) {
+            age += seconds(ageHeader) * 1000L;
+        }
+        return age;
+    }
+
+    /**
+     * @return 响应保持新鲜的时长，毫秒
+     */
+    private long freshnessLifetime() {
+        String maxAge = directive(response.getHeader(CACHE_CONTROL), "max-age");
+        if (maxAge != null) {
+            return seconds(maxAge) * 1000L;
+        }
+        long date = parseDate(response.getHeader("Date"));
+        long served = date > 0 ? date : receivedMillis;
+        String expires = response.getHeader("Expires");
+        if (expires != null) {
+            //无法解析的Expires(例如0)视为已经过期
+            return Math.max(0, parseDate(expires) - served);
+        }
+        long lastModified = parseDate(response.getHeader(LAST_MODIFIED));
+        if (lastModified > 0 && lastModified < served) {
+            //启发式新鲜度：距离上次修改时间的10%
+            return (served - lastModified) / 10;
+        }
+        return 0;
+    }
+
+    /**
+     * 在Cache-Control中查找指令
+     * @param cacheControl Cache-Control的值，可以为null
+     * @param name 指令名称
+     * @return 指令的值，指令没有值时返回空字符串，指令不存在时返回null
+     */
+    static String directive(String cacheControl, String name) {
+        if (cacheControl == null) {
+            return null;
+        }
+        for (String part : cacheControl.split(",")) {
+            int eq = part.indexOf('=');
+            String directive = (eq == -1 ? part : part.substring(0, eq)).trim();
+            if (directive.equalsIgnoreCase(name)) {
+                if (eq == -1) {
+                    return "";
+                }
+                String value = part.substring(eq + 1).trim();
+                if (value.length() >= 2 && value.charAt(0) == '"' && value.charAt(value.length() - 1) == '"') {
+                    value = value.substring(1, value.length() - 1);
+                }
+                return value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return 非负的秒数，无法解析时返回0
+     */
+    private static long seconds(String value) {
+        try {
+            return Math.max(0, Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * @return RFC 1123格式的时间，毫秒；为null或无法解析时返回-1
+     */
+    static long parseDate(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    private static String requestHeader(Request request, String name) {
+        for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+            if (header.getKey().equalsIgnoreCase(name)) {
+                return header.getValue();
+            }
+        }
+        return null;
+    }
+
+    private static String trim(String value) {
+        return value == null ? null : value.trim();
+    }
+}
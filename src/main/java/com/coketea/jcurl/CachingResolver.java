@@ -0,0 +1,208 @@
+package com.coketea.jcurl;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 缓存解析结果的解析器，命中时不加锁也不阻塞
+ * <p>
+ * 解析成功的结果保留ttl，解析失败的结果保留negativeTtl，避免不存在的域名每次请求都阻塞解析。
+ * 成功的结果经过ttl的3/4之后再被访问时在后台线程重新解析，热点域名在过期之前就已经刷新，请求路径上不会遇到解析；
+ * 后台解析失败时保留旧的结果直到过期
+ */
+public class CachingResolver implements Resolver {
+
+    public static final long DEFAULT_TTL_MILLIS = 60 * 1000L;
+
+    public static final long DEFAULT_NEGATIVE_TTL_MILLIS = 5 * 1000L;
+
+    /**
+     * 所有实例共用的后台解析线程，空闲一段时间后退出
+     */
+    private static final ExecutorService REFRESHER = createRefresher();
+
+    private final Resolver delegate;
+
+    private final long ttlNanos;
+
+    private final long negativeTtlNanos;
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    private final LongAdder hitCount = new LongAdder();
+
+    private final LongAdder missCount = new LongAdder();
+
+    private final LongAdder refreshCount = new LongAdder();
+
+    public CachingResolver(Resolver delegate) {
+        this(delegate, DEFAULT_TTL_MILLIS, DEFAULT_NEGATIVE_TTL_MILLIS);
+    }
+
+    /**
+     * @param delegate 实际执行解析的解析器
+     * @param ttlMillis 解析成功的结果保留的时间，单位毫秒
+     * @param negativeTtlMillis 解析失败的结果保留的时间，单位毫秒，为0时不缓存失败
+     */
+    public CachingResolver(Resolver delegate, long ttlMillis, long negativeTtlMillis) {
+        if (ttlMillis <= 0) {
+            throw new IllegalArgumentException("ttlMillis must be positive: " + ttlMillis);
+        }
+        if (negativeTtlMillis < 0) {
+            throw new IllegalArgumentException("negativeTtlMillis must not be negative: " + negativeTtlMillis);
+        }
+        this.delegate = delegate;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.negativeTtlNanos = TimeUnit.MILLISECONDS.toNanos(negativeTtlMillis);
+    }
+
+    private static ExecutorService createRefresher() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "jcurl-resolver");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    @Override
+    public List<InetAddress> resolve(String host) throws UnknownHostException {
+        long now = System.nanoTime();
+        Entry entry = entries.get(host);
+        if (entry != null && now - entry.expiresAt < 0) {
+            hitCount.increment();
+            if (entry.failure != null) {
+                UnknownHostException e = new UnknownHostException(entry.failure.getMessage());
+                e.initCause(entry.failure);
+                throw e;
+            }
+            if (now - entry.refreshAt >= 0 && entry.refreshing.compareAndSet(false, true)) {
+                this.refreshAsync(host, entry);
+            }
+            return entry.addresses;
+        }
+        missCount.increment();
+        Entry loaded = this.load(host, System.nanoTime());
+        if (loaded.failure != null) {
+            throw loaded.failure;
+        }
+        return loaded.addresses;
+    }
+
+    /**
+     * 同步解析并缓存结果
+     */
+    private Entry load(String host, long now) {
+        Entry entry;
+        try {
+            List<InetAddress> addresses = delegate.resolve(host);
+            if (addresses.isEmpty()) {
+                throw new UnknownHostException(host);
+            }
+            entry = new Entry(Collections.unmodifiableList(addresses), null, now + ttlNanos, now + ttlNanos / 4 * 3);
+        } catch (UnknownHostException e) {
+            entry = new Entry(null, e, now + negativeTtlNanos, now + negativeTtlNanos);
+            if (negativeTtlNanos == 0) {
+                entries.remove(host);
+                return entry;
+            }
+        }
+        entries.put(host, entry);
+        return entry;
+    }
+
+    private void refreshAsync(final String host, final Entry stale) {
+        REFRESHER.execute(new Runnable() {
+            @Override
+            public void run() {
+                refreshCount.increment();
+                try {
+                    List<InetAddress> addresses = delegate.resolve(host);
+                    if (!addresses.isEmpty()) {
+                        long now = System.nanoTime();
+                        entries.replace(host, stale, new Entry(Collections.unmodifiableList(addresses), null,
+                                now + ttlNanos, now + ttlNanos / 4 * 3));
+                        return;
+                    }
+                } catch (UnknownHostException ignored) {
+                } catch (RuntimeException ignored) {
+                }
+                //刷新失败，旧的结果继续使用到过期，之后的访问不再触发刷新
+            }
+        });
+    }
+
+    /**
+     * 删除一个域名的缓存，下次解析时重新解析
+     */
+    public void invalidate(String host) {
+        entries.remove(host);
+    }
+
+    /**
+     * 清空所有缓存
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    /**
+     * @return 后台刷新的次数
+     */
+    public long getRefreshCount() {
+        return refreshCount.sum();
+    }
+
+    private static class Entry {
+
+        /**
+         * 解析成功时的地址，失败时为null
+         */
+        final List<InetAddress> addresses;
+
+        final UnknownHostException failure;
+
+        final long expiresAt;
+
+        /**
+         * 该时间之后被访问时触发后台刷新
+         */
+        final long refreshAt;
+
+        /**
+         * 保证每个缓存项只触发一次后台刷新
+         */
+        final AtomicBoolean refreshing = new AtomicBoolean();
+
+        Entry(List<InetAddress> addresses, UnknownHostException failure, long expiresAt, long refreshAt) {
+            this.addresses = addresses;
+            this.failure = failure;
+            this.expiresAt = expiresAt;
+            this.refreshAt = refreshAt;
+        }
+    }
+}
@@ -0,0 +1,438 @@
+package com.coketea.jcurl;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一次可以取消、带有整体超时的请求，由{@link HttpClient#newCall(Request)}创建，只能执行一次
+ * <p>
+ * 取消或者超过请求超时时间时直接关闭正在使用的socket，阻塞在读写上的线程立即以
+ * {@link CallCanceledException}或{@link CallTimeoutException}返回；取得连接之前等待连接池、并发配额或者建立连接的线程被中断，
+ * 这些等待的时间也不超过请求剩余的时间。
+ * 流式读取的请求在报文体读完或者响应关闭时才结束，超时时间同样覆盖报文体的读取
+ */
+public class Call {
+
+    /**
+     * 所有请求共用的超时检查线程，到期时关闭请求正在使用的连接
+     */
+    private static final ScheduledThreadPoolExecutor WATCHDOG = createWatchdog();
+
+    private final HttpClient client;
+
+    private final Request request;
+
+    private final long callTimeoutMillis;
+
+    private boolean executed;
+
+    private boolean canceled;
+
+    private boolean timedOut;
+
+    private boolean finished;
+
+    /**
+     * 正在使用的连接，取消或超时时关闭；连接归还连接池之前必须先解除关联
+     */
+    private HttpConnection connection;
+
+    /**
+     * 正在使用的HTTP/2流，取消或超时时发送RST_STREAM，连接上的其他流不受影响
+     */
+    private Http2Stream stream;
+
+    /**
+     * 对冲请求中并发执行的子请求，取消或超时时一并取消
+     */
+    private List<Call> children;
+
+    /**
+     * 正在等待连接池、并发配额或者建立连接的线程，取消或超时时中断该线程
+     */
+    private Thread waiter;
+
+    /**
+     * 是否已经中断了waiter，等待结束时清除中断标记
+     */
+    private boolean waiterInterrupted;
+
+    private long startNanos;
+
+    private ScheduledFuture<?> deadline;
+
+    Call(HttpClient client, Request request, long callTimeoutMillis) {
+        this.client = client;
+        this.request = request;
+        this.callTimeoutMillis = callTimeoutMillis;
+    }
+
+    private static ScheduledThreadPoolExecutor createWatchdog() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "jcurl-watchdog");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+
+    /**
+     * 发送请求并读取完整的响应
+     * @return 服务器端返回的或者缓存的响应
+     * @throws CallCanceledException 请求被取消
+     * @throws HttpTimeoutException 连接、读取或者整个请求超时
+     * @throws IOException
+     */
+    public Response execute() throws IOException {
+        this.start();
+        try {
+            return client.execute(this);
+        } finally {
+            this.end();
+        }
+    }
+
+    /**
+     * 发送请求并以流的方式读取响应报文体，响应关闭或报文体读完时请求结束
+     * @return 报文体尚未读取的响应，使用完毕后必须关闭
+     * @throws IOException
+     */
+    public StreamingResponse stream() throws IOException {
+        this.start();
+        try {
+            return client.stream(this);
+        } catch (IOException e) {
+            this.end();
+            throw e;
+        } catch (RuntimeException e) {
+            this.end();
+            throw e;
+        }
+    }
+
+    /**
+     * 取消请求，正在读写的线程会立即返回；请求已经结束时没有任何效果
+     */
+    public void cancel() {
+        HttpConnection current;
+        Http2Stream currentStream;
+        List<Call> forked;
+        synchronized (this) {
+            if (canceled || finished) {
+                return;
+            }
+            canceled = true;
+            current = this.connection;
+            currentStream = this.stream;
+            forked = children == null ? null : new ArrayList<Call>(children);
+            this.interruptWaiter();
+            this.notifyAll();
+        }
+        this.interrupt(current, currentStream, forked);
+    }
+
+    private void interrupt(HttpConnection current, Http2Stream currentStream, List<Call> forked) {
+        if (current != null) {
+            current.shutdown();
+        }
+        if (currentStream != null) {
+            currentStream.cancel();
+        }
+        if (forked != null) {
+            for (Call child : forked) {
+                child.cancel();
+            }
+        }
+    }
+
+    public synchronized boolean isCanceled() {
+        return canceled;
+    }
+
+    public synchronized boolean isExecuted() {
+        return executed;
+    }
+
+    public Request getRequest() {
+        return request;
+    }
+
+    private void start() throws IOException {
+        synchronized (this) {
+            if (executed) {
+                throw new IllegalStateException("Call already executed");
+            }
+            executed = true;
+            if (canceled) {
+                throw new CallCanceledException("Canceled", null);
+            }
+            startNanos = System.nanoTime();
+            this.schedule(callTimeoutMillis);
+        }
+    }
+
+    /**
+     * 持有this时调用
+     */
+    private void schedule(long delayMillis) {
+        if (callTimeoutMillis > 0) {
+            deadline = WATCHDOG.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    timeout();
+                }
+            }, delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void timeout() {
+        HttpConnection current;
+        Http2Stream currentStream;
+        List<Call> forked;
+        synchronized (this) {
+            if (finished) {
+                return;
+            }
+            timedOut = true;
+            current = this.connection;
+            currentStream = this.stream;
+            forked = children == null ? null : new ArrayList<Call>(children);
+            this.interruptWaiter();
+            this.notifyAll();
+        }
+        this.interrupt(current, currentStream, forked);
+    }
+
+    /**
+     * 准备重试：上一次尝试的报文体读完时请求已经结束，重新开始剩余时间的超时检查
+     * @throws IOException 请求已经被取消或者超时
+     */
+    synchronized void retry() throws IOException {
+        if (!canceled && !timedOut && finished) {
+            finished = false;
+            if (callTimeoutMillis > 0) {
+                long remaining = callTimeoutMillis - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+                if (remaining <= 0) {
+                    timedOut = true;
+                } else {
+                    this.schedule(remaining);
+                }
+            }
+        }
+        if (canceled || timedOut) {
+            throw this.translate(new IOException("Call interrupted before retry"));
+        }
+    }
+
+    /**
+     * 重试之前等待，请求被取消或者超时时立即返回
+     * @param delayMillis 等待时间
+     * @throws IOException 等待期间请求被取消或者超时
+     */
+    synchronized void backoff(long delayMillis) throws IOException {
+        long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+        try {
+            long remaining;
+            while (!canceled && !timedOut && (remaining = deadlineNanos - System.nanoTime()) > 0) {
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted during retry backoff");
+        }
+        if (canceled || timedOut) {
+            throw this.translate(new IOException("Call interrupted during retry backoff"));
+        }
+    }
+
+    /**
+     * 创建并发执行同一请求的子请求，子请求没有单独的超时，随本请求一起取消与超时
+     * @return 可以独立取消的子请求
+     * @throws IOException 请求已经被取消或者超时
+     */
+    Call fork() throws IOException {
+        Call child = new Call(client, request, 0);
+        synchronized (this) {
+            if (!canceled && !timedOut) {
+                if (children == null) {
+                    children = new ArrayList<Call>(2);
+                }
+                children.add(child);
+                child.executed = true;
+                return child;
+            }
+        }
+        throw this.translate(new IOException("Call interrupted before fork"));
+    }
+
+    /**
+     * 请求结束，停止超时检查，可以重复调用
+     */
+    synchronized void end() {
+        if (!finished) {
+            finished = true;
+            connection = null;
+            stream = null;
+            children = null;
+            if (deadline != null) {
+                deadline.cancel(false);
+                deadline = null;
+            }
+        }
+    }
+
+    /**
+     * 持有this时调用，中断的同时持有锁，等待结束后不会再收到中断
+     */
+    private void interruptWaiter() {
+        if (waiter != null && !waiterInterrupted) {
+            waiterInterrupted = true;
+            waiter.interrupt();
+        }
+    }
+
+    /**
+     * 开始等待连接池、并发配额或者建立连接，等待期间的取消与超时会中断当前线程；必须在finally中调用{@link #endWait()}
+     * @throws IOException 请求已经被取消或者超时
+     */
+    void beginWait() throws IOException {
+        synchronized (this) {
+            if (!canceled && !timedOut) {
+                waiter = Thread.currentThread();
+                return;
+            }
+        }
+        throw this.translate(new IOException("Call interrupted before waiting"));
+    }
+
+    /**
+     * 等待结束，清除取消或超时留下的中断标记，之后的阻塞读写不会因此失败
+     */
+    synchronized void endWait() {
+        if (waiter == Thread.currentThread()) {
+            waiter = null;
+            if (waiterInterrupted) {
+                waiterInterrupted = false;
+                Thread.interrupted();
+            }
+        }
+    }
+
+    /**
+     * @return 请求剩余的时间，没有整体超时时为Long.MAX_VALUE
+     * @throws IOException 请求已经被取消或者超时
+     */
+    long remainingMillis() throws IOException {
+        synchronized (this) {
+            if (!canceled && !timedOut) {
+                if (callTimeoutMillis <= 0) {
+                    return Long.MAX_VALUE;
+                }
+                long remaining = callTimeoutMillis - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+                if (remaining > 0) {
+                    return remaining;
+                }
+                timedOut = true;
+            }
+        }
+        throw this.translate(new IOException("Call interrupted"));
+    }
+
+    /**
+     * @param timeoutMillis 某一阶段自身的超时时间，例如连接超时，0表示不超时
+     * @return 不超过请求剩余时间的超时时间
+     * @throws IOException 请求已经被取消或者超时
+     */
+    int timeoutMillis(int timeoutMillis) throws IOException {
+        long remaining = this.remainingMillis();
+        if (remaining == Long.MAX_VALUE || (timeoutMillis > 0 && timeoutMillis <= remaining)) {
+            return timeoutMillis;
+        }
+        return (int) Math.min(remaining, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 关联正在使用的连接，请求已经被取消或者超时时直接失败
+     * @throws IOException
+     */
+    void attach(HttpConnection connection) throws IOException {
+        synchronized (this) {
+            if (!canceled && !timedOut) {
+                this.connection = connection;
+                return;
+            }
+        }
+        throw this.translate(new IOException("Connection attached after call ended"));
+    }
+
+    /**
+     * 关联正在使用的HTTP/2流，请求已经被取消或者超时时直接失败
+     * @throws IOException
+     */
+    void attach(Http2Stream stream) throws IOException {
+        synchronized (this) {
+            if (!canceled && !timedOut) {
+                this.stream = stream;
+                return;
+            }
+        }
+        throw this.translate(new IOException("Stream attached after call ended"));
+    }
+
+    /**
+     * 连接归还连接池或者流结束之前解除关联，之后的取消不会再关闭该连接或者重置该流
+     */
+    synchronized void detach() {
+        this.connection = null;
+        this.stream = null;
+    }
+
+    /**
+     * @return 请求已经被取消或者超时，不能再重试
+     */
+    synchronized boolean isInterrupted() {
+        return canceled || timedOut;
+    }
+
+    /**
+     * 把请求过程中的异常转换为对应的类型：取消与整体超时优先，其次是读取超时
+     * @param e 读写连接时的异常
+     * @return 转换后的异常
+     */
+    IOException translate(IOException e) {
+        if (e instanceof CallCanceledException || e instanceof CallTimeoutException) {
+            return e;
+        }
+        synchronized (this) {
+            if (canceled) {
+                return new CallCanceledException("Canceled", e);
+            }
+            if (!timedOut && !finished && callTimeoutMillis > 0
+                    && System.nanoTime() - startNanos >= TimeUnit.MILLISECONDS.toNanos(callTimeoutMillis)) {
+                //以请求剩余时间为上限的等待超时时，超时检查可能还没有执行
+                timedOut = true;
+            }
+            if (timedOut) {
+                return new CallTimeoutException("Call timed out after " + callTimeoutMillis + "ms", e);
+            }
+        }
+        if (e instanceof HttpTimeoutException) {
+            return e;
+        }
+        if (e instanceof SocketTimeoutException) {
+            return new ReadTimeoutException("Read timed out", e);
+        }
+        return e;
+    }
+}
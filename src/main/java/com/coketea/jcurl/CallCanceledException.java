@@ -0,0 +1,14 @@
+package com.coketea.jcurl;
+
+import java.io.InterruptedIOException;
+
+/**
+ * 请求被{@link Call#cancel()}取消时抛出
+ */
+public class CallCanceledException extends InterruptedIOException {
+
+    public CallCanceledException(String message, Throwable cause) {
+        super(message);
+        this.initCause(cause);
+    }
+}
@@ -0,0 +1,11 @@
+package com.coketea.jcurl;
+
+/**
+ * 整个请求(包括读取报文体)没有在请求超时时间内完成时抛出，此时连接已经被关闭
+ */
+public class CallTimeoutException extends HttpTimeoutException {
+
+    public CallTimeoutException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
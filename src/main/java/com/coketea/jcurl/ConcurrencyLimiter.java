@@ -0,0 +1,189 @@
+package com.coketea.jcurl;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 根据观察到的延迟自适应调整的并发限制(AIMD)
+ * <p>
+ * 请求成功且延迟没有明显高于最小延迟时，限制每轮加1(每个成功的请求加1/limit)；
+ * 请求超时、连接失败、服务器端返回429/503，或者延迟超过最小延迟的{@link #LATENCY_TOLERANCE}倍时，
+ * 认为下游已经开始排队，限制乘以{@link #BACKOFF_RATIO}，同一个最小延迟的时间内最多减小一次。
+ * 最小延迟定期用最近一段样本中的最小值替换，下游的基础延迟变化之后能够重新适应
+ */
+public class ConcurrencyLimiter {
+
+    /**
+     * 延迟超过最小延迟的该倍数时视为拥塞
+     */
+    static final double LATENCY_TOLERANCE = 2.0;
+
+    /**
+     * 拥塞时限制乘以该系数
+     */
+    static final double BACKOFF_RATIO = 0.9;
+
+    /**
+     * 每隔该数量的样本用这段样本中的最小延迟替换最小延迟
+     */
+    static final int MIN_LATENCY_WINDOW = 500;
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition available = lock.newCondition();
+
+    private double limit;
+
+    private int inFlight;
+
+    private long minLatencyNanos = Long.MAX_VALUE;
+
+    private long windowMinLatencyNanos = Long.MAX_VALUE;
+
+    private int windowSamples;
+
+    private long lastDecreaseAt;
+
+    private boolean decreased;
+
+    /**
+     * @param initialLimit 初始的并发限制
+     * @param minLimit 并发限制的下限，至少为1
+     * @param maxLimit 并发限制的上限
+     */
+    public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit) {
+        if (minLimit < 1 || maxLimit < minLimit || initialLimit < minLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("Require 1 <= minLimit <= initialLimit <= maxLimit: " + minLimit
+                    + ", " + initialLimit + ", " + maxLimit);
+        }
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+    }
+
+    /**
+     * 占用一个并发名额，名额用完时最多等待timeoutMillis
+     * @param timeoutMillis 最长等待时间，0表示不等待
+     * @return 是否取得了名额，取得之后必须调用{@link #onSuccess(long)}、{@link #onDropped()}或{@link #release()}之一
+     * @throws InterruptedIOException 等待时线程被中断
+     */
+    public boolean tryAcquire(long timeoutMillis) throws InterruptedIOException {
+        lock.lock();
+        try {
+            long remainingNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            while (inFlight >= (int) limit) {
+                if (remainingNanos <= 0) {
+                    return false;
+                }
+                remainingNanos = available.awaitNanos(remainingNanos);
+            }
+            inFlight++;
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for concurrency limit");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 请求成功，按延迟调整限制
+     * @param latencyNanos 请求发出到收到响应头的时间
+     */
+    public void onSuccess(long latencyNanos) {
+        lock.lock();
+        try {
+            boolean saturated = inFlight * 2 >= limit;
+            inFlight--;
+            this.sample(latencyNanos);
+            if (latencyNanos > minLatencyNanos * LATENCY_TOLERANCE) {
+                this.decrease();
+            } else if (saturated) {
+                //只在并发接近限制时增加，调用方自身的并发不足时限制不会无限增长
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            }
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 请求超时、连接失败或者被服务器端以过载拒绝
+     */
+    public void onDropped() {
+        lock.lock();
+        try {
+            inFlight--;
+            this.decrease();
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 归还名额但不调整限制，用于被取消或者与下游负载无关的失败
+     */
+    public void release() {
+        lock.lock();
+        try {
+            inFlight--;
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void sample(long latencyNanos) {
+        windowMinLatencyNanos = Math.min(windowMinLatencyNanos, latencyNanos);
+        minLatencyNanos = Math.min(minLatencyNanos, latencyNanos);
+        if (++windowSamples >= MIN_LATENCY_WINDOW) {
+            minLatencyNanos = windowMinLatencyNanos;
+            windowMinLatencyNanos = Long.MAX_VALUE;
+            windowSamples = 0;
+        }
+    }
+
+    /**
+     * 同一批在途请求的拥塞信号只减小一次
+     */
+    private void decrease() {
+        long now = System.nanoTime();
+        long spacing = minLatencyNanos == Long.MAX_VALUE ? 0 : minLatencyNanos;
+        if (decreased && now - lastDecreaseAt < spacing) {
+            return;
+        }
+        limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+        lastDecreaseAt = now;
+        decreased = true;
+    }
+
+    /**
+     * @return 当前的并发限制
+     */
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
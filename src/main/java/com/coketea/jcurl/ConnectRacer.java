@@ -0,0 +1,230 @@
+package com.coketea.jcurl;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 在域名解析出的多个地址之间竞速建立连接(Happy Eyeballs，RFC 8305)
+ * <p>
+ * 地址按协议族交替排列后依次发起非阻塞连接，前一个连接在{@link #ATTEMPT_DELAY_MILLIS}内没有结果时不再等待，
+ * 直接发起下一个；任意一个连接失败时立即发起下一个。最先建立的连接胜出，其余的全部关闭，
+ * 因此轮询域名后面一个不响应的地址只会带来一次尝试间隔的延迟，而不是一次完整的连接超时
+ */
+final class ConnectRacer {
+
+    /**
+     * 发起下一次连接之前等待前一次连接的时间，RFC 8305建议的值
+     */
+    static final long ATTEMPT_DELAY_MILLIS = 250;
+
+    private ConnectRacer() {
+    }
+
+    /**
+     * 建立到任意一个地址的连接
+     * @param addresses 候选地址，按优先顺序排列
+     * @param port 服务器端口
+     * @param timeoutMillis 整个竞速的超时时间，0表示不超时
+     * @param listener 每次尝试收到connectStart与connectFailed，胜出的连接收到connectEnd
+     * @return 已连接的阻塞模式通道
+     * @throws ConnectTimeoutException 超时之前没有任何连接建立
+     * @throws IOException 所有地址都连接失败，抛出最后一次失败的异常
+     */
+    static SocketChannel connect(List<InetAddress> addresses, int port, int timeoutMillis, EventListener listener)
+            throws IOException {
+        if (addresses.size() == 1) {
+            return connect(new InetSocketAddress(addresses.get(0), port), timeoutMillis, listener);
+        }
+        List<InetAddress> ordered = interleave(addresses);
+        long start = System.nanoTime();
+        long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        long delayNanos = TimeUnit.MILLISECONDS.toNanos(ATTEMPT_DELAY_MILLIS);
+        SocketChannel winner = null;
+        InetSocketAddress winnerAddress = null;
+        IOException failure = null;
+        Selector selector = Selector.open();
+        try {
+            int next = 0;
+            int pending = 0;
+            long nextAttemptAt = start;
+            while (winner == null) {
+                long now = System.nanoTime();
+                if (next < ordered.size() && (pending == 0 || now - nextAttemptAt >= 0)) {
+                    InetSocketAddress target = new InetSocketAddress(ordered.get(next++), port);
+                    SocketChannel channel = SocketChannel.open();
+                    try {
+                        channel.configureBlocking(false);
+                        listener.connectStart(target, now);
+                        if (channel.connect(target)) {
+                            winner = channel;
+                            winnerAddress = target;
+                        } else {
+                            channel.register(selector, SelectionKey.OP_CONNECT, target);
+                            pending++;
+                            nextAttemptAt = now + delayNanos;
+                        }
+                    } catch (IOException e) {
+                        listener.connectFailed(target, e, System.nanoTime());
+                        closeQuietly(channel);
+                        failure = e;
+                    }
+                    continue;
+                }
+                if (pending == 0) {
+                    throw failure;
+                }
+                long waitNanos = next < ordered.size() ? nextAttemptAt - now : Long.MAX_VALUE;
+                if (timeoutMillis > 0) {
+                    long remaining = start + timeoutNanos - now;
+                    if (remaining <= 0) {
+                        throw timeout(selector, timeoutMillis, listener);
+                    }
+                    waitNanos = Math.min(waitNanos, remaining);
+                }
+                //select(0)表示一直等待，因此不足1毫秒的等待按1毫秒计
+                selector.select(waitNanos == Long.MAX_VALUE ? 0 : Math.max(1, TimeUnit.NANOSECONDS.toMillis(waitNanos)));
+                if (Thread.currentThread().isInterrupted()) {
+                    //中断使select立即返回，不能继续等待
+                    throw failPending(selector, new InterruptedIOException("Interrupted while connecting"), listener);
+                }
+                Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    SelectionKey key = iterator.next();
+                    iterator.remove();
+                    SocketChannel channel = (SocketChannel) key.channel();
+                    InetSocketAddress target = (InetSocketAddress) key.attachment();
+                    try {
+                        if (channel.finishConnect()) {
+                            key.cancel();
+                            winner = channel;
+                            winnerAddress = target;
+                            break;
+                        }
+                    } catch (IOException e) {
+                        key.cancel();
+                        closeQuietly(channel);
+                        pending--;
+                        listener.connectFailed(target, e, System.nanoTime());
+                        failure = e;
+                        //失败的连接不占用尝试间隔，立即发起下一个
+                        nextAttemptAt = System.nanoTime();
+                    }
+                }
+            }
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                if (key.channel() != winner) {
+                    closeQuietly((SocketChannel) key.channel());
+                }
+            }
+            selector.close();
+        }
+        try {
+            //关闭selector之后注册已经注销，可以切换回阻塞模式
+            winner.configureBlocking(true);
+        } catch (IOException e) {
+            listener.connectFailed(winnerAddress, e, System.nanoTime());
+            closeQuietly(winner);
+            throw e;
+        }
+        listener.connectEnd(winnerAddress, System.nanoTime());
+        return winner;
+    }
+
+    /**
+     * 只有一个地址时使用阻塞连接
+     */
+    private static SocketChannel connect(InetSocketAddress target, int timeoutMillis, EventListener listener)
+            throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        try {
+            listener.connectStart(target, System.nanoTime());
+            channel.socket().connect(target, timeoutMillis);
+        } catch (IOException e) {
+            IOException failure = e;
+            if (e instanceof SocketTimeoutException) {
+                failure = new ConnectTimeoutException("Connect to " + target + " timed out after "
+                        + timeoutMillis + "ms", e);
+            }
+            listener.connectFailed(target, failure, System.nanoTime());
+            closeQuietly(channel);
+            throw failure;
+        }
+        listener.connectEnd(target, System.nanoTime());
+        return channel;
+    }
+
+    /**
+     * 超时时所有尚未完成的尝试都以connectFailed结束
+     */
+    private static ConnectTimeoutException timeout(Selector selector, int timeoutMillis, EventListener listener) {
+        return failPending(selector, new ConnectTimeoutException("Connect timed out after " + timeoutMillis + "ms",
+                null), listener);
+    }
+
+    /**
+     * 所有尚未完成的尝试都以connectFailed结束
+     * @return e
+     */
+    private static <E extends IOException> E failPending(Selector selector, E e, EventListener listener) {
+        long now = System.nanoTime();
+        for (SelectionKey key : selector.keys()) {
+            if (key.isValid()) {
+                listener.connectFailed((InetSocketAddress) key.attachment(), e, now);
+            }
+        }
+        return e;
+    }
+
+    /**
+     * 按协议族交替排列地址，保持各协议族内部的顺序，第一个地址的协议族排在最前
+     * @param addresses 解析出的地址
+     * @return 交替排列后的地址
+     */
+    static List<InetAddress> interleave(List<InetAddress> addresses) {
+        if (addresses.size() <= 1) {
+            return addresses;
+        }
+        boolean firstIsV6 = addresses.get(0) instanceof Inet6Address;
+        List<InetAddress> first = new ArrayList<InetAddress>(addresses.size());
+        List<InetAddress> second = new ArrayList<InetAddress>(addresses.size());
+        for (InetAddress address : addresses) {
+            if ((address instanceof Inet6Address) == firstIsV6) {
+                first.add(address);
+            } else {
+                second.add(address);
+            }
+        }
+        if (second.isEmpty()) {
+            return addresses;
+        }
+        List<InetAddress> ordered = new ArrayList<InetAddress>(addresses.size());
+        for (int i = 0; i < Math.max(first.size(), second.size()); i++) {
+            if (i < first.size()) {
+                ordered.add(first.get(i));
+            }
+            if (i < second.size()) {
+                ordered.add(second.get(i));
+            }
+        }
+        return ordered;
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
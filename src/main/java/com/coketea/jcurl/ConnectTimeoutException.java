@@ -0,0 +1,11 @@
+package com.coketea.jcurl;
+
+/**
+ * 在连接超时时间内未能与服务器端建立TCP连接时抛出
+ */
+public class ConnectTimeoutException extends HttpTimeoutException {
+
+    public ConnectTimeoutException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
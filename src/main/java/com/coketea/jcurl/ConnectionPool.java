@@ -0,0 +1,524 @@
+package com.coketea.jcurl;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 按host:port划分的keep-alive连接池，可以被多个HttpClient共享
+ * <p>
+ * 每个路由(host:port，HTTPS连接单独划分)上同时存在的连接数(借出的与空闲的之和)不超过maxPerRoute，
+ * 空闲超过keepAlive时长的连接会被淘汰，连接数已满时借用方最多等待borrowTimeout
+ */
+public class ConnectionPool {
+
+    public static final int DEFAULT_MAX_PER_ROUTE = 8;
+
+    public static final long DEFAULT_KEEP_ALIVE_MILLIS = 60 * 1000L;
+
+    public static final long DEFAULT_BORROW_TIMEOUT_MILLIS = 30 * 1000L;
+
+    private final int maxPerRoute;
+
+    private final long keepAliveNanos;
+
+    private final long borrowTimeoutNanos;
+
+    private final BufferPool bufferPool;
+
+    private volatile Resolver resolver = Resolver.DEFAULT;
+
+    private final ConcurrentMap<String, Route> routes = new ConcurrentHashMap<String, Route>();
+
+    private volatile boolean closed;
+
+    private Thread evictor;
+
+    public ConnectionPool() {
+        this(DEFAULT_MAX_PER_ROUTE, DEFAULT_KEEP_ALIVE_MILLIS, DEFAULT_BORROW_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param maxPerRoute 每个host:port最多同时存在的连接数
+     * @param keepAliveMillis 空闲连接最长保留时间，单位毫秒
+     * @param borrowTimeoutMillis 连接数已满时借用连接的最长等待时间，单位毫秒
+     */
+    public ConnectionPool(int maxPerRoute, long keepAliveMillis, long borrowTimeoutMillis) {
+        this(maxPerRoute, keepAliveMillis, borrowTimeoutMillis, BufferPool.DEFAULT);
+    }
+
+    /**
+     * @param maxPerRoute 每个host:port最多同时存在的连接数
+     * @param keepAliveMillis 空闲连接最长保留时间，单位毫秒
+     * @param borrowTimeoutMillis 连接数已满时借用连接的最长等待时间，单位毫秒
+     * @param bufferPool 连接的读写缓冲区从这里借出，连接关闭时归还
+     */
+    public ConnectionPool(int maxPerRoute, long keepAliveMillis, long borrowTimeoutMillis, BufferPool bufferPool) {
+        if (maxPerRoute <= 0) {
+            throw new IllegalArgumentException("maxPerRoute must be positive: " + maxPerRoute);
+        }
+        this.maxPerRoute = maxPerRoute;
+        this.keepAliveNanos = TimeUnit.MILLISECONDS.toNanos(keepAliveMillis);
+        this.borrowTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(borrowTimeoutMillis);
+        this.bufferPool = bufferPool;
+    }
+
+    /**
+     * 借用一条到host:port的连接，优先复用最近归还的空闲连接
+     * @param host 服务器地址
+     * @param port 服务器端口
+     * @return 可用的连接，使用完毕后必须调用{@link #release(HttpConnection, boolean)}归还
+     * @throws IOException 建立连接失败或等待超时
+     */
+    HttpConnection acquire(String host, int port) throws IOException {
+        return this.acquire(host, port, EventListener.NONE, 0);
+    }
+
+    /**
+     * 借用一条到host:port的连接，优先复用最近归还的空闲连接
+     * @param host 服务器地址
+     * @param port 服务器端口
+     * @param listener 需要新建连接时接收域名解析与建立连接的事件
+     * @param connectTimeoutMillis 新建连接的超时时间，0表示不超时
+     * @return 可用的连接，使用完毕后必须调用{@link #release(HttpConnection, boolean)}归还
+     * @throws IOException 建立连接失败或等待超时
+     */
+    HttpConnection acquire(String host, int port, EventListener listener, int connectTimeoutMillis)
+            throws IOException {
+        return this.acquire(host, port, null, listener, connectTimeoutMillis);
+    }
+
+    /**
+     * 借用一条到host:port的连接，优先复用最近归还的空闲连接
+     * @param tls 不为null时借用HTTPS连接，新建的连接在TCP连接之后完成TLS握手
+     * @see #acquire(String, int, EventListener, int)
+     */
+    HttpConnection acquire(String host, int port, TlsConfig tls, EventListener listener, int connectTimeoutMillis)
+            throws IOException {
+        return this.acquire(host, port, tls, listener, connectTimeoutMillis, Long.MAX_VALUE);
+    }
+
+    /**
+     * 借用一条到host:port的连接，连接数已满时的等待不超过maxWaitMillis
+     * @param maxWaitMillis 等待连接的最长时间，实际等待不超过连接池的borrowTimeout，用于限制在请求剩余的时间之内
+     * @see #acquire(String, int, TlsConfig, EventListener, int)
+     */
+    HttpConnection acquire(String host, int port, TlsConfig tls, EventListener listener, int connectTimeoutMillis,
+                           long maxWaitMillis) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Connection pool is closed");
+        }
+        Route route = this.route(host, port, tls != null);
+        HttpConnection connection = route.borrow(Math.min(borrowTimeoutNanos,
+                TimeUnit.MILLISECONDS.toNanos(maxWaitMillis)));
+        if (connection != null) {
+            return connection;
+        }
+        //已经在路由上预留了名额，在锁外建立连接
+        try {
+            listener.dnsStart(host, System.nanoTime());
+            List<InetAddress> addresses = route.prefer(resolver.resolve(host));
+            listener.dnsEnd(host, addresses.get(0), System.nanoTime());
+            connection = HttpConnection.open(host, port, addresses, tls, bufferPool, listener, connectTimeoutMillis);
+            route.preferred = connection.getInetAddress();
+            return connection;
+        } catch (IOException e) {
+            route.cancelReservation();
+            throw e;
+        } catch (RuntimeException e) {
+            route.cancelReservation();
+            throw e;
+        }
+    }
+
+    /**
+     * 归还借出的连接
+     * @param connection 借出的连接
+     * @param reusable 连接上的响应是否已经完整读取且服务器端允许继续复用
+     */
+    void release(HttpConnection connection, boolean reusable) {
+        connection.markUsed();
+        Route route = this.route(connection.getHost(), connection.getPort(), connection.isSecure());
+        if (reusable && !closed && connection.isOpen()) {
+            route.giveBack(connection);
+            this.ensureEvictor();
+        } else {
+            route.discard(connection);
+        }
+    }
+
+    /**
+     * 预先并行建立连接并完成TLS握手，放入连接池作为空闲连接，之后的请求不再承担建立连接的延迟
+     * @param host 服务器地址
+     * @param port 服务器端口
+     * @param tls 不为null时建立HTTPS连接，同一服务器的后续连接可以恢复握手得到的TLS会话
+     * @param count 路由上期望的空闲连接数，受maxPerRoute限制
+     * @param connectTimeoutMillis 每条连接的超时时间，0表示不超时
+     * @return 新建立的连接数，已有足够的空闲连接时返回0
+     * @throws IOException 所有连接都建立失败时抛出第一个失败的原因
+     */
+    int warmUp(final String host, final int port, final TlsConfig tls, int count, final int connectTimeoutMillis)
+            throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Connection pool is closed");
+        }
+        final Route route = this.route(host, port, tls != null);
+        int reserved = route.reserve(count);
+        if (reserved == 0) {
+            return 0;
+        }
+        final List<InetAddress> addresses;
+        try {
+            addresses = route.prefer(resolver.resolve(host));
+        } catch (IOException e) {
+            for (int i = 0; i < reserved; i++) {
+                route.cancelReservation();
+            }
+            throw e;
+        }
+        List<Future<Void>> futures = new ArrayList<Future<Void>>(reserved);
+        for (int i = 0; i < reserved; i++) {
+            //每个任务自行归还连接或者取消预留的名额，等待被中断时不会泄漏名额
+            futures.add(HttpClient.WORKER_EXECUTOR.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    HttpConnection connection;
+                    try {
+                        connection = HttpConnection.open(host, port, addresses, tls, bufferPool,
+                                EventListener.NONE, connectTimeoutMillis);
+                    } catch (IOException e) {
+                        route.cancelReservation();
+                        throw e;
+                    } catch (RuntimeException e) {
+                        route.cancelReservation();
+                        throw e;
+                    }
+                    route.preferred = connection.getInetAddress();
+                    release(connection, true);
+                    return null;
+                }
+            }));
+        }
+        int created = 0;
+        IOException failure = null;
+        for (Future<Void> future : futures) {
+            try {
+                future.get();
+                created++;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted warming up connections to " + route.key);
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof IOException ? (IOException) e.getCause()
+                            : new IOException(e.getCause());
+                }
+            }
+        }
+        if (created == 0 && failure != null) {
+            throw failure;
+        }
+        return created;
+    }
+
+    /**
+     * 关闭所有空闲时间超过keepAlive的连接
+     */
+    public void evictExpired() {
+        long now = System.nanoTime();
+        for (Route route : routes.values()) {
+            route.evictExpired(now);
+        }
+    }
+
+    /**
+     * 关闭当前所有空闲连接，借出的连接在归还时关闭
+     */
+    public void evictAll() {
+        for (Route route : routes.values()) {
+            route.evictExpired(Long.MAX_VALUE);
+        }
+    }
+
+    /**
+     * @return 所有路由上的空闲连接数
+     */
+    public int getIdleCount() {
+        int count = 0;
+        for (Route route : routes.values()) {
+            count += route.idleCount();
+        }
+        return count;
+    }
+
+    /**
+     * @return 所有路由上借出的连接数
+     */
+    public int getLeasedCount() {
+        int count = 0;
+        for (Route route : routes.values()) {
+            count += route.leasedCount();
+        }
+        return count;
+    }
+
+    public int getMaxPerRoute() {
+        return maxPerRoute;
+    }
+
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    public Resolver getResolver() {
+        return resolver;
+    }
+
+    /**
+     * @param resolver 新建连接时解析域名，之后新建的连接生效，例如测试时使用{@link StaticResolver}
+     */
+    public void setResolver(Resolver resolver) {
+        this.resolver = resolver == null ? Resolver.DEFAULT : resolver;
+    }
+
+    /**
+     * 关闭连接池，之后不能再借用连接
+     */
+    public void close() {
+        this.closed = true;
+        this.evictAll();
+        synchronized (this) {
+            if (evictor != null) {
+                evictor.interrupt();
+                evictor = null;
+            }
+        }
+    }
+
+    private Route route(String host, int port, boolean secure) {
+        String key = secure ? "https://" + host + ":" + port : host + ":" + port;
+        Route route = routes.get(key);
+        if (route == null) {
+            Route created = new Route(key);
+            route = routes.putIfAbsent(key, created);
+            if (route == null) {
+                route = created;
+            }
+        }
+        return route;
+    }
+
+    /**
+     * 有空闲连接时才启动后台淘汰线程
+     */
+    private synchronized void ensureEvictor() {
+        if (evictor != null || closed) {
+            return;
+        }
+        final long intervalMillis = Math.max(TimeUnit.NANOSECONDS.toMillis(keepAliveNanos) / 2, 100L);
+        evictor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!closed) {
+                    try {
+                        Thread.sleep(intervalMillis);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    evictExpired();
+                }
+            }
+        }, "jcurl-pool-evictor");
+        evictor.setDaemon(true);
+        evictor.start();
+    }
+
+    /**
+     * 单个host:port上的连接集合
+     */
+    private class Route {
+
+        private final String key;
+
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private final Condition available = lock.newCondition();
+
+        /**
+         * 空闲连接，队头为最近归还的连接
+         */
+        private final Deque<HttpConnection> idle = new ArrayDeque<HttpConnection>();
+
+        private int leased;
+
+        /**
+         * 最近一次成功连接的地址，之后新建连接时优先尝试，避免每次都在不响应的地址上等待一个尝试间隔
+         */
+        volatile InetAddress preferred;
+
+        Route(String key) {
+            this.key = key;
+        }
+
+        /**
+         * @return 把最近成功连接的地址移到最前面的地址列表
+         */
+        List<InetAddress> prefer(List<InetAddress> addresses) {
+            InetAddress first = this.preferred;
+            int idx = first == null ? -1 : addresses.indexOf(first);
+            if (idx <= 0) {
+                return addresses;
+            }
+            List<InetAddress> ordered = new ArrayList<InetAddress>(addresses.size());
+            ordered.add(first);
+            for (int i = 0; i < addresses.size(); i++) {
+                if (i != idx) {
+                    ordered.add(addresses.get(i));
+                }
+            }
+            return ordered;
+        }
+
+        /**
+         * @param timeoutNanos 连接数已满时的最长等待时间
+         * @return 可复用的空闲连接；返回null表示已经预留名额，需要调用方新建连接
+         */
+        HttpConnection borrow(long timeoutNanos) throws IOException {
+            List<HttpConnection> expired = new ArrayList<HttpConnection>();
+            lock.lock();
+            try {
+                long remaining = timeoutNanos;
+                while (true) {
+                    long now = System.nanoTime();
+                    HttpConnection connection;
+                    while ((connection = idle.pollFirst()) != null) {
+                        if (now - connection.getIdleSinceNanos() > keepAliveNanos || !connection.isOpen()) {
+                            expired.add(connection);
+                            continue;
+                        }
+                        leased++;
+                        return connection;
+                    }
+                    if (leased + idle.size() < maxPerRoute) {
+                        leased++;
+                        return null;
+                    }
+                    if (remaining <= 0) {
+                        throw new ConnectionPoolTimeoutException("Timeout waiting for connection to " + key);
+                    }
+                    try {
+                        remaining = available.awaitNanos(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted waiting for connection to " + key);
+                    }
+                }
+            } finally {
+                lock.unlock();
+                for (HttpConnection connection : expired) {
+                    connection.close();
+                }
+            }
+        }
+
+        /**
+         * 为预先建立的连接预留名额，使空闲连接与预留的名额之和达到idleTarget
+         * @return 预留的名额数
+         */
+        int reserve(int idleTarget) {
+            lock.lock();
+            try {
+                int count = Math.min(idleTarget - idle.size(), maxPerRoute - leased - idle.size());
+                if (count <= 0) {
+                    return 0;
+                }
+                leased += count;
+                return count;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void cancelReservation() {
+            lock.lock();
+            try {
+                leased--;
+                available.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void giveBack(HttpConnection connection) {
+            lock.lock();
+            try {
+                leased--;
+                connection.setIdleSinceNanos(System.nanoTime());
+                idle.addFirst(connection);
+                available.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void discard(HttpConnection connection) {
+            connection.close();
+            this.cancelReservation();
+        }
+
+        void evictExpired(long now) {
+            List<HttpConnection> expired = new ArrayList<HttpConnection>();
+            lock.lock();
+            try {
+                Iterator<HttpConnection> iterator = idle.iterator();
+                while (iterator.hasNext()) {
+                    HttpConnection connection = iterator.next();
+                    if (now == Long.MAX_VALUE || now - connection.getIdleSinceNanos() > keepAliveNanos
+                            || !connection.isOpen()) {
+                        iterator.remove();
+                        expired.add(connection);
+                    }
+                }
+                if (!expired.isEmpty()) {
+                    available.signalAll();
+                }
+            } finally {
+                lock.unlock();
+            }
+            for (HttpConnection connection : expired) {
+                connection.close();
+            }
+        }
+
+        int idleCount() {
+            lock.lock();
+            try {
+                return idle.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int leasedCount() {
+            lock.lock();
+            try {
+                return leased;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.coketea.jcurl;
+
+/**
+ * 在借用超时时间内未能从连接池获取到连接时抛出
+ */
+public class ConnectionPoolTimeoutException extends HttpTimeoutException {
+
+    public ConnectionPoolTimeoutException(String message) {
+        super(message);
+    }
+}
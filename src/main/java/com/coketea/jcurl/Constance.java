@@ -10,4 +10,24 @@ public class Constance {
     public static final String HTTP_RESPONSE_HEADER_VALUE_TRANSFER_ENCODING_CHUNKED = "chunked";
 
     public static final String HTTP_RESPONSE_HEADER_KEY_CONTENT_LENGTH = "Content-Length";
+
+    public static final String HTTP_RESPONSE_HEADER_KEY_CONNECTION = "Connection";
+
+    public static final String HTTP_RESPONSE_HEADER_VALUE_CONNECTION_CLOSE = "close";
+
+    public static final String HTTP_RESPONSE_HEADER_KEY_CONTENT_RANGE = "Content-Range";
+
+    public static final String HTTP_REQUEST_HEADER_KEY_RANGE = "Range";
+
+    public static final String HTTP_RESPONSE_HEADER_KEY_CONTENT_ENCODING = "Content-Encoding";
+
+    public static final String HTTP_REQUEST_HEADER_KEY_ACCEPT_ENCODING = "Accept-Encoding";
+
+    public static final String HTTP_REQUEST_HEADER_VALUE_ACCEPT_ENCODING_GZIP_DEFLATE = "gzip, deflate";
+
+    public static final String HTTP_REQUEST_HEADER_VALUE_ACCEPT_ENCODING_IDENTITY = "identity";
+
+    public static final String HTTP_RESPONSE_HEADER_KEY_RETRY_AFTER = "Retry-After";
+
+    public static final String HTTP_REQUEST_HEADER_KEY_CONTENT_TYPE = "Content-Type";
 }
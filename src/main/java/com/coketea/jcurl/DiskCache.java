@@ -0,0 +1,286 @@
+package com.coketea.jcurl;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link HttpCache}的磁盘层，每个缓存项保存为一个文件，通过内存映射读写
+ * <p>
+ * 文件名为缓存键的SHA-1，文件内容依次为魔数、缓存键、返回码、状态描述、收到时间、Vary请求头、响应头与报文体；
+ * 内存中只保存缓存键到文件大小的索引，按访问顺序淘汰。该类不是线程安全的，由HttpCache加锁访问
+ */
+class DiskCache {
+
+    private static final int MAGIC = 0x6a63a001;
+
+    private static final String SUFFIX = ".cache";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final Path directory;
+
+    private final long maxBytes;
+
+    /**
+     * 缓存键到文件大小，访问顺序，最久未使用的在最前面
+     */
+    private final LinkedHashMap<String, Long> index = new LinkedHashMap<String, Long>(16, 0.75f, true);
+
+    private long size;
+
+    /**
+     * @param directory 缓存目录，不存在时创建，已有的缓存文件会被加载到索引
+     * @param maxBytes 磁盘层的最大字节数
+     * @throws IOException
+     */
+    DiskCache(Path directory, long maxBytes) throws IOException {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(directory);
+        this.load();
+    }
+
+    /**
+     * 按修改时间从旧到新加载已有的缓存文件，无法识别的文件直接删除
+     */
+    private void load() throws IOException {
+        List<Path> files = new ArrayList<Path>();
+        DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX);
+        try {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        } finally {
+            stream.close();
+        }
+        final Map<Path, Long> modified = new LinkedHashMap<Path, Long>();
+        for (Path file : files) {
+            modified.put(file, Files.getLastModifiedTime(file).toMillis());
+        }
+        Collections.sort(files, new Comparator<Path>() {
+            @Override
+            public int compare(Path a, Path b) {
+                return Long.compare(modified.get(a), modified.get(b));
+            }
+        });
+        for (Path file : files) {
+            CacheEntry entry = this.read(file);
+            if (entry == null || !file.equals(this.file(entry.getKey()))) {
+                Files.deleteIfExists(file);
+                continue;
+            }
+            long length = Files.size(file);
+            index.put(entry.getKey(), length);
+            size += length;
+        }
+    }
+
+    /**
+     * @return 缓存项，不存在或者文件损坏时返回null
+     */
+    CacheEntry get(String key) {
+        if (!index.containsKey(key)) {
+            return null;
+        }
+        CacheEntry entry = this.read(this.file(key));
+        if (entry == null || !key.equals(entry.getKey())) {
+            this.remove(key);
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * 写入缓存项，超出容量时淘汰最久未使用的缓存项
+     * @return 被淘汰的缓存项个数
+     * @throws IOException
+     */
+    int put(CacheEntry entry) throws IOException {
+        this.remove(entry.getKey());
+        byte[] head = this.encodeHead(entry);
+        byte[] body = entry.getResponse().getBody();
+        long length = 4 + 4 + head.length + 4 + body.length;
+        if (length > maxBytes) {
+            return 0;
+        }
+        Path file = this.file(entry.getKey());
+        Path tmp = directory.resolve(file.getFileName() + ".tmp");
+        FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+            buffer.putInt(MAGIC);
+            buffer.putInt(head.length);
+            buffer.put(head);
+            buffer.putInt(body.length);
+            buffer.put(body);
+        } finally {
+            channel.close();
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        index.put(entry.getKey(), length);
+        size += length;
+        int evicted = 0;
+        Iterator<Map.Entry<String, Long>> iterator = index.entrySet().iterator();
+        while (size > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            iterator.remove();
+            size -= eldest.getValue();
+            Files.deleteIfExists(this.file(eldest.getKey()));
+            evicted++;
+        }
+        return evicted;
+    }
+
+    void remove(String key) {
+        Long length = index.remove(key);
+        if (length != null) {
+            size -= length;
+            try {
+                Files.deleteIfExists(this.file(key));
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    void evictAll() {
+        for (String key : new ArrayList<String>(index.keySet())) {
+            this.remove(key);
+        }
+    }
+
+    int count() {
+        return index.size();
+    }
+
+    long size() {
+        return size;
+    }
+
+    private Path file(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes(UTF_8));
+            StringBuilder name = new StringBuilder(digest.length * 2 + SUFFIX.length());
+            for (byte b : digest) {
+                name.append(Character.forDigit((b >> 4) & 0x0f, 16)).append(Character.forDigit(b & 0x0f, 16));
+            }
+            return directory.resolve(name.append(SUFFIX).toString());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private byte[] encodeHead(CacheEntry entry) {
+        Response response = entry.getResponse();
+        Headers headers = response.getHeaders();
+        List<byte[]> strings = new ArrayList<byte[]>();
+        strings.add(entry.getKey().getBytes(UTF_8));
+        strings.add(response.getStatus() == null ? null : response.getStatus().getBytes(UTF_8));
+        for (Map.Entry<String, String> vary : entry.getVaryHeaders().entrySet()) {
+            strings.add(vary.getKey().getBytes(UTF_8));
+            strings.add(vary.getValue() == null ? null : vary.getValue().getBytes(UTF_8));
+        }
+        for (int i = 0; i < headers.size(); i++) {
+            strings.add(headers.getName(i).getBytes(UTF_8));
+            strings.add(headers.getValue(i).getBytes(UTF_8));
+        }
+        int length = 4 + 8 + 4 + 4;
+        for (byte[] string : strings) {
+            length += 4 + (string == null ? 0 : string.length);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        putString(buffer, strings.get(0));
+        putString(buffer, strings.get(1));
+        buffer.putInt(response.getCode());
+        buffer.putLong(entry.getReceivedMillis());
+        buffer.putInt(entry.getVaryHeaders().size());
+        buffer.putInt(headers.size());
+        for (int i = 2; i < strings.size(); i++) {
+            putString(buffer, strings.get(i));
+        }
+        return buffer.array();
+    }
+
+    /**
+     * 通过内存映射读取缓存文件
+     * @return 缓存项，文件不存在或者格式错误时返回null
+     */
+    private CacheEntry read(Path file) {
+        try {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+            try {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (buffer.getInt() != MAGIC) {
+                    return null;
+                }
+                buffer.getInt();
+                String key = getString(buffer);
+                String status = getString(buffer);
+                int code = buffer.getInt();
+                long receivedMillis = buffer.getLong();
+                int varyCount = buffer.getInt();
+                int headerCount = buffer.getInt();
+                Map<String, String> vary = varyCount == 0 ? Collections.<String, String>emptyMap()
+                        : new LinkedHashMap<String, String>();
+                for (int i = 0; i < varyCount; i++) {
+                    vary.put(getString(buffer), getString(buffer));
+                }
+                String[] namesAndValues = new String[headerCount * 2];
+                for (int i = 0; i < namesAndValues.length; i++) {
+                    namesAndValues[i] = getString(buffer);
+                }
+                Headers headers = Headers.of(namesAndValues);
+                byte[] body = new byte[buffer.getInt()];
+                buffer.get(body);
+                return new CacheEntry(key, new Response(code, status, headers, body), receivedMillis, vary);
+            } finally {
+                channel.close();
+            }
+        } catch (IOException e) {
+            return null;
+        } catch (BufferUnderflowException e) {
+            return null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        } catch (NegativeArraySizeException e) {
+            return null;
+        }
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] string) {
+        if (string == null) {
+            buffer.putInt(-1);
+            return;
+        }
+        buffer.putInt(string.length);
+        buffer.put(string);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length == -1) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+}
@@ -0,0 +1,133 @@
+package com.coketea.jcurl;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+/**
+ * 一次请求在各个阶段的事件回调，用于统计耗时与定位慢请求，默认实现全部为空
+ * <p>
+ * 每个回调都带有事件发生时的{@link System#nanoTime()}，同一次请求的时间戳可以直接相减得到阶段耗时。
+ * 一次请求的事件依次为callStart、poolAcquire(新建连接时之前有dnsStart/dnsEnd、connectStart/connectEnd，
+ * HTTPS连接还有secureConnectStart/secureConnectEnd)、
+ * requestHeadersSent、firstByte、responseHeadersEnd、bodyEnd、poolRelease，最后是callEnd或callFailed；
+ * 流式读取的请求在报文体读完或者响应关闭时才结束。回调在发起请求的线程上同步执行，不能执行耗时操作
+ */
+public abstract class EventListener {
+
+    /**
+     * 不做任何事情的监听器
+     */
+    public static final EventListener NONE = new EventListener() {
+    };
+
+    /**
+     * 为每次请求创建监听器，需要在一次请求的多个事件之间保存状态时使用
+     */
+    public interface Factory {
+
+        /**
+         * @param host 服务器地址
+         * @param port 服务器端口
+         * @param request 将要发送的请求
+         * @return 该次请求的监听器
+         */
+        EventListener create(String host, int port, Request request);
+    }
+
+    /**
+     * @return 所有请求共用同一个监听器的Factory
+     */
+    public static Factory factory(final EventListener listener) {
+        return new Factory() {
+            @Override
+            public EventListener create(String host, int port, Request request) {
+                return listener;
+            }
+        };
+    }
+
+    /**
+     * 开始一次请求，缓存命中的请求不产生任何事件
+     */
+    public void callStart(Request request, long nanoTime) {
+    }
+
+    public void dnsStart(String host, long nanoTime) {
+    }
+
+    public void dnsEnd(String host, InetAddress address, long nanoTime) {
+    }
+
+    public void connectStart(InetSocketAddress address, long nanoTime) {
+    }
+
+    public void connectEnd(InetSocketAddress address, long nanoTime) {
+    }
+
+    public void connectFailed(InetSocketAddress address, IOException cause, long nanoTime) {
+    }
+
+    /**
+     * TCP连接建立之后开始TLS握手
+     */
+    public void secureConnectStart(long nanoTime) {
+    }
+
+    /**
+     * TLS握手完成
+     * @param protocol 协商的TLS版本，例如TLSv1.3
+     * @param applicationProtocol ALPN协商的应用层协议，服务器端不支持ALPN时为空字符串
+     * @param resumed 是否恢复了缓存的TLS会话，恢复的握手省去证书交换与校验
+     */
+    public void secureConnectEnd(String protocol, String applicationProtocol, boolean resumed, long nanoTime) {
+    }
+
+    /**
+     * 从连接池借到连接
+     * @param reused 是否为复用的keep-alive连接
+     */
+    public void poolAcquire(boolean reused, long nanoTime) {
+    }
+
+    /**
+     * 请求行、请求头与报文体已经全部写出
+     * @param headerBytes 请求行与请求头的字节数
+     * @param bodyBytes 请求报文体的字节数
+     */
+    public void requestHeadersSent(long headerBytes, long bodyBytes, long nanoTime) {
+    }
+
+    /**
+     * 收到响应的状态行，与requestHeadersSent之差即为首字节时间
+     */
+    public void firstByte(long nanoTime) {
+    }
+
+    public void responseHeadersEnd(int code, long nanoTime) {
+    }
+
+    /**
+     * 响应报文体读取完毕
+     * @param bodyBytes 从连接读取的报文体字节数，压缩的报文体为解压前的字节数
+     */
+    public void bodyEnd(long bodyBytes, long nanoTime) {
+    }
+
+    /**
+     * 连接归还连接池
+     * @param reusable 为false时连接被关闭
+     */
+    public void poolRelease(boolean reusable, long nanoTime) {
+    }
+
+    public void callEnd(long nanoTime) {
+    }
+
+    /**
+     * 请求失败，之后不再有该请求的事件
+     * @param cause 失败的原因
+     */
+    public void callFailed(Exception cause, long nanoTime) {
+    }
+}
@@ -0,0 +1,385 @@
+package com.coketea.jcurl;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 不可变的响应头集合
+ * <p>
+ * 所有响应头的原始字节保存在一个数组中，名称与值以偏移量的形式记录，只有在被读取时才解码为String。
+ * 每个名称预先计算不区分大小写的哈希值，查找时先比较哈希值再比较字节；常见的响应头名称解码时返回共享的String实例。
+ * 同名的响应头全部保留，可以通过{@link #values(String)}读取
+ */
+public final class Headers {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    static final Headers EMPTY = new Headers(new byte[0], new int[0], new int[0], 0);
+
+    /**
+     * 常见的响应头名称，与原始字节完全相同（包括HTTP/2的小写形式）时不再解码
+     */
+    private static final String[] WELL_KNOWN_NAMES = {
+            Constance.HTTP_RESPONSE_HEADER_KEY_TRANSFER_ENCODING,
+            Constance.HTTP_RESPONSE_HEADER_KEY_CONTENT_LENGTH,
+            Constance.HTTP_RESPONSE_HEADER_KEY_CONNECTION,
+            Constance.HTTP_RESPONSE_HEADER_KEY_CONTENT_RANGE,
+            Constance.HTTP_RESPONSE_HEADER_KEY_CONTENT_ENCODING,
+            Constance.HTTP_RESPONSE_HEADER_KEY_RETRY_AFTER,
+            Constance.HTTP_REQUEST_HEADER_KEY_CONTENT_TYPE,
+            "Accept-Ranges", "Age", "Cache-Control", "Date", "ETag", "Expires", "Keep-Alive", "Last-Modified",
+            "Location", "Server", "Set-Cookie", "Vary"
+    };
+
+    private static final int INTERNED_TABLE_SIZE = 128;
+
+    /**
+     * 以不区分大小写的哈希值为下标的开放寻址表，同一个名称的原样与小写形式都放入表中
+     */
+    private static final String[] INTERNED = new String[INTERNED_TABLE_SIZE];
+
+    static {
+        for (String name : WELL_KNOWN_NAMES) {
+            intern(name);
+            intern(name.toLowerCase(Locale.ROOT).intern());
+        }
+    }
+
+    /**
+     * 所有响应头的原始字节
+     */
+    private final byte[] data;
+
+    /**
+     * 每个响应头占4个元素：名称起始、名称结束、值起始、值结束
+     */
+    private final int[] offsets;
+
+    /**
+     * 每个响应头名称不区分大小写的哈希值
+     */
+    private final int[] hashes;
+
+    private final int size;
+
+    private final String[] names;
+
+    private final String[] values;
+
+    Headers(byte[] data, int[] offsets, int size) {
+        this(data, offsets, hashes(data, offsets, size), size);
+    }
+
+    /**
+     * @param hashes 解析时已经计算好的名称哈希值，见{@link #hash(byte[], int, int)}
+     */
+    Headers(byte[] data, int[] offsets, int[] hashes, int size) {
+        this.data = data;
+        this.offsets = offsets;
+        this.hashes = hashes;
+        this.size = size;
+        this.names = new String[size];
+        this.values = new String[size];
+    }
+
+    /**
+     * 由键值对构造响应头集合
+     * @param map 响应头键值对
+     * @return 响应头集合
+     */
+    public static Headers of(Map<String, String> map) {
+        String[] namesAndValues = new String[map.size() * 2];
+        int i = 0;
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            namesAndValues[i++] = entry.getKey();
+            namesAndValues[i++] = entry.getValue();
+        }
+        return of(namesAndValues);
+    }
+
+    /**
+     * 由依次排列的名称与值构造响应头集合，同名的响应头可以出现多次
+     * @param namesAndValues 名称与值交替排列，值为null时视为空字符串
+     * @return 响应头集合
+     */
+    public static Headers of(String... namesAndValues) {
+        if (namesAndValues.length % 2 != 0) {
+            throw new IllegalArgumentException("Expected alternating names and values");
+        }
+        byte[][] parts = new byte[namesAndValues.length][];
+        int length = 0;
+        for (int i = 0; i < parts.length; i++) {
+            parts[i] = namesAndValues[i] == null ? new byte[0] : namesAndValues[i].getBytes(UTF_8);
+            length += parts[i].length;
+        }
+        byte[] data = new byte[length];
+        int[] offsets = new int[parts.length * 2];
+        int pos = 0;
+        for (int i = 0; i < parts.length; i++) {
+            offsets[i * 2] = pos;
+            System.arraycopy(parts[i], 0, data, pos, parts[i].length);
+            pos += parts[i].length;
+            offsets[i * 2 + 1] = pos;
+        }
+        return new Headers(data, offsets, parts.length / 2);
+    }
+
+    /**
+     * 由依次排列的名称与值构造响应头集合，例如HPACK解码的结果
+     * @param namesAndValues 名称与值交替排列，以ISO-8859-1保存原始字节
+     * @return 响应头集合
+     */
+    static Headers ofOctets(List<String> namesAndValues) {
+        int length = 0;
+        for (String part : namesAndValues) {
+            length += part.length();
+        }
+        byte[] data = new byte[length];
+        int[] offsets = new int[namesAndValues.size() * 2];
+        int pos = 0;
+        for (int i = 0; i < namesAndValues.size(); i++) {
+            String part = namesAndValues.get(i);
+            offsets[i * 2] = pos;
+            for (int j = 0; j < part.length(); j++) {
+                data[pos++] = (byte) part.charAt(j);
+            }
+            offsets[i * 2 + 1] = pos;
+        }
+        return new Headers(data, offsets, namesAndValues.size() / 2);
+    }
+
+    /**
+     * @return 响应头个数，重复的响应头分别计数
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param index 响应头序号
+     * @return 第index个响应头的名称
+     */
+    public String getName(int index) {
+        String name = names[index];
+        if (name == null) {
+            int start = offsets[index * 4];
+            int end = offsets[index * 4 + 1];
+            name = interned(hashes[index], start, end);
+            if (name == null) {
+                name = decode(start, end);
+            }
+            names[index] = name;
+        }
+        return name;
+    }
+
+    /**
+     * @param index 响应头序号
+     * @return 第index个响应头的值
+     */
+    public String getValue(int index) {
+        String value = values[index];
+        if (value == null) {
+            value = decode(offsets[index * 4 + 2], offsets[index * 4 + 3]);
+            values[index] = value;
+        }
+        return value;
+    }
+
+    /**
+     * 查找响应头，直接与原始字节比较，不会解码其他响应头；名称不区分大小写，HTTP/2的响应头名称都是小写
+     * @param name 响应头名称
+     * @return 最后一个同名响应头的值，不存在时返回null
+     */
+    public String get(String name) {
+        int hash = hash(name);
+        for (int i = size - 1; i >= 0; i--) {
+            if (hashes[i] == hash && nameEquals(i, name)) {
+                return getValue(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param name 响应头名称，不区分大小写
+     * @return 所有同名响应头的值，按出现顺序排列，例如多个Set-Cookie；不存在时返回空列表
+     */
+    public List<String> values(String name) {
+        int hash = hash(name);
+        List<String> result = null;
+        for (int i = 0; i < size; i++) {
+            if (hashes[i] == hash && nameEquals(i, name)) {
+                if (result == null) {
+                    result = new ArrayList<String>(2);
+                }
+                result.add(getValue(i));
+            }
+        }
+        return result == null ? Collections.<String>emptyList() : Collections.unmodifiableList(result);
+    }
+
+    /**
+     * @return 按出现顺序转换的键值对，重复的响应头只保留最后一个
+     */
+    public Map<String, String> toMap() {
+        Map<String, String> map = new LinkedHashMap<String, String>();
+        for (int i = 0; i < size; i++) {
+            map.put(getName(i), getValue(i));
+        }
+        return map;
+    }
+
+    /**
+     * @param names 要去掉的响应头名称
+     * @return 去掉指定响应头后的集合，与当前集合共用原始字节
+     */
+    Headers without(String... names) {
+        int[] nameHashes = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            nameHashes[i] = hash(names[i]);
+        }
+        int[] copy = new int[size * 4];
+        int[] copyHashes = new int[size];
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            boolean removed = false;
+            for (int j = 0; j < names.length && !removed; j++) {
+                removed = hashes[i] == nameHashes[j] && nameEquals(i, names[j]);
+            }
+            if (!removed) {
+                System.arraycopy(offsets, i * 4, copy, count * 4, 4);
+                copyHashes[count] = hashes[i];
+                count++;
+            }
+        }
+        return count == size ? this : new Headers(data, copy, copyHashes, count);
+    }
+
+    /**
+     * 用另一组响应头中的同名响应头替换当前的响应头，例如以304响应更新缓存的响应
+     * @param overrides 新的响应头，其中出现的名称在当前集合中全部去掉，重复的响应头都保留
+     * @return 合并后的集合
+     */
+    Headers with(Headers overrides) {
+        if (overrides.size == 0) {
+            return this;
+        }
+        String[] replaced = new String[overrides.size];
+        for (int i = 0; i < overrides.size; i++) {
+            replaced[i] = overrides.getName(i);
+        }
+        Headers kept = this.without(replaced);
+        byte[] merged = new byte[kept.data.length + overrides.data.length];
+        System.arraycopy(kept.data, 0, merged, 0, kept.data.length);
+        System.arraycopy(overrides.data, 0, merged, kept.data.length, overrides.data.length);
+        int count = kept.size + overrides.size;
+        int[] mergedOffsets = new int[count * 4];
+        System.arraycopy(kept.offsets, 0, mergedOffsets, 0, kept.size * 4);
+        for (int i = 0; i < overrides.size * 4; i++) {
+            mergedOffsets[kept.size * 4 + i] = overrides.offsets[i] + kept.data.length;
+        }
+        int[] mergedHashes = new int[count];
+        System.arraycopy(kept.hashes, 0, mergedHashes, 0, kept.size);
+        System.arraycopy(overrides.hashes, 0, mergedHashes, kept.size, overrides.size);
+        return new Headers(merged, mergedOffsets, mergedHashes, count);
+    }
+
+    private boolean nameEquals(int index, String name) {
+        int start = offsets[index * 4];
+        int end = offsets[index * 4 + 1];
+        if (end - start != name.length()) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            int b = data[start + i] & 0xff;
+            char c = name.charAt(i);
+            if (b != c && toLowerCase(b) != toLowerCase(c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 在哈希值相同的常见名称中查找与原始字节完全相同的一个
+     */
+    private String interned(int hash, int start, int end) {
+        for (int slot = hash & (INTERNED_TABLE_SIZE - 1); INTERNED[slot] != null;
+             slot = (slot + 1) & (INTERNED_TABLE_SIZE - 1)) {
+            String candidate = INTERNED[slot];
+            if (candidate.length() == end - start && bytesEqual(candidate, start)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private boolean bytesEqual(String s, int start) {
+        for (int i = 0; i < s.length(); i++) {
+            if ((data[start + i] & 0xff) != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void intern(String name) {
+        int slot = hash(name) & (INTERNED_TABLE_SIZE - 1);
+        while (INTERNED[slot] != null) {
+            if (INTERNED[slot].equals(name)) {
+                return;
+            }
+            slot = (slot + 1) & (INTERNED_TABLE_SIZE - 1);
+        }
+        INTERNED[slot] = name;
+    }
+
+    /**
+     * 名称不区分大小写的哈希值，与{@link #hash(byte[], int, int)}对相同的ASCII名称结果一致
+     */
+    static int hash(String name) {
+        int h = 0;
+        for (int i = 0; i < name.length(); i++) {
+            h = 31 * h + toLowerCase(name.charAt(i));
+        }
+        return h;
+    }
+
+    /**
+     * 原始字节中名称不区分大小写的哈希值
+     */
+    static int hash(byte[] data, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + toLowerCase(data[i] & 0xff);
+        }
+        return h;
+    }
+
+    private static int[] hashes(byte[] data, int[] offsets, int size) {
+        int[] hashes = new int[size];
+        for (int i = 0; i < size; i++) {
+            hashes[i] = hash(data, offsets[i * 4], offsets[i * 4 + 1]);
+        }
+        return hashes;
+    }
+
+    static int toLowerCase(int c) {
+        return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+    }
+
+    private String decode(int start, int end) {
+        return new String(data, start, end - start, UTF_8);
+    }
+
+    @Override
+    public String toString() {
+        return toMap().toString();
+    }
+}
@@ -0,0 +1,120 @@
+package com.coketea.jcurl;
+
+import java.io.IOException;
+
+/**
+ * 逐行收集响应头的原始字节、偏移量与名称的哈希值，完成后复制为不可变的{@link Headers}
+ * <p>
+ * 内部数组在多次响应之间复用，阻塞解析器与非阻塞解码器共用同一套响应头解析逻辑
+ */
+class HeadersBuilder {
+
+    private final int maxSize;
+
+    private byte[] data = new byte[1024];
+
+    private int length;
+
+    private int[] offsets = new int[64];
+
+    private int[] hashes = new int[16];
+
+    private int count;
+
+    /**
+     * @param maxSize 响应头原始字节的最大长度
+     */
+    HeadersBuilder(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    void reset() {
+        this.length = 0;
+        this.count = 0;
+    }
+
+    /**
+     * 解析一行响应头，名称与去掉首尾空白的值以偏移量的形式记录
+     * @param src 行所在的数组
+     * @param offset 行起始位置
+     * @param lineLength 行长度，不包含行结束符
+     * @throws IOException 响应头总长度超过上限或者行中没有冒号
+     */
+    void addLine(byte[] src, int offset, int lineLength) throws IOException {
+        if (length + lineLength > maxSize) {
+            throw new IOException("Response headers exceed " + maxSize + " bytes");
+        }
+        int base = length;
+        this.append(src, offset, lineLength);
+        //查找冒号的同时计算名称不区分大小写的哈希值，查找响应头时不再重复计算
+        int colon = -1;
+        int hash = 0;
+        for (int i = 0; i < lineLength; i++) {
+            int b = data[base + i] & 0xff;
+            if (b == ':') {
+                colon = i;
+                break;
+            }
+            hash = 31 * hash + Headers.toLowerCase(b);
+        }
+        if (colon == -1) {
+            length = base;
+            throw new IOException("Malformed response header: " + new String(src, offset, lineLength, "ISO-8859-1"));
+        }
+        int nameEnd = colon;
+        int valueStart = colon + 1;
+        int valueEnd = lineLength;
+        while (valueStart < valueEnd && isWhitespace(data[base + valueStart])) {
+            valueStart++;
+        }
+        while (valueEnd > valueStart && isWhitespace(data[base + valueEnd - 1])) {
+            valueEnd--;
+        }
+        this.appendOffsets(base, base + nameEnd, base + valueStart, base + valueEnd, hash);
+    }
+
+    /**
+     * @return 已收集响应头的不可变副本
+     */
+    Headers build() {
+        byte[] bytes = new byte[length];
+        System.arraycopy(data, 0, bytes, 0, length);
+        int[] copy = new int[count * 4];
+        System.arraycopy(offsets, 0, copy, 0, copy.length);
+        int[] copyHashes = new int[count];
+        System.arraycopy(hashes, 0, copyHashes, 0, count);
+        return new Headers(bytes, copy, copyHashes, count);
+    }
+
+    static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+    private void append(byte[] src, int offset, int size) {
+        if (length + size > data.length) {
+            byte[] bigger = new byte[Math.max(data.length * 2, length + size)];
+            System.arraycopy(data, 0, bigger, 0, length);
+            data = bigger;
+        }
+        System.arraycopy(src, offset, data, length, size);
+        length += size;
+    }
+
+    private void appendOffsets(int nameStart, int nameEnd, int valueStart, int valueEnd, int hash) {
+        if ((count + 1) * 4 > offsets.length) {
+            int[] bigger = new int[offsets.length * 2];
+            System.arraycopy(offsets, 0, bigger, 0, count * 4);
+            offsets = bigger;
+            int[] biggerHashes = new int[hashes.length * 2];
+            System.arraycopy(hashes, 0, biggerHashes, 0, count);
+            hashes = biggerHashes;
+        }
+        hashes[count] = hash;
+        int base = count * 4;
+        offsets[base] = nameStart;
+        offsets[base + 1] = nameEnd;
+        offsets[base + 2] = valueStart;
+        offsets[base + 3] = valueEnd;
+        count++;
+    }
+}
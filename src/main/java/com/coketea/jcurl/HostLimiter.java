@@ -0,0 +1,306 @@
+package com.coketea.jcurl;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按host:port分别限制请求速率与并发数，在借用连接之前取得配额，保护下游服务与自身的延迟
+ * <p>
+ * 每个host:port有各自的{@link RateLimiter}与{@link ConcurrencyLimiter}，在第一次请求时按当前配置创建，
+ * 之后修改配置只对新出现的host:port生效。配额不足的请求最多排队{@link #setMaxWaitMillis(long)}，
+ * 仍然取不到时抛出{@link LimitExceededException}，请求不会被发出。
+ * 可以被多个HttpClient共享，通过{@link HttpClient#setHostLimiter(HostLimiter)}使用
+ */
+public class HostLimiter {
+
+    private final ConcurrentMap<String, Route> routes = new ConcurrentHashMap<String, Route>();
+
+    private volatile double permitsPerSecond;
+
+    private volatile int burst;
+
+    private volatile int initialConcurrency;
+
+    private volatile int minConcurrency;
+
+    private volatile int maxConcurrency;
+
+    private volatile long maxWaitMillis;
+
+    /**
+     * @param permitsPerSecond 每个host:port每秒最多发出的请求数，0表示不限速
+     * @param burst 允许的突发请求数
+     * @return 当前限制器，便于连续设置
+     */
+    public HostLimiter setRate(double permitsPerSecond, int burst) {
+        if (permitsPerSecond < 0) {
+            throw new IllegalArgumentException("permitsPerSecond must not be negative: " + permitsPerSecond);
+        }
+        if (permitsPerSecond > 0 && burst <= 0) {
+            throw new IllegalArgumentException("burst must be positive: " + burst);
+        }
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = burst;
+        return this;
+    }
+
+    /**
+     * @param initialLimit 每个host:port初始的并发限制，0表示不限制并发
+     * @param minLimit 自适应调整的下限
+     * @param maxLimit 自适应调整的上限
+     * @return 当前限制器，便于连续设置
+     */
+    public HostLimiter setConcurrency(int initialLimit, int minLimit, int maxLimit) {
+        if (initialLimit != 0) {
+            //参数不合法时在这里抛出，而不是在第一次请求时
+            new ConcurrencyLimiter(initialLimit, minLimit, maxLimit);
+        }
+        this.initialConcurrency = initialLimit;
+        this.minConcurrency = minLimit;
+        this.maxConcurrency = maxLimit;
+        return this;
+    }
+
+    /**
+     * @param maxWaitMillis 配额不足时最长的排队时间，0表示立即失败
+     * @return 当前限制器，便于连续设置
+     */
+    public HostLimiter setMaxWaitMillis(long maxWaitMillis) {
+        if (maxWaitMillis < 0) {
+            throw new IllegalArgumentException("maxWaitMillis must not be negative: " + maxWaitMillis);
+        }
+        this.maxWaitMillis = maxWaitMillis;
+        return this;
+    }
+
+    public long getMaxWaitMillis() {
+        return maxWaitMillis;
+    }
+
+    /**
+     * @return 该host:port的限速器，没有限速或者尚未有请求时返回null
+     */
+    public RateLimiter getRateLimiter(String host, int port) {
+        Route route = routes.get(host + ":" + port);
+        return route == null ? null : route.rate;
+    }
+
+    /**
+     * @return 该host:port的并发限制器，没有限制并发或者尚未有请求时返回null
+     */
+    public ConcurrencyLimiter getConcurrencyLimiter(String host, int port) {
+        Route route = routes.get(host + ":" + port);
+        return route == null ? null : route.concurrency;
+    }
+
+    private Route route(String host, int port) {
+        String key = host + ":" + port;
+        Route route = routes.get(key);
+        if (route == null) {
+            Route created = new Route(
+                    permitsPerSecond > 0 ? new RateLimiter(permitsPerSecond, burst) : null,
+                    initialConcurrency > 0
+                            ? new ConcurrencyLimiter(initialConcurrency, minConcurrency, maxConcurrency) : null);
+            route = routes.putIfAbsent(key, created);
+            if (route == null) {
+                route = created;
+            }
+        }
+        return route;
+    }
+
+    /**
+     * 为一次请求取得并发名额与速率令牌，并发名额在请求结束时通过返回的监听器归还
+     * @param listener 该次请求的监听器
+     * @param wait 为false时配额不足立即返回null，用于已经持有配额的批量请求，避免等待自己持有的名额
+     * @return 包装后的监听器，callEnd或callFailed时归还并发名额并按结果调整并发限制
+     * @throws LimitExceededException 最长等待时间内没有取得配额
+     * @throws IOException
+     */
+    EventListener acquire(String host, int port, EventListener listener, boolean wait) throws IOException {
+        return this.acquire(host, port, listener, wait, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param maxWaitMillis 排队时间的上限，实际排队不超过{@link #getMaxWaitMillis()}，用于限制在请求剩余的时间之内
+     * @see #acquire(String, int, EventListener, boolean)
+     */
+    EventListener acquire(String host, int port, EventListener listener, boolean wait, long maxWaitMillis)
+            throws IOException {
+        Route route = this.route(host, port);
+        long waitMillis = wait ? Math.min(this.maxWaitMillis, maxWaitMillis) : 0;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(waitMillis);
+        if (route.concurrency != null && !route.concurrency.tryAcquire(waitMillis)) {
+            return rejected(wait, "Concurrency limit " + route.concurrency.getLimit() + " reached for "
+                    + host + ":" + port);
+        }
+        boolean acquired = false;
+        try {
+            if (route.rate != null) {
+                long remaining = Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+                if (!route.rate.tryAcquire(remaining)) {
+                    return rejected(wait, "Rate limit reached for " + host + ":" + port);
+                }
+            }
+            acquired = true;
+        } finally {
+            if (!acquired && route.concurrency != null) {
+                route.concurrency.release();
+            }
+        }
+        return route.concurrency == null ? listener : new LimitedListener(route.concurrency, listener);
+    }
+
+    private static EventListener rejected(boolean wait, String message) throws LimitExceededException {
+        if (!wait) {
+            return null;
+        }
+        throw new LimitExceededException(message);
+    }
+
+    private static final class Route {
+
+        final RateLimiter rate;
+
+        final ConcurrencyLimiter concurrency;
+
+        Route(RateLimiter rate, ConcurrencyLimiter concurrency) {
+            this.rate = rate;
+            this.concurrency = concurrency;
+        }
+    }
+
+    /**
+     * 转发所有事件，请求结束时归还并发名额：以请求写出到收到响应头的时间作为延迟样本，
+     * 429、503、超时与连接失败视为下游过载，取消与本地的连接池等待超时不调整限制
+     */
+    private static final class LimitedListener extends EventListener {
+
+        private final ConcurrencyLimiter limiter;
+
+        private final EventListener delegate;
+
+        private boolean sent;
+
+        private long sentAt;
+
+        private long latencyNanos = -1;
+
+        private boolean overloaded;
+
+        private boolean released;
+
+        LimitedListener(ConcurrencyLimiter limiter, EventListener delegate) {
+            this.limiter = limiter;
+            this.delegate = delegate;
+        }
+
+        private void release(Exception cause) {
+            if (released) {
+                return;
+            }
+            released = true;
+            if (cause instanceof CallCanceledException || cause instanceof ConnectionPoolTimeoutException) {
+                limiter.release();
+            } else if (cause instanceof IOException || overloaded) {
+                limiter.onDropped();
+            } else if (cause == null && latencyNanos >= 0) {
+                limiter.onSuccess(latencyNanos);
+            } else {
+                limiter.release();
+            }
+        }
+
+        @Override
+        public void callStart(Request request, long nanoTime) {
+            delegate.callStart(request, nanoTime);
+        }
+
+        @Override
+        public void dnsStart(String host, long nanoTime) {
+            delegate.dnsStart(host, nanoTime);
+        }
+
+        @Override
+        public void dnsEnd(String host, InetAddress address, long nanoTime) {
+            delegate.dnsEnd(host, address, nanoTime);
+        }
+
+        @Override
+        public void connectStart(InetSocketAddress address, long nanoTime) {
+            delegate.connectStart(address, nanoTime);
+        }
+
+        @Override
+        public void connectEnd(InetSocketAddress address, long nanoTime) {
+            delegate.connectEnd(address, nanoTime);
+        }
+
+        @Override
+        public void connectFailed(InetSocketAddress address, IOException cause, long nanoTime) {
+            delegate.connectFailed(address, cause, nanoTime);
+        }
+
+        @Override
+        public void secureConnectStart(long nanoTime) {
+            delegate.secureConnectStart(nanoTime);
+        }
+
+        @Override
+        public void secureConnectEnd(String protocol, String applicationProtocol, boolean resumed, long nanoTime) {
+            delegate.secureConnectEnd(protocol, applicationProtocol, resumed, nanoTime);
+        }
+
+        @Override
+        public void poolAcquire(boolean reused, long nanoTime) {
+            delegate.poolAcquire(reused, nanoTime);
+        }
+
+        @Override
+        public void requestHeadersSent(long headerBytes, long bodyBytes, long nanoTime) {
+            sent = true;
+            sentAt = nanoTime;
+            delegate.requestHeadersSent(headerBytes, bodyBytes, nanoTime);
+        }
+
+        @Override
+        public void firstByte(long nanoTime) {
+            delegate.firstByte(nanoTime);
+        }
+
+        @Override
+        public void responseHeadersEnd(int code, long nanoTime) {
+            if (sent) {
+                latencyNanos = nanoTime - sentAt;
+            }
+            overloaded = code == 429 || code == 503;
+            delegate.responseHeadersEnd(code, nanoTime);
+        }
+
+        @Override
+        public void bodyEnd(long bodyBytes, long nanoTime) {
+            delegate.bodyEnd(bodyBytes, nanoTime);
+        }
+
+        @Override
+        public void poolRelease(boolean reusable, long nanoTime) {
+            delegate.poolRelease(reusable, nanoTime);
+        }
+
+        @Override
+        public void callEnd(long nanoTime) {
+            this.release(null);
+            delegate.callEnd(nanoTime);
+        }
+
+        @Override
+        public void callFailed(Exception cause, long nanoTime) {
+            this.release(cause);
+            delegate.callFailed(cause, nanoTime);
+        }
+    }
+}
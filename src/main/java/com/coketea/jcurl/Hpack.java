@@ -0,0 +1,322 @@
+package com.coketea.jcurl;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * HPACK(RFC 7541)的静态表、动态表与整数、字符串字面量编码，由{@link HpackEncoder}与{@link HpackDecoder}共用
+ */
+final class Hpack {
+
+    static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    /**
+     * SETTINGS_HEADER_TABLE_SIZE的默认值，也是我们向服务器端声明的解码表大小
+     */
+    static final int DEFAULT_TABLE_SIZE = 4096;
+
+    /**
+     * 每个表项在名称与值之外额外计入的字节数
+     */
+    static final int ENTRY_OVERHEAD = 32;
+
+    /**
+     * 静态表，下标从1开始，0号位置不使用
+     */
+    static final String[][] STATIC_TABLE = {
+            null,
+            {":authority", ""},
+            {":method", "GET"},
+            {":method", "POST"},
+            {":path", "/"},
+            {":path", "/index.html"},
+            {":scheme", "http"},
+            {":scheme", "https"},
+            {":status", "200"},
+            {":status", "204"},
+            {":status", "206"},
+            {":status", "304"},
+            {":status", "400"},
+            {":status", "404"},
+            {":status", "500"},
+            {"accept-charset", ""},
+            {"accept-encoding", "gzip, deflate"},
+            {"accept-language", ""},
+            {"accept-ranges", ""},
+            {"accept", ""},
+            {"access-control-allow-origin", ""},
+            {"age", ""},
+            {"allow", ""},
+            {"authorization", ""},
+            {"cache-control", ""},
+            {"content-disposition", ""},
+            {"content-encoding", ""},
+            {"content-language", ""},
+            {"content-length", ""},
+            {"content-location", ""},
+            {"content-range", ""},
+            {"content-type", ""},
+            {"cookie", ""},
+            {"date", ""},
+            {"etag", ""},
+            {"expect", ""},
+            {"expires", ""},
+            {"from", ""},
+            {"host", ""},
+            {"if-match", ""},
+            {"if-modified-since", ""},
+            {"if-none-match", ""},
+            {"if-range", ""},
+            {"if-unmodified-since", ""},
+            {"last-modified", ""},
+            {"link", ""},
+            {"location", ""},
+            {"max-forwards", ""},
+            {"proxy-authenticate", ""},
+            {"proxy-authorization", ""},
+            {"range", ""},
+            {"referer", ""},
+            {"refresh", ""},
+            {"retry-after", ""},
+            {"server", ""},
+            {"set-cookie", ""},
+            {"strict-transport-security", ""},
+            {"transfer-encoding", ""},
+            {"user-agent", ""},
+            {"vary", ""},
+            {"via", ""},
+            {"www-authenticate", ""}
+    };
+
+    static final int STATIC_TABLE_LENGTH = STATIC_TABLE.length - 1;
+
+    /**
+     * 名称到静态表中第一个同名表项的下标
+     */
+    static final Map<String, Integer> STATIC_NAME_INDEX = new HashMap<String, Integer>();
+
+    /**
+     * 名称与值都不为空的静态表项，键为"名称\0值"
+     */
+    static final Map<String, Integer> STATIC_ENTRY_INDEX = new HashMap<String, Integer>();
+
+    static {
+        for (int i = STATIC_TABLE_LENGTH; i >= 1; i--) {
+            STATIC_NAME_INDEX.put(STATIC_TABLE[i][0], i);
+            if (STATIC_TABLE[i][1].length() > 0) {
+                STATIC_ENTRY_INDEX.put(STATIC_TABLE[i][0] + '\0' + STATIC_TABLE[i][1], i);
+            }
+        }
+    }
+
+    private Hpack() {
+    }
+
+    /**
+     * 按N位前缀编码整数
+     * @param value 非负整数
+     * @param prefixBits 前缀的位数
+     * @param flags 第一个字节中前缀以外的高位
+     * @param out 目标缓冲区
+     */
+    static void writeInt(int value, int prefixBits, int flags, BodyBuffer out) {
+        out.ensureWritable(6);
+        byte[] array = out.array();
+        int position = out.size();
+        int max = (1 << prefixBits) - 1;
+        if (value < max) {
+            array[position++] = (byte) (flags | value);
+        } else {
+            array[position++] = (byte) (flags | max);
+            value -= max;
+            while (value >= 0x80) {
+                array[position++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            array[position++] = (byte) value;
+        }
+        out.advance(position - out.size());
+    }
+
+    /**
+     * 编码字符串字面量，Huffman编码更短时使用Huffman编码
+     */
+    static void writeString(byte[] value, BodyBuffer out) {
+        int huffmanLength = Huffman.encodedLength(value);
+        if (huffmanLength < value.length) {
+            writeInt(huffmanLength, 7, 0x80, out);
+            out.ensureWritable(huffmanLength);
+            Huffman.encode(value, out);
+        } else {
+            writeInt(value.length, 7, 0, out);
+            out.write(value, 0, value.length);
+        }
+    }
+
+    /**
+     * 逐字节读取头部块的游标
+     */
+    static final class Reader {
+
+        private final byte[] data;
+
+        private int position;
+
+        private final int limit;
+
+        Reader(byte[] data, int offset, int length) {
+            this.data = data;
+            this.position = offset;
+            this.limit = offset + length;
+        }
+
+        boolean hasRemaining() {
+            return position < limit;
+        }
+
+        int peek() {
+            return data[position] & 0xff;
+        }
+
+        private int readByte() throws IOException {
+            if (position >= limit) {
+                throw new IOException("Truncated HPACK header block");
+            }
+            return data[position++] & 0xff;
+        }
+
+        /**
+         * 读取N位前缀编码的整数，第一个字节中前缀以外的高位被忽略
+         */
+        int readInt(int prefixBits) throws IOException {
+            int max = (1 << prefixBits) - 1;
+            int value = this.readByte() & max;
+            if (value < max) {
+                return value;
+            }
+            int shift = 0;
+            while (true) {
+                int b = this.readByte();
+                if (shift > 21) {
+                    throw new IOException("HPACK integer overflow");
+                }
+                value += (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+                shift += 7;
+            }
+        }
+
+        String readString() throws IOException {
+            boolean huffman = (this.peek() & 0x80) != 0;
+            int length = this.readInt(7);
+            if (length > limit - position) {
+                throw new IOException("Truncated HPACK string literal");
+            }
+            String value;
+            if (huffman) {
+                value = new String(Huffman.decode(data, position, length), ISO_8859_1);
+            } else {
+                value = new String(data, position, length, ISO_8859_1);
+            }
+            position += length;
+            return value;
+        }
+    }
+
+    /**
+     * 动态表，新加入的表项下标最小，超过容量时淘汰最早加入的表项
+     */
+    static final class DynamicTable {
+
+        private String[] names = new String[16];
+
+        private String[] values = new String[16];
+
+        /**
+         * 最早加入的表项在环形数组中的位置
+         */
+        private int head;
+
+        private int count;
+
+        private int size;
+
+        private int maxSize;
+
+        DynamicTable(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        int length() {
+            return count;
+        }
+
+        /**
+         * @param index 从0开始的动态表下标，0为最新的表项
+         */
+        String name(int index) {
+            return names[(head + count - 1 - index) & (names.length - 1)];
+        }
+
+        String value(int index) {
+            return values[(head + count - 1 - index) & (values.length - 1)];
+        }
+
+        void add(String name, String value) {
+            int entrySize = entrySize(name, value);
+            if (entrySize > maxSize) {
+                //放不下的表项清空整个表
+                this.evict(0);
+                return;
+            }
+            this.evict(maxSize - entrySize);
+            if (count == names.length) {
+                this.grow();
+            }
+            int slot = (head + count) & (names.length - 1);
+            names[slot] = name;
+            values[slot] = value;
+            count++;
+            size += entrySize;
+        }
+
+        void setMaxSize(int maxSize) {
+            this.maxSize = maxSize;
+            this.evict(maxSize);
+        }
+
+        int maxSize() {
+            return maxSize;
+        }
+
+        private void evict(int targetSize) {
+            while (size > targetSize && count > 0) {
+                size -= entrySize(names[head], values[head]);
+                names[head] = null;
+                values[head] = null;
+                head = (head + 1) & (names.length - 1);
+                count--;
+            }
+        }
+
+        private void grow() {
+            String[] newNames = new String[names.length * 2];
+            String[] newValues = new String[values.length * 2];
+            for (int i = 0; i < count; i++) {
+                newNames[i] = names[(head + i) & (names.length - 1)];
+                newValues[i] = values[(head + i) & (values.length - 1)];
+            }
+            names = newNames;
+            values = newValues;
+            head = 0;
+        }
+
+        private static int entrySize(String name, String value) {
+            return name.length() + value.length() + ENTRY_OVERHEAD;
+        }
+    }
+}
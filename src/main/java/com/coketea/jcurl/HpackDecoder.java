@@ -0,0 +1,82 @@
+package com.coketea.jcurl;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * HPACK头部块解码器，每条连接一个；所有头部块必须按收到的顺序解码，包括已经被取消的流上的头部块
+ */
+class HpackDecoder {
+
+    private final Hpack.DynamicTable table = new Hpack.DynamicTable(Hpack.DEFAULT_TABLE_SIZE);
+
+    /**
+     * 解码一个完整的头部块
+     * @param block 头部块
+     * @param offset 起始位置
+     * @param length 字节数
+     * @param out 依次追加名称与值，都以ISO-8859-1保存原始字节
+     * @throws IOException 头部块不合法，连接必须以COMPRESSION_ERROR关闭
+     */
+    void decode(byte[] block, int offset, int length, List<String> out) throws IOException {
+        Hpack.Reader reader = new Hpack.Reader(block, offset, length);
+        boolean headerSeen = false;
+        while (reader.hasRemaining()) {
+            int b = reader.peek();
+            if ((b & 0x80) != 0) {
+                int index = reader.readInt(7);
+                out.add(this.name(index));
+                out.add(this.value(index));
+            } else if ((b & 0x40) != 0) {
+                String name = this.literalName(reader, 6);
+                String value = reader.readString();
+                out.add(name);
+                out.add(value);
+                table.add(name, value);
+            } else if ((b & 0x20) != 0) {
+                if (headerSeen) {
+                    throw new IOException("HPACK table size update after header field");
+                }
+                int size = reader.readInt(5);
+                if (size > Hpack.DEFAULT_TABLE_SIZE) {
+                    throw new IOException("HPACK table size update exceeds limit: " + size);
+                }
+                table.setMaxSize(size);
+                continue;
+            } else {
+                //不索引与永不索引的字面量，对解码方没有区别
+                String name = this.literalName(reader, 4);
+                out.add(name);
+                out.add(reader.readString());
+            }
+            headerSeen = true;
+        }
+    }
+
+    private String literalName(Hpack.Reader reader, int prefixBits) throws IOException {
+        int index = reader.readInt(prefixBits);
+        return index == 0 ? reader.readString() : this.name(index);
+    }
+
+    private String name(int index) throws IOException {
+        if (index >= 1 && index <= Hpack.STATIC_TABLE_LENGTH) {
+            return Hpack.STATIC_TABLE[index][0];
+        }
+        return table.name(this.dynamicIndex(index));
+    }
+
+    private String value(int index) throws IOException {
+        if (index >= 1 && index <= Hpack.STATIC_TABLE_LENGTH) {
+            return Hpack.STATIC_TABLE[index][1];
+        }
+        return table.value(this.dynamicIndex(index));
+    }
+
+    private int dynamicIndex(int index) throws IOException {
+        int dynamic = index - Hpack.STATIC_TABLE_LENGTH - 1;
+        if (dynamic < 0 || dynamic >= table.length()) {
+            throw new IOException("Invalid HPACK index: " + index);
+        }
+        return dynamic;
+    }
+}
@@ -0,0 +1,109 @@
+package com.coketea.jcurl;
+
+/**
+ * HPACK头部块编码器，每条连接一个，编码结果依赖动态表的状态，只能在持有连接写锁时按发送顺序使用
+ * <p>
+ * 静态表或动态表中已有的完整表项编码为一个下标；:path、content-length这类每次都不同的值不进入动态表，
+ * 避免挤掉可以复用的表项；authorization等敏感的值以"永不索引"的方式发送，中间代理也不会缓存它们
+ */
+class HpackEncoder {
+
+    private final Hpack.DynamicTable table = new Hpack.DynamicTable(Hpack.DEFAULT_TABLE_SIZE);
+
+    /**
+     * 下一个头部块开头需要发出的表大小更新，-1表示没有
+     */
+    private int pendingSize = -1;
+
+    /**
+     * 两个头部块之间表大小先减小再增大时，必须先发出其中的最小值
+     */
+    private int pendingMinSize = Integer.MAX_VALUE;
+
+    /**
+     * 服务器端通过SETTINGS_HEADER_TABLE_SIZE声明了它的解码表大小
+     * @param peerMaxSize 服务器端允许的最大值，实际使用的不超过默认的4096
+     */
+    void setMaxTableSize(int peerMaxSize) {
+        int size = Math.min(peerMaxSize, Hpack.DEFAULT_TABLE_SIZE);
+        if (size == table.maxSize() && pendingSize == -1) {
+            return;
+        }
+        pendingMinSize = Math.min(pendingMinSize, size);
+        pendingSize = size;
+        table.setMaxSize(size);
+    }
+
+    /**
+     * 开始一个新的头部块，需要时写入表大小更新
+     */
+    void beginBlock(BodyBuffer out) {
+        if (pendingSize == -1) {
+            return;
+        }
+        if (pendingMinSize < pendingSize) {
+            Hpack.writeInt(pendingMinSize, 5, 0x20, out);
+        }
+        Hpack.writeInt(pendingSize, 5, 0x20, out);
+        pendingSize = -1;
+        pendingMinSize = Integer.MAX_VALUE;
+    }
+
+    /**
+     * 编码一个请求头
+     * @param name 小写的名称
+     * @param value 以ISO-8859-1保存原始字节的值
+     * @param out 目标缓冲区
+     */
+    void encode(String name, String value, BodyBuffer out) {
+        Integer staticIndex = Hpack.STATIC_ENTRY_INDEX.get(name + '\0' + value);
+        if (staticIndex != null) {
+            Hpack.writeInt(staticIndex, 7, 0x80, out);
+            return;
+        }
+        int nameIndex = 0;
+        Integer staticName = Hpack.STATIC_NAME_INDEX.get(name);
+        if (staticName != null) {
+            nameIndex = staticName;
+        }
+        boolean sensitive = isSensitive(name);
+        if (!sensitive) {
+            for (int i = 0; i < table.length(); i++) {
+                if (table.name(i).equals(name)) {
+                    if (table.value(i).equals(value)) {
+                        Hpack.writeInt(Hpack.STATIC_TABLE_LENGTH + 1 + i, 7, 0x80, out);
+                        return;
+                    }
+                    if (nameIndex == 0) {
+                        nameIndex = Hpack.STATIC_TABLE_LENGTH + 1 + i;
+                    }
+                }
+            }
+        }
+        if (sensitive) {
+            Hpack.writeInt(nameIndex, 4, 0x10, out);
+        } else if (isVolatile(name)) {
+            Hpack.writeInt(nameIndex, 4, 0x00, out);
+        } else {
+            Hpack.writeInt(nameIndex, 6, 0x40, out);
+            table.add(name, value);
+        }
+        if (nameIndex == 0) {
+            Hpack.writeString(name.getBytes(Hpack.ISO_8859_1), out);
+        }
+        Hpack.writeString(value.getBytes(Hpack.ISO_8859_1), out);
+    }
+
+    private static boolean isSensitive(String name) {
+        return name.equals("authorization") || name.equals("proxy-authorization") || name.equals("cookie")
+                || name.equals("set-cookie");
+    }
+
+    /**
+     * @return 值几乎每次都不同，进入动态表也不会被复用
+     */
+    private static boolean isVolatile(String name) {
+        return name.equals(":path") || name.equals("content-length") || name.equals("range")
+                || name.equals("if-none-match") || name.equals("if-modified-since") || name.equals("if-range");
+    }
+}
@@ -0,0 +1,231 @@
+package com.coketea.jcurl;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * 流式读取HTTP/2响应报文体，数据来自读线程缓存的DATA帧
+ * <p>
+ * 读到流结束时请求结束，提前关闭时发送RST_STREAM取消流，连接本身不受影响
+ */
+class Http2BodyInputStream extends BodyInputStream {
+
+    private static final int TRANSFER_BUFFER_SIZE = 64 * 1024;
+
+    private final Http2Stream stream;
+
+    private final Call call;
+
+    private final EventListener listener;
+
+    private final long readTimeoutMillis;
+
+    /**
+     * Content-Length声明的长度，没有声明时为-1
+     */
+    private final long contentLength;
+
+    private long bodyBytes;
+
+    private boolean finished;
+
+    private boolean closed;
+
+    /**
+     * @param stream 已经收到响应头的流
+     * @param method 请求方法，HEAD请求没有报文体
+     * @param call 流所属的请求，报文体结束时随之结束
+     * @param listener 报文体结束时接收bodyEnd、poolRelease与callEnd或callFailed事件
+     * @param readTimeoutMillis 等待数据的超时时间，0表示一直等待
+     */
+    Http2BodyInputStream(Http2Stream stream, String method, Call call, EventListener listener,
+                         long readTimeoutMillis) {
+        this.stream = stream;
+        this.call = call;
+        this.listener = listener;
+        this.readTimeoutMillis = readTimeoutMillis;
+        long length = -1;
+        if (!"HEAD".equals(method)) {
+            String value = stream.getHeaders().get(Constance.HTTP_RESPONSE_HEADER_KEY_CONTENT_LENGTH);
+            if (value != null) {
+                try {
+                    length = Long.parseLong(value.trim());
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        }
+        this.contentLength = length;
+    }
+
+    @Override
+    long getRemainingLength() {
+        return contentLength >= 0 ? Math.max(0, contentLength - bodyBytes) : -1;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        int count = this.read(single, 0, 1);
+        return count == -1 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Response body stream is closed");
+        }
+        if (finished) {
+            return -1;
+        }
+        if (len == 0) {
+            return 0;
+        }
+        try {
+            int count = stream.read(b, off, len, readTimeoutMillis);
+            if (count == -1) {
+                if (contentLength >= 0 && bodyBytes < contentLength) {
+                    throw new EOFException("Stream ended before end of response body");
+                }
+                this.finish();
+            } else {
+                bodyBytes += count;
+            }
+            return count;
+        } catch (IOException e) {
+            throw this.fail(e);
+        }
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (closed) {
+            throw new ClosedChannelException();
+        }
+        if (!dst.hasRemaining()) {
+            return 0;
+        }
+        if (dst.hasArray()) {
+            int count = this.read(dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+            if (count > 0) {
+                dst.position(dst.position() + count);
+            }
+            return count;
+        }
+        byte[] buffer = this.getBufferPool().acquire(Math.min(dst.remaining(), TRANSFER_BUFFER_SIZE));
+        try {
+            int count = this.read(buffer, 0, Math.min(dst.remaining(), buffer.length));
+            if (count > 0) {
+                dst.put(buffer, 0, count);
+            }
+            return count;
+        } finally {
+            this.getBufferPool().release(buffer);
+        }
+    }
+
+    @Override
+    long consume(BodyConsumer consumer) throws IOException {
+        long total = 0;
+        byte[] buffer = this.getBufferPool().acquire(TRANSFER_BUFFER_SIZE);
+        try {
+            int count;
+            while ((count = this.read(buffer, 0, buffer.length)) != -1) {
+                consumer.accept(ByteBuffer.wrap(buffer, 0, count).slice().asReadOnlyBuffer());
+                total += count;
+            }
+            return total;
+        } catch (RuntimeException e) {
+            this.abort(e);
+            throw e;
+        } finally {
+            this.getBufferPool().release(buffer);
+        }
+    }
+
+    @Override
+    long transferTo(WritableByteChannel target) throws IOException {
+        long total = 0;
+        byte[] buffer = this.getBufferPool().acquire(TRANSFER_BUFFER_SIZE);
+        try {
+            int count;
+            while ((count = this.read(buffer, 0, buffer.length)) != -1) {
+                ByteBuffer slice = ByteBuffer.wrap(buffer, 0, count);
+                while (slice.hasRemaining()) {
+                    target.write(slice);
+                }
+                total += count;
+            }
+            return total;
+        } catch (IOException e) {
+            this.abort(e);
+            throw e;
+        } catch (RuntimeException e) {
+            this.abort(e);
+            throw e;
+        } finally {
+            this.getBufferPool().release(buffer);
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !closed;
+    }
+
+    @Override
+    BufferPool getBufferPool() {
+        return stream.getConnection().getBufferPool();
+    }
+
+    /**
+     * 流已经结束，连接继续被其他流使用
+     */
+    private void finish() {
+        if (!finished) {
+            finished = true;
+            listener.bodyEnd(bodyBytes, System.nanoTime());
+            call.detach();
+            long now = System.nanoTime();
+            listener.poolRelease(true, now);
+            listener.callEnd(now);
+            call.end();
+        }
+    }
+
+    private IOException fail(IOException e) {
+        IOException failure = call.translate(e);
+        this.abort(failure);
+        return failure;
+    }
+
+    /**
+     * 报文体读取出错或者提前关闭，取消流
+     * @param cause 读取出错的原因，调用方主动关闭时为null
+     */
+    private void abort(Exception cause) {
+        if (!finished) {
+            finished = true;
+            call.detach();
+            stream.cancel();
+            long now = System.nanoTime();
+            listener.poolRelease(false, now);
+            if (cause == null) {
+                listener.callEnd(now);
+            } else {
+                listener.callFailed(cause, now);
+            }
+            call.end();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            this.abort(null);
+            closed = true;
+        }
+    }
+}
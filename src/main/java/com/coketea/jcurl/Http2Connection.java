@@ -0,0 +1,1052 @@
+package com.coketea.jcurl;
+
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 以prior knowledge方式(h2c)或者经ALPN协商(h2)建立的HTTP/2连接，所有请求作为多路复用的流在这一条连接上并发发送
+ * <p>
+ * 后台读线程解析所有帧并分发给对应的流；发送方在写锁内分配流编号并编码HEADERS，
+ * 因此流编号递增的顺序、HPACK动态表的状态都与帧在连接上的顺序一致。
+ * 接收窗口在应用读取报文体之后才通过WINDOW_UPDATE归还，读取缓慢的流最多缓存一个流窗口的数据。
+ * 锁的顺序固定为先写锁后{@link #lock}，持有{@link #lock}时不做任何阻塞的写
+ */
+class Http2Connection {
+
+    static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(Hpack.ISO_8859_1);
+
+    static final int TYPE_DATA = 0x0;
+
+    static final int TYPE_HEADERS = 0x1;
+
+    static final int TYPE_PRIORITY = 0x2;
+
+    static final int TYPE_RST_STREAM = 0x3;
+
+    static final int TYPE_SETTINGS = 0x4;
+
+    static final int TYPE_PUSH_PROMISE = 0x5;
+
+    static final int TYPE_PING = 0x6;
+
+    static final int TYPE_GOAWAY = 0x7;
+
+    static final int TYPE_WINDOW_UPDATE = 0x8;
+
+    static final int TYPE_CONTINUATION = 0x9;
+
+    static final int FLAG_END_STREAM = 0x1;
+
+    static final int FLAG_ACK = 0x1;
+
+    static final int FLAG_END_HEADERS = 0x4;
+
+    static final int FLAG_PADDED = 0x8;
+
+    static final int FLAG_PRIORITY = 0x20;
+
+    static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+
+    static final int SETTINGS_ENABLE_PUSH = 0x2;
+
+    static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+
+    static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+
+    static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+
+    static final int FRAME_HEADER_SIZE = 9;
+
+    static final int DEFAULT_WINDOW_SIZE = 65535;
+
+    static final int DEFAULT_MAX_FRAME_SIZE = 16384;
+
+    /**
+     * 每个流的接收窗口，通过SETTINGS_INITIAL_WINDOW_SIZE声明
+     */
+    static final int STREAM_WINDOW_SIZE = 1024 * 1024;
+
+    /**
+     * 连接的接收窗口，建立连接后立即通过WINDOW_UPDATE从默认值扩大
+     */
+    static final int CONNECTION_WINDOW_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * 头部块(HEADERS与CONTINUATION)的最大长度
+     */
+    private static final int MAX_HEADER_BLOCK_SIZE = 256 * 1024;
+
+    private final String authority;
+
+    /**
+     * 明文连接的通道，TLS连接为null
+     */
+    private final SocketChannel channel;
+
+    /**
+     * TLS连接的缓冲输出流，帧写入后刷新，明文连接为null
+     */
+    private final BufferedOutputStream secureOut;
+
+    private final WritableByteChannel secureChannel;
+
+    /**
+     * 读写使用的socket，TLS连接为{@link javax.net.ssl.SSLSocket}
+     */
+    private final Socket socket;
+
+    /**
+     * 底层的TCP socket，出错时直接关闭以中断阻塞的读写
+     */
+    private final Socket rawSocket;
+
+    private final InputStream in;
+
+    private final BufferPool bufferPool;
+
+    /**
+     * 保护连接与所有流的状态
+     */
+    final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * 并发流数低于服务器端的上限时通知
+     */
+    private final Condition slotAvailable = lock.newCondition();
+
+    /**
+     * 连接或者流的发送窗口增大、流结束时通知
+     */
+    final Condition windowAvailable = lock.newCondition();
+
+    /**
+     * 收到服务器端连接前言中的SETTINGS时通知
+     */
+    private final Condition settingsAvailable = lock.newCondition();
+
+    /**
+     * 已经收到服务器端的第一个SETTINGS，并发流数与窗口大小已知
+     */
+    private boolean settingsReceived;
+
+    private final Map<Integer, Http2Stream> streams = new HashMap<Integer, Http2Stream>();
+
+    /**
+     * 已经预留并发名额、尚未分配编号的流
+     */
+    private int pendingStreams;
+
+    private int nextStreamId = 1;
+
+    private int peerMaxConcurrentStreams = Integer.MAX_VALUE;
+
+    private int peerInitialWindowSize = DEFAULT_WINDOW_SIZE;
+
+    private int peerMaxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+
+    /**
+     * 连接的发送窗口
+     */
+    private long sendWindow = DEFAULT_WINDOW_SIZE;
+
+    /**
+     * 应用已经读取、尚未归还的连接接收窗口
+     */
+    private int unacknowledged;
+
+    /**
+     * 收到GOAWAY或者本地关闭，不再创建新的流
+     */
+    private boolean shutdown;
+
+    private IOException failure;
+
+    private final Object writeLock = new Object();
+
+    /**
+     * 以下字段只在写锁内访问
+     */
+    private final HpackEncoder encoder = new HpackEncoder();
+
+    private BodyBuffer headerBlockOut;
+
+    private final ByteBuffer frameHeaderOut = ByteBuffer.allocate(FRAME_HEADER_SIZE);
+
+    /**
+     * 以下字段只由读线程访问
+     */
+    private final HpackDecoder decoder = new HpackDecoder();
+
+    private final byte[] frameHeaderIn = new byte[FRAME_HEADER_SIZE];
+
+    private byte[] payload;
+
+    private BodyBuffer headerBlockIn;
+
+    /**
+     * 等待CONTINUATION的流编号，0表示没有未结束的头部块
+     */
+    private int continuationStreamId;
+
+    private boolean continuationEndStream;
+
+    private Http2Connection(String host, int port, SocketChannel channel, Socket secure, BufferPool bufferPool)
+            throws IOException {
+        this.authority = port == (secure == null ? 80 : 443) ? host : host + ":" + port;
+        this.rawSocket = channel.socket();
+        if (secure == null) {
+            this.socket = rawSocket;
+            this.channel = channel;
+            this.secureOut = null;
+            this.secureChannel = null;
+        } else {
+            this.socket = secure;
+            this.channel = null;
+            this.secureOut = new BufferedOutputStream(secure.getOutputStream(), HttpConnection.TLS_WRITE_BUFFER_SIZE);
+            this.secureChannel = Channels.newChannel(secureOut);
+        }
+        this.in = socket.getInputStream();
+        this.bufferPool = bufferPool;
+        this.headerBlockOut = new BodyBuffer(bufferPool, 1024);
+        this.headerBlockIn = new BodyBuffer(bufferPool, 1024);
+        this.payload = bufferPool.acquire(DEFAULT_MAX_FRAME_SIZE);
+    }
+
+    /**
+     * 在已连接的通道上发送连接前言与SETTINGS并启动读线程
+     * @param host 服务器地址
+     * @param port 服务器端口
+     * @param channel 已连接的阻塞模式通道
+     * @param bufferPool 帧缓冲区与报文体缓冲区从这里借出
+     * @param timeoutMillis 等待服务器端SETTINGS的时间，0表示一直等待
+     * @return 已经收到服务器端SETTINGS、可以创建流的连接
+     * @throws ConnectTimeoutException 超时之前没有收到服务器端的SETTINGS
+     * @throws IOException
+     */
+    static Http2Connection open(String host, int port, SocketChannel channel, BufferPool bufferPool,
+                                int timeoutMillis) throws IOException {
+        return open(host, port, channel, null, bufferPool, timeoutMillis);
+    }
+
+    /**
+     * @param secure 在channel上完成握手且ALPN协商为h2的TLS socket，为null时以明文发送
+     * @see #open(String, int, SocketChannel, BufferPool, int)
+     */
+    static Http2Connection open(String host, int port, SocketChannel channel, Socket secure, BufferPool bufferPool,
+                                int timeoutMillis) throws IOException {
+        Http2Connection connection;
+        try {
+            channel.socket().setTcpNoDelay(true);
+            channel.socket().setKeepAlive(true);
+            connection = new Http2Connection(host, port, channel, secure, bufferPool);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        try {
+            connection.start();
+            connection.awaitSettings(timeoutMillis);
+        } catch (IOException e) {
+            connection.close();
+            throw e;
+        }
+        return connection;
+    }
+
+    private void start() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(PREFACE.length + FRAME_HEADER_SIZE * 2 + 12 + 4);
+        buffer.put(PREFACE);
+        putFrameHeader(buffer, 12, TYPE_SETTINGS, 0, 0);
+        buffer.putShort((short) SETTINGS_ENABLE_PUSH).putInt(0);
+        buffer.putShort((short) SETTINGS_INITIAL_WINDOW_SIZE).putInt(STREAM_WINDOW_SIZE);
+        putFrameHeader(buffer, 4, TYPE_WINDOW_UPDATE, 0, 0);
+        buffer.putInt(CONNECTION_WINDOW_SIZE - DEFAULT_WINDOW_SIZE);
+        buffer.flip();
+        synchronized (writeLock) {
+            this.write(buffer);
+        }
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                readLoop();
+            }
+        }, "jcurl-h2-reader-" + authority);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * 等待服务器端的连接前言，之前创建的流无法遵守服务器端的并发流数上限
+     */
+    private void awaitSettings(int timeoutMillis) throws IOException {
+        lock.lock();
+        try {
+            long remainingNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            while (!settingsReceived) {
+                if (failure != null) {
+                    throw failure;
+                }
+                if (timeoutMillis == 0) {
+                    settingsAvailable.await();
+                } else if (remainingNanos <= 0) {
+                    throw new ConnectTimeoutException("No HTTP/2 SETTINGS from " + authority + " after "
+                            + timeoutMillis + "ms", null);
+                } else {
+                    remainingNanos = settingsAvailable.awaitNanos(remainingNanos);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for HTTP/2 SETTINGS");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    String getAuthority() {
+        return authority;
+    }
+
+    BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * @return 连接仍然可以创建新的流
+     */
+    boolean isUsable() {
+        lock.lock();
+        try {
+            return !shutdown && failure == null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 打开一个新的流并发送请求头，并发流数达到服务器端的上限时等待
+     * @param headers 小写的名称与值交替排列，伪头部在前，值以ISO-8859-1保存原始字节
+     * @param endStream 请求没有报文体，请求头之后流的发送方向即结束
+     * @return 新的流
+     * @throws Http2Exception 连接已经关闭或者收到了GOAWAY，{@link Http2Exception#isRefused()}为true，可以在新连接上重试
+     * @throws IOException 写出请求头失败，连接已经被关闭
+     */
+    Http2Stream newStream(List<String> headers, boolean endStream) throws IOException {
+        lock.lock();
+        try {
+            while (true) {
+                this.checkUsable();
+                if (streams.size() + pendingStreams < peerMaxConcurrentStreams) {
+                    pendingStreams++;
+                    break;
+                }
+                try {
+                    slotAvailable.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted waiting for HTTP/2 stream");
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        synchronized (writeLock) {
+            Http2Stream stream;
+            lock.lock();
+            try {
+                pendingStreams--;
+                slotAvailable.signal();
+                this.checkUsable();
+                stream = new Http2Stream(this, nextStreamId, peerInitialWindowSize);
+                nextStreamId += 2;
+                if (nextStreamId < 0) {
+                    //流编号用尽，之后的请求使用新连接
+                    shutdown = true;
+                }
+                streams.put(stream.id, stream);
+            } finally {
+                lock.unlock();
+            }
+            BodyBuffer block = headerBlockOut;
+            block.clear();
+            encoder.beginBlock(block);
+            for (int i = 0; i < headers.size(); i += 2) {
+                encoder.encode(headers.get(i), headers.get(i + 1), block);
+            }
+            stream.setHeaderBytes(block.size());
+            try {
+                int offset = 0;
+                int type = TYPE_HEADERS;
+                do {
+                    int length = Math.min(block.size() - offset, peerMaxFrameSize);
+                    int flags = offset + length == block.size() ? FLAG_END_HEADERS : 0;
+                    if (type == TYPE_HEADERS && endStream) {
+                        flags |= FLAG_END_STREAM;
+                    }
+                    this.writeFrame(type, flags, stream.id, ByteBuffer.wrap(block.array(), offset, length));
+                    offset += length;
+                    type = TYPE_CONTINUATION;
+                } while (offset < block.size());
+            } catch (IOException e) {
+                this.fail(e);
+                throw e;
+            }
+            if (endStream) {
+                this.localClosed(stream);
+            }
+            return stream;
+        }
+    }
+
+    private void checkUsable() throws Http2Exception {
+        if (shutdown || failure != null) {
+            throw new Http2Exception(Http2Exception.REFUSED_STREAM, "HTTP/2 connection to " + authority
+                    + " is shut down");
+        }
+    }
+
+    /**
+     * 按发送窗口分帧写出请求报文体，窗口用完时等待服务器端的WINDOW_UPDATE
+     * @param stream 已经发送请求头的流
+     * @param body 请求报文体
+     * @throws IOException 流被取消、重置或者连接出错
+     */
+    void writeData(Http2Stream stream, ByteBuffer body) throws IOException {
+        this.writeData(stream, body, true);
+    }
+
+    /**
+     * 把不在内存中的请求报文体通过{@link RequestBody#writeTo}逐段写出，最后以空的DATA帧结束流
+     * @param stream 已经发送请求头的流
+     * @param body 请求报文体
+     * @return 写出的字节数
+     * @throws IOException 流被取消、重置、连接出错或者读取报文体出错
+     */
+    long writeBody(final Http2Stream stream, RequestBody body) throws IOException {
+        final long[] written = new long[1];
+        body.writeTo(new WritableByteChannel() {
+            @Override
+            public int write(ByteBuffer src) throws IOException {
+                int length = src.remaining();
+                Http2Connection.this.writeData(stream, src, false);
+                src.position(src.limit());
+                written[0] += length;
+                return length;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        this.writeData(stream, ByteBuffer.allocate(0), true);
+        return written[0];
+    }
+
+    /**
+     * @param endStream 写完之后是否结束流，为true时空的body也会发送一个带END_STREAM的DATA帧
+     */
+    private void writeData(Http2Stream stream, ByteBuffer body, boolean endStream) throws IOException {
+        ByteBuffer remaining = body.duplicate();
+        if (!remaining.hasRemaining()) {
+            if (endStream) {
+                //空的DATA帧不占用流量控制窗口
+                lock.lock();
+                try {
+                    stream.checkWritable();
+                } finally {
+                    lock.unlock();
+                }
+                this.writeDataFrame(stream, remaining, true);
+            }
+            return;
+        }
+        while (true) {
+            int length;
+            lock.lock();
+            try {
+                while (true) {
+                    stream.checkWritable();
+                    long window = Math.min(sendWindow, stream.sendWindow);
+                    if (window > 0) {
+                        length = (int) Math.min(Math.min(window, peerMaxFrameSize), remaining.remaining());
+                        sendWindow -= length;
+                        stream.sendWindow -= length;
+                        break;
+                    }
+                    try {
+                        windowAvailable.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted waiting for HTTP/2 send window");
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+            ByteBuffer frame = remaining.slice();
+            frame.limit(length);
+            remaining.position(remaining.position() + length);
+            boolean last = !remaining.hasRemaining();
+            this.writeDataFrame(stream, frame, last && endStream);
+            if (last) {
+                return;
+            }
+        }
+    }
+
+    private void writeDataFrame(Http2Stream stream, ByteBuffer frame, boolean endStream) throws IOException {
+        try {
+            synchronized (writeLock) {
+                this.writeFrame(TYPE_DATA, endStream ? FLAG_END_STREAM : 0, stream.id, frame);
+            }
+        } catch (IOException e) {
+            this.fail(e);
+            throw e;
+        }
+        if (endStream) {
+            this.localClosed(stream);
+        }
+    }
+
+    /**
+     * 应用从流中读取了报文体，累计到窗口的一半时归还给服务器端
+     * @param stream 读取的流，为null时只归还连接窗口
+     * @param count 读取的字节数
+     */
+    void consumed(Http2Stream stream, int count) {
+        int connectionIncrement = 0;
+        int streamIncrement = 0;
+        lock.lock();
+        try {
+            unacknowledged += count;
+            if (unacknowledged >= CONNECTION_WINDOW_SIZE / 2) {
+                connectionIncrement = unacknowledged;
+                unacknowledged = 0;
+            }
+            if (stream != null) {
+                streamIncrement = stream.acknowledge(count);
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (connectionIncrement > 0 || streamIncrement > 0) {
+            try {
+                synchronized (writeLock) {
+                    if (connectionIncrement > 0) {
+                        this.writeWindowUpdate(0, connectionIncrement);
+                    }
+                    if (streamIncrement > 0) {
+                        this.writeWindowUpdate(stream.id, streamIncrement);
+                    }
+                }
+            } catch (IOException e) {
+                this.fail(e);
+            }
+        }
+    }
+
+    /**
+     * 本地取消一个尚未结束的流，发送RST_STREAM
+     */
+    void resetStream(Http2Stream stream, int errorCode) {
+        lock.lock();
+        try {
+            if (streams.remove(stream.id) == null) {
+                return;
+            }
+            slotAvailable.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            synchronized (writeLock) {
+                ByteBuffer payload = ByteBuffer.allocate(4);
+                payload.putInt(errorCode).flip();
+                this.writeFrame(TYPE_RST_STREAM, 0, stream.id, payload);
+            }
+        } catch (IOException e) {
+            this.fail(e);
+        }
+        this.closeIfIdle();
+    }
+
+    /**
+     * 请求已经完整发出，响应也已经结束时释放并发名额
+     */
+    private void localClosed(Http2Stream stream) {
+        lock.lock();
+        try {
+            if (stream.localClosed()) {
+                this.removeStream(stream);
+            }
+        } finally {
+            lock.unlock();
+        }
+        this.closeIfIdle();
+    }
+
+    /**
+     * 持有lock时调用
+     */
+    private void removeStream(Http2Stream stream) {
+        if (streams.remove(stream.id) != null) {
+            slotAvailable.signal();
+        }
+    }
+
+    /**
+     * 收到GOAWAY之后所有流都结束时关闭连接
+     */
+    private void closeIfIdle() {
+        boolean idle;
+        lock.lock();
+        try {
+            idle = shutdown && streams.isEmpty() && pendingStreams == 0;
+        } finally {
+            lock.unlock();
+        }
+        if (idle) {
+            this.closeSocket();
+        }
+    }
+
+    private void readLoop() {
+        IOException cause;
+        try {
+            while (true) {
+                this.readFrame();
+            }
+        } catch (IOException e) {
+            cause = e;
+        } catch (RuntimeException e) {
+            cause = new IOException("HTTP/2 reader failed", e);
+        }
+        this.fail(cause);
+        synchronized (this) {
+            headerBlockIn.release();
+            bufferPool.release(payload);
+            payload = null;
+        }
+    }
+
+    private void readFrame() throws IOException {
+        this.readFully(frameHeaderIn, FRAME_HEADER_SIZE);
+        int length = ((frameHeaderIn[0] & 0xff) << 16) | ((frameHeaderIn[1] & 0xff) << 8) | (frameHeaderIn[2] & 0xff);
+        int type = frameHeaderIn[3] & 0xff;
+        int flags = frameHeaderIn[4] & 0xff;
+        int streamId = readInt(frameHeaderIn, 5) & 0x7fffffff;
+        if (length > DEFAULT_MAX_FRAME_SIZE) {
+            throw this.connectionError(Http2Exception.FRAME_SIZE_ERROR, "Frame too large: " + length);
+        }
+        this.readFully(payload, length);
+        if (continuationStreamId != 0 && type != TYPE_CONTINUATION) {
+            throw this.connectionError(Http2Exception.PROTOCOL_ERROR, "Expected CONTINUATION, got frame type "
+                    + type);
+        }
+        switch (type) {
+            case TYPE_DATA:
+                this.readData(streamId, flags, length);
+                break;
+            case TYPE_HEADERS:
+                this.readHeaders(streamId, flags, length);
+                break;
+            case TYPE_CONTINUATION:
+                this.readContinuation(streamId, flags, length);
+                break;
+            case TYPE_RST_STREAM:
+                this.readRstStream(streamId, length);
+                break;
+            case TYPE_SETTINGS:
+                this.readSettings(flags, length);
+                break;
+            case TYPE_PING:
+                this.readPing(flags, length);
+                break;
+            case TYPE_GOAWAY:
+                this.readGoAway(length);
+                break;
+            case TYPE_WINDOW_UPDATE:
+                this.readWindowUpdate(streamId, length);
+                break;
+            case TYPE_PUSH_PROMISE:
+                throw this.connectionError(Http2Exception.PROTOCOL_ERROR, "PUSH_PROMISE with push disabled");
+            default:
+                //PRIORITY与未知类型的帧直接忽略
+                break;
+        }
+    }
+
+    private void readData(int streamId, int flags, int length) throws IOException {
+        int offset = 0;
+        int dataLength = length;
+        if ((flags & FLAG_PADDED) != 0) {
+            offset = 1;
+            dataLength = length - 1 - (length > 0 ? payload[0] & 0xff : 0);
+            if (dataLength < 0) {
+                throw this.connectionError(Http2Exception.PROTOCOL_ERROR, "Invalid DATA padding");
+            }
+        }
+        boolean endStream = (flags & FLAG_END_STREAM) != 0;
+        boolean delivered = false;
+        lock.lock();
+        try {
+            Http2Stream stream = streams.get(streamId);
+            if (stream != null) {
+                delivered = stream.receiveData(payload, offset, dataLength, endStream);
+                if (stream.isClosed()) {
+                    this.removeStream(stream);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        //填充与没有流接收的数据不会被应用读取，立即归还连接窗口
+        int returned = delivered ? length - dataLength : length;
+        if (returned > 0) {
+            this.consumed(null, returned);
+        }
+        if (endStream) {
+            this.closeIfIdle();
+        }
+    }
+
+    private void readHeaders(int streamId, int flags, int length) throws IOException {
+        int offset = 0;
+        int end = length;
+        if ((flags & FLAG_PADDED) != 0) {
+            offset = 1;
+            end -= length > 0 ? payload[0] & 0xff : 0;
+        }
+        if ((flags & FLAG_PRIORITY) != 0) {
+            offset += 5;
+        }
+        if (streamId == 0 || end < offset) {
+            throw this.connectionError(Http2Exception.PROTOCOL_ERROR, "Invalid HEADERS frame");
+        }
+        headerBlockIn.clear();
+        headerBlockIn.write(payload, offset, end - offset);
+        boolean endStream = (flags & FLAG_END_STREAM) != 0;
+        if ((flags & FLAG_END_HEADERS) != 0) {
+            this.headerBlockComplete(streamId, endStream);
+        } else {
+            continuationStreamId = streamId;
+            continuationEndStream = endStream;
+        }
+    }
+
+    private void readContinuation(int streamId, int flags, int length) throws IOException {
+        if (streamId == 0 || streamId != continuationStreamId) {
+            throw this.connectionError(Http2Exception.PROTOCOL_ERROR, "Unexpected CONTINUATION");
+        }
+        if (headerBlockIn.size() + length > MAX_HEADER_BLOCK_SIZE) {
+            throw this.connectionError(Http2Exception.PROTOCOL_ERROR, "Header block too large");
+        }
+        headerBlockIn.write(payload, 0, length);
+        if ((flags & FLAG_END_HEADERS) != 0) {
+            continuationStreamId = 0;
+            this.headerBlockComplete(streamId, continuationEndStream);
+        }
+    }
+
+    /**
+     * 解码完整的头部块，流已经不存在时也必须解码以保持动态表同步
+     */
+    private void headerBlockComplete(int streamId, boolean endStream) throws IOException {
+        List<String> fields = new ArrayList<String>();
+        try {
+            decoder.decode(headerBlockIn.array(), 0, headerBlockIn.size(), fields);
+        } catch (IOException e) {
+            throw this.connectionError(Http2Exception.COMPRESSION_ERROR, e.getMessage());
+        }
+        lock.lock();
+        try {
+            Http2Stream stream = streams.get(streamId);
+            if (stream != null) {
+                stream.receiveHeaders(fields, endStream);
+                if (stream.isClosed()) {
+                    this.removeStream(stream);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (endStream) {
+            this.closeIfIdle();
+        }
+    }
+
+    private void readRstStream(int streamId, int length) throws IOException {
+        if (streamId == 0 || length != 4) {
+            throw this.connectionError(Http2Exception.PROTOCOL_ERROR, "Invalid RST_STREAM frame");
+        }
+        int errorCode = readInt(payload, 0);
+        lock.lock();
+        try {
+            Http2Stream stream = streams.get(streamId);
+            if (stream != null) {
+                this.removeStream(stream);
+                stream.receiveFailure(new Http2Exception(errorCode, "Stream " + streamId + " reset by server"));
+            }
+        } finally {
+            lock.unlock();
+        }
+        this.closeIfIdle();
+    }
+
+    private void readSettings(int flags, int length) throws IOException {
+        if ((flags & FLAG_ACK) != 0) {
+            return;
+        }
+        if (length % 6 != 0) {
+            throw this.connectionError(Http2Exception.FRAME_SIZE_ERROR, "Invalid SETTINGS length: " + length);
+        }
+        int headerTableSize = -1;
+        lock.lock();
+        try {
+            for (int i = 0; i < length; i += 6) {
+                int id = ((payload[i] & 0xff) << 8) | (payload[i + 1] & 0xff);
+                int value = readInt(payload, i + 2);
+                if (id == SETTINGS_HEADER_TABLE_SIZE) {
+                    headerTableSize = value;
+                } else if (id == SETTINGS_MAX_CONCURRENT_STREAMS) {
+                    peerMaxConcurrentStreams = value < 0 ? Integer.MAX_VALUE : value;
+                    slotAvailable.signalAll();
+                } else if (id == SETTINGS_INITIAL_WINDOW_SIZE) {
+                    if (value < 0) {
+                        throw this.connectionError(Http2Exception.FLOW_CONTROL_ERROR, "Invalid initial window size");
+                    }
+                    int delta = value - peerInitialWindowSize;
+                    peerInitialWindowSize = value;
+                    for (Http2Stream stream : streams.values()) {
+                        stream.sendWindow += delta;
+                    }
+                    windowAvailable.signalAll();
+                } else if (id == SETTINGS_MAX_FRAME_SIZE) {
+                    if (value < DEFAULT_MAX_FRAME_SIZE || value > 0xffffff) {
+                        throw this.connectionError(Http2Exception.PROTOCOL_ERROR, "Invalid max frame size: " + value);
+                    }
+                    peerMaxFrameSize = value;
+                }
+            }
+            settingsReceived = true;
+            settingsAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        synchronized (writeLock) {
+            if (headerTableSize >= 0) {
+                encoder.setMaxTableSize(headerTableSize);
+            }
+            this.writeFrame(TYPE_SETTINGS, FLAG_ACK, 0, ByteBuffer.allocate(0));
+        }
+    }
+
+    private void readPing(int flags, int length) throws IOException {
+        if (length != 8) {
+            throw this.connectionError(Http2Exception.FRAME_SIZE_ERROR, "Invalid PING length: " + length);
+        }
+        if ((flags & FLAG_ACK) == 0) {
+            synchronized (writeLock) {
+                this.writeFrame(TYPE_PING, FLAG_ACK, 0, ByteBuffer.wrap(payload, 0, 8));
+            }
+        }
+    }
+
+    private void readGoAway(int length) throws IOException {
+        if (length < 8) {
+            throw this.connectionError(Http2Exception.FRAME_SIZE_ERROR, "Invalid GOAWAY length: " + length);
+        }
+        int lastStreamId = readInt(payload, 0) & 0x7fffffff;
+        int errorCode = readInt(payload, 4);
+        lock.lock();
+        try {
+            shutdown = true;
+            List<Http2Stream> refused = new ArrayList<Http2Stream>();
+            for (Http2Stream stream : streams.values()) {
+                if (stream.id > lastStreamId) {
+                    refused.add(stream);
+                }
+            }
+            for (Http2Stream stream : refused) {
+                this.removeStream(stream);
+                //服务器端没有处理这些流，可以在新连接上重试
+                stream.receiveFailure(new Http2Exception(Http2Exception.REFUSED_STREAM, "GOAWAY received with error code "
+                        + errorCode + ", stream " + stream.id + " not processed"));
+            }
+            slotAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        this.closeIfIdle();
+    }
+
+    private void readWindowUpdate(int streamId, int length) throws IOException {
+        if (length != 4) {
+            throw this.connectionError(Http2Exception.FRAME_SIZE_ERROR, "Invalid WINDOW_UPDATE length: " + length);
+        }
+        int increment = readInt(payload, 0) & 0x7fffffff;
+        lock.lock();
+        try {
+            if (streamId == 0) {
+                sendWindow += increment;
+            } else {
+                Http2Stream stream = streams.get(streamId);
+                if (stream != null) {
+                    stream.sendWindow += increment;
+                }
+            }
+            windowAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 发送GOAWAY并返回要抛出的异常，读线程随后关闭连接
+     */
+    private Http2Exception connectionError(int errorCode, String message) {
+        try {
+            synchronized (writeLock) {
+                this.writeGoAway(errorCode);
+            }
+        } catch (IOException ignored) {
+        }
+        return new Http2Exception(errorCode, message);
+    }
+
+    private void readFully(byte[] buffer, int length) throws IOException {
+        int total = 0;
+        while (total < length) {
+            int count = in.read(buffer, total, length - total);
+            if (count == -1) {
+                throw new EOFException("HTTP/2 connection to " + authority + " closed");
+            }
+            total += count;
+        }
+    }
+
+    /**
+     * 持有写锁时调用
+     */
+    private void writeFrame(int type, int flags, int streamId, ByteBuffer payload) throws IOException {
+        frameHeaderOut.clear();
+        putFrameHeader(frameHeaderOut, payload.remaining(), type, flags, streamId);
+        frameHeaderOut.flip();
+        this.write(frameHeaderOut, payload);
+    }
+
+    private void writeWindowUpdate(int streamId, int increment) throws IOException {
+        ByteBuffer payload = ByteBuffer.allocate(4);
+        payload.putInt(increment).flip();
+        this.writeFrame(TYPE_WINDOW_UPDATE, 0, streamId, payload);
+    }
+
+    private void writeGoAway(int errorCode) throws IOException {
+        ByteBuffer payload = ByteBuffer.allocate(8);
+        payload.putInt(0).putInt(errorCode).flip();
+        this.writeFrame(TYPE_GOAWAY, 0, 0, payload);
+    }
+
+    private void write(ByteBuffer... srcs) throws IOException {
+        if (channel != null) {
+            long remaining = 0;
+            for (ByteBuffer src : srcs) {
+                remaining += src.remaining();
+            }
+            while (remaining > 0) {
+                remaining -= channel.write(srcs);
+            }
+            return;
+        }
+        for (ByteBuffer src : srcs) {
+            while (src.hasRemaining()) {
+                secureChannel.write(src);
+            }
+        }
+        secureOut.flush();
+    }
+
+    private static void putFrameHeader(ByteBuffer buffer, int length, int type, int flags, int streamId) {
+        buffer.put((byte) (length >>> 16)).put((byte) (length >>> 8)).put((byte) length);
+        buffer.put((byte) type).put((byte) flags).putInt(streamId & 0x7fffffff);
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return ((data[offset] & 0xff) << 24) | ((data[offset + 1] & 0xff) << 16) | ((data[offset + 2] & 0xff) << 8)
+                | (data[offset + 3] & 0xff);
+    }
+
+    /**
+     * 连接出错，所有尚未结束的流以该异常失败
+     */
+    private void fail(IOException cause) {
+        List<Http2Stream> failed;
+        lock.lock();
+        try {
+            if (failure == null) {
+                failure = cause;
+            }
+            shutdown = true;
+            failed = new ArrayList<Http2Stream>(streams.values());
+            streams.clear();
+            for (Http2Stream stream : failed) {
+                stream.receiveFailure(cause);
+            }
+            slotAvailable.signalAll();
+            windowAvailable.signalAll();
+            settingsAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        this.closeSocket();
+    }
+
+    /**
+     * 先关闭底层socket，读线程与阻塞的写立即返回，TLS连接不再等待发送close_notify
+     */
+    private void closeSocket() {
+        try {
+            rawSocket.close();
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * 发送GOAWAY并关闭连接，尚未结束的流以异常结束
+     */
+    void close() {
+        try {
+            synchronized (writeLock) {
+                if (socket.isConnected() && !socket.isClosed()) {
+                    this.writeGoAway(Http2Exception.NO_ERROR);
+                }
+            }
+        } catch (IOException ignored) {
+        }
+        this.fail(new IOException("HTTP/2 connection to " + authority + " closed"));
+        synchronized (writeLock) {
+            headerBlockOut.release();
+        }
+    }
+}
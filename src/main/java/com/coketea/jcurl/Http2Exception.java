@@ -0,0 +1,45 @@
+package com.coketea.jcurl;
+
+import java.io.IOException;
+
+/**
+ * HTTP/2的流被RST_STREAM终止、连接被GOAWAY关闭或者对方违反协议时抛出，带有HTTP/2的错误码
+ */
+public class Http2Exception extends IOException {
+
+    public static final int NO_ERROR = 0x0;
+
+    public static final int PROTOCOL_ERROR = 0x1;
+
+    public static final int INTERNAL_ERROR = 0x2;
+
+    public static final int FLOW_CONTROL_ERROR = 0x3;
+
+    public static final int STREAM_CLOSED = 0x5;
+
+    public static final int FRAME_SIZE_ERROR = 0x6;
+
+    public static final int REFUSED_STREAM = 0x7;
+
+    public static final int CANCEL = 0x8;
+
+    public static final int COMPRESSION_ERROR = 0x9;
+
+    private final int errorCode;
+
+    public Http2Exception(int errorCode, String message) {
+        super(message + " (error code " + errorCode + ")");
+        this.errorCode = errorCode;
+    }
+
+    public int getErrorCode() {
+        return errorCode;
+    }
+
+    /**
+     * @return 服务器端没有处理该请求(REFUSED_STREAM或者GOAWAY之后的流)，即使是非幂等的请求也可以安全地重试
+     */
+    public boolean isRefused() {
+        return errorCode == REFUSED_STREAM;
+    }
+}
@@ -0,0 +1,331 @@
+package com.coketea.jcurl;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+
+/**
+ * HTTP/2连接上的一个流，读线程收到的报文体按帧缓存在从缓冲区池借出的数组中，
+ * 应用读取之后才归还流与连接的接收窗口
+ * <p>
+ * 除{@link #id}外的字段都由连接的锁保护
+ */
+class Http2Stream {
+
+    final int id;
+
+    private final Http2Connection connection;
+
+    /**
+     * 收到响应头、报文体、流结束或者出错时通知
+     */
+    private final Condition changed;
+
+    /**
+     * 流的发送窗口
+     */
+    long sendWindow;
+
+    private int headerBytes;
+
+    private int code = -1;
+
+    private Headers headers;
+
+    private final ArrayDeque<byte[]> chunks = new ArrayDeque<byte[]>();
+
+    private final ArrayDeque<Integer> chunkLengths = new ArrayDeque<Integer>();
+
+    /**
+     * 队首数据片段已经读取的字节数
+     */
+    private int chunkPosition;
+
+    /**
+     * 应用已经读取、尚未归还的流接收窗口
+     */
+    private int unacknowledged;
+
+    private boolean localClosed;
+
+    private boolean remoteClosed;
+
+    /**
+     * 收到了带有END_STREAM的帧，响应完整
+     */
+    private boolean complete;
+
+    private IOException failure;
+
+    Http2Stream(Http2Connection connection, int id, int initialWindowSize) {
+        this.connection = connection;
+        this.id = id;
+        this.sendWindow = initialWindowSize;
+        this.changed = connection.lock.newCondition();
+    }
+
+    void setHeaderBytes(int headerBytes) {
+        this.headerBytes = headerBytes;
+    }
+
+    /**
+     * @return 编码后的请求头部块长度
+     */
+    int getHeaderBytes() {
+        return headerBytes;
+    }
+
+    Http2Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * 等待响应头，1xx的中间响应被忽略
+     * @param timeoutMillis 等待时间，0表示一直等待
+     * @throws SocketTimeoutException 超时之前没有收到响应头
+     * @throws IOException 流被重置或者连接出错
+     */
+    void awaitHeaders(long timeoutMillis) throws IOException {
+        connection.lock.lock();
+        try {
+            long remainingNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            while (headers == null) {
+                if (failure != null) {
+                    throw failure;
+                }
+                remainingNanos = this.await(timeoutMillis, remainingNanos);
+            }
+        } finally {
+            connection.lock.unlock();
+        }
+    }
+
+    int getCode() {
+        connection.lock.lock();
+        try {
+            return code;
+        } finally {
+            connection.lock.unlock();
+        }
+    }
+
+    Headers getHeaders() {
+        connection.lock.lock();
+        try {
+            return headers;
+        } finally {
+            connection.lock.unlock();
+        }
+    }
+
+    /**
+     * 读取报文体，读取的字节数在锁外归还给连接的流量控制
+     * @param timeoutMillis 没有数据时的等待时间，0表示一直等待
+     * @return 读取的字节数，-1表示报文体已经结束
+     * @throws SocketTimeoutException 超时之前没有收到数据
+     * @throws IOException 流被重置或者连接出错
+     */
+    int read(byte[] b, int off, int len, long timeoutMillis) throws IOException {
+        int count = 0;
+        connection.lock.lock();
+        try {
+            long remainingNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            while (chunks.isEmpty()) {
+                if (complete) {
+                    return -1;
+                }
+                if (failure != null) {
+                    throw failure;
+                }
+                remainingNanos = this.await(timeoutMillis, remainingNanos);
+            }
+            while (count < len && !chunks.isEmpty()) {
+                byte[] chunk = chunks.peekFirst();
+                int chunkLength = chunkLengths.peekFirst();
+                int n = Math.min(len - count, chunkLength - chunkPosition);
+                System.arraycopy(chunk, chunkPosition, b, off + count, n);
+                count += n;
+                chunkPosition += n;
+                if (chunkPosition == chunkLength) {
+                    chunks.pollFirst();
+                    chunkLengths.pollFirst();
+                    chunkPosition = 0;
+                    connection.getBufferPool().release(chunk);
+                }
+            }
+        } finally {
+            connection.lock.unlock();
+        }
+        connection.consumed(this, count);
+        return count;
+    }
+
+    private long await(long timeoutMillis, long remainingNanos) throws IOException {
+        try {
+            if (timeoutMillis <= 0) {
+                changed.await();
+                return remainingNanos;
+            }
+            if (remainingNanos <= 0) {
+                throw new SocketTimeoutException("Read timed out");
+            }
+            return changed.awaitNanos(remainingNanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted reading HTTP/2 stream " + id);
+        }
+    }
+
+    /**
+     * 取消流：丢弃缓存的报文体并归还其接收窗口，流尚未结束时发送RST_STREAM(CANCEL)，
+     * 阻塞在读取或者发送窗口上的线程立即返回。可以从任意线程调用，流已经结束时只释放缓存
+     */
+    void cancel() {
+        int discarded = 0;
+        connection.lock.lock();
+        try {
+            if (failure == null) {
+                failure = new Http2Exception(Http2Exception.CANCEL, "Stream " + id + " canceled");
+            }
+            complete = false;
+            discarded = this.discard();
+            changed.signalAll();
+            connection.windowAvailable.signalAll();
+        } finally {
+            connection.lock.unlock();
+        }
+        if (discarded > 0) {
+            connection.consumed(null, discarded);
+        }
+        connection.resetStream(this, Http2Exception.CANCEL);
+    }
+
+    /**
+     * 持有连接的锁时调用
+     * @return 丢弃的字节数
+     */
+    private int discard() {
+        int discarded = 0;
+        while (!chunks.isEmpty()) {
+            discarded += chunkLengths.pollFirst() - chunkPosition;
+            chunkPosition = 0;
+            connection.getBufferPool().release(chunks.pollFirst());
+        }
+        return discarded;
+    }
+
+    /*
+     * 以下方法由连接在持有锁时调用
+     */
+
+    void checkWritable() throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * @return 流在两个方向上都已经结束
+     */
+    boolean localClosed() {
+        localClosed = true;
+        return remoteClosed;
+    }
+
+    boolean isClosed() {
+        return localClosed && remoteClosed;
+    }
+
+    /**
+     * 累计应用读取的字节数
+     * @return 需要通过WINDOW_UPDATE归还的流窗口，0表示暂不归还
+     */
+    int acknowledge(int count) {
+        if (remoteClosed) {
+            //服务器端不会再发送数据，不需要归还流窗口
+            return 0;
+        }
+        unacknowledged += count;
+        if (unacknowledged < Http2Connection.STREAM_WINDOW_SIZE / 2) {
+            return 0;
+        }
+        int increment = unacknowledged;
+        unacknowledged = 0;
+        return increment;
+    }
+
+    /**
+     * @return 数据是否被缓存，流已经被取消或者出错时返回false，由连接立即归还窗口
+     */
+    boolean receiveData(byte[] data, int offset, int length, boolean endStream) {
+        if (failure != null) {
+            return false;
+        }
+        if (length > 0) {
+            byte[] chunk = connection.getBufferPool().acquire(length);
+            System.arraycopy(data, offset, chunk, 0, length);
+            chunks.addLast(chunk);
+            chunkLengths.addLast(length);
+        }
+        if (endStream) {
+            remoteClosed = true;
+            complete = true;
+        }
+        changed.signalAll();
+        return true;
+    }
+
+    void receiveHeaders(List<String> fields, boolean endStream) {
+        if (headers == null) {
+            int status = -1;
+            List<String> namesAndValues = new ArrayList<String>(fields.size());
+            for (int i = 0; i < fields.size(); i += 2) {
+                String name = fields.get(i);
+                if (name.equals(":status")) {
+                    try {
+                        status = Integer.parseInt(fields.get(i + 1));
+                    } catch (NumberFormatException e) {
+                        status = -1;
+                    }
+                } else if (!name.startsWith(":")) {
+                    namesAndValues.add(name);
+                    namesAndValues.add(fields.get(i + 1));
+                }
+            }
+            if (status < 100) {
+                this.receiveFailure(new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Missing or invalid :status"));
+                return;
+            }
+            if (status < 200) {
+                //1xx的中间响应之后还有最终响应
+                return;
+            }
+            code = status;
+            headers = Headers.ofOctets(namesAndValues);
+        }
+        //报文体之后的头部块是trailers，直接忽略
+        if (endStream) {
+            remoteClosed = true;
+            complete = true;
+        }
+        changed.signalAll();
+    }
+
+    /**
+     * 流被服务器端重置或者连接出错，已经完整收到的响应仍然可以读完
+     */
+    void receiveFailure(IOException cause) {
+        if (failure == null) {
+            failure = cause;
+        }
+        localClosed = true;
+        remoteClosed = true;
+        changed.signalAll();
+        connection.windowAvailable.signalAll();
+    }
+}
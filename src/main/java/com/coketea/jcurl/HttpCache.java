@@ -0,0 +1,243 @@
+package com.coketea.jcurl;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 位于HttpClient之前的响应缓存，可以被多个HttpClient共享
+ * <p>
+ * 内存层是按字节数限制大小的LRU，配置了磁盘层时内存中淘汰的缓存项转移到磁盘，磁盘上命中的缓存项重新放回内存。
+ * 新鲜的响应直接返回；过期但带有ETag或Last-Modified的响应发送条件请求重新验证，服务器端返回304时同样计为命中。
+ * 只缓存GET请求，其他方法的请求会使同一uri的缓存失效；流式读取与下载到文件的请求不经过缓存
+ */
+public class HttpCache {
+
+    private final long maxMemoryBytes;
+
+    /**
+     * 缓存键到缓存项，访问顺序，最久未使用的在最前面
+     */
+    private final LinkedHashMap<String, CacheEntry> memory = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true);
+
+    private long memorySize;
+
+    private final DiskCache disk;
+
+    private long hitCount;
+
+    private long missCount;
+
+    private long evictionCount;
+
+    /**
+     * 只使用内存的缓存
+     * @param maxMemoryBytes 内存层的最大字节数
+     */
+    public HttpCache(long maxMemoryBytes) {
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.disk = null;
+    }
+
+    /**
+     * 带有磁盘层的缓存，目录中已有的缓存文件会被继续使用
+     * @param maxMemoryBytes 内存层的最大字节数
+     * @param directory 磁盘层目录
+     * @param maxDiskBytes 磁盘层的最大字节数
+     * @throws IOException 创建或读取缓存目录失败
+     */
+    public HttpCache(long maxMemoryBytes, Path directory, long maxDiskBytes) throws IOException {
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.disk = new DiskCache(directory, maxDiskBytes);
+    }
+
+    /**
+     * 经过缓存执行请求
+     * @param key 缓存键，包含服务器地址与uri
+     * @param call 要执行的请求，重新验证与缓存未命中时的网络请求都在其超时与取消的控制之下
+     * @param client 缓存未命中时发送请求的客户端
+     * @return 缓存的或者服务器端返回的响应
+     * @throws IOException
+     */
+    Response execute(String key, Call call, HttpClient client) throws IOException {
+        Request request = call.getRequest();
+        if (!"GET".equals(request.getMethod())) {
+            if (!"HEAD".equals(request.getMethod()) && !"OPTIONS".equals(request.getMethod())) {
+                this.remove(key);
+            }
+            return client.executeNetwork(call, request);
+        }
+        if (request.getHeader("If-None-Match") != null || request.getHeader("If-Modified-Since") != null) {
+            //调用方自己发送的条件请求直接交给服务器端
+            return client.executeNetwork(call, request);
+        }
+        CacheEntry entry = this.get(key);
+        long now = System.currentTimeMillis();
+        if (entry != null && entry.matches(request)) {
+            if (entry.isFresh(request, now)) {
+                this.hit();
+                return entry.getResponse();
+            }
+            if (entry.hasValidators()) {
+                Response response = client.executeNetwork(call, entry.conditionalRequest(request));
+                if (response.getCode() == 304) {
+                    CacheEntry updated = entry.revalidated(response, System.currentTimeMillis());
+                    this.hit();
+                    this.put(updated);
+                    return updated.getResponse();
+                }
+                return this.store(key, request, response);
+            }
+        }
+        return this.store(key, request, client.executeNetwork(call, request));
+    }
+
+    /**
+     * 缓存未命中，可以缓存的响应放入缓存，否则删除旧的缓存项
+     */
+    private Response store(String key, Request request, Response response) throws IOException {
+        synchronized (this) {
+            missCount++;
+        }
+        CacheEntry entry = CacheEntry.of(key, request, response, System.currentTimeMillis());
+        if (entry != null) {
+            this.put(entry);
+        } else {
+            this.remove(key);
+        }
+        return response;
+    }
+
+    private synchronized void hit() {
+        hitCount++;
+    }
+
+    private synchronized CacheEntry get(String key) {
+        CacheEntry entry = memory.get(key);
+        if (entry != null || disk == null) {
+            return entry;
+        }
+        entry = disk.get(key);
+        if (entry != null && entry.size() <= maxMemoryBytes) {
+            //磁盘上命中的缓存项放回内存
+            disk.remove(key);
+            this.putMemory(entry);
+        }
+        return entry;
+    }
+
+    private synchronized void put(CacheEntry entry) throws IOException {
+        this.removeMemory(entry.getKey());
+        if (entry.size() > maxMemoryBytes) {
+            if (disk != null) {
+                evictionCount += disk.put(entry);
+            }
+            return;
+        }
+        if (disk != null) {
+            disk.remove(entry.getKey());
+        }
+        this.putMemory(entry);
+    }
+
+    /**
+     * 放入内存层，超出容量时把最久未使用的缓存项转移到磁盘层，没有磁盘层时直接淘汰
+     */
+    private void putMemory(CacheEntry entry) {
+        memory.put(entry.getKey(), entry);
+        memorySize += entry.size();
+        Iterator<CacheEntry> iterator = memory.values().iterator();
+        while (memorySize > maxMemoryBytes && iterator.hasNext()) {
+            CacheEntry eldest = iterator.next();
+            iterator.remove();
+            memorySize -= eldest.size();
+            if (disk == null) {
+                evictionCount++;
+                continue;
+            }
+            try {
+                evictionCount += disk.put(eldest);
+            } catch (IOException e) {
+                //写磁盘失败时该缓存项直接淘汰
+                evictionCount++;
+            }
+        }
+    }
+
+    private void removeMemory(String key) {
+        CacheEntry removed = memory.remove(key);
+        if (removed != null) {
+            memorySize -= removed.size();
+        }
+    }
+
+    /**
+     * 删除一个缓存项
+     * @param key 缓存键
+     */
+    synchronized void remove(String key) {
+        this.removeMemory(key);
+        if (disk != null) {
+            disk.remove(key);
+        }
+    }
+
+    /**
+     * 清空内存层与磁盘层，不计入淘汰次数
+     */
+    public synchronized void evictAll() {
+        memory.clear();
+        memorySize = 0;
+        if (disk != null) {
+            disk.evictAll();
+        }
+    }
+
+    /**
+     * @return 直接使用缓存或者经304重新验证后使用缓存的请求数
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return 从服务器端获取了完整响应的请求数
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * @return 因为容量限制被移出缓存的缓存项个数，从内存转移到磁盘不计入
+     */
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * @return 内存层与磁盘层中的缓存项个数
+     */
+    public synchronized int getEntryCount() {
+        return memory.size() + (disk == null ? 0 : disk.count());
+    }
+
+    /**
+     * @return 内存层占用的字节数
+     */
+    public synchronized long getMemorySize() {
+        return memorySize;
+    }
+
+    /**
+     * @return 磁盘层占用的字节数，没有磁盘层时返回0
+     */
+    public synchronized long getDiskSize() {
+        return disk == null ? 0 : disk.size();
+    }
+
+    public long getMaxMemoryBytes() {
+        return maxMemoryBytes;
+    }
+}
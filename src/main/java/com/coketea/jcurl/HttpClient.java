@@ -1,23 +1,132 @@
 package com.coketea.jcurl;
 
 import java.io.*;
-import java.net.InetSocketAddress;
+import java.net.InetAddress;
 import java.net.Socket;
-import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Created by Johnson Wong on 2017/11/8.
+ * <p>
+ * {@link #execute(Request)}不依赖单次请求的字段，同一个实例可以被多个线程共享；
+ * setMethod/setRequestUri/fetch等方法保留原有的用法，但这些方法保存了单次请求的状态，不是线程安全的
  */
 public class HttpClient {
 
-    private Socket socket;
+    public static final int DEFAULT_PIPELINE_DEPTH = 16;
+
+    /**
+     * HTTP/2请求因为GOAWAY或者连接关闭被拒绝时的最大尝试次数
+     */
+    private static final int HTTP2_MAX_ATTEMPTS = 3;
+
+    /**
+     * 执行对冲请求与分段下载的线程，空闲一分钟后退出
+     */
+    static final ExecutorService WORKER_EXECUTOR = createWorkerExecutor();
+
+    private ConnectionPool connectionPool;
+
+    /**
+     * 连接池是否由当前HttpClient创建，只有自己创建的连接池才在close时一并关闭
+     */
+    private boolean ownsConnectionPool;
 
     private String host;
 
     private int port = 80;
 
+    /**
+     * 一条连接上连续写出而不等待响应的最大请求数
+     */
+    private int pipelineDepth = DEFAULT_PIPELINE_DEPTH;
+
+    /**
+     * 每个请求都携带的请求头
+     */
+    private final Map<String, String> defaultHeaders = new LinkedHashMap<String, String>();
+
+    private volatile HttpCache cache;
+
+    /**
+     * 按host:port限制速率与并发数，为null时不限制
+     */
+    private volatile HostLimiter hostLimiter;
+
+    /**
+     * 失败请求的重试与对冲策略，为null时不重试
+     */
+    private volatile RetryPolicy retryPolicy;
+
+    private volatile EventListener.Factory eventListenerFactory = EventListener.factory(EventListener.NONE);
+
+    /**
+     * 建立TCP连接的超时时间，0表示不超时
+     */
+    private volatile int connectTimeoutMillis;
+
+    /**
+     * 两次读取之间的最大间隔，超过时抛出{@link ReadTimeoutException}，0表示不超时
+     */
+    private volatile int readTimeoutMillis;
+
+    /**
+     * 整个请求从发起到响应报文体读完的超时时间，0表示不超时
+     */
+    private volatile long callTimeoutMillis;
+
+    /**
+     * 是否发送Accept-Encoding并透明解压gzip、deflate响应
+     */
+    private volatile boolean compressionEnabled;
+
+    /**
+     * 预先编码了Host与默认请求头的编码器，host、port或默认请求头变化时置空，下次使用时重新创建
+     */
+    private volatile RequestEncoder requestEncoder;
+
+    /**
+     * 是否以prior knowledge方式直接使用HTTP/2(h2c)，所有请求复用同一条连接
+     */
+    private volatile boolean http2PriorKnowledge;
+
+    /**
+     * 不为null时以HTTPS连接服务器端
+     */
+    private volatile TlsConfig tlsConfig;
+
+    /**
+     * 保护http2Connection，建立连接期间等待的请求可以被取消或者超时
+     */
+    private final ReentrantLock http2Lock = new ReentrantLock();
+
+    /**
+     * 当前的HTTP/2连接，收到GOAWAY或者出错后在下一次请求时重新建立
+     */
+    private Http2Connection http2Connection;
+
     private String method = "GET";
 
     private String requestUri = "/";
@@ -30,10 +139,11 @@ public class HttpClient {
 
     private String responseStatus;
 
-    private Map<String, String> responseHeaders = new HashMap<String, String>();
+    private Headers responseHeaders = Headers.EMPTY;
 
     public HttpClient() {
-        this.socket = new Socket();
+        this.connectionPool = new ConnectionPool();
+        this.ownsConnectionPool = true;
     }
 
     public HttpClient(String host) {
@@ -41,255 +151,1182 @@ public class HttpClient {
     }
 
     public HttpClient(String host, int port) {
+        this(host, port, new ConnectionPool());
+        this.ownsConnectionPool = true;
+    }
+
+    /**
+     * 使用共享的连接池创建HttpClient，close时不会关闭该连接池
+     * @param host 服务器地址
+     * @param port 服务器端口
+     * @param connectionPool 共享的连接池
+     */
+    public HttpClient(String host, int port, ConnectionPool connectionPool) {
         this.host = host;
         this.port = port;
-        this.socket = new Socket();
+        this.connectionPool = connectionPool;
     }
 
     public void addRequestHeader(String key, String value) {
         this.requestHeaders.put(key, value);
     }
 
+    /**
+     * @param key 响应头名称，不区分大小写
+     * @return 最后一个同名响应头的值
+     */
     public String getResponseHeader(String key) {
         return this.responseHeaders.get(key);
     }
 
     /**
-     * 创建请求头报文
-     * @return 拼接好的请求头报文字符串
-     * @throws UnsupportedEncodingException
+     * @param key 响应头名称，不区分大小写
+     * @return 所有同名响应头的值，例如多个Set-Cookie
      */
-    private String createRequestHeader() throws UnsupportedEncodingException {
-        StringBuilder headerStr = new StringBuilder();
-        headerStr.append(this.method).append(" ").append(this.requestUri).append(" HTTP/1.1\r\n");
-        headerStr.append("Host: ").append(this.host).append("\r\n");
-        headerStr.append("Content-Length: ").append(this.requestBody.getBytes("UTF-8").length).append("\r\n");
-        for (Map.Entry<String, String> header : this.requestHeaders.entrySet()) {
-            headerStr.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+    public List<String> getResponseHeaderValues(String key) {
+        return this.responseHeaders.values(key);
+    }
+
+    /**
+     * 增加一个每个请求都携带的请求头，与Host一起在编码器中预先编码，请求中的同名请求头优先
+     * @param key 请求头名称
+     * @param value 请求头的值
+     */
+    public synchronized void addDefaultHeader(String key, String value) {
+        this.defaultHeaders.put(key, value);
+        this.requestEncoder = null;
+    }
+
+    public synchronized Map<String, String> getDefaultHeaders() {
+        return Collections.unmodifiableMap(new LinkedHashMap<String, String>(this.defaultHeaders));
+    }
+
+    /**
+     * @return 当前host、port与默认请求头对应的编码器，配置变化后重新创建
+     */
+    private RequestEncoder getRequestEncoder() {
+        RequestEncoder encoder = this.requestEncoder;
+        if (encoder == null) {
+            synchronized (this) {
+                Map<String, String> headers = this.defaultHeaders;
+                if (this.compressionEnabled
+                        && !headers.containsKey(Constance.HTTP_REQUEST_HEADER_KEY_ACCEPT_ENCODING)) {
+                    headers = new LinkedHashMap<String, String>(headers);
+                    headers.put(Constance.HTTP_REQUEST_HEADER_KEY_ACCEPT_ENCODING,
+                            Constance.HTTP_REQUEST_HEADER_VALUE_ACCEPT_ENCODING_GZIP_DEFLATE);
+                }
+                encoder = new RequestEncoder(this.host, this.port, this.tlsConfig != null, headers);
+                this.requestEncoder = encoder;
+            }
         }
-        headerStr.append("\r\n");
-        return headerStr.toString();
+        return encoder;
     }
 
     /**
-     * 读取服务器端一行数据
-     * @param is 从socket获取的inputStream
-     * @return 读取到的一行字节数组，不包含回车换行符
+     * 编码请求头并与内存中的报文体一起以一次聚集写发送，其他报文体在请求头之后写出
+     * @param connection 发送请求的连接
+     * @param request 要发送的请求
      * @throws IOException
      */
-    private byte[] readLine(InputStream is) throws IOException {
-        ByteArrayOutputStream baos = null;
-        int b1, b2;
+    private void writeRequest(HttpConnection connection, Request request, EventListener listener)
+            throws IOException {
+        ByteBuffer head = this.getRequestEncoder().encode(request, connection.clearHeadBuffer());
+        connection.setHeadBuffer(head);
+        head.flip();
+        long headerBytes = head.remaining();
+        RequestBody body = request.getRequestBody();
+        ByteBuffer buffered = body.buffer();
+        if (buffered != null) {
+            long bodyBytes = buffered.remaining();
+            connection.write(head, buffered);
+            listener.requestHeadersSent(headerBytes, bodyBytes, System.nanoTime());
+        } else {
+            connection.write(head);
+            connection.writeBody(body);
+            listener.requestHeadersSent(headerBytes, body.contentLength(), System.nanoTime());
+        }
+    }
+
+    /**
+     * 发送请求并解析状态行与响应头
+     * @param call 请求所属的调用，借到的连接与之关联以便取消
+     * @param request 要发送的请求
+     * @param listener 该次请求的监听器
+     * @return 已经解析完响应头、报文体尚未读取的连接，调用方负责解除关联并归还连接池
+     * @throws IOException
+     */
+    private HttpConnection sendRequest(Call call, Request request, EventListener listener) throws IOException {
+        while (true) {
+            if (call.isInterrupted()) {
+                throw call.translate(new IOException("Call interrupted before sending request"));
+            }
+            HttpConnection connection;
+            try {
+                //等待连接池与建立连接都不超过请求剩余的时间，取消或超时时被中断
+                call.beginWait();
+                connection = this.connectionPool.acquire(this.host, this.port, this.tlsConfig, listener,
+                        call.timeoutMillis(this.connectTimeoutMillis), call.remainingMillis());
+            } catch (IOException e) {
+                throw call.translate(e);
+            } finally {
+                call.endWait();
+            }
+            listener.poolAcquire(connection.isReused(), System.nanoTime());
+            ResponseParser parser = connection.getResponseParser();
+            parser.reset();
+            try {
+                call.attach(connection);
+                connection.setReadTimeout(this.readTimeoutMillis);
+                this.writeRequest(connection, request, listener);
+
+                parser.parseResponseHead(listener);
+                listener.responseHeadersEnd(parser.getCode(), System.nanoTime());
+                return connection;
+            } catch (IOException e) {
+                //复用的连接可能已经被服务器端关闭，在尚未收到任何响应时换一条新连接重试；超时、取消与不能重复发送的报文体不重试
+                call.detach();
+                boolean retry = connection.isReused() && !parser.isStatusParsed()
+                        && !(e instanceof InterruptedIOException) && !call.isInterrupted()
+                        && request.getRequestBody().isReplayable();
+                this.connectionPool.release(connection, false);
+                listener.poolRelease(false, System.nanoTime());
+                if (retry) {
+                    continue;
+                }
+                throw call.translate(e);
+            } catch (RuntimeException e) {
+                call.detach();
+                this.connectionPool.release(connection, false);
+                listener.poolRelease(false, System.nanoTime());
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * 创建该次请求的监听器，取得{@link HostLimiter}的配额后发出callStart事件
+     * @param call 请求所属的调用，排队不超过其剩余的时间，取消或超时时立即返回
+     * @throws LimitExceededException 最长等待时间内没有取得配额，监听器收到callStart与callFailed
+     */
+    private EventListener callStart(Call call, Request request) throws IOException {
+        return this.callStart(call, request, true);
+    }
+
+    /**
+     * @param call 请求所属的调用，不受整个请求超时限制的批量请求为null
+     * @param wait 为false时配额不足立即返回null，不发出任何事件
+     * @return 该次请求的监听器，wait为false且配额不足时返回null
+     */
+    private EventListener callStart(Call call, Request request, boolean wait) throws IOException {
+        EventListener listener = this.eventListenerFactory.create(this.host, this.port, request);
+        HostLimiter limiter = this.hostLimiter;
+        if (limiter != null) {
+            EventListener limited;
+            try {
+                if (call == null) {
+                    limited = limiter.acquire(this.host, this.port, listener, wait);
+                } else {
+                    call.beginWait();
+                    try {
+                        limited = limiter.acquire(this.host, this.port, listener, wait, call.remainingMillis());
+                    } catch (IOException e) {
+                        throw call.translate(e);
+                    } finally {
+                        call.endWait();
+                    }
+                }
+            } catch (IOException e) {
+                listener.callStart(request, System.nanoTime());
+                listener.callFailed(e, System.nanoTime());
+                throw e;
+            }
+            if (limited == null) {
+                return null;
+            }
+            listener = limited;
+        }
+        listener.callStart(request, System.nanoTime());
+        return listener;
+    }
+
+    /**
+     * 创建一次可以取消的请求，使用当前的超时设置
+     * @param request 要发送的请求
+     * @return 尚未执行的请求
+     */
+    public Call newCall(Request request) {
+        return new Call(this, request, this.callTimeoutMillis);
+    }
+
+    /**
+     * 发送http请求并获取完整的响应，不读写HttpClient上任何与单次请求相关的字段，可以被多个线程并发调用
+     * <p>
+     * 设置了{@link HttpCache}时GET请求先查找缓存
+     * @param request 要发送的请求
+     * @return 服务器端返回的或者缓存的响应
+     * @throws HttpTimeoutException 连接、读取或者整个请求超时
+     * @throws IOException
+     */
+    public Response execute(Request request) throws IOException {
+        return this.newCall(request).execute();
+    }
+
+    /**
+     * 执行请求，由{@link Call#execute()}调用
+     */
+    Response execute(Call call) throws IOException {
+        HttpCache cache = this.cache;
+        Request request = call.getRequest();
+        if (cache == null) {
+            return this.executeNetwork(call, request);
+        }
+        return cache.execute(this.host + ":" + this.port + request.getUri(), call, this);
+    }
+
+    /**
+     * 不经过缓存，直接向服务器端发送请求
+     * @param call 请求所属的调用
+     * @param request 要发送的请求，重新验证缓存时为条件请求
+     * @return 服务器端返回的响应
+     * @throws IOException
+     */
+    Response executeNetwork(Call call, Request request) throws IOException {
+        RetryPolicy policy = this.retryPolicy;
+        if (policy == null || !policy.isRetryable(request)) {
+            return this.executeOnce(call, request);
+        }
+        policy.deposit();
+        for (int attempt = 1; ; attempt++) {
+            Response response;
+            try {
+                response = this.executeAttempt(call, request, policy);
+            } catch (IOException e) {
+                this.backoff(call, policy, attempt, e);
+                continue;
+            }
+            long delay = this.retryDelay(policy, attempt, response.getCode(),
+                    response.getHeader(Constance.HTTP_RESPONSE_HEADER_KEY_RETRY_AFTER));
+            if (delay < 0) {
+                return response;
+            }
+            this.backoff(call, delay);
+        }
+    }
+
+    /**
+     * 执行一次尝试，满足对冲条件时并发发送对冲请求
+     */
+    private Response executeAttempt(Call call, Request request, RetryPolicy policy) throws IOException {
+        long hedgeDelay = policy.hedgeDelayMillis(request);
+        if (hedgeDelay >= 0) {
+            return this.executeHedged(call, request, policy, hedgeDelay);
+        }
+        long start = System.nanoTime();
+        Response response = this.executeOnce(call, request);
+        this.recordLatency(policy, request, response, start);
+        return response;
+    }
+
+    private void recordLatency(RetryPolicy policy, Request request, Response response, long start) {
+        if ("GET".equals(request.getMethod()) && !policy.isRetryable(response.getCode())) {
+            policy.recordLatency(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * 在子请求中发送请求，delayMillis之后仍未返回时再发送一个相同的请求，先成功的响应胜出，其余的被取消
+     * @param call 请求所属的调用，取消或超时时一并取消所有子请求
+     * @param delayMillis 发送对冲请求之前的等待时间
+     * @return 先返回的响应
+     * @throws IOException 所有子请求都失败时抛出最后一个失败
+     */
+    private Response executeHedged(Call call, Request request, RetryPolicy policy, long delayMillis)
+            throws IOException {
+        BlockingQueue<Object> results = new LinkedBlockingQueue<Object>();
+        long start = System.nanoTime();
+        Call primary = this.submit(call, request, results);
+        Call hedge = null;
+        Object failure = null;
         try {
-            baos = new ByteArrayOutputStream();
-            b1 = is.read();
-            while (true) {
-                if (b1 == -1) {
-                    break;
+            int pending = 1;
+            Object result = results.poll(delayMillis, TimeUnit.MILLISECONDS);
+            if (result == null && policy.withdraw()) {
+                hedge = this.submit(call, request, results);
+                pending++;
+            }
+            while (pending > 0) {
+                if (result == null) {
+                    result = results.take();
                 }
-                b2 = is.read();
-                if (b1 == '\r' && b2 == '\n') {
-                    break;
+                pending--;
+                if (result instanceof Response) {
+                    Response response = (Response) result;
+                    this.recordLatency(policy, request, response, start);
+                    return response;
                 }
-                baos.write(b1);
-                b1 = b2;
+                failure = result;
+                result = null;
             }
-            return baos.toByteArray();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for hedged requests");
         } finally {
-            if (baos != null) {
+            primary.cancel();
+            if (hedge != null) {
+                hedge.cancel();
+            }
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        if (call.isInterrupted()) {
+            //子请求因为本请求被取消或超时而失败，转换为本请求的异常
+            throw call.translate(new IOException("Hedged request interrupted", (IOException) failure));
+        }
+        throw (IOException) failure;
+    }
+
+    /**
+     * 在对冲线程中执行子请求，结果或异常放入results
+     * @return 子请求，用于取消
+     */
+    private Call submit(Call call, final Request request, final BlockingQueue<Object> results) throws IOException {
+        final Call child = call.fork();
+        WORKER_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
                 try {
-                    baos.close();
-                } catch (Exception e) {
-                    e.printStackTrace();
+                    results.offer(executeOnce(child, request));
+                } catch (IOException e) {
+                    results.offer(e);
+                } catch (RuntimeException e) {
+                    results.offer(e);
                 }
             }
+        });
+        return child;
+    }
+
+    private static ExecutorService createWorkerExecutor() {
+        return new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "jcurl-worker");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    /**
+     * 失败的尝试可以重试时按退避时间等待，否则抛出该失败
+     * @param attempt 已经失败的尝试次数
+     */
+    private void backoff(Call call, RetryPolicy policy, int attempt, IOException e) throws IOException {
+        if (attempt >= policy.getMaxAttempts() || !policy.isRetryable(e) || call.isInterrupted()
+                || !policy.withdraw()) {
+            throw e;
         }
+        this.backoff(call, policy.backoffMillis(attempt, -1));
+    }
+
+    private void backoff(Call call, long delayMillis) throws IOException {
+        call.retry();
+        call.backoff(delayMillis);
     }
 
     /**
-     * 读取服务器端一行数据，并转为字符创返回
-     * @param is 从socket获取的inputStream
-     * @return 读取到的一行字节数组，不包含回车换行符
-     * @throws IOException
+     * @param attempt 已经完成的尝试次数
+     * @param retryAfter 响应的Retry-After头
+     * @return 重试之前的等待时间，-1表示不重试该响应
      */
-    private String readStringLine(InputStream is) throws IOException {
-        return new String(this.readLine(is), "UTF-8");
+    private long retryDelay(RetryPolicy policy, int attempt, int code, String retryAfter) {
+        if (attempt >= policy.getMaxAttempts() || !policy.isRetryable(code)) {
+            return -1;
+        }
+        long delay = policy.backoffMillis(attempt, retryAfterMillis(retryAfter));
+        if (delay < 0 || !policy.withdraw()) {
+            return -1;
+        }
+        return delay;
     }
 
     /**
-     * 解析服务器端返回码与返回状态
-     * @param is 从socket获取的inputStream
-     * @throws IOException
+     * @return Retry-After要求的等待时间，只支持秒数的形式，没有或无法解析时返回-1
      */
-    private void parseResponseStatus(InputStream is) throws IOException {
-        String line = new String(this.readLine(is), "UTF-8");
-        int idx = line.indexOf(" ");
-        if (idx != -1) {
-            line = line.substring(idx + 1);
-            idx = line.indexOf(" ");
-            if (idx == -1) {
-                this.responseCode = line;
+    private static long retryAfterMillis(String retryAfter) {
+        if (retryAfter == null) {
+            return -1;
+        }
+        try {
+            return Math.max(0, Long.parseLong(retryAfter.trim())) * 1000;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 执行一次请求，不重试
+     */
+    private Response executeOnce(Call call, Request request) throws IOException {
+        if (this.http2PriorKnowledge) {
+            EventListener listener = this.callStart(call, request);
+            Http2Stream stream = this.sendHttp2OrFail(call, request, listener);
+            return this.openHttp2Stream(call, stream, request, listener).toResponse();
+        }
+        EventListener listener = this.callStart(call, request);
+        HttpConnection connection = this.sendRequestOrFail(call, request, listener);
+        ResponseParser parser = connection.getResponseParser();
+        if (this.contentEncoding(parser, request.getMethod()) != InflatingInputStream.IDENTITY) {
+            //压缩的报文体边读边解压，不先缓存压缩数据
+            return this.openStream(call, connection, request, listener).toResponse();
+        }
+        boolean reusable = false;
+        Exception failure = null;
+        try {
+            byte[] body = parser.parseResponseBody(request.getMethod());
+            reusable = parser.isReusable(request.getMethod());
+            listener.bodyEnd(body.length, System.nanoTime());
+            return new Response(parser.getCode(), parser.getReason(), parser.getHeaders(), body);
+        } catch (IOException e) {
+            IOException translated = call.translate(e);
+            failure = translated;
+            throw translated;
+        } catch (RuntimeException e) {
+            failure = e;
+            throw e;
+        } finally {
+            call.detach();
+            this.connectionPool.release(connection, reusable);
+            long now = System.nanoTime();
+            listener.poolRelease(reusable, now);
+            if (failure == null) {
+                listener.callEnd(now);
             } else {
-                this.responseCode = line.substring(0, idx);
-                this.responseStatus = line.substring(idx + 1);
+                listener.callFailed(failure, now);
             }
         }
     }
 
     /**
-     * 解析服务器端响应报文头
-     * @param is 从socket获取的inputStream
-     * @return 解析出来的报文头键值对
+     * 发送请求，失败时发出callFailed事件
+     */
+    private HttpConnection sendRequestOrFail(Call call, Request request, EventListener listener)
+            throws IOException {
+        try {
+            return this.sendRequest(call, request, listener);
+        } catch (IOException e) {
+            listener.callFailed(e, System.nanoTime());
+            throw e;
+        } catch (RuntimeException e) {
+            listener.callFailed(e, System.nanoTime());
+            throw e;
+        }
+    }
+
+    /**
+     * 发送http请求并以流的方式读取响应报文体，报文体不会整体缓存在内存中
+     * @param request 要发送的请求
+     * @return 报文体尚未读取的响应，使用完毕后必须关闭
      * @throws IOException
      */
-    private void parseResponseHeader(InputStream is) throws IOException {
-        String line = null;
-        while (true) {
-            line = new String(this.readLine(is), "UTF-8");
-            if (line.length() == 0) {
-                break;
-            }
+    public StreamingResponse stream(Request request) throws IOException {
+        return this.newCall(request).stream();
+    }
 
-            int idx = line.indexOf(":");
-            if (idx == -1) {
-                responseHeaders.put(line, "");
-            } else {
-                responseHeaders.put(line.substring(0, idx), line.substring(idx + 1).trim());
+    /**
+     * 以流的方式执行请求，由{@link Call#stream()}调用，不经过缓存
+     */
+    StreamingResponse stream(Call call) throws IOException {
+        Request request = call.getRequest();
+        RetryPolicy policy = this.retryPolicy;
+        if (policy == null || !policy.isRetryable(request)) {
+            return this.streamOnce(call, request);
+        }
+        policy.deposit();
+        for (int attempt = 1; ; attempt++) {
+            StreamingResponse response;
+            try {
+                response = this.streamOnce(call, request);
+            } catch (IOException e) {
+                this.backoff(call, policy, attempt, e);
+                continue;
+            }
+            long delay = this.retryDelay(policy, attempt, response.getCode(),
+                    response.getHeader(Constance.HTTP_RESPONSE_HEADER_KEY_RETRY_AFTER));
+            if (delay < 0) {
+                return response;
             }
+            response.close();
+            this.backoff(call, delay);
         }
     }
 
+    private StreamingResponse streamOnce(Call call, Request request) throws IOException {
+        EventListener listener = this.callStart(call, request);
+        if (this.http2PriorKnowledge) {
+            return this.openHttp2Stream(call, this.sendHttp2OrFail(call, request, listener), request, listener);
+        }
+        return this.openStream(call, this.sendRequestOrFail(call, request, listener), request, listener);
+    }
+
     /**
-     * 解析Content-Length指定内容长度的报文体
-     * @param is 从socket获取的inputStream
-     * @return
+     * 在已经解析完响应头的连接上创建流式响应，压缩的报文体叠加解压流
+     * @param call 请求所属的调用，报文体结束时随之结束
+     * @param connection 已经解析完响应头的连接，由返回的响应负责归还
+     * @param request 对应的请求
+     * @param listener 该次请求的监听器，报文体结束时收到callEnd或callFailed
+     * @return 报文体尚未读取的响应
      * @throws IOException
      */
-    private byte[] parseResponseBody(InputStream is) throws IOException {
-        long length = Long.parseLong(this.responseHeaders.get(Constance.HTTP_RESPONSE_HEADER_KEY_CONTENT_LENGTH));
-        ByteArrayOutputStream baos = null;
+    private StreamingResponse openStream(Call call, HttpConnection connection, Request request,
+                                         EventListener listener) throws IOException {
+        ResponseParser parser = connection.getResponseParser();
+        int encoding = this.contentEncoding(parser, request.getMethod());
+        ResponseBodyInputStream body;
         try {
-            baos = new ByteArrayOutputStream();
-            int readCount = 0;
-            long totalReadCount = 0;
-            int bufferSize = 1024;
-            byte[] buffer = new byte[bufferSize];
-            //totalReadCount < length这个条件必须写在前面，否则在一次读取就已经把数据取完的场景下会出现死循环
-            while (totalReadCount < length && (readCount = is.read(buffer, 0, bufferSize)) != -1) {
-                totalReadCount += readCount;
-                baos.write(buffer, 0, readCount);
-            }
-            return baos.toByteArray();
+            body = new ResponseBodyInputStream(connection, this.connectionPool, request.getMethod(), call,
+                    listener);
+        } catch (IOException e) {
+            this.releaseFailed(call, connection, listener, e);
+            throw e;
+        } catch (RuntimeException e) {
+            this.releaseFailed(call, connection, listener, e);
+            throw e;
+        }
+        if (encoding == InflatingInputStream.IDENTITY) {
+            return new StreamingResponse(parser.getCode(), parser.getReason(), parser.getHeaders(), body);
+        }
+        return new StreamingResponse(parser.getCode(), parser.getReason(), decodedHeaders(parser.getHeaders()), body,
+                new InflatingInputStream(body, encoding, connection));
+    }
+
+    /**
+     * 请求出错，关闭连接并发出poolRelease与callFailed事件
+     */
+    private void releaseFailed(Call call, HttpConnection connection, EventListener listener, Exception cause) {
+        call.detach();
+        this.connectionPool.release(connection, false);
+        long now = System.nanoTime();
+        listener.poolRelease(false, now);
+        listener.callFailed(cause, now);
+    }
+
+    /**
+     * @return 需要解压的编码，没有开启压缩、响应没有报文体或者编码不认识时返回IDENTITY
+     */
+    private int contentEncoding(ResponseParser parser, String method) {
+        if (!this.compressionEnabled || parser.isResponseBodyAbsent(method)) {
+            return InflatingInputStream.IDENTITY;
+        }
+        return InflatingInputStream.encodingOf(parser.getHeaders());
+    }
+
+    /**
+     * 解压后的报文体长度与编码都不再与响应头一致
+     */
+    private static Headers decodedHeaders(Headers headers) {
+        return headers.without(Constance.HTTP_RESPONSE_HEADER_KEY_CONTENT_ENCODING,
+                Constance.HTTP_RESPONSE_HEADER_KEY_CONTENT_LENGTH);
+    }
+
+    /**
+     * 取得当前的HTTP/2连接，没有可用的连接时建立新连接并发出dns与connect事件，HTTPS连接通过ALPN协商h2
+     * @param maxWaitMillis 等待其他线程建立连接的最长时间
+     * @param connectTimeoutMillis 建立连接、TLS握手与等待SETTINGS各自的超时时间，0表示不超时
+     */
+    private Http2Connection acquireHttp2(EventListener listener, long maxWaitMillis, int connectTimeoutMillis)
+            throws IOException {
+        try {
+            if (!this.http2Lock.tryLock(maxWaitMillis, TimeUnit.MILLISECONDS)) {
+                throw new HttpTimeoutException("Timeout waiting for HTTP/2 connection to " + this.host + ":"
+                        + this.port);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for HTTP/2 connection");
+        }
+        try {
+            Http2Connection connection = this.http2Connection;
+            if (connection != null && connection.isUsable()) {
+                listener.poolAcquire(true, System.nanoTime());
+                return connection;
+            }
+            //收到GOAWAY的旧连接在已有的流结束后自行关闭
+            listener.dnsStart(this.host, System.nanoTime());
+            List<InetAddress> addresses = this.connectionPool.getResolver().resolve(this.host);
+            listener.dnsEnd(this.host, addresses.get(0), System.nanoTime());
+            SocketChannel channel = ConnectRacer.connect(addresses, this.port, connectTimeoutMillis, listener);
+            TlsConfig tls = this.tlsConfig;
+            Socket secure = null;
+            if (tls != null) {
+                secure = tls.handshake(channel.socket(), this.host, this.port, TlsConfig.ALPN_H2,
+                        connectTimeoutMillis, listener);
+            }
+            connection = Http2Connection.open(this.host, this.port, channel, secure,
+                    this.connectionPool.getBufferPool(), connectTimeoutMillis);
+            this.http2Connection = connection;
+            listener.poolAcquire(false, System.nanoTime());
+            return connection;
         } finally {
-            if (baos != null) {
+            this.http2Lock.unlock();
+        }
+    }
+
+    /**
+     * 打开HTTP/2流并发送请求头与报文体，连接已经关闭时在新连接上重试
+     * @return 请求已经完整发出、与call关联的流
+     */
+    private Http2Stream openHttp2(Call call, Request request, EventListener listener) throws IOException {
+        List<String> fields = this.getRequestEncoder().encodeHttp2(request);
+        RequestBody body = request.getRequestBody();
+        boolean empty = body.contentLength() == 0;
+        for (int attempt = 1; ; attempt++) {
+            if (call.isInterrupted()) {
+                throw call.translate(new IOException("Call interrupted before sending request"));
+            }
+            Http2Stream stream;
+            try {
+                Http2Connection connection;
+                call.beginWait();
+                try {
+                    connection = this.acquireHttp2(listener, call.remainingMillis(),
+                            call.timeoutMillis(this.connectTimeoutMillis));
+                } finally {
+                    call.endWait();
+                }
                 try {
-                    baos.close();
-                } catch (Exception e) {
-                    e.printStackTrace();
+                    stream = connection.newStream(fields, empty);
+                } catch (IOException e) {
+                    listener.poolRelease(false, System.nanoTime());
+                    throw e;
+                }
+            } catch (Http2Exception e) {
+                //连接在取得之后收到了GOAWAY，请求尚未发出
+                if (e.isRefused() && attempt < HTTP2_MAX_ATTEMPTS) {
+                    continue;
                 }
+                throw call.translate(e);
+            } catch (IOException e) {
+                throw call.translate(e);
+            }
+            try {
+                call.attach(stream);
+                long bodyBytes = 0;
+                ByteBuffer buffered = body.buffer();
+                if (buffered != null) {
+                    bodyBytes = buffered.remaining();
+                    if (!empty) {
+                        stream.getConnection().writeData(stream, buffered);
+                    }
+                } else if (!empty) {
+                    bodyBytes = stream.getConnection().writeBody(stream, body);
+                }
+                listener.requestHeadersSent(stream.getHeaderBytes(), bodyBytes, System.nanoTime());
+                return stream;
+            } catch (IOException e) {
+                throw this.abortHttp2(call, stream, listener, e);
+            } catch (RuntimeException e) {
+                this.abortHttp2(call, stream, listener, null);
+                throw e;
             }
         }
     }
 
     /**
-     * 解析Chunked编码的报文体
-     * @param is 从socket获取的inputStream
-     * @return
-     * @throws IOException
+     * 等待HTTP/2响应头
      */
-    private byte[] parseResponseBodyChunked(InputStream is) throws IOException {
-        ByteArrayOutputStream baos = null;
+    private void awaitHttp2(Call call, Http2Stream stream, EventListener listener) throws IOException {
         try {
-            baos = new ByteArrayOutputStream();
-            int length = Integer.parseInt(this.readStringLine(is), 16);
-            while (length != 0) {
-                int totalReadCount = 0, readCount = 0;
-                byte[] buffer = new byte[length];
-                while (totalReadCount < length) {
-                    readCount = is.read(buffer, totalReadCount, length - totalReadCount);
-                    totalReadCount += readCount;
+            stream.awaitHeaders(this.readTimeoutMillis);
+            long now = System.nanoTime();
+            listener.firstByte(now);
+            listener.responseHeadersEnd(stream.getCode(), now);
+        } catch (IOException e) {
+            throw this.abortHttp2(call, stream, listener, e);
+        } catch (RuntimeException e) {
+            this.abortHttp2(call, stream, listener, null);
+            throw e;
+        }
+    }
+
+    /**
+     * 放弃出错的流，连接上的其他流不受影响
+     * @return 转换后的异常
+     */
+    private IOException abortHttp2(Call call, Http2Stream stream, EventListener listener, IOException cause) {
+        call.detach();
+        stream.cancel();
+        listener.poolRelease(false, System.nanoTime());
+        return cause == null ? null : call.translate(cause);
+    }
+
+    /**
+     * 以HTTP/2发送请求并等待响应头，服务器端以GOAWAY或REFUSED_STREAM拒绝的请求没有被处理，在新连接上重试
+     * @return 已经收到响应头、报文体尚未读取的流
+     */
+    private Http2Stream sendHttp2(Call call, Request request, EventListener listener) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            Http2Stream stream = this.openHttp2(call, request, listener);
+            try {
+                this.awaitHttp2(call, stream, listener);
+                return stream;
+            } catch (Http2Exception e) {
+                if (!e.isRefused() || call.isInterrupted() || attempt >= HTTP2_MAX_ATTEMPTS
+                        || !request.getRequestBody().isReplayable()) {
+                    throw e;
                 }
-                baos.write(buffer);
-                //跳过结尾回车换行符
-                this.readLine(is);
-                length = Integer.parseInt(this.readStringLine(is), 16);
             }
-            return baos.toByteArray();
-        } finally {
-            if (baos != null) {
+        }
+    }
+
+    /**
+     * 以HTTP/2发送请求，失败时发出callFailed事件
+     */
+    private Http2Stream sendHttp2OrFail(Call call, Request request, EventListener listener) throws IOException {
+        try {
+            return this.sendHttp2(call, request, listener);
+        } catch (IOException e) {
+            listener.callFailed(e, System.nanoTime());
+            throw e;
+        } catch (RuntimeException e) {
+            listener.callFailed(e, System.nanoTime());
+            throw e;
+        }
+    }
+
+    /**
+     * 在已经收到响应头的HTTP/2流上创建流式响应，HTTP/2没有原因短语，状态为空字符串
+     */
+    private StreamingResponse openHttp2Stream(Call call, Http2Stream stream, Request request,
+                                              EventListener listener) {
+        int code = stream.getCode();
+        Headers headers = stream.getHeaders();
+        Http2BodyInputStream body = new Http2BodyInputStream(stream, request.getMethod(), call, listener,
+                this.readTimeoutMillis);
+        int encoding = InflatingInputStream.IDENTITY;
+        if (this.compressionEnabled && !"HEAD".equals(request.getMethod()) && code != 204 && code != 304) {
+            encoding = InflatingInputStream.encodingOf(headers);
+        }
+        if (encoding == InflatingInputStream.IDENTITY) {
+            return new StreamingResponse(code, "", headers, body);
+        }
+        return new StreamingResponse(code, "", decodedHeaders(headers), body,
+                new InflatingInputStream(body, encoding, null));
+    }
+
+    /**
+     * 在HTTP/2连接上以多路复用的方式批量发送请求，最多pipelineDepth个流同时进行，响应按请求顺序读取
+     * <p>
+     * 与管线化相同，批量请求不受整个请求的超时时间限制；被服务器端拒绝的请求作为新的请求重发
+     */
+    private List<Response> fetchAllHttp2(List<Request> requests) throws IOException {
+        int size = requests.size();
+        Response[] responses = new Response[size];
+        Call[] calls = new Call[size];
+        EventListener[] listeners = new EventListener[size];
+        Http2Stream[] streams = new Http2Stream[size];
+        int sent = 0;
+        int received = 0;
+        Exception failure = null;
+        try {
+            while (received < size) {
+                while (sent < size && sent - received < this.pipelineDepth) {
+                    Request request = requests.get(sent);
+                    //已经有在途的流时不等待配额，先读取响应归还自己持有的名额
+                    listeners[sent] = this.callStart(null, request, sent == received);
+                    if (listeners[sent] == null) {
+                        break;
+                    }
+                    calls[sent] = new Call(this, request, 0);
+                    try {
+                        streams[sent] = this.openHttp2(calls[sent], request, listeners[sent]);
+                    } catch (IOException e) {
+                        listeners[sent].callFailed(e, System.nanoTime());
+                        throw e;
+                    }
+                    sent++;
+                }
+                Http2Stream stream = streams[received];
+                streams[received] = null;
                 try {
-                    baos.close();
-                } catch (Exception e) {
-                    e.printStackTrace();
+                    this.awaitHttp2(calls[received], stream, listeners[received]);
+                } catch (Http2Exception e) {
+                    listeners[received].callFailed(e, System.nanoTime());
+                    if (!e.isRefused()) {
+                        throw e;
+                    }
+                    responses[received] = this.execute(requests.get(received));
+                    received++;
+                    continue;
+                } catch (IOException e) {
+                    listeners[received].callFailed(e, System.nanoTime());
+                    throw e;
+                }
+                responses[received] = this.openHttp2Stream(calls[received], stream, requests.get(received),
+                        listeners[received]).toResponse();
+                received++;
+            }
+            return Arrays.asList(responses);
+        } catch (IOException e) {
+            failure = e;
+            throw e;
+        } catch (RuntimeException e) {
+            failure = e;
+            throw e;
+        } finally {
+            if (failure != null) {
+                for (int i = received; i < sent; i++) {
+                    if (streams[i] != null) {
+                        this.abortHttp2(calls[i], streams[i], listeners[i], null);
+                        listeners[i].callFailed(failure, System.nanoTime());
+                    }
                 }
             }
         }
     }
 
     /**
-     * 发送http请求并获取返回的二进制数据
-     * @return 获取到的二进制数据数组
-     * @throws Exception
+     * 批量发送http请求，连续的幂等请求在同一条连接上管线化发送，响应按顺序解析
+     * <p>
+     * 同一批请求的报文合并为一次写出；服务器端在管线中途关闭连接时，尚未收到响应的请求在新连接上依次重发。
+     * 非幂等的请求不参与管线化，单独发送。使用HTTP/2时所有请求以多路复用的流并发发送
+     * @param requests 要发送的请求
+     * @return 与请求顺序一致的响应
+     * @throws IOException
      */
-    public byte[] fetch() throws Exception {
-        BufferedWriter bufferedWriter = null;
-        InputStream inputStream = null;
+    public List<Response> fetchAll(List<Request> requests) throws IOException {
+        if (this.http2PriorKnowledge) {
+            return this.fetchAllHttp2(requests);
+        }
+        List<Response> responses = new ArrayList<Response>(requests.size());
+        int next = 0;
+        while (next < requests.size()) {
+            int end = next;
+            while (end < requests.size() && end - next < this.pipelineDepth && requests.get(end).isIdempotent()
+                    && requests.get(end).isBuffered()) {
+                end++;
+            }
+            if (end - next <= 1) {
+                responses.add(this.execute(requests.get(next)));
+                next++;
+                continue;
+            }
+            List<Request> batch = requests.subList(next, end);
+            int completed = this.pipeline(batch, responses);
+            for (int i = completed; i < batch.size(); i++) {
+                responses.add(this.execute(batch.get(i)));
+            }
+            next = end;
+        }
+        return responses;
+    }
 
+    /**
+     * 在一条连接上管线化发送一批请求
+     * <p>
+     * 每个请求各自收到callStart到callEnd的事件，只有最后一个结束的请求收到poolRelease；
+     * 连接中途被关闭时尚未收到响应的请求以callFailed结束，由调用方作为新的请求重发。
+     * 管线化的请求使用连接与读取超时，不受整个请求的超时时间限制
+     * @param batch 幂等的请求，只有第一个请求等待{@link HostLimiter}的配额，其余请求取不到配额时不参与这一批
+     * @param responses 收到的响应按顺序追加到该列表
+     * @return 收到响应的请求数，小于batch.size()说明连接在中途被关闭或者配额不足
+     * @throws IOException 建立连接失败或者读取超时
+     */
+    private int pipeline(List<Request> batch, List<Response> responses) throws IOException {
+        EventListener[] listeners = new EventListener[batch.size()];
+        for (int i = 0; i < batch.size(); i++) {
+            listeners[i] = this.callStart(null, batch.get(i), i == 0);
+            if (listeners[i] == null) {
+                batch = batch.subList(0, i);
+                listeners = Arrays.copyOf(listeners, i);
+                break;
+            }
+        }
+        HttpConnection connection;
         try {
-            SocketAddress dest = new InetSocketAddress(host, port);
-            socket.connect(dest);
-            bufferedWriter = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8"));
-            bufferedWriter.write(this.createRequestHeader());
-            bufferedWriter.write(this.requestBody);
-            bufferedWriter.write("\r\n");
-            bufferedWriter.flush();
-
-            inputStream = new BufferedInputStream(socket.getInputStream());
-            this.parseResponseStatus(inputStream);
-            this.parseResponseHeader(inputStream);
-            if (this.responseHeaders.get(Constance.HTTP_RESPONSE_HEADER_KEY_TRANSFER_ENCODING) != null
-                    && this.responseHeaders.get(Constance.HTTP_RESPONSE_HEADER_KEY_TRANSFER_ENCODING)
-                    .equals(Constance.HTTP_RESPONSE_HEADER_VALUE_TRANSFER_ENCODING_CHUNKED)) {
-                return this.parseResponseBodyChunked(inputStream);
-            } else {
-                return this.parseResponseBody(inputStream);
+            connection = this.connectionPool.acquire(this.host, this.port, this.tlsConfig, listeners[0],
+                    this.connectTimeoutMillis);
+        } catch (IOException e) {
+            for (EventListener listener : listeners) {
+                listener.callFailed(e, System.nanoTime());
+            }
+            throw e;
+        }
+        long acquired = System.nanoTime();
+        for (EventListener listener : listeners) {
+            listener.poolAcquire(connection.isReused(), acquired);
+        }
+        ResponseParser parser = connection.getResponseParser();
+        boolean reusable = false;
+        int completed = 0;
+        Exception failure = null;
+        try {
+            connection.setReadTimeout(this.readTimeoutMillis);
+            //所有请求头编码到同一个缓冲区，与各自的报文体交替排列后一次写出
+            RequestEncoder encoder = this.getRequestEncoder();
+            ByteBuffer head = connection.clearHeadBuffer();
+            int[] ends = new int[batch.size()];
+            for (int i = 0; i < batch.size(); i++) {
+                head = encoder.encode(batch.get(i), head);
+                ends[i] = head.position();
+            }
+            connection.setHeadBuffer(head);
+            ByteBuffer[] srcs = new ByteBuffer[batch.size() * 2];
+            int start = 0;
+            for (int i = 0; i < batch.size(); i++) {
+                ByteBuffer slice = head.duplicate();
+                slice.limit(ends[i]).position(start);
+                srcs[i * 2] = slice;
+                srcs[i * 2 + 1] = batch.get(i).getBodyBuffer();
+                start = ends[i];
+            }
+            connection.write(srcs);
+            long sent = System.nanoTime();
+            start = 0;
+            for (int i = 0; i < batch.size(); i++) {
+                listeners[i].requestHeadersSent(ends[i] - start, srcs[i * 2 + 1].limit(), sent);
+                start = ends[i];
+            }
+
+            for (Request request : batch) {
+                EventListener listener = listeners[completed];
+                parser.reset();
+                parser.parseResponseHead(listener);
+                listener.responseHeadersEnd(parser.getCode(), System.nanoTime());
+                byte[] body = parser.parseResponseBody(request.getMethod());
+                listener.bodyEnd(body.length, System.nanoTime());
+                Headers headers = parser.getHeaders();
+                int encoding = this.contentEncoding(parser, request.getMethod());
+                if (encoding != InflatingInputStream.IDENTITY) {
+                    //管线中的下一个响应紧随其后，压缩的报文体必须先完整读出再解压
+                    body = new InflatingInputStream(new ByteArrayInputStream(body), encoding, connection).readAll();
+                    headers = decodedHeaders(headers);
+                }
+                responses.add(new Response(parser.getCode(), parser.getReason(), headers, body));
+                completed++;
+                if (!parser.isReusable(request.getMethod())) {
+                    return completed;
+                }
+                if (completed < batch.size()) {
+                    listener.callEnd(System.nanoTime());
+                }
             }
+            reusable = true;
+            return completed;
+        } catch (SocketTimeoutException e) {
+            //服务器端没有响应，重发剩余请求也只会再次超时
+            ReadTimeoutException timeout = new ReadTimeoutException("Read timed out", e);
+            failure = timeout;
+            throw timeout;
+        } catch (IOException e) {
+            //连接中途被关闭或者响应出错，剩余请求由调用方在新连接上重发
+            failure = e;
+            return completed;
+        } catch (RuntimeException e) {
+            failure = e;
+            throw e;
         } finally {
-            if (bufferedWriter != null) {
-                try {
-                    bufferedWriter.close();
-                } catch (Exception e) {
-                    e.printStackTrace();
+            this.connectionPool.release(connection, reusable);
+            long now = System.nanoTime();
+            if (failure == null) {
+                listeners[completed - 1].poolRelease(reusable, now);
+                listeners[completed - 1].callEnd(now);
+            } else {
+                listeners[completed].poolRelease(false, now);
+            }
+            if (completed < listeners.length) {
+                Exception cause = failure != null ? failure : new IOException("Connection closed in pipeline");
+                for (int i = completed; i < listeners.length; i++) {
+                    listeners[i].callFailed(cause, now);
                 }
             }
+        }
+    }
 
-            if (inputStream != null) {
-                try {
-                    inputStream.close();
-                } catch (Exception e) {
-                    e.printStackTrace();
+    /**
+     * 发送http请求并把响应报文体写入目标通道，不在内存中缓存报文体
+     * @param request 要发送的请求
+     * @param target 目标通道，写入从其当前位置开始
+     * @return 响应，其中的报文体为空
+     * @throws IOException
+     */
+    public Response fetchTo(Request request, WritableByteChannel target) throws IOException {
+        StreamingResponse response = this.stream(request);
+        try {
+            response.transferTo(target);
+            return new Response(response.getCode(), response.getStatus(), response.getHeaders(),
+                    ResponseParser.EMPTY_BODY);
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * 下载响应报文体到文件，文件已存在且不为空时使用Range请求从断点继续下载
+     * <p>
+     * 服务器端返回206时追加到文件末尾，返回200时覆盖整个文件，返回416时认为文件已经下载完整；
+     * 其他返回码不修改文件，响应报文体保存在返回的Response中
+     * @param request 要发送的请求
+     * @param path 目标文件
+     * @return 响应，下载成功时其中的报文体为空
+     * @throws IOException
+     */
+    public Response fetchToFile(Request request, Path path) throws IOException {
+        long existing = Files.exists(path) ? Files.size(path) : 0;
+        Request actual = existing > 0
+                ? request.withHeader(Constance.HTTP_REQUEST_HEADER_KEY_RANGE, "bytes=" + existing + "-") : request;
+        if (this.compressionEnabled) {
+            //Range针对编码后的字节，断点续传时不能使用压缩
+            actual = actual.withHeader(Constance.HTTP_REQUEST_HEADER_KEY_ACCEPT_ENCODING,
+                    Constance.HTTP_REQUEST_HEADER_VALUE_ACCEPT_ENCODING_IDENTITY);
+        }
+        StreamingResponse response = this.stream(actual);
+        try {
+            int code = response.getCode();
+            if (existing > 0 && code == 416) {
+                return new Response(code, response.getStatus(), response.getHeaders(), ResponseParser.EMPTY_BODY);
+            }
+            if (code == 206 && existing > 0 && rangeStart(response) != existing) {
+                //服务器端返回的范围与断点不一致，重新下载整个文件
+                response.close();
+                Files.delete(path);
+                return this.fetchToFile(request, path);
+            }
+            if (code != 200 && code != 206) {
+                return new Response(code, response.getStatus(), response.getHeaders(), response.readBody());
+            }
+            FileChannel file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            try {
+                if (code == 200) {
+                    file.truncate(0);
+                    file.position(0);
+                } else {
+                    file.position(existing);
                 }
+                response.transferTo(file);
+            } finally {
+                file.close();
             }
+            return new Response(code, response.getStatus(), response.getHeaders(), ResponseParser.EMPTY_BODY);
+        } finally {
+            response.close();
         }
     }
 
+    /**
+     * 分段并发下载响应报文体到文件，各分段通过不同的连接下载并按偏移量写入文件
+     * <p>
+     * 先发送HEAD请求确认服务器端支持Range；不支持Range、没有Content-Length或者报文体过小时，
+     * 以及下载过程中资源发生变化时，改为单个流下载整个文件。单个分段失败时只重试该分段
+     * @param request GET请求
+     * @param path 目标文件，已经存在时被覆盖
+     * @param segments 最多的分段数，实际分段数还受每段最小长度的限制
+     * @return 响应，下载成功时其中的报文体为空
+     * @throws IOException 某个分段重试之后仍然失败
+     */
+    public Response downloadParallel(Request request, Path path, int segments) throws IOException {
+        if (segments <= 0) {
+            throw new IllegalArgumentException("segments must be positive: " + segments);
+        }
+        return new RangeDownload(this, request, path, segments).run();
+    }
+
+    /**
+     * 解析Content-Range中的起始位置
+     * @return 起始位置，无法解析时返回-1
+     */
+    static long rangeStart(StreamingResponse response) {
+        String contentRange = response.getHeader(Constance.HTTP_RESPONSE_HEADER_KEY_CONTENT_RANGE);
+        if (contentRange == null || !contentRange.startsWith("bytes ")) {
+            return -1;
+        }
+        int idx = contentRange.indexOf('-');
+        try {
+            return idx == -1 ? -1 : Long.parseLong(contentRange.substring(6, idx).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 发送http请求并获取返回的二进制数据
+     * @return 获取到的二进制数据数组
+     * @throws IOException
+     */
+    public byte[] fetch() throws IOException {
+        Request request = new Request(this.method, this.requestUri, this.requestHeaders, this.requestBody);
+        Response response = this.execute(request);
+        this.setResponse(response.getCode(), response.getStatus(), response.getHeaders());
+        return response.getBody();
+    }
+
     /**
      * 发送http请求并获取返回的二进制数据
      * @param requestUri 请求的uri地址
      * @return 获取到的二进制数据数组
-     * @throws Exception
+     * @throws IOException
      */
-    public byte[] fetch(String requestUri) throws Exception {
+    public byte[] fetch(String requestUri) throws IOException {
         this.requestUri = requestUri;
         return fetch();
     }
 
+    /**
+     * 发送http请求并把响应报文体写入目标通道
+     * @param target 目标通道
+     * @return 写入的字节数
+     * @throws IOException
+     */
+    public long fetchTo(WritableByteChannel target) throws IOException {
+        Request request = new Request(this.method, this.requestUri, this.requestHeaders, this.requestBody);
+        StreamingResponse response = this.stream(request);
+        try {
+            this.setResponse(response.getCode(), response.getStatus(), response.getHeaders());
+            return response.transferTo(target);
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * 发送http请求并把响应报文体下载到文件，支持断点续传
+     * @param path 目标文件
+     * @throws IOException
+     */
+    public void fetchToFile(Path path) throws IOException {
+        Request request = new Request(this.method, this.requestUri, this.requestHeaders, this.requestBody);
+        Response response = this.fetchToFile(request, path);
+        this.setResponse(response.getCode(), response.getStatus(), response.getHeaders());
+    }
+
+    /**
+     * 分段并发下载到文件
+     * @param requestUri 请求的uri地址
+     * @param path 目标文件
+     * @param segments 最多的分段数
+     * @throws IOException
+     */
+    public void downloadParallel(String requestUri, Path path, int segments) throws IOException {
+        this.requestUri = requestUri;
+        Request request = new Request("GET", this.requestUri, this.requestHeaders, "");
+        Response response = this.downloadParallel(request, path, segments);
+        this.setResponse(response.getCode(), response.getStatus(), response.getHeaders());
+    }
+
+    private void setResponse(int code, String status, Headers headers) {
+        this.responseCode = String.valueOf(code);
+        this.responseStatus = status;
+        this.responseHeaders = headers;
+    }
+
     /**
      * 发送http请求并获取返回的字符串数据
      * @return 获取到的二进制数据数组
-     * @throws Exception
+     * @throws IOException
      */
-    public String fetchString() throws Exception {
+    public String fetchString() throws IOException {
         return new String(this.fetch(), "UTF-8");
     }
 
@@ -297,39 +1334,250 @@ public class HttpClient {
      * 发送http请求并获取返回的字符串数据
      * @param requestUri 请求的uri地址
      * @return 获取到的二进制数据数组
-     * @throws Exception
+     * @throws IOException
      */
-    public String fetchString(String requestUri) throws Exception {
+    public String fetchString(String requestUri) throws IOException {
         return new String(this.fetch(requestUri), "UTF-8");
     }
 
+    /**
+     * 预先建立到服务器端的连接并完成TLS握手，之后的请求直接使用空闲连接，不再承担建立连接与握手的延迟；
+     * 同一服务器的后续连接还可以恢复预热时得到的TLS会话
+     * @param count 期望的空闲连接数，受连接池的maxPerRoute限制；HTTP/2只建立一条连接
+     * @return 新建立的连接数，已有足够的空闲连接时返回0
+     * @throws IOException 所有连接都建立失败
+     */
+    public int warmUp(int count) throws IOException {
+        if (this.http2PriorKnowledge) {
+            this.http2Lock.lock();
+            try {
+                Http2Connection connection = this.http2Connection;
+                if (connection != null && connection.isUsable()) {
+                    return 0;
+                }
+                this.acquireHttp2(EventListener.NONE, Long.MAX_VALUE, this.connectTimeoutMillis);
+                return 1;
+            } finally {
+                this.http2Lock.unlock();
+            }
+        }
+        return this.connectionPool.warmUp(this.host, this.port, this.tlsConfig, count, this.connectTimeoutMillis);
+    }
+
     /**
      * 关闭HttpClient并释放资源
      */
     public void close() {
-        if (this.socket != null) {
-            try {
-                this.socket.close();
-            } catch (IOException e) {
-                e.printStackTrace();
+        this.closeHttp2();
+        if (this.ownsConnectionPool && this.connectionPool != null) {
+            this.connectionPool.close();
+        }
+    }
+
+    /**
+     * 关闭当前的HTTP/2连接，进行中的流以异常结束
+     */
+    private void closeHttp2() {
+        this.http2Lock.lock();
+        try {
+            if (this.http2Connection != null) {
+                this.http2Connection.close();
+                this.http2Connection = null;
             }
+        } finally {
+            this.http2Lock.unlock();
+        }
+    }
+
+    public ConnectionPool getConnectionPool() {
+        return connectionPool;
+    }
+
+    /**
+     * 替换为共享的连接池，原先由当前HttpClient创建的连接池会被关闭
+     * @param connectionPool 共享的连接池
+     */
+    public void setConnectionPool(ConnectionPool connectionPool) {
+        if (this.ownsConnectionPool && this.connectionPool != null) {
+            this.connectionPool.close();
+        }
+        this.connectionPool = connectionPool;
+        this.ownsConnectionPool = false;
+    }
+
+    public HttpCache getCache() {
+        return cache;
+    }
+
+    /**
+     * @param cache 响应缓存，可以被多个HttpClient共享，为null时不使用缓存
+     */
+    public void setCache(HttpCache cache) {
+        this.cache = cache;
+    }
+
+    public EventListener.Factory getEventListenerFactory() {
+        return eventListenerFactory;
+    }
+
+    /**
+     * @param eventListenerFactory 为每次请求创建监听器，例如{@link LatencyRecorder}
+     */
+    public void setEventListenerFactory(EventListener.Factory eventListenerFactory) {
+        this.eventListenerFactory = eventListenerFactory == null
+                ? EventListener.factory(EventListener.NONE) : eventListenerFactory;
+    }
+
+    /**
+     * @param eventListener 所有请求共用的监听器，为null时不接收事件
+     */
+    public void setEventListener(EventListener eventListener) {
+        this.setEventListenerFactory(EventListener.factory(
+                eventListener == null ? EventListener.NONE : eventListener));
+    }
+
+    public HostLimiter getHostLimiter() {
+        return hostLimiter;
+    }
+
+    /**
+     * @param hostLimiter 发出请求之前取得的速率与并发配额，可以被多个HttpClient共享，为null时不限制；
+     *                    缓存命中的请求不占用配额
+     */
+    public void setHostLimiter(HostLimiter hostLimiter) {
+        this.hostLimiter = hostLimiter;
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * @param retryPolicy 幂等请求的重试与对冲策略，可以被多个HttpClient共享以共用重试预算，为null时不重试；
+     *                    对冲只用于{@link #execute(Request)}，流式读取的请求只重试
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    public int getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    /**
+     * @param connectTimeoutMillis 建立TCP连接的超时时间，超时抛出{@link ConnectTimeoutException}，0表示不超时
+     */
+    public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+        if (connectTimeoutMillis < 0) {
+            throw new IllegalArgumentException("connectTimeoutMillis must not be negative: " + connectTimeoutMillis);
+        }
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    public int getReadTimeoutMillis() {
+        return readTimeoutMillis;
+    }
+
+    /**
+     * @param readTimeoutMillis 等待响应数据的最长时间，每次读取重新计时，超时抛出{@link ReadTimeoutException}，0表示不超时
+     */
+    public void setReadTimeoutMillis(int readTimeoutMillis) {
+        if (readTimeoutMillis < 0) {
+            throw new IllegalArgumentException("readTimeoutMillis must not be negative: " + readTimeoutMillis);
         }
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    public long getCallTimeoutMillis() {
+        return callTimeoutMillis;
+    }
+
+    /**
+     * @param callTimeoutMillis 整个请求的超时时间，包括建立连接、发送请求与读取报文体，
+     *                          超时时关闭连接并抛出{@link CallTimeoutException}，0表示不超时；
+     *                          只对之后通过{@link #newCall(Request)}创建的请求生效
+     */
+    public void setCallTimeoutMillis(long callTimeoutMillis) {
+        if (callTimeoutMillis < 0) {
+            throw new IllegalArgumentException("callTimeoutMillis must not be negative: " + callTimeoutMillis);
+        }
+        this.callTimeoutMillis = callTimeoutMillis;
+    }
+
+    public boolean isCompressionEnabled() {
+        return compressionEnabled;
+    }
+
+    /**
+     * @param compressionEnabled 为true时请求携带"Accept-Encoding: gzip, deflate"，gzip与deflate响应在读取时透明解压，
+     *                           解压后的响应头中去掉Content-Encoding与Content-Length；下载到文件时不使用压缩
+     */
+    public synchronized void setCompressionEnabled(boolean compressionEnabled) {
+        this.compressionEnabled = compressionEnabled;
+        this.requestEncoder = null;
+    }
+
+    public boolean isHttp2PriorKnowledge() {
+        return http2PriorKnowledge;
+    }
+
+    /**
+     * @param http2PriorKnowledge 为true时不经过协商直接以HTTP/2明文(h2c)连接服务器端，配置了TLS时经ALPN协商h2，
+     *                            所有请求作为多路复用的流
+     *                            共用一条连接，{@link #fetchAll(List)}最多同时进行pipelineDepth个流；
+     *                            服务器端必须支持prior knowledge方式的HTTP/2
+     */
+    public void setHttp2PriorKnowledge(boolean http2PriorKnowledge) {
+        this.http2PriorKnowledge = http2PriorKnowledge;
+    }
+
+    public TlsConfig getTlsConfig() {
+        return tlsConfig;
+    }
+
+    /**
+     * @param tlsConfig 不为null时以HTTPS连接服务器端，HTTP/1.1连接通过ALPN声明http/1.1，
+     *                  与{@link #setHttp2PriorKnowledge(boolean)}同时使用时要求服务器端通过ALPN选择h2；
+     *                  默认端口仍为80，HTTPS通常需要同时设置端口443
+     */
+    public synchronized void setTlsConfig(TlsConfig tlsConfig) {
+        this.tlsConfig = tlsConfig;
+        this.requestEncoder = null;
+        this.closeHttp2();
+    }
+
+    public int getPipelineDepth() {
+        return pipelineDepth;
+    }
+
+    /**
+     * @param pipelineDepth 一条连接上连续写出而不等待响应的最大请求数，设为1时不使用管线化
+     */
+    public void setPipelineDepth(int pipelineDepth) {
+        if (pipelineDepth <= 0) {
+            throw new IllegalArgumentException("pipelineDepth must be positive: " + pipelineDepth);
+        }
+        this.pipelineDepth = pipelineDepth;
     }
 
     public String getHost() {
         return host;
     }
 
-    public void setHost(String host) {
+    public synchronized void setHost(String host) {
         this.host = host;
+        this.requestEncoder = null;
+        this.closeHttp2();
     }
 
     public int getPort() {
         return port;
     }
 
-    public void setPort(int port) {
+    public synchronized void setPort(int port) {
         this.port = port;
+        this.requestEncoder = null;
+        this.closeHttp2();
     }
 
     public String getMethod() {
@@ -380,11 +1628,14 @@ public class HttpClient {
         this.responseStatus = responseStatus;
     }
 
+    /**
+     * @return 响应头键值对的副本，重复的响应头只保留最后一个，完整的响应头见{@link #getResponseHeaderValues}
+     */
     public Map<String, String> getResponseHeaders() {
-        return responseHeaders;
+        return responseHeaders.toMap();
     }
 
     public void setResponseHeaders(Map<String, String> responseHeaders) {
-        this.responseHeaders = responseHeaders;
+        this.responseHeaders = Headers.of(responseHeaders);
     }
 }
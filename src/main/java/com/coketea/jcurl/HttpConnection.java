@@ -0,0 +1,398 @@
+package com.coketea.jcurl;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+import java.util.zip.Inflater;
+
+/**
+ * 对一条到服务器端的TCP连接或TLS连接的封装，由{@link ConnectionPool}负责创建、复用与关闭
+ */
+class HttpConnection {
+
+    /**
+     * chunked编码中表示报文体结束的空块
+     */
+    private static final byte[] LAST_CHUNK = {'0', '\r', '\n', '\r', '\n'};
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+
+    /**
+     * TLS连接的写缓冲区大小，请求头与较小的报文体合并为一个TLS记录
+     */
+    static final int TLS_WRITE_BUFFER_SIZE = 16 * 1024;
+
+    private final String host;
+
+    private final int port;
+
+    /**
+     * 读写使用的socket，TLS连接为{@link javax.net.ssl.SSLSocket}
+     */
+    private final Socket socket;
+
+    /**
+     * 底层的TCP socket，明文连接与socket相同
+     */
+    private final Socket rawSocket;
+
+    private final boolean secure;
+
+    private final ResponseParser responseParser;
+
+    /**
+     * 明文连接的socket通道，TLS连接为null
+     */
+    private final SocketChannel channel;
+
+    /**
+     * TLS连接的缓冲输出流，每次写出请求后刷新，明文连接为null
+     */
+    private final BufferedOutputStream secureOut;
+
+    /**
+     * 写出请求的通道，明文连接即为channel
+     */
+    private final WritableByteChannel sink;
+
+    private final BufferPool bufferPool;
+
+    /**
+     * 请求头的编码缓冲区，从bufferPool借出，在该连接的所有请求之间复用，连接关闭时归还
+     */
+    private ByteBuffer headBuffer;
+
+    /**
+     * 读写缓冲区是否已经归还，保证只归还一次
+     */
+    private boolean buffersReleased;
+
+    /**
+     * 解压响应报文体的Inflater，在该连接的多次响应之间复用；报文体读完时连接可能已经被其他线程借出，因此存取需要同步
+     */
+    private Inflater inflater;
+
+    /**
+     * 最近一次归还连接池的时间，用于判断空闲连接是否过期
+     */
+    private long idleSinceNanos;
+
+    /**
+     * 该连接已经完成的请求次数，大于0即为复用的连接
+     */
+    private int useCount;
+
+    private HttpConnection(String host, int port, Socket socket, Socket rawSocket, BufferPool bufferPool)
+            throws IOException {
+        this.host = host;
+        this.port = port;
+        this.socket = socket;
+        this.rawSocket = rawSocket;
+        this.secure = socket != rawSocket;
+        this.bufferPool = bufferPool;
+        this.responseParser = new ResponseParser(socket.getInputStream(), bufferPool);
+        if (secure) {
+            this.channel = null;
+            this.secureOut = new BufferedOutputStream(socket.getOutputStream(), TLS_WRITE_BUFFER_SIZE);
+            this.sink = Channels.newChannel(secureOut);
+        } else {
+            this.channel = socket.getChannel();
+            this.secureOut = null;
+            this.sink = channel;
+        }
+        this.headBuffer = bufferPool.acquireDirect(RequestEncoder.INITIAL_BUFFER_SIZE);
+    }
+
+    /**
+     * 建立一条新的连接，有多个地址时竞速连接
+     * @param host 服务器地址
+     * @param port 服务器端口
+     * @param addresses 域名解析出的地址，按优先顺序排列
+     * @param bufferPool 连接的读写缓冲区从这里借出
+     * @param listener 接收建立连接的事件
+     * @param connectTimeoutMillis 建立TCP连接的超时时间，0表示不超时
+     * @return 已连接的HttpConnection
+     * @throws ConnectTimeoutException 建立连接超时
+     * @throws IOException
+     */
+    static HttpConnection open(String host, int port, List<InetAddress> addresses, BufferPool bufferPool,
+                               EventListener listener, int connectTimeoutMillis) throws IOException {
+        return open(host, port, addresses, null, bufferPool, listener, connectTimeoutMillis);
+    }
+
+    /**
+     * 建立一条新的连接，有多个地址时竞速连接，tls不为null时在TCP连接上完成TLS握手
+     * @param tls TLS配置，为null时建立明文连接
+     * @param connectTimeoutMillis 建立TCP连接与TLS握手各自的超时时间，0表示不超时
+     * @see #open(String, int, List, BufferPool, EventListener, int)
+     */
+    static HttpConnection open(String host, int port, List<InetAddress> addresses, TlsConfig tls,
+                               BufferPool bufferPool, EventListener listener, int connectTimeoutMillis)
+            throws IOException {
+        //通过SocketChannel创建socket，明文连接的报文体可以直接从通道传输到文件
+        SocketChannel channel = ConnectRacer.connect(addresses, port, connectTimeoutMillis, listener);
+        Socket rawSocket = channel.socket();
+        Socket socket = rawSocket;
+        try {
+            rawSocket.setTcpNoDelay(true);
+            rawSocket.setKeepAlive(true);
+            if (tls != null) {
+                socket = tls.handshake(rawSocket, host, port, TlsConfig.ALPN_HTTP_1_1, connectTimeoutMillis,
+                        listener);
+            }
+            return new HttpConnection(host, port, socket, rawSocket, bufferPool);
+        } catch (IOException e) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @return 实际连接的服务器地址
+     */
+    InetAddress getInetAddress() {
+        return socket.getInetAddress();
+    }
+
+    String getHost() {
+        return host;
+    }
+
+    int getPort() {
+        return port;
+    }
+
+    /**
+     * @return 是否为TLS连接
+     */
+    boolean isSecure() {
+        return secure;
+    }
+
+    /**
+     * @return 连接上的响应解析器，其中缓冲了从连接读取但尚未消费的数据
+     */
+    ResponseParser getResponseParser() {
+        return responseParser;
+    }
+
+    /**
+     * @return 该连接使用的缓冲区池，报文体传输与解压的临时缓冲区也从这里借出
+     */
+    BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * @return 阻塞模式的socket通道，TLS连接的数据需要解密，返回null
+     */
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * @return 清空后的请求头缓冲区
+     */
+    ByteBuffer clearHeadBuffer() {
+        headBuffer.clear();
+        return headBuffer;
+    }
+
+    /**
+     * 保存编码过程中扩容后的请求头缓冲区，供之后的请求复用
+     */
+    void setHeadBuffer(ByteBuffer headBuffer) {
+        if (headBuffer != this.headBuffer) {
+            bufferPool.release(this.headBuffer);
+            this.headBuffer = headBuffer;
+        }
+    }
+
+    /**
+     * 以一次聚集写把请求头与报文体写出，TLS连接合并到缓冲区后加密写出
+     * @param srcs 依次写出的缓冲区
+     * @throws IOException
+     */
+    void write(ByteBuffer... srcs) throws IOException {
+        this.writeAll(srcs);
+        this.flush();
+    }
+
+    private void writeAll(ByteBuffer... srcs) throws IOException {
+        if (channel != null) {
+            long remaining = 0;
+            for (ByteBuffer src : srcs) {
+                remaining += src.remaining();
+            }
+            while (remaining > 0) {
+                remaining -= channel.write(srcs);
+            }
+            return;
+        }
+        for (ByteBuffer src : srcs) {
+            while (src.hasRemaining()) {
+                sink.write(src);
+            }
+        }
+    }
+
+    private void flush() throws IOException {
+        if (secureOut != null) {
+            secureOut.flush();
+        }
+    }
+
+    /**
+     * 在请求头之后写出不在内存中的报文体，长度已知时直接写入socket通道，明文连接的文件因此可以零拷贝发送；
+     * 长度未知时以chunked编码写出并以最后一个空块结束
+     * @param body 请求报文体
+     * @throws IOException
+     */
+    void writeBody(RequestBody body) throws IOException {
+        if (body.contentLength() >= 0) {
+            body.writeTo(sink);
+        } else {
+            body.writeTo(new ChunkedChannel());
+            this.writeAll(ByteBuffer.wrap(LAST_CHUNK));
+        }
+        this.flush();
+    }
+
+    /**
+     * 把每次写入的数据包装为一个chunk
+     */
+    private class ChunkedChannel implements WritableByteChannel {
+
+        private final ByteBuffer size = ByteBuffer.allocate(18);
+
+        private final ByteBuffer crlf = ByteBuffer.wrap(new byte[]{'\r', '\n'});
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            int length = src.remaining();
+            if (length == 0) {
+                //空块表示报文体结束，不能写出
+                return 0;
+            }
+            size.clear();
+            int shift = 28;
+            while (shift > 0 && (length >>> shift) == 0) {
+                shift -= 4;
+            }
+            for (; shift >= 0; shift -= 4) {
+                size.put(HEX[(length >>> shift) & 0xf]);
+            }
+            size.put((byte) '\r').put((byte) '\n');
+            size.flip();
+            crlf.clear();
+            HttpConnection.this.writeAll(size, src, crlf);
+            return length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return !socket.isClosed();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * @return 连接上缓存的Inflater，没有缓存时新建一个，使用不带zlib头的原始deflate格式
+     */
+    synchronized Inflater borrowInflater() {
+        Inflater borrowed = this.inflater;
+        this.inflater = null;
+        if (borrowed == null) {
+            return new Inflater(true);
+        }
+        borrowed.reset();
+        return borrowed;
+    }
+
+    /**
+     * 归还Inflater，连接已关闭或者已经缓存了另一个Inflater时直接释放
+     */
+    synchronized void returnInflater(Inflater returned) {
+        if (this.inflater == null && !socket.isClosed()) {
+            this.inflater = returned;
+        } else {
+            returned.end();
+        }
+    }
+
+    /**
+     * 设置读取的超时时间，阻塞读取超过该时间没有收到数据时抛出{@link SocketTimeoutException}
+     * @param readTimeoutMillis 0表示不超时
+     * @throws IOException
+     */
+    void setReadTimeout(int readTimeoutMillis) throws IOException {
+        socket.setSoTimeout(readTimeoutMillis);
+    }
+
+    boolean isReused() {
+        return useCount > 0;
+    }
+
+    void markUsed() {
+        this.useCount++;
+    }
+
+    long getIdleSinceNanos() {
+        return idleSinceNanos;
+    }
+
+    void setIdleSinceNanos(long idleSinceNanos) {
+        this.idleSinceNanos = idleSinceNanos;
+    }
+
+    boolean isOpen() {
+        return !socket.isClosed() && socket.isConnected() && !socket.isInputShutdown()
+                && !socket.isOutputShutdown();
+    }
+
+    /**
+     * 从其他线程中断连接上阻塞的读写：只关闭底层的TCP socket，不等待TLS的close_notify，
+     * 缓冲区仍由使用连接的线程在close时归还
+     */
+    void shutdown() {
+        try {
+            rawSocket.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * 关闭连接，关闭过程中的异常直接忽略
+     */
+    void close() {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+        //先关闭socket，之后归还的Inflater不会再被缓存
+        synchronized (this) {
+            if (inflater != null) {
+                inflater.end();
+                inflater = null;
+            }
+            if (!buffersReleased) {
+                buffersReleased = true;
+                responseParser.release();
+                bufferPool.release(headBuffer);
+                headBuffer = null;
+            }
+        }
+    }
+}
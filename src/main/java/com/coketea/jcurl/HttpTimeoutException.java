@@ -0,0 +1,18 @@
+package com.coketea.jcurl;
+
+import java.io.InterruptedIOException;
+
+/**
+ * 请求在限定时间内没有完成时抛出，具体是哪一个超时由子类区分
+ */
+public class HttpTimeoutException extends InterruptedIOException {
+
+    public HttpTimeoutException(String message) {
+        super(message);
+    }
+
+    public HttpTimeoutException(String message, Throwable cause) {
+        super(message);
+        this.initCause(cause);
+    }
+}
@@ -0,0 +1,411 @@
+package com.coketea.jcurl;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * 边读边解压的响应报文体，叠加在Content-Length或chunked报文体之上
+ * <p>
+ * gzip与deflate共用连接上的原始deflate格式Inflater，gzip头尾以及zlib头尾由该流自己解析与校验，
+ * 每次只解压调用方需要的数据，不会缓存整个压缩报文体
+ */
+class InflatingInputStream extends InputStream {
+
+    static final int IDENTITY = 0;
+
+    static final int GZIP = 1;
+
+    static final int DEFLATE = 2;
+
+    private static final int INPUT_BUFFER_SIZE = 8 * 1024;
+
+    private static final int OUTPUT_BUFFER_SIZE = 16 * 1024;
+
+    private static final int GZIP_MAGIC = 0x8b1f;
+
+    private static final int FHCRC = 2;
+
+    private static final int FEXTRA = 4;
+
+    private static final int FNAME = 8;
+
+    private static final int FCOMMENT = 16;
+
+    private final InputStream source;
+
+    private final HttpConnection connection;
+
+    private final int encoding;
+
+    private Inflater inflater;
+
+    private final BufferPool bufferPool;
+
+    /**
+     * 压缩数据的输入缓冲区，从bufferPool借出，解压完成或者关闭时归还
+     */
+    private byte[] input;
+
+    private int inputPos;
+
+    private int inputLimit;
+
+    /**
+     * gzip校验CRC32，zlib格式的deflate校验Adler32，原始deflate不校验
+     */
+    private Checksum checksum;
+
+    /**
+     * 当前gzip成员解压出的字节数，与gzip尾部的ISIZE比较
+     */
+    private long memberSize;
+
+    private boolean headerRead;
+
+    private boolean finished;
+
+    private boolean closed;
+
+    /**
+     * @param source 压缩的报文体
+     * @param encoding {@link #GZIP}或{@link #DEFLATE}
+     * @param connection 提供可复用Inflater的连接，为null时使用新建的Inflater
+     */
+    InflatingInputStream(InputStream source, int encoding, HttpConnection connection) {
+        this.source = source;
+        this.encoding = encoding;
+        this.connection = connection;
+        this.inflater = connection != null ? connection.borrowInflater() : new Inflater(true);
+        this.bufferPool = connection != null ? connection.getBufferPool() : BufferPool.DEFAULT;
+        this.input = bufferPool.acquire(INPUT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param headers 响应头
+     * @return Content-Encoding对应的编码，不认识的编码或者多重编码返回{@link #IDENTITY}，报文体原样返回
+     */
+    static int encodingOf(Headers headers) {
+        String value = headers.get(Constance.HTTP_RESPONSE_HEADER_KEY_CONTENT_ENCODING);
+        if (value == null) {
+            return IDENTITY;
+        }
+        value = value.trim();
+        if (value.equalsIgnoreCase("gzip") || value.equalsIgnoreCase("x-gzip")) {
+            return GZIP;
+        }
+        if (value.equalsIgnoreCase("deflate")) {
+            return DEFLATE;
+        }
+        return IDENTITY;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        int count = this.read(single, 0, 1);
+        return count == -1 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Response body stream is closed");
+        }
+        if (len == 0) {
+            return 0;
+        }
+        try {
+            while (!finished) {
+                if (!headerRead && !this.readHeader()) {
+                    this.finish();
+                    break;
+                }
+                int count;
+                try {
+                    count = inflater.inflate(b, off, len);
+                } catch (DataFormatException e) {
+                    throw new ZipException(e.getMessage());
+                }
+                if (count > 0) {
+                    if (checksum != null) {
+                        checksum.update(b, off, count);
+                    }
+                    memberSize += count;
+                    return count;
+                }
+                if (inflater.finished()) {
+                    inputPos = inputLimit - inflater.getRemaining();
+                    this.readTrailer();
+                } else if (inflater.needsDictionary()) {
+                    throw new ZipException("Preset dictionary is not supported");
+                } else if (inflater.needsInput()) {
+                    if (inputPos == inputLimit && this.fill() == -1) {
+                        throw new EOFException("Unexpected end of compressed response body");
+                    }
+                    inflater.setInput(input, inputPos, inputLimit - inputPos);
+                    inputPos = inputLimit;
+                }
+            }
+            return -1;
+        } catch (IOException e) {
+            this.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 解析gzip成员头或zlib头
+     * @return false表示报文体已经结束
+     */
+    private boolean readHeader() throws IOException {
+        if (encoding == GZIP) {
+            int first = this.nextByte();
+            if (first == -1) {
+                return false;
+            }
+            if ((first | this.readUnsignedByte() << 8) != GZIP_MAGIC) {
+                throw new ZipException("Not in gzip format");
+            }
+            if (this.readUnsignedByte() != 8) {
+                throw new ZipException("Unsupported gzip compression method");
+            }
+            int flags = this.readUnsignedByte();
+            this.skip(6);
+            if ((flags & FEXTRA) != 0) {
+                this.skip(this.readUnsignedByte() | this.readUnsignedByte() << 8);
+            }
+            if ((flags & FNAME) != 0) {
+                this.skipZeroTerminated();
+            }
+            if ((flags & FCOMMENT) != 0) {
+                this.skipZeroTerminated();
+            }
+            if ((flags & FHCRC) != 0) {
+                this.skip(2);
+            }
+            if (checksum == null) {
+                checksum = new CRC32();
+            }
+        } else {
+            int available = this.available(2);
+            if (available == 0) {
+                return false;
+            }
+            //多数服务器返回带zlib头的deflate，少数返回原始deflate，根据头两个字节区分
+            if (available >= 2 && this.isZlibHeader(input[inputPos] & 0xff, input[inputPos + 1] & 0xff)) {
+                inputPos += 2;
+                checksum = new Adler32();
+            }
+        }
+        headerRead = true;
+        memberSize = 0;
+        return true;
+    }
+
+    private boolean isZlibHeader(int first, int second) throws ZipException {
+        if ((first & 0x0f) != 8 || ((first << 8) | second) % 31 != 0) {
+            return false;
+        }
+        if ((second & 0x20) != 0) {
+            throw new ZipException("Preset dictionary is not supported");
+        }
+        return true;
+    }
+
+    /**
+     * 校验gzip成员尾部的CRC32与ISIZE，或zlib尾部的Adler32；gzip之后还可能有下一个成员
+     */
+    private void readTrailer() throws IOException {
+        if (encoding == GZIP) {
+            long crc = this.readUnsignedInt(false);
+            long size = this.readUnsignedInt(false);
+            if (crc != checksum.getValue() || size != (memberSize & 0xffffffffL)) {
+                throw new ZipException("Corrupt gzip trailer");
+            }
+            checksum.reset();
+            headerRead = false;
+            inflater.reset();
+            return;
+        }
+        if (checksum != null && this.readUnsignedInt(true) != checksum.getValue()) {
+            throw new ZipException("Corrupt zlib trailer");
+        }
+        //deflate只有一个数据流，之后的数据直接丢弃以便连接能够复用
+        inputPos = inputLimit;
+        while (this.fill() != -1) {
+            inputPos = inputLimit;
+        }
+        this.finish();
+    }
+
+    private long readUnsignedInt(boolean bigEndian) throws IOException {
+        long value = 0;
+        for (int i = 0; i < 4; i++) {
+            long b = this.readUnsignedByte();
+            value = bigEndian ? value << 8 | b : value | b << (8 * i);
+        }
+        return value;
+    }
+
+    private void skipZeroTerminated() throws IOException {
+        while (this.readUnsignedByte() != 0) {
+        }
+    }
+
+    private void skip(int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            this.readUnsignedByte();
+        }
+    }
+
+    private int readUnsignedByte() throws IOException {
+        int b = this.nextByte();
+        if (b == -1) {
+            throw new EOFException("Unexpected end of compressed response body");
+        }
+        return b;
+    }
+
+    private int nextByte() throws IOException {
+        if (inputPos == inputLimit && this.fill() == -1) {
+            return -1;
+        }
+        return input[inputPos++] & 0xff;
+    }
+
+    /**
+     * 从压缩的报文体读取下一段数据到输入缓冲区，调用前输入缓冲区中的数据必须已经消费完
+     */
+    private int fill() throws IOException {
+        int count = source.read(input, 0, input.length);
+        inputPos = 0;
+        inputLimit = count == -1 ? 0 : count;
+        return count;
+    }
+
+    /**
+     * 保证输入缓冲区中至少有count个未消费的字节，报文体提前结束时可能不足
+     * @return 输入缓冲区中未消费的字节数
+     */
+    private int available(int count) throws IOException {
+        while (inputLimit - inputPos < count) {
+            System.arraycopy(input, inputPos, input, 0, inputLimit - inputPos);
+            inputLimit -= inputPos;
+            inputPos = 0;
+            int read = source.read(input, inputLimit, input.length - inputLimit);
+            if (read == -1) {
+                break;
+            }
+            inputLimit += read;
+        }
+        return inputLimit - inputPos;
+    }
+
+    /**
+     * 把解压后的报文体逐段交给回调
+     * @param consumer 数据回调
+     * @return 解压后的总字节数
+     * @throws IOException
+     */
+    long consume(BodyConsumer consumer) throws IOException {
+        byte[] output = bufferPool.acquire(OUTPUT_BUFFER_SIZE);
+        try {
+            long total = 0;
+            int count;
+            while ((count = this.read(output, 0, output.length)) != -1) {
+                consumer.accept(ByteBuffer.wrap(output, 0, count).asReadOnlyBuffer());
+                total += count;
+            }
+            return total;
+        } finally {
+            bufferPool.release(output);
+        }
+    }
+
+    /**
+     * 把解压后的报文体写入目标通道
+     * @param target 目标通道
+     * @return 写入的字节数
+     * @throws IOException
+     */
+    long transferTo(WritableByteChannel target) throws IOException {
+        byte[] output = bufferPool.acquire(OUTPUT_BUFFER_SIZE);
+        try {
+            long total = 0;
+            int count;
+            while ((count = this.read(output, 0, output.length)) != -1) {
+                ByteBuffer buffer = ByteBuffer.wrap(output, 0, count);
+                while (buffer.hasRemaining()) {
+                    target.write(buffer);
+                }
+                total += count;
+            }
+            return total;
+        } finally {
+            bufferPool.release(output);
+        }
+    }
+
+    /**
+     * 读取剩余的全部报文体，解压结果直接写入累积缓冲区
+     */
+    byte[] readAll() throws IOException {
+        BodyBuffer body = new BodyBuffer(bufferPool, OUTPUT_BUFFER_SIZE);
+        try {
+            while (true) {
+                body.ensureWritable(OUTPUT_BUFFER_SIZE);
+                int count = this.read(body.array(), body.size(), body.array().length - body.size());
+                if (count == -1) {
+                    return body.toByteArray();
+                }
+                body.advance(count);
+            }
+        } finally {
+            body.release();
+        }
+    }
+
+    /**
+     * 解压完成，归还Inflater与输入缓冲区
+     */
+    private void finish() {
+        finished = true;
+        this.releaseInflater();
+    }
+
+    /**
+     * 归还Inflater与输入缓冲区
+     */
+    private void releaseInflater() {
+        if (inflater != null) {
+            if (connection != null) {
+                connection.returnInflater(inflater);
+            } else {
+                inflater.end();
+            }
+            inflater = null;
+        }
+        if (input != null) {
+            bufferPool.release(input);
+            input = null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            this.releaseInflater();
+            source.close();
+        }
+    }
+}
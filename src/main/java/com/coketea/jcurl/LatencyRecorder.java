@@ -0,0 +1,204 @@
+package com.coketea.jcurl;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 按host:port分别记录各阶段耗时直方图的监听器，耗时单位为纳秒
+ * <p>
+ * 通过{@link HttpClient#setEventListenerFactory(EventListener.Factory)}使用，可以被多个HttpClient共享；
+ * 每次请求只创建一个保存时间戳的小对象，耗时记录在无锁的{@link LatencyHistogram}中
+ */
+public class LatencyRecorder implements EventListener.Factory {
+
+    /**
+     * 记录耗时的阶段
+     */
+    public enum Phase {
+        /**
+         * 域名解析，只有新建连接的请求才有
+         */
+        DNS,
+        /**
+         * 建立TCP连接，只有新建连接的请求才有
+         */
+        CONNECT,
+        /**
+         * TLS握手，只有新建的HTTPS连接才有
+         */
+        TLS_HANDSHAKE,
+        /**
+         * 请求写出完毕到收到状态行
+         */
+        TIME_TO_FIRST_BYTE,
+        /**
+         * 收到状态行到报文体读取完毕
+         */
+        BODY,
+        /**
+         * 整个请求，从callStart到callEnd
+         */
+        TOTAL
+    }
+
+    private final ConcurrentMap<String, Route> routes = new ConcurrentHashMap<String, Route>();
+
+    @Override
+    public EventListener create(String host, int port, Request request) {
+        return new Recorder(this.route(host + ":" + port));
+    }
+
+    private Route route(String key) {
+        Route route = routes.get(key);
+        if (route == null) {
+            Route created = new Route();
+            route = routes.putIfAbsent(key, created);
+            if (route == null) {
+                route = created;
+            }
+        }
+        return route;
+    }
+
+    /**
+     * @return 已经有记录的host:port
+     */
+    public Set<String> getRoutes() {
+        return Collections.unmodifiableSet(routes.keySet());
+    }
+
+    /**
+     * @param route host:port
+     * @param phase 阶段
+     * @return 该路由上该阶段的耗时直方图，没有记录时返回null
+     */
+    public LatencyHistogram getHistogram(String route, Phase phase) {
+        Route stats = routes.get(route);
+        return stats == null ? null : stats.histograms[phase.ordinal()];
+    }
+
+    /**
+     * @param route host:port
+     * @return 该路由上以callFailed结束的请求数
+     */
+    public long getFailureCount(String route) {
+        Route stats = routes.get(route);
+        return stats == null ? 0 : stats.failures.sum();
+    }
+
+    /**
+     * 清空所有记录
+     */
+    public void reset() {
+        routes.clear();
+    }
+
+    private static class Route {
+
+        final LatencyHistogram[] histograms = new LatencyHistogram[Phase.values().length];
+
+        final LongAdder failures = new LongAdder();
+
+        Route() {
+            for (int i = 0; i < histograms.length; i++) {
+                histograms[i] = new LatencyHistogram();
+            }
+        }
+
+        void record(Phase phase, long start, long end) {
+            if (start != 0) {
+                histograms[phase.ordinal()].record(end - start);
+            }
+        }
+    }
+
+    /**
+     * 一次请求的时间戳，为0表示该事件尚未发生
+     */
+    private static class Recorder extends EventListener {
+
+        private final Route route;
+
+        private long callStart;
+
+        private long dnsStart;
+
+        private long connectStart;
+
+        private long secureConnectStart;
+
+        private long requestSent;
+
+        private long firstByte;
+
+        Recorder(Route route) {
+            this.route = route;
+        }
+
+        @Override
+        public void callStart(Request request, long nanoTime) {
+            callStart = nanoTime;
+        }
+
+        @Override
+        public void dnsStart(String host, long nanoTime) {
+            dnsStart = nanoTime;
+        }
+
+        @Override
+        public void dnsEnd(String host, InetAddress address, long nanoTime) {
+            route.record(Phase.DNS, dnsStart, nanoTime);
+        }
+
+        @Override
+        public void connectStart(InetSocketAddress address, long nanoTime) {
+            connectStart = nanoTime;
+        }
+
+        @Override
+        public void connectEnd(InetSocketAddress address, long nanoTime) {
+            route.record(Phase.CONNECT, connectStart, nanoTime);
+        }
+
+        @Override
+        public void secureConnectStart(long nanoTime) {
+            secureConnectStart = nanoTime;
+        }
+
+        @Override
+        public void secureConnectEnd(String protocol, String applicationProtocol, boolean resumed, long nanoTime) {
+            route.record(Phase.TLS_HANDSHAKE, secureConnectStart, nanoTime);
+        }
+
+        @Override
+        public void requestHeadersSent(long headerBytes, long bodyBytes, long nanoTime) {
+            requestSent = nanoTime;
+        }
+
+        @Override
+        public void firstByte(long nanoTime) {
+            firstByte = nanoTime;
+            route.record(Phase.TIME_TO_FIRST_BYTE, requestSent, nanoTime);
+        }
+
+        @Override
+        public void bodyEnd(long bodyBytes, long nanoTime) {
+            route.record(Phase.BODY, firstByte, nanoTime);
+        }
+
+        @Override
+        public void callEnd(long nanoTime) {
+            route.record(Phase.TOTAL, callStart, nanoTime);
+        }
+
+        @Override
+        public void callFailed(Exception cause, long nanoTime) {
+            route.failures.increment();
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.coketea.jcurl;
+
+import java.io.IOException;
+
+/**
+ * 请求超过了{@link HostLimiter}的速率或并发上限，并且在最长等待时间内没有取得配额时抛出，请求没有被发出
+ */
+public class LimitExceededException extends IOException {
+
+    public LimitExceededException(String message) {
+        super(message);
+    }
+}
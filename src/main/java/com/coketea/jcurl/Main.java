@@ -0,0 +1,438 @@
+package com.coketea.jcurl;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.UnknownHostException;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 命令行入口，支持curl常用的参数，也可以作为压测工具使用
+ * <pre>
+ * java -jar jcurl.jar [options] &lt;url&gt;
+ * java -jar jcurl.jar --concurrency 64 --requests 100000 &lt;url&gt;
+ * </pre>
+ * 退出码与curl一致：参数错误为2，url格式错误为3，域名解析失败为6，连接失败为7，超时为28，其他错误为1
+ */
+public class Main {
+
+    static final int EXIT_OK = 0;
+
+    static final int EXIT_ERROR = 1;
+
+    static final int EXIT_USAGE = 2;
+
+    static final int EXIT_URL_MALFORMED = 3;
+
+    static final int EXIT_RESOLVE_FAILED = 6;
+
+    static final int EXIT_CONNECT_FAILED = 7;
+
+    static final int EXIT_TIMEOUT = 28;
+
+    private static final String USAGE = "Usage: jcurl [options] <url>\n"
+            + " -X, --request <method>      Request method, default GET, or POST when data is given\n"
+            + " -H, --header <name: value>  Add a request header, can be repeated\n"
+            + " -d, --data <data>           Request body, @file reads the body from a file\n"
+            + " -o, --output <file>         Write the output to a file instead of stdout\n"
+            + " -i, --include               Include the status line and response headers in the output\n"
+            + " -I, --head                  Send a HEAD request and show only the response headers\n"
+            + "     --compressed            Request a compressed response and decompress it\n"
+            + "     --http2-prior-knowledge Use HTTP/2 without upgrade, negotiated with ALPN for https\n"
+            + " -k, --insecure              Allow https connections to servers with untrusted certificates\n"
+            + "     --connect-timeout <s>   Maximum time allowed for connecting, in seconds\n"
+            + " -m, --max-time <s>          Maximum time allowed for the whole request, in seconds\n"
+            + "     --concurrency <n>       Load mode: number of concurrent workers\n"
+            + "     --requests <n>          Load mode: total number of requests\n"
+            + " -h, --help                  Show this help\n";
+
+    public static void main(String[] args) {
+        int code = run(args, System.out, System.err);
+        System.out.flush();
+        if (code != EXIT_OK) {
+            System.exit(code);
+        }
+    }
+
+    /**
+     * @param out 响应报文体或者压测结果的输出
+     * @param err 错误信息的输出
+     * @return 退出码
+     */
+    static int run(String[] args, PrintStream out, PrintStream err) {
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            err.println("jcurl: " + e.getMessage());
+            err.print(USAGE);
+            return EXIT_USAGE;
+        }
+        if (options.help) {
+            out.print(USAGE);
+            return EXIT_OK;
+        }
+        URI uri;
+        try {
+            uri = options.uri();
+        } catch (URISyntaxException e) {
+            err.println("jcurl: malformed url " + options.url + ": " + e.getMessage());
+            return EXIT_URL_MALFORMED;
+        }
+        boolean secure = "https".equalsIgnoreCase(uri.getScheme());
+        int port = uri.getPort() != -1 ? uri.getPort() : secure ? 443 : 80;
+        HttpClient client = new HttpClient(uri.getHost(), port,
+                new ConnectionPool(Math.max(options.concurrency, ConnectionPool.DEFAULT_MAX_PER_ROUTE),
+                        ConnectionPool.DEFAULT_KEEP_ALIVE_MILLIS, ConnectionPool.DEFAULT_BORROW_TIMEOUT_MILLIS));
+        try {
+            if (secure) {
+                client.setTlsConfig(options.insecure ? insecureTlsConfig() : new TlsConfig());
+            }
+            client.setCompressionEnabled(options.compressed);
+            client.setHttp2PriorKnowledge(options.http2PriorKnowledge);
+            client.setConnectTimeoutMillis(options.connectTimeoutMillis);
+            client.setCallTimeoutMillis(options.maxTimeMillis);
+            Request request = options.request(uri);
+            if (options.requests > 0) {
+                //预先建立所有连接并完成握手，吞吐量与延迟不包含建立连接的时间
+                client.warmUp(options.concurrency);
+                load(client, request, options.concurrency, options.requests, out);
+            } else {
+                transfer(client, request, options, out);
+            }
+            return EXIT_OK;
+        } catch (UnknownHostException e) {
+            err.println("jcurl: could not resolve host " + uri.getHost());
+            return EXIT_RESOLVE_FAILED;
+        } catch (ConnectException e) {
+            err.println("jcurl: failed to connect to " + uri.getHost() + " port " + port + ": " + e.getMessage());
+            return EXIT_CONNECT_FAILED;
+        } catch (HttpTimeoutException e) {
+            err.println("jcurl: " + e.getMessage());
+            return EXIT_TIMEOUT;
+        } catch (IOException e) {
+            err.println("jcurl: " + e);
+            return EXIT_ERROR;
+        } finally {
+            client.close();
+            client.getConnectionPool().close();
+        }
+    }
+
+    /**
+     * 发送单个请求，流式输出响应
+     */
+    private static void transfer(HttpClient client, Request request, Options options, PrintStream stdout)
+            throws IOException {
+        StreamingResponse response = client.stream(request);
+        OutputStream out = options.output == null ? stdout : Files.newOutputStream(Paths.get(options.output));
+        try {
+            if (options.include) {
+                StringBuilder sb = new StringBuilder();
+                sb.append(options.http2PriorKnowledge ? "HTTP/2 " : "HTTP/1.1 ").append(response.getCode());
+                if (response.getStatus() != null && response.getStatus().length() > 0) {
+                    sb.append(' ').append(response.getStatus());
+                }
+                sb.append("\r\n");
+                Headers headers = response.getHeaders();
+                for (int i = 0; i < headers.size(); i++) {
+                    sb.append(headers.getName(i)).append(": ").append(headers.getValue(i)).append("\r\n");
+                }
+                sb.append("\r\n");
+                out.write(sb.toString().getBytes("ISO-8859-1"));
+            }
+            response.transferTo(Channels.newChannel(out));
+            out.flush();
+        } finally {
+            response.close();
+            if (out != stdout) {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * 压测模式：concurrency个线程共同发送requests个请求，输出吞吐量与延迟分布
+     */
+    static void load(final HttpClient client, final Request request, int concurrency, final int requests,
+                     PrintStream out) {
+        final LatencyHistogram latencies = new LatencyHistogram();
+        final AtomicInteger next = new AtomicInteger();
+        //下标为响应码的百位数
+        final AtomicLongArray statuses = new AtomicLongArray(6);
+        final AtomicInteger errors = new AtomicInteger();
+        final String[] firstError = new String[1];
+        List<Thread> workers = new ArrayList<Thread>(concurrency);
+        long start = System.nanoTime();
+        for (int i = 0; i < concurrency; i++) {
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (next.getAndIncrement() < requests) {
+                        long begin = System.nanoTime();
+                        try {
+                            int code = client.execute(request).getCode();
+                            latencies.record(System.nanoTime() - begin);
+                            statuses.incrementAndGet(Math.min(Math.max(code / 100, 1), 5));
+                        } catch (IOException e) {
+                            if (errors.getAndIncrement() == 0) {
+                                synchronized (firstError) {
+                                    firstError[0] = e.toString();
+                                }
+                            }
+                        }
+                    }
+                }
+            }, "jcurl-load-" + i);
+            worker.start();
+            workers.add(worker);
+        }
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        out.printf(Locale.ROOT, "Requests:     %d (%d failed)%n", requests, errors.get());
+        out.printf(Locale.ROOT, "Duration:     %.3f s%n", seconds);
+        out.printf(Locale.ROOT, "Throughput:   %.1f req/s%n", requests / seconds);
+        out.printf(Locale.ROOT, "Status codes: 1xx=%d 2xx=%d 3xx=%d 4xx=%d 5xx=%d%n",
+                statuses.get(1), statuses.get(2), statuses.get(3), statuses.get(4), statuses.get(5));
+        out.printf(Locale.ROOT, "Latency (ms): mean=%.3f p50=%.3f p90=%.3f p99=%.3f p99.9=%.3f max=%.3f%n",
+                latencies.getMean() / 1e6, millis(latencies, 50), millis(latencies, 90), millis(latencies, 99),
+                millis(latencies, 99.9), latencies.getMax() / 1e6);
+        synchronized (firstError) {
+            if (firstError[0] != null) {
+                out.println("First error:  " + firstError[0]);
+            }
+        }
+    }
+
+    /**
+     * @return 信任任何证书且不校验主机名的TLS配置，与curl的-k相同
+     */
+    private static TlsConfig insecureTlsConfig() {
+        TrustManager trustAll = new X509TrustManager() {
+            @Override
+            public void checkClientTrusted(X509Certificate[] chain, String authType) {
+            }
+
+            @Override
+            public void checkServerTrusted(X509Certificate[] chain, String authType) {
+            }
+
+            @Override
+            public X509Certificate[] getAcceptedIssuers() {
+                return new X509Certificate[0];
+            }
+        };
+        try {
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(null, new TrustManager[]{trustAll}, null);
+            return new TlsConfig(context).setHostnameVerification(false);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("TLS is not available", e);
+        }
+    }
+
+    private static double millis(LatencyHistogram histogram, double percentile) {
+        return histogram.getValueAtPercentile(percentile) / 1e6;
+    }
+
+    /**
+     * 解析后的命令行参数
+     */
+    static class Options {
+
+        String url;
+
+        String method;
+
+        final Map<String, String> headers = new LinkedHashMap<String, String>();
+
+        byte[] data;
+
+        String output;
+
+        boolean include;
+
+        boolean head;
+
+        boolean compressed;
+
+        boolean http2PriorKnowledge;
+
+        boolean insecure;
+
+        int connectTimeoutMillis;
+
+        long maxTimeMillis;
+
+        int concurrency = 1;
+
+        int requests;
+
+        boolean help;
+
+        /**
+         * @throws IllegalArgumentException 参数不合法
+         */
+        static Options parse(String[] args) {
+            Options options = new Options();
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (arg.equals("-X") || arg.equals("--request")) {
+                    options.method = value(args, ++i, arg);
+                } else if (arg.equals("-H") || arg.equals("--header")) {
+                    String header = value(args, ++i, arg);
+                    int idx = header.indexOf(':');
+                    if (idx <= 0) {
+                        throw new IllegalArgumentException("invalid header: " + header);
+                    }
+                    options.headers.put(header.substring(0, idx).trim(), header.substring(idx + 1).trim());
+                } else if (arg.equals("-d") || arg.equals("--data")) {
+                    options.data = data(value(args, ++i, arg));
+                } else if (arg.equals("-o") || arg.equals("--output")) {
+                    options.output = value(args, ++i, arg);
+                } else if (arg.equals("-i") || arg.equals("--include")) {
+                    options.include = true;
+                } else if (arg.equals("-I") || arg.equals("--head")) {
+                    options.head = true;
+                    options.include = true;
+                } else if (arg.equals("--compressed")) {
+                    options.compressed = true;
+                } else if (arg.equals("--http2-prior-knowledge")) {
+                    options.http2PriorKnowledge = true;
+                } else if (arg.equals("-k") || arg.equals("--insecure")) {
+                    options.insecure = true;
+                } else if (arg.equals("--connect-timeout")) {
+                    options.connectTimeoutMillis = (int) seconds(value(args, ++i, arg), arg);
+                } else if (arg.equals("-m") || arg.equals("--max-time")) {
+                    options.maxTimeMillis = seconds(value(args, ++i, arg), arg);
+                } else if (arg.equals("--concurrency")) {
+                    options.concurrency = positive(value(args, ++i, arg), arg);
+                } else if (arg.equals("--requests")) {
+                    options.requests = positive(value(args, ++i, arg), arg);
+                } else if (arg.equals("-h") || arg.equals("--help")) {
+                    options.help = true;
+                } else if (arg.startsWith("-") && arg.length() > 1) {
+                    throw new IllegalArgumentException("unknown option " + arg);
+                } else if (options.url == null) {
+                    options.url = arg;
+                } else {
+                    throw new IllegalArgumentException("only one url is supported");
+                }
+            }
+            if (options.url == null && !options.help) {
+                throw new IllegalArgumentException("no url specified");
+            }
+            return options;
+        }
+
+        private static String value(String[] args, int i, String option) {
+            if (i >= args.length) {
+                throw new IllegalArgumentException("option " + option + " requires a value");
+            }
+            return args[i];
+        }
+
+        /**
+         * @return 以@开头时为文件内容，否则为参数本身的UTF-8编码
+         */
+        private static byte[] data(String value) {
+            if (value.startsWith("@")) {
+                try {
+                    return Files.readAllBytes(Paths.get(value.substring(1)));
+                } catch (IOException e) {
+                    throw new IllegalArgumentException("can not read data file " + value.substring(1), e);
+                }
+            }
+            try {
+                return value.getBytes("UTF-8");
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private static long seconds(String value, String option) {
+            try {
+                double seconds = Double.parseDouble(value);
+                if (seconds < 0) {
+                    throw new NumberFormatException();
+                }
+                return (long) (seconds * 1000);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("invalid " + option + " value: " + value);
+            }
+        }
+
+        private static int positive(String value, String option) {
+            try {
+                int n = Integer.parseInt(value);
+                if (n <= 0) {
+                    throw new NumberFormatException();
+                }
+                return n;
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("invalid " + option + " value: " + value);
+            }
+        }
+
+        /**
+         * @return 没有scheme时按http处理
+         * @throws URISyntaxException url格式错误或者不是http、https
+         */
+        URI uri() throws URISyntaxException {
+            URI uri = new URI(url.contains("://") ? url : "http://" + url);
+            if (!"http".equalsIgnoreCase(uri.getScheme()) && !"https".equalsIgnoreCase(uri.getScheme())) {
+                throw new URISyntaxException(url, "unsupported scheme " + uri.getScheme());
+            }
+            if (uri.getHost() == null) {
+                throw new URISyntaxException(url, "missing host");
+            }
+            return uri;
+        }
+
+        Request request(URI uri) {
+            String path = uri.getRawPath() == null || uri.getRawPath().length() == 0 ? "/" : uri.getRawPath();
+            if (uri.getRawQuery() != null) {
+                path += "?" + uri.getRawQuery();
+            }
+            String actual = method != null ? method : head ? "HEAD" : data != null ? "POST" : "GET";
+            Map<String, String> requestHeaders = new LinkedHashMap<String, String>(headers);
+            if (data != null && !containsIgnoreCase(requestHeaders, "Content-Type")) {
+                requestHeaders.put("Content-Type", "application/x-www-form-urlencoded");
+            }
+            return new Request(actual, path, requestHeaders, data);
+        }
+
+        private static boolean containsIgnoreCase(Map<String, String> map, String key) {
+            for (String name : map.keySet()) {
+                if (name.equalsIgnoreCase(key)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
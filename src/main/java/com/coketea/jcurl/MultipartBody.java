@@ -0,0 +1,222 @@
+package com.coketea.jcurl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * multipart/form-data报文体，发送时依次写出各部分，文件部分同样通过transferTo写入socket，不在内存中拼接
+ * <pre>
+ * MultipartBody body = new MultipartBody.Builder()
+ *         .addField("name", "value")
+ *         .addFile("file", "data.bin", "application/octet-stream", RequestBody.of(path))
+ *         .build();
+ * </pre>
+ * 所有部分的长度都已知时报文体长度已知，否则以chunked编码发送；有部分不能重复发送时整个报文体都不能重复发送
+ */
+public final class MultipartBody extends RequestBody {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    private final String boundary;
+
+    /**
+     * 每个部分的分隔行与头部，已经编码为字节
+     */
+    private final List<byte[]> heads;
+
+    private final List<RequestBody> bodies;
+
+    private final byte[] tail;
+
+    private final long contentLength;
+
+    private MultipartBody(String boundary, List<byte[]> heads, List<RequestBody> bodies) {
+        this.boundary = boundary;
+        this.heads = heads;
+        this.bodies = bodies;
+        this.tail = ("--" + boundary + "--\r\n").getBytes(UTF_8);
+        long length = tail.length;
+        for (int i = 0; i < bodies.size(); i++) {
+            long partLength = bodies.get(i).contentLength();
+            if (partLength < 0) {
+                length = -1;
+                break;
+            }
+            length += heads.get(i).length + partLength + CRLF.length;
+        }
+        this.contentLength = length;
+    }
+
+    public String getBoundary() {
+        return boundary;
+    }
+
+    /**
+     * @return 部分的数量
+     */
+    public int size() {
+        return bodies.size();
+    }
+
+    @Override
+    public long contentLength() {
+        return contentLength;
+    }
+
+    @Override
+    public String contentType() {
+        return "multipart/form-data; boundary=" + boundary;
+    }
+
+    @Override
+    public boolean isReplayable() {
+        for (RequestBody body : bodies) {
+            if (!body.isReplayable()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void writeTo(WritableByteChannel target) throws IOException {
+        for (int i = 0; i < bodies.size(); i++) {
+            RequestBody body = bodies.get(i);
+            ByteBuffer buffered = body.buffer();
+            if (buffered != null) {
+                //内存中的部分与其头部一起写出
+                writeFully(target, ByteBuffer.wrap(heads.get(i)), buffered, ByteBuffer.wrap(CRLF));
+            } else {
+                writeFully(target, ByteBuffer.wrap(heads.get(i)));
+                body.writeTo(target);
+                writeFully(target, ByteBuffer.wrap(CRLF));
+            }
+        }
+        writeFully(target, ByteBuffer.wrap(tail));
+    }
+
+    private static void writeFully(WritableByteChannel target, ByteBuffer... srcs) throws IOException {
+        for (ByteBuffer src : srcs) {
+            writeFully(target, src);
+        }
+    }
+
+    /**
+     * 按顺序添加各部分，构造完成后不可变
+     */
+    public static class Builder {
+
+        private final String boundary;
+
+        private final List<byte[]> heads = new ArrayList<byte[]>();
+
+        private final List<RequestBody> bodies = new ArrayList<RequestBody>();
+
+        public Builder() {
+            this(UUID.randomUUID().toString());
+        }
+
+        /**
+         * @param boundary 分隔符，不能出现在任何部分的内容中
+         */
+        public Builder(String boundary) {
+            if (boundary.length() == 0 || boundary.length() > 70) {
+                throw new IllegalArgumentException("Boundary must be 1 to 70 characters: " + boundary);
+            }
+            this.boundary = boundary;
+        }
+
+        /**
+         * 添加普通的表单字段
+         */
+        public Builder addField(String name, String value) {
+            return this.addPart(disposition(name, null), RequestBody.of(value));
+        }
+
+        /**
+         * 添加文件字段
+         * @param name 字段名
+         * @param filename 文件名
+         * @param contentType 文件的Content-Type，为null时不发送
+         * @param body 文件内容，例如{@link RequestBody#of(Path)}
+         */
+        public Builder addFile(String name, String filename, String contentType, RequestBody body) {
+            Map<String, String> headers = disposition(name, filename);
+            if (contentType != null) {
+                headers.put("Content-Type", contentType);
+            }
+            return this.addPart(headers, body);
+        }
+
+        /**
+         * 添加自定义头部的部分
+         * @param headers 该部分的头部，通常包括Content-Disposition
+         * @param body 该部分的内容
+         */
+        public Builder addPart(Map<String, String> headers, RequestBody body) {
+            StringBuilder sb = new StringBuilder();
+            sb.append("--").append(boundary).append("\r\n");
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                sb.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+            }
+            sb.append("\r\n");
+            heads.add(sb.toString().getBytes(UTF_8));
+            bodies.add(body);
+            return this;
+        }
+
+        /**
+         * @throws IllegalStateException 没有添加任何部分
+         */
+        public MultipartBody build() {
+            if (bodies.isEmpty()) {
+                throw new IllegalStateException("Multipart body must have at least one part");
+            }
+            return new MultipartBody(boundary, Collections.unmodifiableList(new ArrayList<byte[]>(heads)),
+                    Collections.unmodifiableList(new ArrayList<RequestBody>(bodies)));
+        }
+
+        private static Map<String, String> disposition(String name, String filename) {
+            StringBuilder sb = new StringBuilder("form-data; name=");
+            quote(sb, name);
+            if (filename != null) {
+                sb.append("; filename=");
+                quote(sb, filename);
+            }
+            Map<String, String> headers = new LinkedHashMap<String, String>();
+            headers.put("Content-Disposition", sb.toString());
+            return headers;
+        }
+
+        /**
+         * 与浏览器相同，引号与换行以百分号编码
+         */
+        private static void quote(StringBuilder sb, String value) {
+            sb.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"') {
+                    sb.append("%22");
+                } else if (c == '\r') {
+                    sb.append("%0D");
+                } else if (c == '\n') {
+                    sb.append("%0A");
+                } else {
+                    sb.append(c);
+                }
+            }
+            sb.append('"');
+        }
+    }
+}
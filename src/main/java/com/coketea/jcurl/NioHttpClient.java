@@ -0,0 +1,558 @@
+package com.coketea.jcurl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 基于SocketChannel与Selector的非阻塞http客户端
+ * <p>
+ * 每个事件循环线程持有一个Selector，管理任意数量的连接，请求结果以CompletableFuture返回；
+ * 响应解析使用与{@link HttpClient}相同的状态行、响应头、chunk解析逻辑，由{@link ResponseDecoder}增量驱动。
+ * 配置{@link TlsConfig}时以HTTPS连接，TLS握手与加解密由事件循环通过{@link TlsChannel}驱动。
+ * 回调在事件循环线程上执行，不能在回调中执行阻塞操作
+ */
+public class NioHttpClient implements Closeable {
+
+    public static final long DEFAULT_KEEP_ALIVE_MILLIS = 60 * 1000L;
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final String host;
+
+    private final int port;
+
+    private final EventLoop[] eventLoops;
+
+    private final AtomicInteger nextEventLoop = new AtomicInteger();
+
+    private final RequestEncoder requestEncoder;
+
+    private final long keepAliveNanos;
+
+    private final BufferPool bufferPool;
+
+    private final TlsConfig tlsConfig;
+
+    private volatile InetSocketAddress address;
+
+    private volatile boolean closed;
+
+    public NioHttpClient(String host, int port) throws IOException {
+        this(host, port, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param host 服务器地址
+     * @param port 服务器端口
+     * @param eventLoopCount 事件循环线程数，一般与CPU核数相同
+     * @throws IOException 创建Selector失败
+     */
+    public NioHttpClient(String host, int port, int eventLoopCount) throws IOException {
+        this(host, port, eventLoopCount, BufferPool.DEFAULT);
+    }
+
+    /**
+     * @param host 服务器地址
+     * @param port 服务器端口
+     * @param eventLoopCount 事件循环线程数，一般与CPU核数相同
+     * @param bufferPool 连接的请求头编码缓冲区与报文体累积缓冲区从这里借出
+     * @throws IOException 创建Selector失败
+     */
+    public NioHttpClient(String host, int port, int eventLoopCount, BufferPool bufferPool) throws IOException {
+        this(host, port, eventLoopCount, bufferPool, null);
+    }
+
+    /**
+     * @param host 服务器地址
+     * @param port 服务器端口
+     * @param eventLoopCount 事件循环线程数，一般与CPU核数相同
+     * @param bufferPool 连接的请求头编码缓冲区与报文体累积缓冲区从这里借出
+     * @param tlsConfig 不为null时以HTTPS连接服务器端
+     * @throws IOException 创建Selector失败
+     */
+    public NioHttpClient(String host, int port, int eventLoopCount, BufferPool bufferPool, TlsConfig tlsConfig)
+            throws IOException {
+        if (eventLoopCount <= 0) {
+            throw new IllegalArgumentException("eventLoopCount must be positive: " + eventLoopCount);
+        }
+        this.host = host;
+        this.port = port;
+        this.keepAliveNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_KEEP_ALIVE_MILLIS);
+        this.bufferPool = bufferPool;
+        this.tlsConfig = tlsConfig;
+        this.requestEncoder = new RequestEncoder(host, port, tlsConfig != null,
+                Collections.<String, String>emptyMap());
+        this.eventLoops = new EventLoop[eventLoopCount];
+        try {
+            for (int i = 0; i < eventLoopCount; i++) {
+                eventLoops[i] = new EventLoop(i);
+            }
+        } catch (IOException e) {
+            this.close();
+            throw e;
+        }
+        for (EventLoop eventLoop : eventLoops) {
+            eventLoop.thread.start();
+        }
+    }
+
+    /**
+     * 异步发送http请求
+     * @param request 要发送的请求，报文体必须在内存中，文件与输入流报文体使用{@link HttpClient}发送
+     * @return 请求完成时得到完整的响应，出错时以异常结束
+     */
+    public CompletableFuture<Response> execute(Request request) {
+        CompletableFuture<Response> future = new CompletableFuture<Response>();
+        if (closed) {
+            future.completeExceptionally(new IOException("NioHttpClient is closed"));
+            return future;
+        }
+        if (!request.isBuffered()) {
+            future.completeExceptionally(new IllegalArgumentException(
+                    "NioHttpClient only sends request bodies buffered in memory"));
+            return future;
+        }
+        try {
+            Exchange exchange = new Exchange(request, this.resolve(), future);
+            EventLoop eventLoop = eventLoops[Math.abs(nextEventLoop.getAndIncrement() % eventLoops.length)];
+            eventLoop.submit(exchange);
+            if (closed) {
+                //与close并发时事件循环可能已经退出，不能让请求一直挂起
+                future.completeExceptionally(new IOException("NioHttpClient is closed"));
+            }
+        } catch (IOException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * 在调用方线程解析服务器地址，避免在事件循环中阻塞
+     */
+    private InetSocketAddress resolve() throws UnknownHostException {
+        InetSocketAddress resolved = this.address;
+        if (resolved == null) {
+            resolved = new InetSocketAddress(host, port);
+            if (resolved.isUnresolved()) {
+                throw new UnknownHostException(host);
+            }
+            this.address = resolved;
+        }
+        return resolved;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * 关闭所有事件循环与连接，尚未完成的请求以异常结束
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (EventLoop eventLoop : eventLoops) {
+            if (eventLoop != null) {
+                eventLoop.selector.wakeup();
+            }
+        }
+    }
+
+    /**
+     * 一次请求以及它的结果
+     */
+    private static class Exchange {
+
+        final Request request;
+
+        final InetSocketAddress address;
+
+        final CompletableFuture<Response> future;
+
+        Exchange(Request request, InetSocketAddress address, CompletableFuture<Response> future) {
+            this.request = request;
+            this.address = address;
+            this.future = future;
+        }
+    }
+
+    /**
+     * 事件循环中的一条连接
+     */
+    private static class NioConnection {
+
+        final SocketChannel channel;
+
+        /**
+         * HTTPS连接的TLS状态，明文连接为null
+         */
+        final TlsChannel tls;
+
+        final ResponseDecoder decoder;
+
+        SelectionKey key;
+
+        Exchange exchange;
+
+        /**
+         * 请求头的编码缓冲区，在该连接的所有请求之间复用，连接关闭时归还
+         */
+        ByteBuffer headBuffer;
+
+        /**
+         * 当前请求尚未写完的请求头与报文体，写完后置空
+         */
+        ByteBuffer[] writeBuffers;
+
+        boolean reused;
+
+        long idleSinceNanos;
+
+        boolean closed;
+
+        NioConnection(SocketChannel channel, TlsChannel tls, BufferPool bufferPool) {
+            this.channel = channel;
+            this.tls = tls;
+            this.decoder = new ResponseDecoder(bufferPool);
+            this.headBuffer = bufferPool.acquireDirect(RequestEncoder.INITIAL_BUFFER_SIZE);
+        }
+
+        /**
+         * @return 读到的明文字节数，0表示没有新的数据，-1表示服务器端关闭连接
+         */
+        int read(ByteBuffer dst) throws IOException {
+            return tls == null ? channel.read(dst) : tls.read(dst);
+        }
+
+        /**
+         * @return 请求是否已经全部写出
+         */
+        boolean write() throws IOException {
+            if (tls != null) {
+                return tls.write(writeBuffers);
+            }
+            channel.write(writeBuffers);
+            return !writeBuffers[0].hasRemaining() && !writeBuffers[1].hasRemaining();
+        }
+    }
+
+    private class EventLoop implements Runnable {
+
+        final Selector selector;
+
+        final Thread thread;
+
+        final Queue<Exchange> pending = new ConcurrentLinkedQueue<Exchange>();
+
+        /**
+         * 空闲的keep-alive连接，队头为最近归还的连接
+         */
+        final Deque<NioConnection> idle = new ArrayDeque<NioConnection>();
+
+        final Set<NioConnection> connections = new HashSet<NioConnection>();
+
+        /**
+         * 所有连接共用的读缓冲区，事件循环是单线程的，读到的数据在喂给解码器后即可覆盖
+         */
+        final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+        /**
+         * 事件循环是否已经退出，之后提交的请求直接失败
+         */
+        volatile boolean terminated;
+
+        EventLoop(int index) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, "jcurl-nio-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        void submit(Exchange exchange) {
+            pending.add(exchange);
+            selector.wakeup();
+            if (terminated) {
+                //事件循环已经因为异常退出，不会再处理队列中的请求
+                while ((exchange = pending.poll()) != null) {
+                    exchange.future.completeExceptionally(new IOException("NioHttpClient event loop has terminated"));
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!closed) {
+                    selector.select(1000);
+                    Exchange exchange;
+                    while ((exchange = pending.poll()) != null) {
+                        this.start(exchange, false);
+                    }
+                    Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                    while (iterator.hasNext()) {
+                        SelectionKey key = iterator.next();
+                        iterator.remove();
+                        this.handle(key);
+                    }
+                    this.evictExpired();
+                }
+            } catch (IOException e) {
+                this.shutdown(e);
+                return;
+            } catch (ClosedSelectorException e) {
+                this.shutdown(new IOException(e));
+                return;
+            } catch (Throwable e) {
+                //处理单个连接之外的意外异常，结束所有请求，不能让future一直挂起
+                this.shutdown(new IOException("NioHttpClient event loop failed", e));
+                return;
+            }
+            this.shutdown(new IOException("NioHttpClient is closed"));
+        }
+
+        /**
+         * 在空闲连接或新建连接上开始一次请求
+         * @param exchange 请求
+         * @param freshOnly 为true时不使用空闲连接
+         */
+        private void start(Exchange exchange, boolean freshOnly) {
+            NioConnection connection = freshOnly ? null : this.pollIdle();
+            try {
+                if (connection != null) {
+                    this.begin(connection, exchange);
+                    connection.key.interestOps(SelectionKey.OP_WRITE);
+                    return;
+                }
+                SocketChannel channel = SocketChannel.open();
+                TlsChannel tls = null;
+                if (tlsConfig != null) {
+                    tls = new TlsChannel(channel, tlsConfig.createEngine(host, port, TlsConfig.ALPN_HTTP_1_1));
+                }
+                connection = new NioConnection(channel, tls, bufferPool);
+                connections.add(connection);
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                this.begin(connection, exchange);
+                if (channel.connect(exchange.address)) {
+                    connection.key = channel.register(selector, SelectionKey.OP_WRITE, connection);
+                } else {
+                    connection.key = channel.register(selector, SelectionKey.OP_CONNECT, connection);
+                }
+            } catch (IOException e) {
+                this.fail(connection, exchange, e);
+            }
+        }
+
+        private void begin(NioConnection connection, Exchange exchange) {
+            connection.exchange = exchange;
+            connection.headBuffer.clear();
+            ByteBuffer head = requestEncoder.encode(exchange.request, connection.headBuffer);
+            if (head != connection.headBuffer) {
+                bufferPool.release(connection.headBuffer);
+                connection.headBuffer = head;
+            }
+            head.flip();
+            //重试时请求在新连接上重新编码，报文体每次取新的副本
+            connection.writeBuffers = new ByteBuffer[]{head, exchange.request.getBodyBuffer()};
+            connection.decoder.reset(exchange.request.getMethod());
+        }
+
+        private NioConnection pollIdle() {
+            long now = System.nanoTime();
+            NioConnection connection;
+            while ((connection = idle.pollFirst()) != null) {
+                if (connection.channel.isOpen() && now - connection.idleSinceNanos <= keepAliveNanos) {
+                    return connection;
+                }
+                this.closeConnection(connection);
+            }
+            return null;
+        }
+
+        private void handle(SelectionKey key) {
+            NioConnection connection = (NioConnection) key.attachment();
+            Exchange exchange = connection.exchange;
+            try {
+                if (!key.isValid()) {
+                    return;
+                }
+                if (key.isConnectable()) {
+                    connection.channel.finishConnect();
+                    key.interestOps(SelectionKey.OP_WRITE);
+                    return;
+                }
+                if (connection.tls != null && !connection.tls.isHandshakeComplete()) {
+                    this.handshake(connection);
+                    return;
+                }
+                if (key.isWritable()) {
+                    if (connection.write()) {
+                        connection.writeBuffers = null;
+                        key.interestOps(SelectionKey.OP_READ);
+                    }
+                    return;
+                }
+                if (key.isReadable()) {
+                    this.read(connection);
+                }
+            } catch (IOException e) {
+                this.fail(connection, exchange, e);
+            } catch (RuntimeException e) {
+                this.fail(connection, exchange, new IOException(e));
+            } catch (Error e) {
+                //例如报文体超出内存，只放弃这一个连接，事件循环继续处理其他连接
+                this.fail(connection, exchange, new IOException(e));
+            }
+        }
+
+        /**
+         * 推进TLS握手，完成后开始写出请求，否则等待握手需要的读写事件
+         */
+        private void handshake(NioConnection connection) throws IOException {
+            TlsChannel tls = connection.tls;
+            if (tls.handshake(readBuffer)) {
+                TlsConfig.checkAlpn(tls.getEngine().getApplicationProtocol(), TlsConfig.ALPN_HTTP_1_1, host, port);
+                connection.key.interestOps(SelectionKey.OP_WRITE);
+            } else {
+                connection.key.interestOps(tls.hasPendingOutput() ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+            }
+        }
+
+        private void read(NioConnection connection) throws IOException {
+            do {
+                readBuffer.clear();
+                int count = connection.read(readBuffer);
+                if (count == 0) {
+                    //TLS连接上只收到不完整的记录或者握手之后的消息
+                    return;
+                }
+                Exchange exchange = connection.exchange;
+                if (exchange == null) {
+                    //空闲连接上收到数据或者服务器端关闭连接，都不能再复用
+                    idle.remove(connection);
+                    this.closeConnection(connection);
+                    return;
+                }
+                ResponseDecoder decoder = connection.decoder;
+                if (count == -1) {
+                    decoder.endOfStream();
+                    this.complete(connection, false);
+                    return;
+                }
+                int consumed = decoder.feed(readBuffer.array(), 0, count);
+                if (decoder.isDone()) {
+                    //不支持管线化，响应结束后仍有多余数据说明连接状态异常
+                    this.complete(connection, consumed == count && decoder.isReusable());
+                    return;
+                }
+                //TLS记录已经从socket读出，socket不会再触发可读事件，需要解密完缓冲的记录
+            } while (connection.tls != null && connection.tls.hasBufferedInput());
+        }
+
+        private void complete(NioConnection connection, boolean reusable) {
+            Exchange exchange = connection.exchange;
+            connection.exchange = null;
+            //关闭连接会归还解码器的缓冲区，必须先生成响应
+            Response response = connection.decoder.toResponse();
+            if (reusable && !closed) {
+                connection.reused = true;
+                connection.idleSinceNanos = System.nanoTime();
+                idle.addFirst(connection);
+            } else {
+                this.closeConnection(connection);
+            }
+            exchange.future.complete(response);
+        }
+
+        /**
+         * 请求失败，复用的连接在尚未收到任何响应时换一条新连接重试一次
+         */
+        private void fail(NioConnection connection, Exchange exchange, IOException e) {
+            boolean retry = connection != null && connection.reused && !connection.decoder.isStarted();
+            if (connection != null) {
+                connection.exchange = null;
+                idle.remove(connection);
+                this.closeConnection(connection);
+            }
+            if (exchange == null) {
+                return;
+            }
+            if (retry && !closed) {
+                this.start(exchange, true);
+            } else {
+                exchange.future.completeExceptionally(e);
+            }
+        }
+
+        private void evictExpired() {
+            long now = System.nanoTime();
+            Iterator<NioConnection> iterator = idle.iterator();
+            while (iterator.hasNext()) {
+                NioConnection connection = iterator.next();
+                if (now - connection.idleSinceNanos > keepAliveNanos) {
+                    iterator.remove();
+                    this.closeConnection(connection);
+                }
+            }
+        }
+
+        private void closeConnection(NioConnection connection) {
+            if (connection.closed) {
+                return;
+            }
+            connection.closed = true;
+            connections.remove(connection);
+            if (connection.key != null) {
+                connection.key.cancel();
+            }
+            try {
+                connection.channel.close();
+            } catch (IOException ignored) {
+            }
+            connection.decoder.release();
+            bufferPool.release(connection.headBuffer);
+            connection.headBuffer = null;
+        }
+
+        private void shutdown(IOException cause) {
+            terminated = true;
+            for (NioConnection connection : new HashSet<NioConnection>(connections)) {
+                if (connection.exchange != null) {
+                    connection.exchange.future.completeExceptionally(cause);
+                }
+                this.closeConnection(connection);
+            }
+            idle.clear();
+            Exchange exchange;
+            while ((exchange = pending.poll()) != null) {
+                exchange.future.completeExceptionally(cause);
+            }
+            try {
+                selector.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,317 @@
+package com.coketea.jcurl;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * 分段并发下载：先用HEAD请求确认服务器端支持Range并取得报文体长度，把报文体按字节范围分段，
+ * 各分段通过不同的连接并发下载，按偏移量直接写入预先分配长度的文件
+ * <p>
+ * 单个分段失败时从该分段已经写入的位置继续重试，其他分段不受影响；
+ * 服务器端不支持Range、报文体过小或者下载过程中资源发生了变化时，改为单个流下载整个文件
+ */
+class RangeDownload {
+
+    /**
+     * 每个分段的最小长度，过小的分段节省的时间抵不上多建立一条连接
+     */
+    static final long MIN_SEGMENT_SIZE = 64 * 1024;
+
+    /**
+     * 单个分段的最大尝试次数
+     */
+    static final int MAX_SEGMENT_ATTEMPTS = 3;
+
+    private static final long RETRY_DELAY_MILLIS = 100;
+
+    private static final String ACCEPT_RANGES = "Accept-Ranges";
+
+    private static final String ETAG = "ETag";
+
+    private static final String LAST_MODIFIED = "Last-Modified";
+
+    private static final String IF_RANGE = "If-Range";
+
+    private final HttpClient client;
+
+    private final Request request;
+
+    private final Path path;
+
+    private final int segments;
+
+    private final List<Segment> parts = new ArrayList<Segment>();
+
+    /**
+     * 某个分段最终失败或者需要改为单个流下载，其余分段停止
+     */
+    private volatile boolean aborted;
+
+    /**
+     * 服务器端对Range请求返回了完整的报文体，需要改为单个流下载
+     */
+    private volatile boolean restart;
+
+    /**
+     * @param client 发送请求的客户端，各分段的请求同样经过其限流与重试策略
+     * @param request GET请求
+     * @param path 目标文件，已经存在时被覆盖
+     * @param segments 最多的分段数
+     */
+    RangeDownload(HttpClient client, Request request, Path path, int segments) {
+        this.client = client;
+        this.request = client.isCompressionEnabled()
+                //Range针对编码后的字节，分段下载时不能使用压缩
+                ? request.withHeader(Constance.HTTP_REQUEST_HEADER_KEY_ACCEPT_ENCODING,
+                Constance.HTTP_REQUEST_HEADER_VALUE_ACCEPT_ENCODING_IDENTITY) : request;
+        this.path = path;
+        this.segments = segments;
+    }
+
+    /**
+     * @return 响应，下载成功时其中的报文体为空；服务器端返回错误时文件不被修改，报文体保存在返回的Response中
+     * @throws IOException
+     */
+    Response run() throws IOException {
+        Response head = client.execute(new Request("HEAD", request.getUri(), request.getHeaders(),
+                ResponseParser.EMPTY_BODY));
+        long length = contentLength(head);
+        int count = (int) Math.min(segments, length / MIN_SEGMENT_SIZE);
+        if (head.getCode() != 200 || !"bytes".equalsIgnoreCase(trim(head.getHeader(ACCEPT_RANGES)))
+                || head.getHeader(Constance.HTTP_RESPONSE_HEADER_KEY_CONTENT_ENCODING) != null || count < 2) {
+            return this.single();
+        }
+        //If-Range保证各分段来自同一个版本的资源，资源变化时服务器端返回完整的报文体
+        Request ranged = request;
+        String validator = validator(head);
+        if (validator != null) {
+            ranged = ranged.withHeader(IF_RANGE, validator);
+        }
+        IOException failure = null;
+        FileChannel file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            //写入最后一个字节，预先分配文件长度
+            file.write(ByteBuffer.wrap(new byte[1]), length - 1);
+            long size = length / count;
+            List<Future<Void>> futures = new ArrayList<Future<Void>>(count);
+            for (int i = 0; i < count; i++) {
+                long start = i * size;
+                long end = i == count - 1 ? length - 1 : start + size - 1;
+                Segment segment = new Segment(file, ranged, start, end);
+                synchronized (parts) {
+                    parts.add(segment);
+                }
+                futures.add(HttpClient.WORKER_EXECUTOR.submit(segment));
+            }
+            failure = this.await(futures);
+        } finally {
+            file.close();
+        }
+        if (restart) {
+            return this.single();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return new Response(head.getCode(), head.getStatus(), head.getHeaders(), ResponseParser.EMPTY_BODY);
+    }
+
+    /**
+     * 等待所有分段结束，文件关闭之前不能有分段仍在写入
+     * @return 第一个失败的分段的异常，全部成功时返回null
+     */
+    private IOException await(List<Future<Void>> futures) {
+        IOException failure = null;
+        boolean interrupted = false;
+        for (Future<Void> future : futures) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    //停止所有分段后继续等待它们退出
+                    interrupted = true;
+                    this.abort();
+                    if (failure == null) {
+                        failure = new InterruptedIOException("Interrupted waiting for segments");
+                    }
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        Throwable cause = e.getCause();
+                        failure = cause instanceof IOException ? (IOException) cause : new IOException(cause);
+                    }
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return failure;
+    }
+
+    /**
+     * 单个流下载整个文件
+     */
+    private Response single() throws IOException {
+        StreamingResponse response = client.stream(request);
+        try {
+            if (response.getCode() != 200) {
+                return new Response(response.getCode(), response.getStatus(), response.getHeaders(),
+                        response.readBody());
+            }
+            FileChannel file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            try {
+                response.transferTo(file);
+            } finally {
+                file.close();
+            }
+            return new Response(response.getCode(), response.getStatus(), response.getHeaders(),
+                    ResponseParser.EMPTY_BODY);
+        } finally {
+            response.close();
+        }
+    }
+
+    private void abort() {
+        aborted = true;
+        List<Segment> segments;
+        synchronized (parts) {
+            segments = new ArrayList<Segment>(parts);
+        }
+        for (Segment segment : segments) {
+            Call call = segment.call;
+            if (call != null) {
+                call.cancel();
+            }
+        }
+    }
+
+    private static long contentLength(Response head) {
+        String value = head.getHeader(Constance.HTTP_RESPONSE_HEADER_KEY_CONTENT_LENGTH);
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return 强ETag或者Last-Modified，都没有时返回null；弱ETag不能用于If-Range
+     */
+    private static String validator(Response head) {
+        String etag = head.getHeader(ETAG);
+        if (etag != null && !etag.startsWith("W/")) {
+            return etag;
+        }
+        return head.getHeader(LAST_MODIFIED);
+    }
+
+    private static String trim(String value) {
+        return value == null ? null : value.trim();
+    }
+
+    /**
+     * 一个字节范围，position之前的数据已经写入文件
+     */
+    private class Segment implements Callable<Void> {
+
+        private final FileChannel file;
+
+        private final Request request;
+
+        private final long end;
+
+        private long position;
+
+        /**
+         * 正在执行的请求，停止下载时取消
+         */
+        volatile Call call;
+
+        Segment(FileChannel file, Request request, long start, long end) {
+            this.file = file;
+            this.request = request;
+            this.position = start;
+            this.end = end;
+        }
+
+        @Override
+        public Void call() throws IOException {
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    this.fetch();
+                    return null;
+                } catch (IOException e) {
+                    if (aborted) {
+                        throw e;
+                    }
+                    if (attempt >= MAX_SEGMENT_ATTEMPTS || restart) {
+                        abort();
+                        throw e;
+                    }
+                }
+                try {
+                    Thread.sleep(RETRY_DELAY_MILLIS * attempt);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted retrying segment");
+                }
+            }
+        }
+
+        /**
+         * 下载position到end之间的数据
+         */
+        private void fetch() throws IOException {
+            Call current = client.newCall(request.withHeader(Constance.HTTP_REQUEST_HEADER_KEY_RANGE,
+                    "bytes=" + position + "-" + end));
+            this.call = current;
+            if (aborted) {
+                current.cancel();
+            }
+            StreamingResponse response = current.stream();
+            try {
+                int code = response.getCode();
+                if (code == 200) {
+                    restart = true;
+                    throw new IOException("Server returned the full body for range " + position + "-" + end);
+                }
+                if (code != 206 || HttpClient.rangeStart(response) != position) {
+                    throw new IOException("Unexpected response for range " + position + "-" + end + ": " + code);
+                }
+                response.consume(new BodyConsumer() {
+                    @Override
+                    public void accept(ByteBuffer slice) throws IOException {
+                        if (position + slice.remaining() > end + 1) {
+                            throw new IOException("Response exceeds range " + position + "-" + end);
+                        }
+                        while (slice.hasRemaining()) {
+                            position += file.write(slice, position);
+                        }
+                    }
+                });
+                if (position <= end) {
+                    throw new EOFException("Range response ended at " + position + ", expected " + end);
+                }
+            } finally {
+                response.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.coketea.jcurl;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 令牌桶限速器，令牌按固定速率生成，最多积累burst个，允许短时间的突发
+ * <p>
+ * 令牌不足时按需要等待的时间预约下一个令牌，预约之后令牌数可以为负，之后的请求排在其后；
+ * 最长等待时间之内无法取得令牌的请求不预约，直接失败，因此失败的请求不会占用后续的配额
+ */
+public class RateLimiter {
+
+    private final double permitsPerNano;
+
+    private final double burst;
+
+    private double tokens;
+
+    private long refilledAt;
+
+    /**
+     * @param permitsPerSecond 每秒生成的令牌数
+     * @param burst 最多积累的令牌数，初始时令牌桶是满的
+     */
+    public RateLimiter(double permitsPerSecond, int burst) {
+        if (permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("permitsPerSecond must be positive: " + permitsPerSecond);
+        }
+        if (burst <= 0) {
+            throw new IllegalArgumentException("burst must be positive: " + burst);
+        }
+        this.permitsPerNano = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.burst = burst;
+        this.tokens = burst;
+        this.refilledAt = System.nanoTime();
+    }
+
+    /**
+     * 预约一个令牌
+     * @param maxWaitNanos 最长等待时间
+     * @return 取得令牌之前需要等待的纳秒数，-1表示最长等待时间内无法取得，没有预约
+     */
+    synchronized long reserve(long maxWaitNanos) {
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - refilledAt) * permitsPerNano);
+        refilledAt = now;
+        if (tokens >= 1) {
+            tokens -= 1;
+            return 0;
+        }
+        long waitNanos = (long) Math.ceil((1 - tokens) / permitsPerNano);
+        if (waitNanos > maxWaitNanos) {
+            return -1;
+        }
+        tokens -= 1;
+        return waitNanos;
+    }
+
+    /**
+     * 取得一个令牌，令牌不足时最多等待timeoutMillis
+     * @param timeoutMillis 最长等待时间，0表示不等待
+     * @return 是否取得了令牌
+     * @throws InterruptedIOException 等待时线程被中断
+     */
+    public boolean tryAcquire(long timeoutMillis) throws InterruptedIOException {
+        long waitNanos = this.reserve(TimeUnit.MILLISECONDS.toNanos(timeoutMillis));
+        if (waitNanos < 0) {
+            return false;
+        }
+        long deadline = System.nanoTime() + waitNanos;
+        for (long remaining = waitNanos; remaining > 0; remaining = deadline - System.nanoTime()) {
+            LockSupport.parkNanos(remaining);
+            if (Thread.interrupted()) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for rate limit");
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return 当前可以立即使用的令牌数
+     */
+    public synchronized double getAvailablePermits() {
+        long now = System.nanoTime();
+        return Math.min(burst, tokens + (now - refilledAt) * permitsPerNano);
+    }
+}
@@ -0,0 +1,11 @@
+package com.coketea.jcurl;
+
+/**
+ * 在读取超时时间内没有从连接上读到任何数据时抛出
+ */
+public class ReadTimeoutException extends HttpTimeoutException {
+
+    public ReadTimeoutException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
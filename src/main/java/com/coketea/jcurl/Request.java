@@ -0,0 +1,195 @@
+package com.coketea.jcurl;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 不可变的http请求，可以在多个线程之间共享并被同一个HttpClient重复发送
+ */
+public final class Request {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final String method;
+
+    private final String uri;
+
+    private final Map<String, String> headers;
+
+    /**
+     * 请求报文体，内存中的报文体构造时编码一次，发送时使用其副本
+     */
+    private final RequestBody body;
+
+    public Request(String uri) {
+        this("GET", uri);
+    }
+
+    public Request(String method, String uri) {
+        this(method, uri, Collections.<String, String>emptyMap(), RequestBody.EMPTY);
+    }
+
+    /**
+     * @param method 请求方法
+     * @param uri 请求的uri地址
+     * @param headers 请求头，会被复制一份保存
+     * @param body 请求报文体，以UTF-8编码发送
+     */
+    public Request(String method, String uri, Map<String, String> headers, String body) {
+        this(method, uri, headers, body == null ? RequestBody.EMPTY : RequestBody.of(body));
+    }
+
+    /**
+     * @param method 请求方法
+     * @param uri 请求的uri地址
+     * @param headers 请求头，会被复制一份保存
+     * @param body 二进制请求报文体，调用方不能再修改传入的数组
+     */
+    public Request(String method, String uri, Map<String, String> headers, byte[] body) {
+        this(method, uri, headers, body == null ? RequestBody.EMPTY : RequestBody.of(body));
+    }
+
+    /**
+     * @param method 请求方法
+     * @param uri 请求的uri地址
+     * @param headers 请求头，会被复制一份保存
+     * @param body 二进制请求报文体，发送position到limit之间的数据，可以是直接缓冲区；调用方不能再修改其内容
+     */
+    public Request(String method, String uri, Map<String, String> headers, ByteBuffer body) {
+        this(method, uri, headers, body == null ? RequestBody.EMPTY : RequestBody.of(body));
+    }
+
+    /**
+     * @param method 请求方法
+     * @param uri 请求的uri地址
+     * @param headers 请求头，会被复制一份保存；没有Content-Type时使用报文体自带的Content-Type
+     * @param body 请求报文体，可以是文件、输入流或者{@link MultipartBody}
+     */
+    public Request(String method, String uri, Map<String, String> headers, RequestBody body) {
+        if (method == null || uri == null) {
+            throw new IllegalArgumentException("method and uri must not be null");
+        }
+        this.method = method;
+        this.uri = uri;
+        Map<String, String> copy = new LinkedHashMap<String, String>(headers);
+        this.body = body == null ? RequestBody.EMPTY : body;
+        if (this.body.contentType() != null && !containsKeyIgnoreCase(copy, Constance.HTTP_REQUEST_HEADER_KEY_CONTENT_TYPE)) {
+            copy.put(Constance.HTTP_REQUEST_HEADER_KEY_CONTENT_TYPE, this.body.contentType());
+        }
+        this.headers = Collections.unmodifiableMap(copy);
+    }
+
+    private static boolean containsKeyIgnoreCase(Map<String, String> headers, String key) {
+        for (String name : headers.keySet()) {
+            if (name.equalsIgnoreCase(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 在当前请求的基础上增加或替换一个请求头
+     * @param key 请求头名称，不区分大小写，替换时同名的请求头都被移除
+     * @param value 请求头的值
+     * @return 新的请求对象，当前对象不变
+     */
+    public Request withHeader(String key, String value) {
+        Map<String, String> copy = new LinkedHashMap<String, String>(this.headers);
+        Iterator<String> names = copy.keySet().iterator();
+        while (names.hasNext()) {
+            if (names.next().equalsIgnoreCase(key)) {
+                names.remove();
+            }
+        }
+        copy.put(key, value);
+        return new Request(this.method, this.uri, copy, this.body);
+    }
+
+    /**
+     * @return 请求方法是否幂等，幂等的请求可以管线化发送或者重发
+     */
+    public boolean isIdempotent() {
+        return "GET".equals(method) || "HEAD".equals(method) || "OPTIONS".equals(method)
+                || "TRACE".equals(method) || "PUT".equals(method) || "DELETE".equals(method);
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getUri() {
+        return uri;
+    }
+
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * @param key 请求头名称，不区分大小写
+     * @return 请求头的值，不存在时返回null
+     */
+    public String getHeader(String key) {
+        String value = headers.get(key);
+        if (value != null) {
+            return value;
+        }
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if (header.getKey().equalsIgnoreCase(key)) {
+                return header.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return 以UTF-8解码的请求报文体
+     * @throws IllegalStateException 报文体不在内存中
+     */
+    public String getBody() {
+        ByteBuffer copy = this.getBodyBuffer();
+        byte[] bytes = new byte[copy.remaining()];
+        copy.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * @return 请求报文体的只读副本，每次调用返回新的读取位置，可以被多个线程同时发送
+     * @throws IllegalStateException 报文体不在内存中
+     */
+    public ByteBuffer getBodyBuffer() {
+        ByteBuffer buffer = body.buffer();
+        if (buffer == null) {
+            throw new IllegalStateException("Request body is not buffered in memory");
+        }
+        return buffer;
+    }
+
+    public RequestBody getRequestBody() {
+        return body;
+    }
+
+    /**
+     * @return 报文体是否在内存中，只有这样的请求可以管线化发送
+     */
+    boolean isBuffered() {
+        return body.buffer() != null;
+    }
+
+    /**
+     * @return 请求报文体的字节数，-1表示长度未知
+     */
+    public long getContentLength() {
+        return body.contentLength();
+    }
+
+    @Override
+    public String toString() {
+        return method + " " + uri;
+    }
+}
@@ -0,0 +1,229 @@
+package com.coketea.jcurl;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 请求报文体，可以是内存中的字节、文件或者输入流
+ * <p>
+ * 内存中的报文体与请求头一起以一次聚集写发出；文件通过{@link FileChannel#transferTo}直接写入socket，
+ * 不经过用户态缓冲区；长度未知的报文体在HTTP/1.1中以chunked编码发送。
+ * 输入流只能读取一次，以输入流为报文体的请求不会被重试
+ */
+public abstract class RequestBody {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * 从输入流读取时每次读取的最大字节数
+     */
+    static final int TRANSFER_BUFFER_SIZE = 64 * 1024;
+
+    static final RequestBody EMPTY = new BufferBody(ByteBuffer.allocate(0));
+
+    /**
+     * @return 报文体的字节数，-1表示发送之前无法确定长度
+     */
+    public abstract long contentLength();
+
+    /**
+     * @return 报文体自带的Content-Type，例如multipart的boundary，没有时返回null
+     */
+    public String contentType() {
+        return null;
+    }
+
+    /**
+     * @return 报文体能否重复发送，不能重复发送的请求不会被重试
+     */
+    public boolean isReplayable() {
+        return true;
+    }
+
+    /**
+     * 把报文体写入目标通道
+     * @param target 阻塞模式的通道，可能是socket通道，也可能是HTTP/2流或者chunked编码的包装
+     * @throws IOException
+     */
+    public abstract void writeTo(WritableByteChannel target) throws IOException;
+
+    /**
+     * @return 内存中报文体的只读副本，其他报文体返回null
+     */
+    ByteBuffer buffer() {
+        return null;
+    }
+
+    /**
+     * @param bytes 报文体，调用方不能再修改传入的数组
+     */
+    public static RequestBody of(byte[] bytes) {
+        return bytes.length == 0 ? EMPTY : new BufferBody(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * @param buffer 发送position到limit之间的数据，可以是直接缓冲区；调用方不能再修改其内容
+     */
+    public static RequestBody of(ByteBuffer buffer) {
+        return buffer.hasRemaining() ? new BufferBody(buffer) : EMPTY;
+    }
+
+    /**
+     * @param text 以UTF-8编码发送
+     */
+    public static RequestBody of(String text) {
+        return text.length() == 0 ? EMPTY : new BufferBody(ByteBuffer.wrap(text.getBytes(UTF_8)));
+    }
+
+    /**
+     * 以文件内容为报文体，发送时才打开文件，可以重复发送
+     * @param path 文件路径，长度在此时确定，发送之前文件长度变化时发送失败
+     * @throws IOException 无法读取文件长度
+     */
+    public static RequestBody of(Path path) throws IOException {
+        return new FileBody(path, Files.size(path));
+    }
+
+    /**
+     * 以输入流为报文体，长度未知，以chunked编码发送，只能发送一次
+     * @param in 输入流，发送完毕后被关闭
+     */
+    public static RequestBody of(InputStream in) {
+        return new StreamBody(in, -1);
+    }
+
+    /**
+     * 以已知长度的输入流为报文体，只能发送一次
+     * @param in 输入流，发送完毕后被关闭
+     * @param length 输入流中的字节数，输入流提前结束时发送失败
+     */
+    public static RequestBody of(InputStream in, long length) {
+        if (length < 0) {
+            throw new IllegalArgumentException("length must not be negative: " + length);
+        }
+        return new StreamBody(in, length);
+    }
+
+    static void writeFully(WritableByteChannel target, ByteBuffer src) throws IOException {
+        while (src.hasRemaining()) {
+            target.write(src);
+        }
+    }
+
+    private static class BufferBody extends RequestBody {
+
+        private final ByteBuffer buffer;
+
+        BufferBody(ByteBuffer buffer) {
+            this.buffer = buffer.slice().asReadOnlyBuffer();
+        }
+
+        @Override
+        public long contentLength() {
+            return buffer.remaining();
+        }
+
+        @Override
+        ByteBuffer buffer() {
+            return buffer.duplicate();
+        }
+
+        @Override
+        public void writeTo(WritableByteChannel target) throws IOException {
+            writeFully(target, buffer.duplicate());
+        }
+    }
+
+    private static class FileBody extends RequestBody {
+
+        private final Path path;
+
+        private final long length;
+
+        FileBody(Path path, long length) {
+            this.path = path;
+            this.length = length;
+        }
+
+        @Override
+        public long contentLength() {
+            return length;
+        }
+
+        @Override
+        public void writeTo(WritableByteChannel target) throws IOException {
+            FileChannel file = FileChannel.open(path, StandardOpenOption.READ);
+            try {
+                long position = 0;
+                while (position < length) {
+                    long count = file.transferTo(position, length - position, target);
+                    if (count <= 0 && position >= file.size()) {
+                        throw new EOFException("File " + path + " shrank to " + file.size() + " bytes, expected "
+                                + length);
+                    }
+                    position += count;
+                }
+            } finally {
+                file.close();
+            }
+        }
+    }
+
+    private static class StreamBody extends RequestBody {
+
+        private final InputStream in;
+
+        private final long length;
+
+        private final AtomicBoolean consumed = new AtomicBoolean();
+
+        StreamBody(InputStream in, long length) {
+            this.in = in;
+            this.length = length;
+        }
+
+        @Override
+        public long contentLength() {
+            return length;
+        }
+
+        @Override
+        public boolean isReplayable() {
+            return false;
+        }
+
+        @Override
+        public void writeTo(WritableByteChannel target) throws IOException {
+            if (!consumed.compareAndSet(false, true)) {
+                throw new IOException("InputStream request body can only be sent once");
+            }
+            try {
+                byte[] buffer = new byte[TRANSFER_BUFFER_SIZE];
+                long total = 0;
+                while (length < 0 || total < length) {
+                    int max = length < 0 ? buffer.length : (int) Math.min(buffer.length, length - total);
+                    int count = in.read(buffer, 0, max);
+                    if (count == -1) {
+                        break;
+                    }
+                    writeFully(target, ByteBuffer.wrap(buffer, 0, count));
+                    total += count;
+                }
+                if (length >= 0 && total < length) {
+                    throw new EOFException("InputStream ended after " + total + " bytes, expected " + length);
+                }
+            } finally {
+                in.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package com.coketea.jcurl;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 把请求行与请求头以ASCII字节直接写入ByteBuffer，不经过String拼接与Writer编码
+ * <p>
+ * Host与客户端的默认请求头在创建时编码一次并缓存，每个请求只需要编码请求行、Content-Length与请求自身的请求头。
+ * 编码器创建后不可变，可以被多个线程共享，缓冲区由调用方持有
+ */
+class RequestEncoder {
+
+    /**
+     * 连接上请求头缓冲区的初始大小，放不下时按需扩容
+     */
+    static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final byte[] HTTP_VERSION = ascii(" HTTP/1.1\r\n");
+
+    private static final byte[] CONTENT_LENGTH = ascii(Constance.HTTP_RESPONSE_HEADER_KEY_CONTENT_LENGTH + ": ");
+
+    private static final byte[] TRANSFER_ENCODING_CHUNKED = ascii(Constance.HTTP_RESPONSE_HEADER_KEY_TRANSFER_ENCODING
+            + ": " + Constance.HTTP_RESPONSE_HEADER_VALUE_TRANSFER_ENCODING_CHUNKED + "\r\n");
+
+    private static final byte[] COLON = ascii(": ");
+
+    private static final byte[] CRLF = ascii("\r\n");
+
+    /**
+     * HTTP/1.1中由编码器自己写出的请求头，请求中的同名请求头被忽略；
+     * 同时出现Content-Length与Transfer-Encoding时服务器端与代理可能按不同的方式划分报文边界
+     */
+    private static final Set<String> HTTP1_EXCLUDED_HEADERS = new HashSet<String>(Arrays.asList(
+            "host", "content-length", "transfer-encoding"));
+
+    /**
+     * HTTP/2中禁止出现的逐跳请求头，Host由:authority代替，Content-Length按报文体重新计算
+     */
+    private static final Set<String> HTTP2_EXCLUDED_HEADERS = new HashSet<String>(Arrays.asList(
+            "connection", "keep-alive", "proxy-connection", "transfer-encoding", "upgrade", "host",
+            "content-length"));
+
+    private final byte[] hostLine;
+
+    /**
+     * 默认请求头的名称，已经转为小写，与请求中转为小写的名称比较，HTTP/1.1与HTTP/2共用
+     */
+    private final String[] defaultNames;
+
+    private final byte[][] defaultLines;
+
+    /**
+     * Host与全部默认请求头拼接后的字节，请求没有自己的请求头时整体写出
+     */
+    private final byte[] staticBlock;
+
+    private final String authority;
+
+    private final String scheme;
+
+    /**
+     * HTTP/2使用的默认请求头的值，为UTF-8字节的ISO-8859-1表示
+     */
+    private final String[] http2DefaultValues;
+
+    /**
+     * @param host 服务器地址
+     * @param port 服务器端口，不是80时写入Host请求头
+     * @param defaultHeaders 每个请求都携带的请求头，请求中的同名请求头优先
+     */
+    RequestEncoder(String host, int port, Map<String, String> defaultHeaders) {
+        this(host, port, false, defaultHeaders);
+    }
+
+    /**
+     * @param host 服务器地址
+     * @param port 服务器端口，不是协议的默认端口时写入Host请求头
+     * @param secure 是否为HTTPS，默认端口为443，HTTP/2的:scheme为https
+     * @param defaultHeaders 每个请求都携带的请求头，请求中的同名请求头优先
+     */
+    RequestEncoder(String host, int port, boolean secure, Map<String, String> defaultHeaders) {
+        this.authority = port == (secure ? 443 : 80) ? host : host + ":" + port;
+        this.scheme = secure ? "https" : "http";
+        this.hostLine = encodeLine("Host", authority);
+        this.defaultNames = new String[defaultHeaders.size()];
+        this.defaultLines = new byte[defaultHeaders.size()][];
+        this.http2DefaultValues = new String[defaultHeaders.size()];
+        int size = hostLine.length;
+        int i = 0;
+        for (Map.Entry<String, String> header : defaultHeaders.entrySet()) {
+            defaultNames[i] = header.getKey().toLowerCase(Locale.ROOT);
+            defaultLines[i] = encodeLine(header.getKey(), header.getValue());
+            http2DefaultValues[i] = octets(header.getValue());
+            size += defaultLines[i].length;
+            i++;
+        }
+        this.staticBlock = new byte[size];
+        System.arraycopy(hostLine, 0, staticBlock, 0, hostLine.length);
+        int offset = hostLine.length;
+        for (byte[] line : defaultLines) {
+            System.arraycopy(line, 0, staticBlock, offset, line.length);
+            offset += line.length;
+        }
+    }
+
+    /**
+     * @return 新的请求头缓冲区，使用直接缓冲区以便写入socket时不再复制
+     */
+    static ByteBuffer allocate() {
+        return ByteBuffer.allocateDirect(INITIAL_BUFFER_SIZE);
+    }
+
+    /**
+     * 编码请求行与请求头，从缓冲区的当前位置开始写入，报文体不写入缓冲区
+     * @param request 要编码的请求
+     * @param buffer 目标缓冲区
+     * @return 写入完成的缓冲区，空间不足时为扩容后的新缓冲区，调用方应该保存下来继续复用
+     */
+    ByteBuffer encode(Request request, ByteBuffer buffer) {
+        buffer = putAscii(buffer, request.getMethod());
+        buffer = ensure(buffer, 1);
+        buffer.put((byte) ' ');
+        buffer = putAscii(buffer, request.getUri());
+        buffer = put(buffer, HTTP_VERSION);
+        Map<String, String> headers = request.getHeaders();
+        if (headers.isEmpty()) {
+            buffer = put(buffer, staticBlock);
+        } else {
+            buffer = put(buffer, hostLine);
+            Set<String> names = lowerCaseNames(headers);
+            for (int i = 0; i < defaultLines.length; i++) {
+                if (!names.contains(defaultNames[i])) {
+                    buffer = put(buffer, defaultLines[i]);
+                }
+            }
+        }
+        long contentLength = request.getContentLength();
+        if (contentLength < 0) {
+            //长度未知的报文体以chunked编码发送
+            buffer = put(buffer, TRANSFER_ENCODING_CHUNKED);
+        } else {
+            buffer = put(buffer, CONTENT_LENGTH);
+            buffer = putDecimal(buffer, contentLength);
+            buffer = put(buffer, CRLF);
+        }
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if (HTTP1_EXCLUDED_HEADERS.contains(header.getKey().toLowerCase(Locale.ROOT))) {
+                continue;
+            }
+            buffer = putAscii(buffer, header.getKey());
+            buffer = put(buffer, COLON);
+            buffer = putAscii(buffer, header.getValue());
+            buffer = put(buffer, CRLF);
+        }
+        return put(buffer, CRLF);
+    }
+
+    /**
+     * 生成HTTP/2请求的头部列表，交给{@link HpackEncoder}编码
+     * @param request 要发送的请求
+     * @return 小写的名称与值交替排列，伪头部在前，值为UTF-8字节的ISO-8859-1表示
+     */
+    List<String> encodeHttp2(Request request) {
+        Map<String, String> headers = request.getHeaders();
+        List<String> fields = new ArrayList<String>(8 + (defaultNames.length + headers.size()) * 2);
+        fields.add(":method");
+        fields.add(request.getMethod());
+        fields.add(":scheme");
+        fields.add(scheme);
+        fields.add(":authority");
+        fields.add(authority);
+        fields.add(":path");
+        fields.add(octets(request.getUri()));
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            String name = header.getKey().toLowerCase(Locale.ROOT);
+            if (!HTTP2_EXCLUDED_HEADERS.contains(name)) {
+                fields.add(name);
+                fields.add(octets(header.getValue()));
+            }
+        }
+        Set<String> names = lowerCaseNames(headers);
+        for (int i = 0; i < defaultNames.length; i++) {
+            if (!names.contains(defaultNames[i]) && !HTTP2_EXCLUDED_HEADERS.contains(defaultNames[i])) {
+                fields.add(defaultNames[i]);
+                fields.add(http2DefaultValues[i]);
+            }
+        }
+        if (request.getContentLength() > 0) {
+            fields.add("content-length");
+            fields.add(String.valueOf(request.getContentLength()));
+        }
+        return fields;
+    }
+
+    /**
+     * @return 请求头名称转为小写的集合，请求头名称不区分大小写，请求中的同名请求头覆盖默认请求头
+     */
+    private static Set<String> lowerCaseNames(Map<String, String> headers) {
+        Set<String> names = new HashSet<String>(headers.size() * 2);
+        for (String name : headers.keySet()) {
+            names.add(name.toLowerCase(Locale.ROOT));
+        }
+        return names;
+    }
+
+    /**
+     * HPACK按字节编码，非ASCII字符先转为UTF-8字节
+     */
+    private static String octets(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) >= 0x80) {
+                return new String(s.getBytes(UTF_8), Hpack.ISO_8859_1);
+            }
+        }
+        return s;
+    }
+
+    private static byte[] encodeLine(String name, String value) {
+        ByteBuffer buffer = ByteBuffer.allocate(name.length() + value.length() + 4);
+        buffer = putAscii(buffer, name);
+        buffer = put(buffer, COLON);
+        buffer = putAscii(buffer, value);
+        buffer = put(buffer, CRLF);
+        byte[] bytes = new byte[buffer.position()];
+        buffer.flip();
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * 逐个字符写入ASCII字节，遇到非ASCII字符时整个字符串改用UTF-8编码
+     */
+    private static ByteBuffer putAscii(ByteBuffer buffer, String s) {
+        int length = s.length();
+        buffer = ensure(buffer, length);
+        int start = buffer.position();
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                buffer.position(start);
+                return put(buffer, s.getBytes(UTF_8));
+            }
+            buffer.put((byte) c);
+        }
+        return buffer;
+    }
+
+    private static ByteBuffer put(ByteBuffer buffer, byte[] bytes) {
+        buffer = ensure(buffer, bytes.length);
+        buffer.put(bytes);
+        return buffer;
+    }
+
+    /**
+     * 写入非负整数的十进制字节
+     */
+    private static ByteBuffer putDecimal(ByteBuffer buffer, long value) {
+        int digits = 1;
+        for (long v = value; v >= 10; v /= 10) {
+            digits++;
+        }
+        buffer = ensure(buffer, digits);
+        int end = buffer.position() + digits;
+        for (int i = end - 1; i >= end - digits; i--) {
+            buffer.put(i, (byte) ('0' + value % 10));
+            value /= 10;
+        }
+        buffer.position(end);
+        return buffer;
+    }
+
+    /**
+     * 保证缓冲区至少还有size字节的空间，不够时复制到两倍大小的新缓冲区
+     */
+    private static ByteBuffer ensure(ByteBuffer buffer, int size) {
+        if (buffer.remaining() >= size) {
+            return buffer;
+        }
+        int capacity = Math.max(buffer.capacity() * 2, buffer.position() + size);
+        ByteBuffer bigger = buffer.isDirect() ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+        buffer.flip();
+        bigger.put(buffer);
+        return bigger;
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(Charset.forName("US-ASCII"));
+    }
+}
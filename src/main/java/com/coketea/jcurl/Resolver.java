@@ -0,0 +1,34 @@
+package com.coketea.jcurl;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 域名解析，建立连接前把host解析为一组地址，可以替换为缓存的或者固定的实现
+ */
+public interface Resolver {
+
+    /**
+     * 直接调用{@link InetAddress#getAllByName(String)}，每次都是一次阻塞的解析
+     */
+    Resolver SYSTEM = new Resolver() {
+        @Override
+        public List<InetAddress> resolve(String host) throws UnknownHostException {
+            return Arrays.asList(InetAddress.getAllByName(host));
+        }
+    };
+
+    /**
+     * 默认的解析器，在SYSTEM之上缓存解析结果，没有单独指定时所有连接池共用
+     */
+    Resolver DEFAULT = new CachingResolver(SYSTEM);
+
+    /**
+     * @param host 域名或者ip地址
+     * @return 至少包含一个地址的列表，顺序即为建议的连接顺序
+     * @throws UnknownHostException 无法解析
+     */
+    List<InetAddress> resolve(String host) throws UnknownHostException;
+}
@@ -0,0 +1,78 @@
+package com.coketea.jcurl;
+
+import java.nio.charset.Charset;
+import java.util.Map;
+
+/**
+ * 不可变的http响应
+ */
+public final class Response {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final int code;
+
+    private final String status;
+
+    private final Headers headers;
+
+    private final byte[] body;
+
+    /**
+     * @param code 返回码
+     * @param status 返回状态描述
+     * @param headers 响应头
+     * @param body 响应报文体，调用方不能再修改传入的数组
+     */
+    public Response(int code, String status, Map<String, String> headers, byte[] body) {
+        this(code, status, Headers.of(headers), body);
+    }
+
+    /**
+     * @param code 返回码
+     * @param status 返回状态描述
+     * @param headers 响应头
+     * @param body 响应报文体，调用方不能再修改传入的数组
+     */
+    public Response(int code, String status, Headers headers, byte[] body) {
+        this.code = code;
+        this.status = status;
+        this.headers = headers;
+        this.body = body;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public Headers getHeaders() {
+        return headers;
+    }
+
+    public String getHeader(String key) {
+        return headers.get(key);
+    }
+
+    /**
+     * @return 响应报文体，为避免复制直接返回内部数组，调用方不能修改
+     */
+    public byte[] getBody() {
+        return body;
+    }
+
+    /**
+     * @return 以UTF-8解码的响应报文体
+     */
+    public String getBodyAsString() {
+        return new String(body, UTF_8);
+    }
+
+    @Override
+    public String toString() {
+        return code + " " + (status == null ? "" : status);
+    }
+}
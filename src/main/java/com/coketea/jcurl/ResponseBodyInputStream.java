@@ -0,0 +1,376 @@
+package com.coketea.jcurl;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * 流式读取响应报文体，按Content-Length限定读取范围或者边读边解码chunk，不缓存整个报文体
+ * <p>
+ * 读到报文体结尾时连接自动归还连接池，提前关闭时连接上残留未读数据，直接关闭连接
+ */
+class ResponseBodyInputStream extends BodyInputStream {
+
+    private static final int FIXED_LENGTH = 0;
+
+    private static final int CHUNKED = 1;
+
+    private static final int UNTIL_CLOSE = 2;
+
+    private static final int TRANSFER_BUFFER_SIZE = 64 * 1024;
+
+    private final HttpConnection connection;
+
+    private final ConnectionPool connectionPool;
+
+    private final ResponseParser parser;
+
+    private final boolean reusable;
+
+    private final int mode;
+
+    private final Call call;
+
+    private final EventListener listener;
+
+    /**
+     * 已经从连接读取的报文体字节数
+     */
+    private long bodyBytes;
+
+    /**
+     * Content-Length模式下剩余的字节数，Chunked模式下当前chunk剩余的字节数
+     */
+    private long remaining;
+
+    /**
+     * Chunked模式下是否还需要读取下一个chunk头
+     */
+    private boolean needChunkSize = true;
+
+    private boolean finished;
+
+    private boolean closed;
+
+    /**
+     * @param connection 已经解析完响应头的连接，由该流负责归还
+     * @param connectionPool 连接所属的连接池
+     * @param method 请求方法
+     * @param call 连接所属的请求，报文体结束时随之结束
+     * @param listener 报文体结束时接收bodyEnd、poolRelease与callEnd或callFailed事件
+     * @throws IOException
+     */
+    ResponseBodyInputStream(HttpConnection connection, ConnectionPool connectionPool, String method, Call call,
+                            EventListener listener) throws IOException {
+        this.connection = connection;
+        this.connectionPool = connectionPool;
+        this.call = call;
+        this.listener = listener;
+        this.parser = connection.getResponseParser();
+        this.reusable = parser.isReusable(method);
+        if (parser.isResponseBodyAbsent(method)) {
+            this.mode = FIXED_LENGTH;
+            this.remaining = 0;
+        } else if (parser.isResponseChunked()) {
+            this.mode = CHUNKED;
+        } else if (parser.hasContentLength()) {
+            this.mode = FIXED_LENGTH;
+            this.remaining = parser.getContentLength();
+        } else {
+            this.mode = UNTIL_CLOSE;
+        }
+        if (mode == FIXED_LENGTH && remaining == 0) {
+            this.finish();
+        }
+    }
+
+    /**
+     * @return Content-Length模式下报文体剩余的字节数，其他模式返回-1
+     */
+    @Override
+    long getRemainingLength() {
+        return mode == FIXED_LENGTH ? remaining : -1;
+    }
+
+    /**
+     * 确定下一次最多可以读取的字节数，Chunked模式下会在需要时解析chunk头
+     * @return 最多可以读取的字节数，-1表示报文体已经结束
+     * @throws IOException
+     */
+    private long readable() throws IOException {
+        if (closed) {
+            throw new IOException("Response body stream is closed");
+        }
+        if (finished) {
+            return -1;
+        }
+        if (mode == CHUNKED && remaining == 0) {
+            if (!needChunkSize) {
+                parser.readChunkEnd();
+            }
+            remaining = parser.readChunkSize();
+            needChunkSize = false;
+            if (remaining == 0) {
+                parser.skipTrailers();
+                this.finish();
+                return -1;
+            }
+        }
+        return mode == UNTIL_CLOSE ? Long.MAX_VALUE : remaining;
+    }
+
+    /**
+     * 记录已经消费的字节数
+     * @param count 本次读取到的字节数，-1表示连接已关闭
+     * @throws IOException 报文体尚未结束连接就被关闭
+     */
+    private void consumed(long count) throws IOException {
+        if (count == -1) {
+            if (mode == UNTIL_CLOSE) {
+                this.finish();
+                return;
+            }
+            throw new EOFException("Connection closed before end of response body");
+        }
+        bodyBytes += count;
+        if (mode != UNTIL_CLOSE) {
+            remaining -= count;
+            if (mode == FIXED_LENGTH && remaining == 0) {
+                this.finish();
+            }
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        int count = this.read(single, 0, 1);
+        return count == -1 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        try {
+            long readable = this.readable();
+            if (readable == -1) {
+                return -1;
+            }
+            int count = parser.read(b, off, (int) Math.min(len, readable));
+            this.consumed(count);
+            return count;
+        } catch (IOException e) {
+            throw this.fail(e);
+        }
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (closed) {
+            throw new ClosedChannelException();
+        }
+        if (!dst.hasRemaining()) {
+            return 0;
+        }
+        if (dst.hasArray()) {
+            int count = this.read(dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+            if (count > 0) {
+                dst.position(dst.position() + count);
+            }
+            return count;
+        }
+        try {
+            long readable = this.readable();
+            if (readable == -1) {
+                return -1;
+            }
+            int count = parser.fillIfEmpty();
+            if (count != -1) {
+                count = (int) Math.min(Math.min(count, readable), dst.remaining());
+                dst.put(parser.bufferArray(), parser.bufferPosition(), count);
+                parser.skipBuffered(count);
+            }
+            this.consumed(count);
+            return count;
+        } catch (IOException e) {
+            throw this.fail(e);
+        }
+    }
+
+    /**
+     * 直接把连接读缓冲区中的数据片段交给回调，读取到报文体结束为止
+     * @param consumer 数据回调
+     * @return 报文体总字节数
+     * @throws IOException
+     */
+    @Override
+    long consume(BodyConsumer consumer) throws IOException {
+        long total = 0;
+        try {
+            while (true) {
+                long readable = this.readable();
+                if (readable == -1) {
+                    return total;
+                }
+                int count = parser.fillIfEmpty();
+                if (count != -1) {
+                    count = (int) Math.min(count, readable);
+                    ByteBuffer slice = ByteBuffer.wrap(parser.bufferArray(), parser.bufferPosition(), count)
+                            .slice().asReadOnlyBuffer();
+                    parser.skipBuffered(count);
+                    total += count;
+                    //先回调再记录消费，报文体结束时连接会被归还，之后缓冲区可能被其他请求覆盖
+                    consumer.accept(slice);
+                    this.consumed(count);
+                } else {
+                    this.consumed(count);
+                }
+            }
+        } catch (IOException e) {
+            throw this.fail(e);
+        } catch (RuntimeException e) {
+            this.abort(e);
+            throw e;
+        }
+    }
+
+    /**
+     * 把剩余的报文体写入目标通道
+     * <p>
+     * 目标为FileChannel且报文体长度由Content-Length确定时，先写出读缓冲区中已有的数据，
+     * 剩余部分通过FileChannel.transferFrom直接从socket通道传输；其他情况经由直接缓冲区写出
+     * @param target 目标通道，写入从其当前位置开始
+     * @return 写入的字节数
+     * @throws IOException
+     */
+    @Override
+    long transferTo(WritableByteChannel target) throws IOException {
+        long total = 0;
+        try {
+            SocketChannel source = connection.getChannel();
+            if (mode == FIXED_LENGTH && target instanceof FileChannel && source != null) {
+                FileChannel file = (FileChannel) target;
+                long position = file.position();
+                int buffered = (int) Math.min(parser.bufferedCount(), remaining);
+                if (!finished && buffered > 0) {
+                    ByteBuffer slice = ByteBuffer.wrap(parser.bufferArray(), parser.bufferPosition(), buffered);
+                    while (slice.hasRemaining()) {
+                        position += file.write(slice, position);
+                    }
+                    parser.skipBuffered(buffered);
+                    total += buffered;
+                    this.consumed(buffered);
+                }
+                while (!finished) {
+                    long count = file.transferFrom(source, position, remaining);
+                    if (count <= 0) {
+                        this.consumed(-1);
+                    }
+                    position += count;
+                    total += count;
+                    this.consumed(count);
+                }
+                file.position(position);
+                return total;
+            }
+            BufferPool bufferPool = connection.getBufferPool();
+            ByteBuffer buffer = bufferPool.acquireDirect(TRANSFER_BUFFER_SIZE);
+            try {
+                int count;
+                while ((count = this.read(buffer)) != -1) {
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        target.write(buffer);
+                    }
+                    total += count;
+                    buffer.clear();
+                }
+            } finally {
+                bufferPool.release(buffer);
+            }
+            return total;
+        } catch (IOException e) {
+            throw this.fail(e);
+        } catch (RuntimeException e) {
+            this.abort(e);
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !closed;
+    }
+
+    /**
+     * @return 连接使用的缓冲区池
+     */
+    @Override
+    BufferPool getBufferPool() {
+        return connection.getBufferPool();
+    }
+
+    boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * 报文体已经完整读取，按服务器端的要求归还或关闭连接
+     */
+    private void finish() {
+        if (!finished) {
+            finished = true;
+            listener.bodyEnd(bodyBytes, System.nanoTime());
+            call.detach();
+            connectionPool.release(connection, reusable);
+            long now = System.nanoTime();
+            listener.poolRelease(reusable, now);
+            listener.callEnd(now);
+            call.end();
+        }
+    }
+
+    /**
+     * 读取出错，把取消与超时转换为对应的异常后放弃连接
+     * @return 转换后的异常
+     */
+    private IOException fail(IOException e) {
+        IOException failure = call.translate(e);
+        this.abort(failure);
+        return failure;
+    }
+
+    /**
+     * 报文体读取出错或者提前关闭，连接上残留未读数据，不能复用
+     * @param cause 读取出错的原因，调用方主动关闭时为null
+     */
+    private void abort(Exception cause) {
+        if (!finished) {
+            finished = true;
+            call.detach();
+            connectionPool.release(connection, false);
+            long now = System.nanoTime();
+            listener.poolRelease(false, now);
+            if (cause == null) {
+                listener.callEnd(now);
+            } else {
+                listener.callFailed(cause, now);
+            }
+            call.end();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            this.abort(null);
+            closed = true;
+        }
+    }
+}
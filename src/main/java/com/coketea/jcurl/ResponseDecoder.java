@@ -0,0 +1,295 @@
+package com.coketea.jcurl;
+
+import java.io.EOFException;
+import java.io.IOException;
+
+/**
+ * 增量式响应解码器，供非阻塞引擎使用
+ * <p>
+ * 数据以任意大小的片段喂入，状态机依次解析状态行、响应头与报文体；
+ * 状态行、响应头、chunk头的解析与阻塞式的{@link ResponseParser}共用同一套实现
+ */
+class ResponseDecoder {
+
+    private static final int STATUS = 0;
+
+    private static final int HEADERS = 1;
+
+    private static final int BODY_FIXED = 2;
+
+    private static final int CHUNK_SIZE = 3;
+
+    private static final int CHUNK_DATA = 4;
+
+    private static final int CHUNK_END = 5;
+
+    private static final int TRAILERS = 6;
+
+    private static final int BODY_UNTIL_CLOSE = 7;
+
+    private static final int DONE = 8;
+
+    private final HeadersBuilder headersBuilder = new HeadersBuilder(ResponseParser.MAX_HEAD_SIZE);
+
+    /**
+     * 尚未遇到行结束符的半行数据
+     */
+    private byte[] line = new byte[256];
+
+    private int lineLength;
+
+    private String method;
+
+    private int state = DONE;
+
+    private int code;
+
+    private String reason;
+
+    private Headers headers;
+
+    private long remaining;
+
+    private byte[] fixedBody;
+
+    private int fixedBodyLength;
+
+    /**
+     * 长度未知的报文体，从bufferPool借出，生成响应时归还
+     */
+    private BodyBuffer body;
+
+    private final BufferPool bufferPool;
+
+    private boolean started;
+
+    ResponseDecoder() {
+        this(BufferPool.DEFAULT);
+    }
+
+    ResponseDecoder(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    /**
+     * 开始解码一个新的响应
+     * @param method 对应请求的方法
+     */
+    void reset(String method) {
+        this.method = method;
+        this.state = STATUS;
+        this.code = 0;
+        this.reason = null;
+        this.headers = null;
+        this.remaining = 0;
+        this.fixedBody = null;
+        this.fixedBodyLength = 0;
+        this.release();
+        this.lineLength = 0;
+        this.started = false;
+        this.headersBuilder.reset();
+    }
+
+    /**
+     * 喂入从连接读取到的数据
+     * @param src 数据所在的数组
+     * @param off 起始位置
+     * @param len 长度
+     * @return 消费的字节数，响应结束后剩余的数据不会被消费
+     * @throws IOException 响应格式错误
+     */
+    int feed(byte[] src, int off, int len) throws IOException {
+        int pos = off;
+        int end = off + len;
+        if (len > 0) {
+            started = true;
+        }
+        while (pos < end && state != DONE) {
+            switch (state) {
+                case BODY_FIXED:
+                case CHUNK_DATA: {
+                    int count = (int) Math.min(remaining, end - pos);
+                    this.appendBody(src, pos, count);
+                    pos += count;
+                    remaining -= count;
+                    if (remaining == 0) {
+                        state = state == BODY_FIXED ? DONE : CHUNK_END;
+                    }
+                    break;
+                }
+                case BODY_UNTIL_CLOSE:
+                    this.appendBody(src, pos, end - pos);
+                    pos = end;
+                    break;
+                default: {
+                    int newline = -1;
+                    for (int i = pos; i < end; i++) {
+                        if (src[i] == '\n') {
+                            newline = i;
+                            break;
+                        }
+                    }
+                    int stop = newline == -1 ? end : newline;
+                    this.appendLine(src, pos, stop - pos);
+                    pos = newline == -1 ? end : newline + 1;
+                    if (newline != -1) {
+                        int length = lineLength > 0 && line[lineLength - 1] == '\r' ? lineLength - 1 : lineLength;
+                        lineLength = 0;
+                        this.onLine(length);
+                    }
+                }
+            }
+        }
+        return pos - off;
+    }
+
+    /**
+     * 连接已关闭，没有更多数据
+     * @throws IOException 响应尚未结束
+     */
+    void endOfStream() throws IOException {
+        if (state == BODY_UNTIL_CLOSE) {
+            state = DONE;
+        } else if (state == TRAILERS) {
+            state = DONE;
+        } else if (state != DONE) {
+            throw new EOFException("Connection closed before end of response");
+        }
+    }
+
+    private void appendLine(byte[] src, int off, int len) throws IOException {
+        if (lineLength + len > line.length) {
+            if (lineLength + len > ResponseParser.MAX_HEAD_SIZE) {
+                throw new IOException("Response line exceeds " + ResponseParser.MAX_HEAD_SIZE + " bytes");
+            }
+            byte[] bigger = new byte[Math.max(line.length * 2, lineLength + len)];
+            System.arraycopy(line, 0, bigger, 0, lineLength);
+            line = bigger;
+        }
+        System.arraycopy(src, off, line, lineLength, len);
+        lineLength += len;
+    }
+
+    private void onLine(int length) throws IOException {
+        switch (state) {
+            case STATUS: {
+                int codeEnd = ResponseParser.parseStatusCodeEnd(line, 0, length);
+                code = ResponseParser.parseStatusCode(line, codeEnd);
+                reason = ResponseParser.parseReason(line, codeEnd, length);
+                state = HEADERS;
+                break;
+            }
+            case HEADERS:
+                if (length > 0) {
+                    headersBuilder.addLine(line, 0, length);
+                } else {
+                    this.onHeadersComplete();
+                }
+                break;
+            case CHUNK_SIZE:
+                remaining = ResponseParser.parseChunkSize(line, 0, length);
+                state = remaining == 0 ? TRAILERS : CHUNK_DATA;
+                break;
+            case CHUNK_END:
+                if (length != 0) {
+                    throw new IOException("Missing CRLF after chunk data");
+                }
+                state = CHUNK_SIZE;
+                break;
+            case TRAILERS:
+                if (length == 0) {
+                    state = DONE;
+                }
+                break;
+            default:
+                throw new IllegalStateException("Unexpected decoder state " + state);
+        }
+    }
+
+    private void onHeadersComplete() throws IOException {
+        if (ResponseParser.isInterim(code)) {
+            //丢弃100 Continue、103 Early Hints等临时响应，继续解码之后的状态行
+            headersBuilder.reset();
+            state = STATUS;
+            return;
+        }
+        headers = headersBuilder.build();
+        long contentLength = ResponseParser.getContentLength(headers);
+        if (ResponseParser.isBodyAbsent(method, code)) {
+            state = DONE;
+        } else if (ResponseParser.isChunked(headers)) {
+            state = CHUNK_SIZE;
+        } else if (contentLength >= 0) {
+            if (contentLength > Integer.MAX_VALUE - 8) {
+                throw new IOException("Response body too large to buffer: " + contentLength);
+            }
+            if (contentLength <= ResponseParser.MAX_PREALLOCATED_BODY_SIZE) {
+                fixedBody = new byte[(int) contentLength];
+            }
+            //更大的报文体不按声明的长度预先分配，随着数据到达写入BodyBuffer
+            remaining = contentLength;
+            state = contentLength == 0 ? DONE : BODY_FIXED;
+        } else {
+            state = BODY_UNTIL_CLOSE;
+        }
+    }
+
+    private void appendBody(byte[] src, int off, int len) {
+        if (fixedBody != null) {
+            System.arraycopy(src, off, fixedBody, fixedBodyLength, len);
+            fixedBodyLength += len;
+            return;
+        }
+        if (body == null) {
+            body = new BodyBuffer(bufferPool, len);
+        }
+        body.write(src, off, len);
+    }
+
+    /**
+     * @return 当前响应是否已经解码完成
+     */
+    boolean isDone() {
+        return state == DONE;
+    }
+
+    /**
+     * @return 是否已经收到当前响应的任何数据
+     */
+    boolean isStarted() {
+        return started;
+    }
+
+    /**
+     * @return 解码完成后连接能否复用
+     */
+    boolean isReusable() {
+        return headers != null && ResponseParser.isReusable(method, code, headers);
+    }
+
+    /**
+     * @return 解码完成的响应
+     */
+    Response toResponse() {
+        byte[] bytes;
+        if (fixedBody != null) {
+            bytes = fixedBody;
+        } else if (body != null) {
+            bytes = body.toByteArray();
+            this.release();
+        } else {
+            bytes = ResponseParser.EMPTY_BODY;
+        }
+        return new Response(code, reason, headers, bytes);
+    }
+
+    /**
+     * 归还尚未生成响应的报文体缓冲区，连接关闭时调用
+     */
+    void release() {
+        if (body != null) {
+            body.release();
+            body = null;
+        }
+    }
+}
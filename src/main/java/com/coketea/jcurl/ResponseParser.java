@@ -0,0 +1,644 @@
+package com.coketea.jcurl;
+
+import java.io.*;
+
+/**
+ * 连接上的响应解析器，直接在可复用的字节缓冲区中查找行结束符并解析返回码与响应头，
+ * 只有在读取响应头时才创建String
+ * <p>
+ * 每条连接持有一个实例，缓冲区中可能已经读入了下一个响应的数据，因此同一连接上的多次响应必须使用同一个实例
+ */
+class ResponseParser {
+
+    private static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * 按Content-Length一次分配报文体数组的上限，更大的报文体随着数据到达逐步扩容，
+     * 避免服务器端声明的长度在收到数据之前就耗尽内存
+     */
+    static final int MAX_PREALLOCATED_BODY_SIZE = 1024 * 1024;
+
+    /**
+     * 状态行与响应头的最大长度
+     */
+    static final int MAX_HEAD_SIZE = 64 * 1024;
+
+    /**
+     * 所有空报文体共用的数组
+     */
+    static final byte[] EMPTY_BODY = new byte[0];
+
+    private final InputStream is;
+
+    private final BufferPool bufferPool;
+
+    /**
+     * 从bufferPool借出的读缓冲区，连接关闭时通过{@link #release()}归还
+     */
+    private byte[] buffer;
+
+    private int pos;
+
+    private int limit;
+
+    /**
+     * 最近一次readLine读取到的行在buffer中的起止位置，不包含行结束符
+     */
+    private int lineStart;
+
+    private int lineEnd;
+
+    /**
+     * 最近一次readLine读取到的行是否以LF结束，为false时是连接关闭前剩余的不完整数据
+     */
+    private boolean lineTerminated;
+
+    /**
+     * 当前响应的响应头原始字节与偏移量，解析完成后复制为Headers
+     */
+    private final HeadersBuilder headersBuilder = new HeadersBuilder(MAX_HEAD_SIZE);
+
+    private int code;
+
+    private String reason;
+
+    private Headers headers = Headers.EMPTY;
+
+    /**
+     * @param is 从socket获取的inputStream，不需要额外包装缓冲
+     */
+    ResponseParser(InputStream is) {
+        this(is, BufferPool.DEFAULT);
+    }
+
+    /**
+     * @param is 从socket获取的inputStream，不需要额外包装缓冲
+     * @param bufferPool 读缓冲区以及未知长度报文体的累积缓冲区从这里借出
+     */
+    ResponseParser(InputStream is, BufferPool bufferPool) {
+        this.is = is;
+        this.bufferPool = bufferPool;
+        this.buffer = bufferPool.acquire(INITIAL_BUFFER_SIZE);
+    }
+
+    /**
+     * 归还读缓冲区，之后不能再使用该解析器
+     */
+    void release() {
+        if (buffer != null) {
+            bufferPool.release(buffer);
+            buffer = null;
+        }
+    }
+
+    /**
+     * 清除上一个响应的解析结果，缓冲区中尚未消费的数据保留
+     */
+    void reset() {
+        this.code = 0;
+        this.reason = null;
+        this.headers = Headers.EMPTY;
+        this.headersBuilder.reset();
+    }
+
+    /**
+     * 从服务器端读取更多数据到缓冲区末尾，缓冲区满时先压缩，压缩后仍然满则扩容
+     * @return 读取到的字节数，-1表示连接已关闭
+     * @throws IOException
+     */
+    private int fill() throws IOException {
+        if (limit == buffer.length) {
+            if (pos > 0) {
+                System.arraycopy(buffer, pos, buffer, 0, limit - pos);
+                limit -= pos;
+                lineStart -= pos;
+                lineEnd -= pos;
+                pos = 0;
+            } else {
+                if (limit >= MAX_HEAD_SIZE) {
+                    throw new IOException("Response line exceeds " + MAX_HEAD_SIZE + " bytes");
+                }
+                byte[] bigger = bufferPool.acquire(buffer.length * 2);
+                System.arraycopy(buffer, 0, bigger, 0, limit);
+                bufferPool.release(buffer);
+                buffer = bigger;
+            }
+        }
+        int count = is.read(buffer, limit, buffer.length - limit);
+        if (count > 0) {
+            limit += count;
+        }
+        return count;
+    }
+
+    /**
+     * 读取一行数据，行内容保留在缓冲区中的[lineStart, lineEnd)位置
+     * <p>
+     * 以LF作为行结束符，LF之前的CR一并去掉；单独出现的CR作为普通数据保留
+     * @return 行的长度，不包含行结束符；连接已关闭且没有剩余数据时返回-1
+     * @throws IOException
+     */
+    int readLine() throws IOException {
+        int scan = pos;
+        while (true) {
+            for (; scan < limit; scan++) {
+                if (buffer[scan] == '\n') {
+                    lineStart = pos;
+                    lineEnd = scan > pos && buffer[scan - 1] == '\r' ? scan - 1 : scan;
+                    pos = scan + 1;
+                    lineTerminated = true;
+                    return lineEnd - lineStart;
+                }
+            }
+            int offset = scan - pos;
+            if (this.fill() == -1) {
+                //连接关闭时把剩余数据作为最后一行
+                if (pos == limit) {
+                    return -1;
+                }
+                lineStart = pos;
+                lineEnd = limit;
+                pos = limit;
+                lineTerminated = false;
+                return lineEnd - lineStart;
+            }
+            scan = pos + offset;
+        }
+    }
+
+    /**
+     * @return 最近一次readLine读取到的行，以UTF-8解码
+     */
+    String lineString() throws UnsupportedEncodingException {
+        return new String(buffer, lineStart, lineEnd - lineStart, "UTF-8");
+    }
+
+    /**
+     * 解析状态行，返回码直接从字节解析为数字
+     * @throws IOException 连接已关闭或者状态行格式错误
+     */
+    void parseResponseStatus() throws IOException {
+        if (this.readLine() == -1) {
+            throw new EOFException("Connection closed before response status line");
+        }
+        int codeEnd = parseStatusCodeEnd(buffer, lineStart, lineEnd);
+        this.code = parseStatusCode(buffer, codeEnd);
+        this.reason = parseReason(buffer, codeEnd, lineEnd);
+    }
+
+    /**
+     * 在状态行中定位三位数字返回码
+     * @param line 状态行所在的数组
+     * @param start 状态行起始位置
+     * @param end 状态行结束位置，不包含行结束符
+     * @return 返回码之后的位置
+     * @throws IOException 状态行格式错误
+     */
+    static int parseStatusCodeEnd(byte[] line, int start, int end) throws IOException {
+        int i = start;
+        while (i < end && line[i] != ' ') {
+            i++;
+        }
+        int codeStart = i + 1;
+        int codeEnd = codeStart;
+        while (codeEnd < end && line[codeEnd] >= '0' && line[codeEnd] <= '9') {
+            codeEnd++;
+        }
+        if (codeEnd - codeStart != 3 || (codeEnd < end && line[codeEnd] != ' ')) {
+            throw new IOException("Malformed response status line: "
+                    + new String(line, start, end - start, "UTF-8"));
+        }
+        return codeEnd;
+    }
+
+    /**
+     * @param line 状态行所在的数组
+     * @param codeEnd {@link #parseStatusCodeEnd}的返回值
+     * @return 数字形式的返回码
+     */
+    static int parseStatusCode(byte[] line, int codeEnd) {
+        return (line[codeEnd - 3] - '0') * 100 + (line[codeEnd - 2] - '0') * 10 + (line[codeEnd - 1] - '0');
+    }
+
+    /**
+     * @param line 状态行所在的数组
+     * @param codeEnd {@link #parseStatusCodeEnd}的返回值
+     * @param end 状态行结束位置，不包含行结束符
+     * @return 返回状态描述，最常见的OK直接返回常量
+     * @throws UnsupportedEncodingException
+     */
+    static String parseReason(byte[] line, int codeEnd, int end) throws UnsupportedEncodingException {
+        int reasonStart = Math.min(codeEnd + 1, end);
+        if (end - reasonStart == 2 && line[reasonStart] == 'O' && line[reasonStart + 1] == 'K') {
+            return "OK";
+        }
+        return new String(line, reasonStart, end - reasonStart, "UTF-8");
+    }
+
+    /**
+     * 解析响应头，名称与去掉首尾空白的值以偏移量的形式记录
+     * @throws IOException
+     */
+    void parseResponseHeader() throws IOException {
+        while (true) {
+            int length = this.readLine();
+            if (length == -1 || !lineTerminated) {
+                //连接关闭时截断的最后一行不能当作响应头
+                throw new EOFException("Connection closed before end of response headers");
+            }
+            if (length == 0) {
+                break;
+            }
+            headersBuilder.addLine(buffer, lineStart, length);
+        }
+        this.headers = headersBuilder.build();
+    }
+
+    /**
+     * 解析最终响应的状态行与响应头，跳过之前的1xx临时响应(100 Continue、103 Early Hints等)；
+     * 临时响应没有报文体，不跳过会把真正的响应留在连接上，被下一个请求读到
+     * @param listener 收到第一个状态行时发出firstByte
+     * @throws IOException
+     */
+    void parseResponseHead(EventListener listener) throws IOException {
+        this.parseResponseStatus();
+        listener.firstByte(System.nanoTime());
+        this.parseResponseHeader();
+        while (isInterim(this.code)) {
+            //保留临时响应的返回码，之后读取失败时isStatusParsed仍为true，请求不会被当作未发送而重试
+            this.headersBuilder.reset();
+            this.headers = Headers.EMPTY;
+            this.parseResponseStatus();
+            this.parseResponseHeader();
+        }
+    }
+
+    /**
+     * @return 是否为需要跳过的1xx临时响应，101 Switching Protocols之后连接不再是http，不属于临时响应
+     */
+    static boolean isInterim(int code) {
+        return code >= 100 && code < 200 && code != 101;
+    }
+
+    /**
+     * 缓冲区为空时从连接读取一次数据，供调用方直接访问缓冲区中的数据而不复制
+     * @return 缓冲区中可读的字节数，-1表示连接已关闭
+     * @throws IOException
+     */
+    int fillIfEmpty() throws IOException {
+        if (pos == limit) {
+            pos = 0;
+            limit = 0;
+            if (this.fill() == -1) {
+                return -1;
+            }
+        }
+        return limit - pos;
+    }
+
+    /**
+     * @return 缓冲区中已经从连接读入但尚未消费的字节数
+     */
+    int bufferedCount() {
+        return limit - pos;
+    }
+
+    byte[] bufferArray() {
+        return buffer;
+    }
+
+    int bufferPosition() {
+        return pos;
+    }
+
+    /**
+     * 标记缓冲区中的count个字节已经被直接消费
+     */
+    void skipBuffered(int count) {
+        pos += count;
+    }
+
+    /**
+     * 读取报文体数据，优先消费缓冲区中剩余的数据，缓冲区为空且读取量较大时直接从连接读取
+     * @param b 目标数组
+     * @param off 目标数组起始位置
+     * @param len 最多读取的字节数
+     * @return 读取到的字节数，-1表示连接已关闭
+     * @throws IOException
+     */
+    int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (pos == limit) {
+            if (len >= buffer.length) {
+                return is.read(b, off, len);
+            }
+            pos = 0;
+            limit = 0;
+            if (this.fill() == -1) {
+                return -1;
+            }
+        }
+        int count = Math.min(len, limit - pos);
+        System.arraycopy(buffer, pos, b, off, count);
+        pos += count;
+        return count;
+    }
+
+    /**
+     * 解析Content-Length指定内容长度的报文体，只读取Content-Length个字节，不会越过报文边界
+     * @return
+     * @throws IOException 连接在读满Content-Length之前被关闭
+     */
+    byte[] parseResponseBody() throws IOException {
+        long length = this.getContentLength();
+        if (length > Integer.MAX_VALUE - 8) {
+            throw new IOException("Response body too large to buffer: " + length);
+        }
+        if (length <= MAX_PREALLOCATED_BODY_SIZE) {
+            byte[] body = new byte[(int) length];
+            int totalReadCount = 0;
+            while (totalReadCount < length) {
+                int readCount = this.read(body, totalReadCount, (int) length - totalReadCount);
+                if (readCount == -1) {
+                    throw new EOFException("Connection closed with " + (length - totalReadCount)
+                            + " bytes of response body remaining");
+                }
+                totalReadCount += readCount;
+            }
+            return body;
+        }
+        BodyBuffer body = new BodyBuffer(bufferPool, MAX_PREALLOCATED_BODY_SIZE);
+        try {
+            while (body.size() < length) {
+                body.ensureWritable((int) Math.min(length - body.size(), MAX_PREALLOCATED_BODY_SIZE));
+                int readCount = this.read(body.array(), body.size(),
+                        (int) Math.min(length - body.size(), body.array().length - body.size()));
+                if (readCount == -1) {
+                    throw new EOFException("Connection closed with " + (length - body.size())
+                            + " bytes of response body remaining");
+                }
+                body.advance(readCount);
+            }
+            return body.toByteArray();
+        } finally {
+            body.release();
+        }
+    }
+
+    /**
+     * 解析没有Content-Length也不是Chunked编码的报文体，一直读取到服务器端关闭连接
+     * @return
+     * @throws IOException
+     */
+    byte[] parseResponseBodyUntilClose() throws IOException {
+        BodyBuffer body = new BodyBuffer(bufferPool, INITIAL_BUFFER_SIZE);
+        try {
+            while (true) {
+                body.ensureWritable(INITIAL_BUFFER_SIZE);
+                int readCount = this.read(body.array(), body.size(), body.array().length - body.size());
+                if (readCount == -1) {
+                    return body.toByteArray();
+                }
+                body.advance(readCount);
+            }
+        } finally {
+            body.release();
+        }
+    }
+
+    /**
+     * 直接在缓冲区中解析chunk头中的十六进制长度，忽略chunk扩展参数
+     * @return chunk长度
+     * @throws IOException
+     */
+    int readChunkSize() throws IOException {
+        if (this.readLine() <= 0) {
+            throw new EOFException("Unexpected end of chunked response body");
+        }
+        return parseChunkSize(buffer, lineStart, lineEnd);
+    }
+
+    /**
+     * 解析chunk头中的十六进制长度，忽略chunk扩展参数
+     * @param line chunk头所在的数组
+     * @param start chunk头起始位置
+     * @param end chunk头结束位置，不包含行结束符
+     * @return chunk长度
+     * @throws IOException chunk头格式错误
+     */
+    static int parseChunkSize(byte[] line, int start, int end) throws IOException {
+        long size = 0;
+        int digits = 0;
+        for (int i = start; i < end; i++) {
+            int digit = Character.digit(line[i], 16);
+            if (digit == -1) {
+                if (line[i] == ';' || HeadersBuilder.isWhitespace(line[i])) {
+                    break;
+                }
+                throw new IOException("Malformed chunk size: " + new String(line, start, end - start, "UTF-8"));
+            }
+            size = (size << 4) | digit;
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Chunk size too large: " + new String(line, start, end - start, "UTF-8"));
+            }
+            digits++;
+        }
+        if (digits == 0) {
+            throw new IOException("Malformed chunk size: " + new String(line, start, end - start, "UTF-8"));
+        }
+        return (int) size;
+    }
+
+    /**
+     * 跳过chunk数据之后的回车换行符
+     * @throws IOException
+     */
+    void readChunkEnd() throws IOException {
+        if (this.readLine() != 0) {
+            throw new IOException("Missing CRLF after chunk data");
+        }
+    }
+
+    /**
+     * 跳过最后一个chunk之后的trailer直到空行，连接关闭也视为结束
+     * @throws IOException
+     */
+    void skipTrailers() throws IOException {
+        while (this.readLine() > 0) {
+        }
+    }
+
+    /**
+     * 解析Chunked编码的报文体，读取结束后连同末尾的trailer一起消费掉
+     * @return
+     * @throws IOException
+     */
+    byte[] parseResponseBodyChunked() throws IOException {
+        BodyBuffer body = new BodyBuffer(bufferPool, INITIAL_BUFFER_SIZE);
+        try {
+            int length = this.readChunkSize();
+            while (length != 0) {
+                //chunk数据直接读入累积缓冲区，不经过中间数组
+                body.ensureWritable(length);
+                int remaining = length;
+                while (remaining > 0) {
+                    int readCount = this.read(body.array(), body.size(), remaining);
+                    if (readCount == -1) {
+                        throw new EOFException("Unexpected end of chunked response body");
+                    }
+                    body.advance(readCount);
+                    remaining -= readCount;
+                }
+                this.readChunkEnd();
+                length = this.readChunkSize();
+            }
+            this.skipTrailers();
+            return body.toByteArray();
+        } finally {
+            body.release();
+        }
+    }
+
+    /**
+     * 根据请求方法与响应头选择报文体的解析方式
+     * @param method 请求方法
+     * @return 响应报文体
+     * @throws IOException
+     */
+    byte[] parseResponseBody(String method) throws IOException {
+        if (this.isResponseBodyAbsent(method)) {
+            return EMPTY_BODY;
+        } else if (this.isResponseChunked()) {
+            return this.parseResponseBodyChunked();
+        } else if (this.hasContentLength()) {
+            return this.parseResponseBody();
+        } else {
+            return this.parseResponseBodyUntilClose();
+        }
+    }
+
+    /**
+     * 判断响应是否没有报文体
+     * @param method 请求方法
+     * @return HEAD请求以及1xx、204、304响应没有报文体
+     */
+    boolean isResponseBodyAbsent(String method) {
+        return isBodyAbsent(method, this.code);
+    }
+
+    /**
+     * 判断响应是否为Chunked编码
+     */
+    boolean isResponseChunked() {
+        return isChunked(this.headers);
+    }
+
+    boolean hasContentLength() {
+        return this.headers.get(Constance.HTTP_RESPONSE_HEADER_KEY_CONTENT_LENGTH) != null;
+    }
+
+    /**
+     * @return Content-Length的值
+     * @throws IOException Content-Length不是合法的数字
+     */
+    long getContentLength() throws IOException {
+        return getContentLength(this.headers);
+    }
+
+    /**
+     * 判断读完报文体后连接能否复用
+     * @param method 请求方法
+     * @return 服务器端没有要求关闭连接，且报文体有明确的结束边界
+     */
+    boolean isReusable(String method) {
+        return isReusable(method, this.code, this.headers);
+    }
+
+    /**
+     * @param method 请求方法
+     * @param code 返回码
+     * @return HEAD请求以及1xx、204、304响应没有报文体
+     */
+    static boolean isBodyAbsent(String method, int code) {
+        if ("HEAD".equalsIgnoreCase(method)) {
+            return true;
+        }
+        return (code >= 100 && code < 200) || code == 204 || code == 304;
+    }
+
+    static boolean isChunked(Headers headers) {
+        String transferEncoding = headers.get(Constance.HTTP_RESPONSE_HEADER_KEY_TRANSFER_ENCODING);
+        return transferEncoding != null
+                && transferEncoding.equalsIgnoreCase(Constance.HTTP_RESPONSE_HEADER_VALUE_TRANSFER_ENCODING_CHUNKED);
+    }
+
+    /**
+     * @return Content-Length的值，没有Content-Length时返回-1
+     * @throws IOException Content-Length不是合法的数字
+     */
+    static long getContentLength(Headers headers) throws IOException {
+        String value = headers.get(Constance.HTTP_RESPONSE_HEADER_KEY_CONTENT_LENGTH);
+        if (value == null) {
+            return -1;
+        }
+        try {
+            long length = Long.parseLong(value);
+            if (length < 0) {
+                throw new NumberFormatException();
+            }
+            return length;
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed Content-Length: " + value);
+        }
+    }
+
+    /**
+     * @param method 请求方法
+     * @param code 返回码
+     * @param headers 响应头
+     * @return 服务器端没有要求关闭连接，且报文体有明确的结束边界
+     */
+    static boolean isReusable(String method, int code, Headers headers) {
+        String connection = headers.get(Constance.HTTP_RESPONSE_HEADER_KEY_CONNECTION);
+        if (connection != null && connection.equalsIgnoreCase(Constance.HTTP_RESPONSE_HEADER_VALUE_CONNECTION_CLOSE)) {
+            return false;
+        }
+        //没有Content-Length也不是Chunked编码的报文体以连接关闭为结束标志，不能复用
+        return isBodyAbsent(method, code) || isChunked(headers)
+                || headers.get(Constance.HTTP_RESPONSE_HEADER_KEY_CONTENT_LENGTH) != null;
+    }
+
+    /**
+     * 读取完整的响应
+     * @param method 请求方法
+     * @return 解析出的响应
+     * @throws IOException
+     */
+    Response parse(String method) throws IOException {
+        this.reset();
+        this.parseResponseHead(EventListener.NONE);
+        byte[] body = this.parseResponseBody(method);
+        return new Response(this.code, this.reason, this.headers, body);
+    }
+
+    /**
+     * @return 是否已经解析出当前响应的状态行
+     */
+    boolean isStatusParsed() {
+        return code != 0;
+    }
+
+    int getCode() {
+        return code;
+    }
+
+    String getReason() {
+        return reason;
+    }
+
+    Headers getHeaders() {
+        return headers;
+    }
+}
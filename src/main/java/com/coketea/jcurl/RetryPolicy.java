@@ -0,0 +1,244 @@
+package com.coketea.jcurl;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 重试与对冲请求的策略，通过{@link HttpClient#setRetryPolicy(RetryPolicy)}使用
+ * <p>
+ * 只重试幂等的请求方法，重试的条件为连接失败，或者服务器端返回502、503、504。
+ * 两次尝试之间按指数退避并加入完全随机的抖动，多个客户端不会同时重试；
+ * 重试预算限制重试占请求总数的比例，下游整体不可用时不会因为重试把负载放大数倍。
+ * <p>
+ * 开启对冲后，GET请求在指定百分位的延迟之后仍未返回时再发送一个相同的请求，先返回的响应胜出，
+ * 另一个请求被取消；对冲请求同样消耗重试预算
+ */
+public class RetryPolicy {
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+
+    public static final long DEFAULT_BASE_DELAY_MILLIS = 100;
+
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 2000;
+
+    /**
+     * 每个请求为重试预算存入的额度
+     */
+    public static final double DEFAULT_BUDGET_RATIO = 0.1;
+
+    /**
+     * 重试预算的上限，也是初始额度，请求量很小时也允许少量重试
+     */
+    public static final int DEFAULT_BUDGET_RESERVE = 10;
+
+    /**
+     * 记录的延迟样本少于该数量时不发送对冲请求
+     */
+    static final int MIN_HEDGE_SAMPLES = 20;
+
+    private volatile int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+
+    private volatile long baseDelayMillis = DEFAULT_BASE_DELAY_MILLIS;
+
+    private volatile long maxDelayMillis = DEFAULT_MAX_DELAY_MILLIS;
+
+    private volatile Set<Integer> retryStatusCodes = Collections.unmodifiableSet(
+            new HashSet<Integer>(Arrays.asList(502, 503, 504)));
+
+    private double budgetRatio = DEFAULT_BUDGET_RATIO;
+
+    private int budgetReserve = DEFAULT_BUDGET_RESERVE;
+
+    /**
+     * 当前可用的重试额度，由this保护
+     */
+    private double budget = DEFAULT_BUDGET_RESERVE;
+
+    /**
+     * 发送对冲请求的延迟百分位，0表示不对冲
+     */
+    private volatile double hedgePercentile;
+
+    private volatile long minHedgeDelayMillis;
+
+    /**
+     * 成功的GET请求的延迟，用于计算对冲延迟
+     */
+    private final LatencyHistogram latencies = new LatencyHistogram();
+
+    /**
+     * @param maxAttempts 包括第一次在内的最大尝试次数，1表示不重试
+     */
+    public RetryPolicy setMaxAttempts(int maxAttempts) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be positive: " + maxAttempts);
+        }
+        this.maxAttempts = maxAttempts;
+        return this;
+    }
+
+    /**
+     * 第n次重试之前等待[0, min(maxDelayMillis, baseDelayMillis * 2^(n-1)))之间的随机时间
+     * @param baseDelayMillis 第一次重试的退避上限，单位毫秒
+     * @param maxDelayMillis 退避时间的上限，服务器端Retry-After要求的等待超过该值时不重试
+     */
+    public RetryPolicy setBackoff(long baseDelayMillis, long maxDelayMillis) {
+        if (baseDelayMillis < 0 || maxDelayMillis < baseDelayMillis) {
+            throw new IllegalArgumentException("Require 0 <= baseDelayMillis <= maxDelayMillis: "
+                    + baseDelayMillis + ", " + maxDelayMillis);
+        }
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        return this;
+    }
+
+    /**
+     * @param codes 需要重试的响应码，默认为502、503、504
+     */
+    public RetryPolicy setRetryStatusCodes(int... codes) {
+        Set<Integer> set = new HashSet<Integer>();
+        for (int code : codes) {
+            set.add(code);
+        }
+        this.retryStatusCodes = Collections.unmodifiableSet(set);
+        return this;
+    }
+
+    /**
+     * 每个请求存入ratio的额度，每次重试或对冲消耗1，额度不足时不再重试
+     * @param ratio 重试数与请求数的比例上限，例如0.1表示重试最多增加10%的请求
+     * @param reserve 额度的上限与初始值
+     */
+    public synchronized RetryPolicy setBudget(double ratio, int reserve) {
+        if (ratio < 0 || reserve < 0) {
+            throw new IllegalArgumentException("Budget must not be negative: " + ratio + ", " + reserve);
+        }
+        this.budgetRatio = ratio;
+        this.budgetReserve = reserve;
+        this.budget = reserve;
+        return this;
+    }
+
+    /**
+     * 开启对冲请求
+     * @param percentile 对冲延迟取成功的GET请求延迟的该百分位，例如95；0表示关闭对冲
+     * @param minDelayMillis 对冲延迟的下限，避免延迟很低时几乎每个请求都被对冲
+     */
+    public RetryPolicy setHedging(double percentile, long minDelayMillis) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile must be between 0 and 100: " + percentile);
+        }
+        this.hedgePercentile = percentile;
+        this.minHedgeDelayMillis = minDelayMillis;
+        return this;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public long getBaseDelayMillis() {
+        return baseDelayMillis;
+    }
+
+    public long getMaxDelayMillis() {
+        return maxDelayMillis;
+    }
+
+    public Set<Integer> getRetryStatusCodes() {
+        return retryStatusCodes;
+    }
+
+    /**
+     * @return 当前可用的重试额度
+     */
+    public synchronized double getBudget() {
+        return budget;
+    }
+
+    /**
+     * @return 计算对冲延迟使用的延迟直方图，单位纳秒
+     */
+    public LatencyHistogram getLatencies() {
+        return latencies;
+    }
+
+    /**
+     * @return 该请求是否可以重试，只有幂等且报文体可以重复发送的请求才能重试
+     */
+    boolean isRetryable(Request request) {
+        return request.isIdempotent() && request.getRequestBody().isReplayable();
+    }
+
+    /**
+     * 只重试连接失败，请求已经发出之后的失败可能已经被服务器端处理
+     */
+    boolean isRetryable(IOException e) {
+        return e instanceof ConnectException || e instanceof NoRouteToHostException
+                || e instanceof ConnectTimeoutException;
+    }
+
+    boolean isRetryable(int code) {
+        return retryStatusCodes.contains(code);
+    }
+
+    /**
+     * 请求开始时存入额度
+     */
+    synchronized void deposit() {
+        budget = Math.min(budgetReserve, budget + budgetRatio);
+    }
+
+    /**
+     * @return 是否取得了一次重试或对冲的额度
+     */
+    synchronized boolean withdraw() {
+        if (budget < 1) {
+            return false;
+        }
+        budget -= 1;
+        return true;
+    }
+
+    /**
+     * @param attempt 已经失败的尝试次数，从1开始
+     * @param retryAfterMillis 服务器端要求的等待时间，没有要求时为-1
+     * @return 下一次尝试之前的等待时间，-1表示服务器端要求的等待过长，不应重试
+     */
+    long backoffMillis(int attempt, long retryAfterMillis) {
+        long max = this.maxDelayMillis;
+        if (retryAfterMillis > max) {
+            return -1;
+        }
+        long ceiling = Math.min(max, baseDelayMillis << Math.min(attempt - 1, 30));
+        long jitter = ceiling <= 0 ? 0 : ThreadLocalRandom.current().nextLong(ceiling + 1);
+        return Math.max(jitter, retryAfterMillis);
+    }
+
+    /**
+     * @return 发送对冲请求之前的等待时间，-1表示不对冲
+     */
+    long hedgeDelayMillis(Request request) {
+        double percentile = this.hedgePercentile;
+        if (percentile <= 0 || !"GET".equals(request.getMethod()) || !request.getRequestBody().isReplayable()
+                || latencies.getTotalCount() < MIN_HEDGE_SAMPLES) {
+            return -1;
+        }
+        long delay = TimeUnit.NANOSECONDS.toMillis(latencies.getValueAtPercentile(percentile));
+        return Math.max(delay, minHedgeDelayMillis);
+    }
+
+    /**
+     * 记录一次成功的GET请求的延迟
+     */
+    void recordLatency(long latencyNanos) {
+        latencies.record(latencyNanos);
+    }
+}
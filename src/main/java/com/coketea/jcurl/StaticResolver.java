@@ -0,0 +1,64 @@
+package com.coketea.jcurl;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 使用固定映射的解析器，用于测试或者绕过DNS指定后端地址，没有映射的域名交给fallback
+ */
+public class StaticResolver implements Resolver {
+
+    private final ConcurrentMap<String, List<InetAddress>> hosts = new ConcurrentHashMap<String, List<InetAddress>>();
+
+    private final Resolver fallback;
+
+    /**
+     * 没有映射的域名直接解析失败
+     */
+    public StaticResolver() {
+        this(null);
+    }
+
+    /**
+     * @param fallback 解析没有映射的域名，为null时直接解析失败
+     */
+    public StaticResolver(Resolver fallback) {
+        this.fallback = fallback;
+    }
+
+    /**
+     * 设置域名对应的地址，替换原有的映射
+     * @param host 域名
+     * @param addresses 按连接顺序排列的地址
+     * @return 当前解析器，便于连续设置
+     */
+    public StaticResolver put(String host, InetAddress... addresses) {
+        if (addresses.length == 0) {
+            throw new IllegalArgumentException("addresses must not be empty");
+        }
+        hosts.put(host, Collections.unmodifiableList(new ArrayList<InetAddress>(Arrays.asList(addresses))));
+        return this;
+    }
+
+    public void remove(String host) {
+        hosts.remove(host);
+    }
+
+    @Override
+    public List<InetAddress> resolve(String host) throws UnknownHostException {
+        List<InetAddress> addresses = hosts.get(host);
+        if (addresses != null) {
+            return addresses;
+        }
+        if (fallback != null) {
+            return fallback.resolve(host);
+        }
+        throw new UnknownHostException(host);
+    }
+}
@@ -0,0 +1,172 @@
+package com.coketea.jcurl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * 报文体尚未读取的http响应，报文体以InputStream、ReadableByteChannel或者回调的方式流式读取
+ * <p>
+ * 使用完毕后必须调用{@link #close()}，报文体已经读完时连接会归还连接池，否则连接被关闭
+ */
+public class StreamingResponse implements Closeable {
+
+    private final int code;
+
+    private final String status;
+
+    private final Headers headers;
+
+    private final BodyInputStream body;
+
+    /**
+     * 叠加在报文体之上的解压流，响应没有压缩时为null
+     */
+    private final InflatingInputStream inflated;
+
+    private ReadableByteChannel inflatedChannel;
+
+    StreamingResponse(int code, String status, Headers headers, BodyInputStream body) {
+        this(code, status, headers, body, null);
+    }
+
+    StreamingResponse(int code, String status, Headers headers, BodyInputStream body,
+                      InflatingInputStream inflated) {
+        this.code = code;
+        this.status = status;
+        this.headers = headers;
+        this.body = body;
+        this.inflated = inflated;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public Headers getHeaders() {
+        return headers;
+    }
+
+    public String getHeader(String key) {
+        return headers.get(key);
+    }
+
+    /**
+     * @return 报文体输入流，Content-Length模式下最多读取Content-Length个字节，Chunked模式下边读边解码，
+     * 压缩的响应边读边解压
+     */
+    public InputStream getBody() {
+        return inflated != null ? inflated : body;
+    }
+
+    /**
+     * @return 报文体通道，与{@link #getBody()}共享读取位置
+     */
+    public ReadableByteChannel getChannel() {
+        if (inflated == null) {
+            return body;
+        }
+        if (inflatedChannel == null) {
+            inflatedChannel = Channels.newChannel(inflated);
+        }
+        return inflatedChannel;
+    }
+
+    /**
+     * @return 报文体是否经过解压，解压后的响应头中不再有Content-Encoding与Content-Length
+     */
+    public boolean isDecompressed() {
+        return inflated != null;
+    }
+
+    /**
+     * 把报文体逐段交给回调，读取到报文体结束为止
+     * @param consumer 数据回调，收到的数据片段直接引用连接的读缓冲区
+     * @return 报文体总字节数
+     * @throws IOException
+     */
+    public long consume(BodyConsumer consumer) throws IOException {
+        return inflated != null ? inflated.consume(consumer) : body.consume(consumer);
+    }
+
+    /**
+     * 把剩余的报文体写入目标通道，目标为FileChannel且响应带有Content-Length时直接从socket通道传输到文件
+     * @param target 目标通道，写入从其当前位置开始
+     * @return 写入的字节数
+     * @throws IOException
+     */
+    public long transferTo(WritableByteChannel target) throws IOException {
+        return inflated != null ? inflated.transferTo(target) : body.transferTo(target);
+    }
+
+    /**
+     * 把剩余的报文体全部读入内存
+     * @return 报文体
+     * @throws IOException
+     */
+    public byte[] readBody() throws IOException {
+        if (inflated != null) {
+            return inflated.readAll();
+        }
+        long remaining = body.getRemainingLength();
+        if (remaining >= 0 && remaining <= Integer.MAX_VALUE - 8) {
+            byte[] bytes = new byte[(int) remaining];
+            int total = 0;
+            while (total < bytes.length) {
+                int count = body.read(bytes, total, bytes.length - total);
+                if (count == -1) {
+                    break;
+                }
+                total += count;
+            }
+            return bytes;
+        }
+        BodyBuffer buffer = new BodyBuffer(body.getBufferPool(), 8 * 1024);
+        try {
+            while (true) {
+                buffer.ensureWritable(8 * 1024);
+                int count = body.read(buffer.array(), buffer.size(), buffer.array().length - buffer.size());
+                if (count == -1) {
+                    return buffer.toByteArray();
+                }
+                buffer.advance(count);
+            }
+        } finally {
+            buffer.release();
+        }
+    }
+
+    /**
+     * 读取剩余的报文体并转换为完整的响应
+     * @return 完整的响应
+     * @throws IOException
+     */
+    public Response toResponse() throws IOException {
+        try {
+            return new Response(code, status, headers, this.readBody());
+        } finally {
+            this.close();
+        }
+    }
+
+    /**
+     * 关闭响应，报文体没有读完时关闭连接
+     */
+    @Override
+    public void close() {
+        if (inflated != null) {
+            try {
+                inflated.close();
+            } catch (IOException ignored) {
+            }
+        }
+        body.close();
+    }
+}
@@ -0,0 +1,278 @@
+package com.coketea.jcurl;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 按大小分级、带线程本地缓存的缓冲区池
+ * <p>
+ * 缓冲区大小按2的幂从1K到1M分级，借出时向上取整到所在级别；超过1M的缓冲区直接分配，归还时丢弃。
+ * 不超过64K的缓冲区优先在当前线程的缓存中存取，不需要同步；线程缓存满了以及更大的缓冲区放入所有线程共享的队列，
+ * 因此在一个线程借出、在另一个线程归还的缓冲区同样可以复用。堆内数组与直接缓冲区分别缓存
+ */
+public class ThreadLocalBufferPool implements BufferPool {
+
+    /**
+     * 每个线程在每个级别上缓存的缓冲区个数
+     */
+    public static final int DEFAULT_THREAD_CACHE_SIZE = 4;
+
+    /**
+     * 共享队列在每个级别上缓存的缓冲区个数
+     */
+    public static final int DEFAULT_SHARED_CACHE_SIZE = 32;
+
+    private static final int MIN_SHIFT = 10;
+
+    private static final int MAX_SHIFT = 20;
+
+    private static final int THREAD_CACHE_MAX_SHIFT = 16;
+
+    private static final int CLASS_COUNT = MAX_SHIFT - MIN_SHIFT + 1;
+
+    private static final int THREAD_CACHE_CLASS_COUNT = THREAD_CACHE_MAX_SHIFT - MIN_SHIFT + 1;
+
+    private final int threadCacheSize;
+
+    private final int sharedCacheSize;
+
+    private final ThreadLocal<ThreadCache> threadCaches = new ThreadLocal<ThreadCache>() {
+        @Override
+        protected ThreadCache initialValue() {
+            return new ThreadCache(threadCacheSize);
+        }
+    };
+
+    private final SharedCache[] sharedHeap = new SharedCache[CLASS_COUNT];
+
+    private final SharedCache[] sharedDirect = new SharedCache[CLASS_COUNT];
+
+    private final LongAdder acquireCount = new LongAdder();
+
+    private final LongAdder allocationCount = new LongAdder();
+
+    private final LongAdder allocatedBytes = new LongAdder();
+
+    private final LongAdder discardCount = new LongAdder();
+
+    public ThreadLocalBufferPool() {
+        this(DEFAULT_THREAD_CACHE_SIZE, DEFAULT_SHARED_CACHE_SIZE);
+    }
+
+    /**
+     * @param threadCacheSize 每个线程在每个级别上缓存的缓冲区个数，为0时不使用线程缓存
+     * @param sharedCacheSize 共享队列在每个级别上缓存的缓冲区个数，两者都为0时每次借出都重新分配
+     */
+    public ThreadLocalBufferPool(int threadCacheSize, int sharedCacheSize) {
+        if (threadCacheSize < 0 || sharedCacheSize < 0) {
+            throw new IllegalArgumentException("Cache size must not be negative: "
+                    + threadCacheSize + ", " + sharedCacheSize);
+        }
+        this.threadCacheSize = threadCacheSize;
+        this.sharedCacheSize = sharedCacheSize;
+        for (int i = 0; i < CLASS_COUNT; i++) {
+            sharedHeap[i] = new SharedCache();
+            sharedDirect[i] = new SharedCache();
+        }
+    }
+
+    @Override
+    public byte[] acquire(int minCapacity) {
+        acquireCount.increment();
+        int sizeClass = sizeClass(minCapacity);
+        if (sizeClass == -1) {
+            return this.allocateHeap(minCapacity);
+        }
+        byte[] cached = (byte[]) this.poll(false, sizeClass);
+        return cached != null ? cached : this.allocateHeap(1 << (sizeClass + MIN_SHIFT));
+    }
+
+    @Override
+    public void release(byte[] buffer) {
+        if (buffer == null) {
+            return;
+        }
+        this.offer(false, exactSizeClass(buffer.length), buffer);
+    }
+
+    @Override
+    public ByteBuffer acquireDirect(int minCapacity) {
+        acquireCount.increment();
+        int sizeClass = sizeClass(minCapacity);
+        if (sizeClass == -1) {
+            return this.allocateDirect(minCapacity);
+        }
+        ByteBuffer cached = (ByteBuffer) this.poll(true, sizeClass);
+        if (cached == null) {
+            return this.allocateDirect(1 << (sizeClass + MIN_SHIFT));
+        }
+        cached.clear();
+        return cached;
+    }
+
+    @Override
+    public void release(ByteBuffer buffer) {
+        if (buffer == null) {
+            return;
+        }
+        this.offer(true, buffer.isDirect() ? exactSizeClass(buffer.capacity()) : -1, buffer);
+    }
+
+    private byte[] allocateHeap(int capacity) {
+        allocationCount.increment();
+        allocatedBytes.add(capacity);
+        return new byte[capacity];
+    }
+
+    private ByteBuffer allocateDirect(int capacity) {
+        allocationCount.increment();
+        allocatedBytes.add(capacity);
+        return ByteBuffer.allocateDirect(capacity);
+    }
+
+    /**
+     * 先从当前线程的缓存中取，再从共享队列中取
+     * @return 缓存的缓冲区，没有时返回null
+     */
+    private Object poll(boolean direct, int sizeClass) {
+        if (sizeClass < THREAD_CACHE_CLASS_COUNT && threadCacheSize > 0) {
+            Object cached = threadCaches.get().poll(direct, sizeClass);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        return (direct ? sharedDirect : sharedHeap)[sizeClass].poll();
+    }
+
+    /**
+     * 先放入当前线程的缓存，再放入共享队列，都已满或者大小不属于任何级别时丢弃
+     */
+    private void offer(boolean direct, int sizeClass, Object buffer) {
+        if (sizeClass == -1) {
+            discardCount.increment();
+            return;
+        }
+        if (sizeClass < THREAD_CACHE_CLASS_COUNT && threadCacheSize > 0
+                && threadCaches.get().offer(direct, sizeClass, buffer)) {
+            return;
+        }
+        if (!(direct ? sharedDirect : sharedHeap)[sizeClass].offer(buffer, sharedCacheSize)) {
+            discardCount.increment();
+        }
+    }
+
+    /**
+     * @return 能容纳capacity字节的最小级别，超过最大级别时返回-1
+     */
+    static int sizeClass(int capacity) {
+        if (capacity <= 1 << MIN_SHIFT) {
+            return 0;
+        }
+        if (capacity > 1 << MAX_SHIFT) {
+            return -1;
+        }
+        return 32 - Integer.numberOfLeadingZeros(capacity - 1) - MIN_SHIFT;
+    }
+
+    /**
+     * @return 大小恰好等于某个级别时返回该级别，否则返回-1
+     */
+    static int exactSizeClass(int capacity) {
+        if (Integer.bitCount(capacity) != 1 || capacity < 1 << MIN_SHIFT || capacity > 1 << MAX_SHIFT) {
+            return -1;
+        }
+        return Integer.numberOfTrailingZeros(capacity) - MIN_SHIFT;
+    }
+
+    @Override
+    public long getAcquireCount() {
+        return acquireCount.sum();
+    }
+
+    @Override
+    public long getAllocationCount() {
+        return allocationCount.sum();
+    }
+
+    @Override
+    public long getAllocatedBytes() {
+        return allocatedBytes.sum();
+    }
+
+    /**
+     * @return 因为缓存已满或者大小不属于任何级别而没有被缓存的归还次数
+     */
+    public long getDiscardCount() {
+        return discardCount.sum();
+    }
+
+    /**
+     * 一个线程的缓存，每个级别是一个固定大小的栈，最近归还的缓冲区最先借出
+     */
+    private static final class ThreadCache {
+
+        final Object[][] heap;
+
+        final Object[][] direct;
+
+        final int[] heapCount = new int[THREAD_CACHE_CLASS_COUNT];
+
+        final int[] directCount = new int[THREAD_CACHE_CLASS_COUNT];
+
+        ThreadCache(int size) {
+            this.heap = new Object[THREAD_CACHE_CLASS_COUNT][size];
+            this.direct = new Object[THREAD_CACHE_CLASS_COUNT][size];
+        }
+
+        Object poll(boolean isDirect, int sizeClass) {
+            Object[] stack = (isDirect ? direct : heap)[sizeClass];
+            int[] counts = isDirect ? directCount : heapCount;
+            if (counts[sizeClass] == 0) {
+                return null;
+            }
+            int top = --counts[sizeClass];
+            Object buffer = stack[top];
+            stack[top] = null;
+            return buffer;
+        }
+
+        boolean offer(boolean isDirect, int sizeClass, Object buffer) {
+            Object[] stack = (isDirect ? direct : heap)[sizeClass];
+            int[] counts = isDirect ? directCount : heapCount;
+            if (counts[sizeClass] == stack.length) {
+                return false;
+            }
+            stack[counts[sizeClass]++] = buffer;
+            return true;
+        }
+    }
+
+    /**
+     * 所有线程共享的一个级别的缓存
+     */
+    private static final class SharedCache {
+
+        final ConcurrentLinkedQueue<Object> queue = new ConcurrentLinkedQueue<Object>();
+
+        final AtomicInteger size = new AtomicInteger();
+
+        Object poll() {
+            Object buffer = queue.poll();
+            if (buffer != null) {
+                size.decrementAndGet();
+            }
+            return buffer;
+        }
+
+        boolean offer(Object buffer, int capacity) {
+            if (size.incrementAndGet() > capacity) {
+                size.decrementAndGet();
+                return false;
+            }
+            queue.add(buffer);
+            return true;
+        }
+    }
+}
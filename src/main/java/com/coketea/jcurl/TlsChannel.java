@@ -0,0 +1,249 @@
+package com.coketea.jcurl;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * 非阻塞SocketChannel上的TLS，由{@link NioHttpClient}的事件循环驱动
+ * <p>
+ * 密文的读写缓冲区属于该连接：netIn中保留尚未解密的不完整记录，netOut中保留socket缓冲区已满时未写出的记录。
+ * 握手的委托任务直接在事件循环线程上执行，会话恢复时只有少量的密钥计算
+ */
+class TlsChannel {
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final SocketChannel channel;
+
+    private final SSLEngine engine;
+
+    /**
+     * 从socket读到的密文，处于写入模式
+     */
+    private ByteBuffer netIn;
+
+    /**
+     * 等待写出的密文，处于读取模式
+     */
+    private ByteBuffer netOut;
+
+    private boolean handshakeComplete;
+
+    TlsChannel(SocketChannel channel, SSLEngine engine) throws SSLException {
+        this.channel = channel;
+        this.engine = engine;
+        int packetSize = engine.getSession().getPacketBufferSize();
+        this.netIn = ByteBuffer.allocate(packetSize);
+        this.netOut = ByteBuffer.allocate(packetSize);
+        this.netOut.flip();
+        engine.beginHandshake();
+    }
+
+    SSLEngine getEngine() {
+        return engine;
+    }
+
+    boolean isHandshakeComplete() {
+        return handshakeComplete;
+    }
+
+    /**
+     * @return 是否还有密文等待socket可写
+     */
+    boolean hasPendingOutput() {
+        return netOut.hasRemaining();
+    }
+
+    /**
+     * @return 是否还有已经读到但尚未解密的密文，事件循环需要继续调用{@link #read(ByteBuffer)}而不是等待socket可读
+     */
+    boolean hasBufferedInput() {
+        return netIn.position() > 0;
+    }
+
+    /**
+     * 推进握手，直到完成或者需要等待socket可读、可写
+     * @param scratch 解密握手记录使用的缓冲区，握手阶段不会产生应用数据
+     * @return 握手已经完成且所有握手记录都已写出
+     * @throws IOException 握手失败或者服务器端关闭连接
+     */
+    boolean handshake(ByteBuffer scratch) throws IOException {
+        while (true) {
+            if (!this.flush()) {
+                return false;
+            }
+            switch (engine.getHandshakeStatus()) {
+                case NEED_WRAP:
+                    this.wrap(EMPTY);
+                    break;
+                case NEED_UNWRAP:
+                case NEED_UNWRAP_AGAIN:
+                    scratch.clear();
+                    SSLEngineResult.Status status = this.unwrap(scratch);
+                    if (status == SSLEngineResult.Status.CLOSED) {
+                        throw new SSLException("Connection closed during TLS handshake");
+                    }
+                    if (status == SSLEngineResult.Status.BUFFER_UNDERFLOW && !this.fill()) {
+                        return false;
+                    }
+                    break;
+                case NEED_TASK:
+                    this.runTasks();
+                    break;
+                default:
+                    handshakeComplete = true;
+                    return true;
+            }
+        }
+    }
+
+    /**
+     * 加密并写出请求
+     * @param srcs 依次写出的明文，多个缓冲区合并在同一个TLS记录中
+     * @return 是否已经全部写出，为false时等待socket可写后再次调用
+     * @throws IOException
+     */
+    boolean write(ByteBuffer[] srcs) throws IOException {
+        while (true) {
+            if (!this.flush()) {
+                return false;
+            }
+            boolean remaining = false;
+            for (ByteBuffer src : srcs) {
+                remaining |= src.hasRemaining();
+            }
+            if (!remaining) {
+                return true;
+            }
+            this.wrap(srcs);
+        }
+    }
+
+    /**
+     * 读取并解密响应，依次解密netIn中所有完整的记录，没有完整的记录时才从socket读取
+     * @param dst 至少能容纳一个TLS记录的明文
+     * @return 解密得到的字节数，0表示需要等待更多数据，-1表示服务器端关闭连接
+     * @throws IOException
+     */
+    int read(ByteBuffer dst) throws IOException {
+        int start = dst.position();
+        while (true) {
+            switch (this.unwrap(dst)) {
+                case OK:
+                    if (dst.remaining() < engine.getSession().getApplicationBufferSize()) {
+                        return dst.position() - start;
+                    }
+                    break;
+                case BUFFER_UNDERFLOW:
+                    if (dst.position() > start) {
+                        return dst.position() - start;
+                    }
+                    int count = channel.read(netIn);
+                    if (count <= 0) {
+                        return count;
+                    }
+                    break;
+                case BUFFER_OVERFLOW:
+                    if (dst.position() > start) {
+                        return dst.position() - start;
+                    }
+                    throw new SSLException("TLS record larger than read buffer: " + dst.remaining());
+                default:
+                    return dst.position() > start ? dst.position() - start : -1;
+            }
+        }
+    }
+
+    /**
+     * 解密netIn中的一个记录，握手之后的消息(例如TLS 1.3的会话票据)也在这里处理
+     * @return OK表示处理了一个记录，BUFFER_UNDERFLOW表示netIn中没有完整的记录，CLOSED表示收到close_notify
+     */
+    private SSLEngineResult.Status unwrap(ByteBuffer dst) throws IOException {
+        netIn.flip();
+        SSLEngineResult result;
+        try {
+            result = engine.unwrap(netIn, dst);
+        } finally {
+            netIn.compact();
+        }
+        if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+            this.runTasks();
+        }
+        if (handshakeComplete && !netOut.hasRemaining()
+                && engine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+            //握手之后对方要求回复，例如TLS 1.3的KeyUpdate，没有写完时随后续的写一起发出
+            this.wrap(EMPTY);
+            this.flush();
+        }
+        if (result.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW && netIn.position() == netIn.capacity()) {
+            netIn = grow(netIn, engine.getSession().getPacketBufferSize());
+        }
+        return result.getStatus();
+    }
+
+    /**
+     * @return 是否读到了新的密文
+     */
+    private boolean fill() throws IOException {
+        int count = channel.read(netIn);
+        if (count == -1) {
+            throw new EOFException("Connection closed during TLS handshake");
+        }
+        return count > 0;
+    }
+
+    private void wrap(ByteBuffer... srcs) throws IOException {
+        while (true) {
+            netOut.clear();
+            SSLEngineResult result;
+            try {
+                result = engine.wrap(srcs, netOut);
+            } finally {
+                netOut.flip();
+            }
+            switch (result.getStatus()) {
+                case OK:
+                    if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                        this.runTasks();
+                    }
+                    return;
+                case BUFFER_OVERFLOW:
+                    netOut = ByteBuffer.allocate(netOut.capacity() * 2);
+                    break;
+                default:
+                    throw new SSLException("TLS connection closed: " + result.getStatus());
+            }
+        }
+    }
+
+    /**
+     * @return netOut是否已经全部写出
+     */
+    private boolean flush() throws IOException {
+        while (netOut.hasRemaining()) {
+            if (channel.write(netOut) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = engine.getDelegatedTask()) != null) {
+            task.run();
+        }
+    }
+
+    private static ByteBuffer grow(ByteBuffer buffer, int minCapacity) {
+        ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, minCapacity));
+        buffer.flip();
+        grown.put(buffer);
+        return grown;
+    }
+}
@@ -0,0 +1,200 @@
+package com.coketea.jcurl;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+import java.io.IOException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+/**
+ * HTTPS连接的配置，可以被多个HttpClient与NioHttpClient共享
+ * <p>
+ * TLS会话缓存在{@link SSLContext}的客户端会话上下文中，以host:port为键；到同一服务器的新连接会携带缓存的会话
+ * (TLS 1.2的会话ID或TLS 1.3的会话票据)，服务器端接受时省去证书交换与签名验证，握手只需要一次往返。
+ * 通过ALPN声明应用层协议，HTTP/1.1连接声明http/1.1，HTTP/2连接声明h2并要求服务器端选择h2
+ */
+public class TlsConfig {
+
+    public static final String ALPN_HTTP_1_1 = "http/1.1";
+
+    public static final String ALPN_H2 = "h2";
+
+    public static final int DEFAULT_SESSION_CACHE_SIZE = 1024;
+
+    public static final int DEFAULT_SESSION_TIMEOUT_SECONDS = 24 * 60 * 60;
+
+    private final SSLContext sslContext;
+
+    private volatile boolean hostnameVerification = true;
+
+    private volatile String[] protocols;
+
+    /**
+     * 使用JDK默认信任的证书，会话缓存独立于{@link SSLContext#getDefault()}
+     * @throws IllegalStateException JDK不支持TLS
+     */
+    public TlsConfig() {
+        this(newDefaultContext());
+    }
+
+    /**
+     * @param sslContext 已经初始化的SSLContext，例如信任自签名证书的SSLContext；其客户端会话缓存的设置会被修改
+     */
+    public TlsConfig(SSLContext sslContext) {
+        this.sslContext = sslContext;
+        SSLSessionContext sessions = sslContext.getClientSessionContext();
+        if (sessions != null) {
+            sessions.setSessionCacheSize(DEFAULT_SESSION_CACHE_SIZE);
+            sessions.setSessionTimeout(DEFAULT_SESSION_TIMEOUT_SECONDS);
+        }
+    }
+
+    private static SSLContext newDefaultContext() {
+        try {
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(null, null, null);
+            return context;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("TLS is not available", e);
+        }
+    }
+
+    public SSLContext getSslContext() {
+        return sslContext;
+    }
+
+    /**
+     * @param size 最多缓存的TLS会话数，0表示不限制
+     */
+    public TlsConfig setSessionCacheSize(int size) {
+        sslContext.getClientSessionContext().setSessionCacheSize(size);
+        return this;
+    }
+
+    /**
+     * @param seconds 缓存的TLS会话的有效期，超过后重新完整握手，0表示不过期
+     */
+    public TlsConfig setSessionTimeoutSeconds(int seconds) {
+        sslContext.getClientSessionContext().setSessionTimeout(seconds);
+        return this;
+    }
+
+    public boolean isHostnameVerification() {
+        return hostnameVerification;
+    }
+
+    /**
+     * @param hostnameVerification 是否校验证书与服务器地址匹配，默认校验；只应该在测试环境中关闭
+     */
+    public TlsConfig setHostnameVerification(boolean hostnameVerification) {
+        this.hostnameVerification = hostnameVerification;
+        return this;
+    }
+
+    /**
+     * @param protocols 启用的TLS版本，例如"TLSv1.3"，为null时使用JDK默认的版本
+     */
+    public TlsConfig setProtocols(String... protocols) {
+        this.protocols = protocols == null ? null : protocols.clone();
+        return this;
+    }
+
+    /**
+     * 在已连接的socket上完成TLS握手，握手的超时时间与建立连接相同
+     * @param socket 已连接的socket，握手失败时被关闭
+     * @param host 服务器地址，用于SNI、证书校验与查找缓存的会话
+     * @param port 服务器端口
+     * @param alpn 声明的应用层协议，服务器端没有选择其中之一时握手失败
+     * @param timeoutMillis 握手的超时时间，0表示不超时
+     * @param listener 接收secureConnectStart与secureConnectEnd事件
+     * @return 握手完成的SSLSocket，关闭时同时关闭底层socket
+     * @throws IOException 握手失败、超时或者ALPN协商失败
+     */
+    SSLSocket handshake(Socket socket, String host, int port, String alpn, int timeoutMillis,
+                        EventListener listener) throws IOException {
+        long startMillis = System.currentTimeMillis();
+        listener.secureConnectStart(System.nanoTime());
+        SSLSocket ssl = null;
+        try {
+            ssl = (SSLSocket) sslContext.getSocketFactory().createSocket(socket, host, port, true);
+            ssl.setSSLParameters(this.parameters(ssl.getSSLParameters(), alpn));
+            ssl.setSoTimeout(timeoutMillis);
+            try {
+                ssl.startHandshake();
+            } catch (SocketTimeoutException e) {
+                throw new ConnectTimeoutException("TLS handshake with " + host + ":" + port + " timed out after "
+                        + timeoutMillis + "ms", e);
+            }
+            ssl.setSoTimeout(0);
+            checkAlpn(ssl.getApplicationProtocol(), alpn, host, port);
+            SSLSession session = ssl.getSession();
+            listener.secureConnectEnd(session.getProtocol(), ssl.getApplicationProtocol(),
+                    isResumed(session, startMillis), System.nanoTime());
+            return ssl;
+        } catch (IOException e) {
+            close(ssl == null ? socket : ssl);
+            throw e;
+        } catch (RuntimeException e) {
+            close(ssl == null ? socket : ssl);
+            throw e;
+        }
+    }
+
+    /**
+     * @return 客户端模式的SSLEngine，由调用方驱动握手
+     */
+    SSLEngine createEngine(String host, int port, String alpn) {
+        SSLEngine engine = sslContext.createSSLEngine(host, port);
+        engine.setUseClientMode(true);
+        engine.setSSLParameters(this.parameters(engine.getSSLParameters(), alpn));
+        return engine;
+    }
+
+    private SSLParameters parameters(SSLParameters parameters, String alpn) {
+        if (hostnameVerification) {
+            parameters.setEndpointIdentificationAlgorithm("HTTPS");
+        }
+        String[] enabled = this.protocols;
+        if (enabled != null) {
+            parameters.setProtocols(enabled);
+        }
+        parameters.setApplicationProtocols(new String[]{alpn});
+        return parameters;
+    }
+
+    /**
+     * 服务器端不支持ALPN时返回空字符串，按HTTP/1.1处理；HTTP/2必须由服务器端明确选择
+     */
+    static void checkAlpn(String negotiated, String offered, String host, int port) throws SSLException {
+        if (negotiated == null || negotiated.equals(offered)) {
+            return;
+        }
+        if (negotiated.isEmpty() && !ALPN_H2.equals(offered)) {
+            return;
+        }
+        throw new SSLException("Server " + host + ":" + port + " negotiated ALPN protocol '" + negotiated
+                + "', expected " + Arrays.asList(offered));
+    }
+
+    /**
+     * 恢复的会话保留最初完整握手时的创建时间
+     * @param startMillis 开始握手的时间
+     */
+    static boolean isResumed(SSLSession session, long startMillis) {
+        return session.getCreationTime() < startMillis;
+    }
+
+    private static void close(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.coketea.jcurl;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+public class BufferPoolTest {
+
+    private MockHttpServer server;
+
+    @After
+    public void destroy() throws Exception {
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testSizeClass() {
+        ThreadLocalBufferPool pool = new ThreadLocalBufferPool();
+        Assert.assertEquals(1024, pool.acquire(1).length);
+        Assert.assertEquals(2048, pool.acquire(1025).length);
+        Assert.assertEquals(1024 * 1024, pool.acquire(1024 * 1024).length);
+        Assert.assertEquals(2 * 1024 * 1024 + 1, pool.acquire(2 * 1024 * 1024 + 1).length);
+        Assert.assertEquals(8192, pool.acquireDirect(5000).capacity());
+        Assert.assertEquals(5, pool.getAllocationCount());
+
+        //不属于任何级别的缓冲区归还时丢弃
+        pool.release(new byte[1000]);
+        pool.release(ByteBuffer.allocate(1024));
+        Assert.assertEquals(2, pool.getDiscardCount());
+    }
+
+    @Test
+    public void testReuse() throws Exception {
+        final ThreadLocalBufferPool pool = new ThreadLocalBufferPool(1, 4);
+        byte[] heap = pool.acquire(4096);
+        pool.release(heap);
+        Assert.assertSame(heap, pool.acquire(4000));
+        ByteBuffer direct = pool.acquireDirect(4096);
+        direct.putInt(1);
+        pool.release(direct);
+        ByteBuffer reused = pool.acquireDirect(4096);
+        Assert.assertSame(direct, reused);
+        Assert.assertEquals(0, reused.position());
+        Assert.assertEquals(2, pool.getAllocationCount());
+        Assert.assertEquals(4, pool.getAcquireCount());
+
+        //另一个线程的线程缓存满了之后归还的缓冲区进入共享队列
+        final byte[] first = pool.acquire(4096);
+        final byte[] second = pool.acquire(4096);
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                pool.release(first);
+                pool.release(second);
+            }
+        });
+        thread.start();
+        thread.join();
+        Assert.assertSame(second, pool.acquire(4096));
+        Assert.assertEquals(4, pool.getAllocationCount());
+    }
+
+    @Test
+    public void testSteadyState() throws Exception {
+        server = new MockHttpServer(new MockHttpServer.Handler() {
+            @Override
+            public byte[] handle(MockHttpServer.RecordedRequest request) {
+                if (request.uri.equals("/chunked")) {
+                    return ("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n"
+                            + "5\r\nhello\r\n6\r\n world\r\n0\r\n\r\n").getBytes();
+                }
+                return MockHttpServer.response(200, "hello world");
+            }
+        });
+        ThreadLocalBufferPool pool = new ThreadLocalBufferPool();
+        ConnectionPool connectionPool = new ConnectionPool(ConnectionPool.DEFAULT_MAX_PER_ROUTE,
+                ConnectionPool.DEFAULT_KEEP_ALIVE_MILLIS, ConnectionPool.DEFAULT_BORROW_TIMEOUT_MILLIS, pool);
+        HttpClient httpClient = new HttpClient(server.getHost(), server.getPort(), connectionPool);
+        try {
+            Assert.assertEquals("hello world", httpClient.fetchString("/chunked"));
+            Assert.assertEquals("hello world", httpClient.fetchString("/fixed"));
+            long allocations = pool.getAllocationCount();
+            long acquires = pool.getAcquireCount();
+            for (int i = 0; i < 100; i++) {
+                Assert.assertEquals("hello world", httpClient.fetchString("/chunked"));
+                Assert.assertEquals("hello world", httpClient.fetchString("/fixed"));
+            }
+            Assert.assertEquals(allocations, pool.getAllocationCount());
+            Assert.assertTrue(pool.getAcquireCount() >= acquires + 100);
+
+            //连接关闭时读写缓冲区归还，新连接直接复用
+            connectionPool.evictAll();
+            Assert.assertEquals("hello world", httpClient.fetchString("/chunked"));
+            Assert.assertEquals(allocations, pool.getAllocationCount());
+        } finally {
+            connectionPool.close();
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.coketea.jcurl;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+
+public class CompressionTest {
+
+    private static final String TEXT;
+
+    static {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            sb.append("{\"id\":").append(i).append(",\"name\":\"item-").append(i).append("\"}\n");
+        }
+        TEXT = sb.toString();
+    }
+
+    private MockHttpServer server;
+
+    private HttpClient httpClient;
+
+    @Before
+    public void init() throws IOException {
+        server = new MockHttpServer(new MockHttpServer.Handler() {
+            @Override
+            public byte[] handle(MockHttpServer.RecordedRequest request) throws IOException {
+                byte[] text = TEXT.getBytes("UTF-8");
+                if (request.uri.equals("/gzip")) {
+                    return MockHttpServer.response(200, gzip(text), "Content-Encoding: gzip");
+                } else if (request.uri.equals("/gzip-chunked")) {
+                    return chunked(gzip(text), "Content-Encoding: gzip");
+                } else if (request.uri.equals("/gzip-members")) {
+                    byte[] first = gzip("hello ".getBytes("UTF-8"));
+                    byte[] second = gzip("world".getBytes("UTF-8"));
+                    byte[] both = new byte[first.length + second.length];
+                    System.arraycopy(first, 0, both, 0, first.length);
+                    System.arraycopy(second, 0, both, first.length, second.length);
+                    return MockHttpServer.response(200, both, "Content-Encoding: gzip");
+                } else if (request.uri.equals("/deflate")) {
+                    return MockHttpServer.response(200, deflate(text, false), "Content-Encoding: deflate");
+                } else if (request.uri.equals("/raw-deflate")) {
+                    return MockHttpServer.response(200, deflate(text, true), "Content-Encoding: deflate");
+                } else if (request.uri.equals("/corrupt")) {
+                    byte[] bytes = gzip(text);
+                    bytes[bytes.length - 5] ^= 0xff;
+                    return MockHttpServer.response(200, bytes, "Content-Encoding: gzip");
+                }
+                return MockHttpServer.response(200, TEXT);
+            }
+        });
+        httpClient = new HttpClient(server.getHost(), server.getPort());
+        httpClient.setCompressionEnabled(true);
+    }
+
+    @After
+    public void destroy() throws IOException {
+        httpClient.close();
+        server.close();
+    }
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(baos);
+        gzip.write(bytes);
+        gzip.close();
+        return baos.toByteArray();
+    }
+
+    private static byte[] deflate(byte[] bytes, boolean nowrap) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DeflaterOutputStream deflate = new DeflaterOutputStream(baos, new Deflater(Deflater.DEFAULT_COMPRESSION, nowrap));
+        deflate.write(bytes);
+        deflate.close();
+        return baos.toByteArray();
+    }
+
+    private static byte[] chunked(byte[] body, String header) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        baos.write(("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n" + header + "\r\n\r\n").getBytes("UTF-8"));
+        for (int off = 0; off < body.length; off += 1000) {
+            int size = Math.min(1000, body.length - off);
+            baos.write((Integer.toHexString(size) + "\r\n").getBytes("UTF-8"));
+            baos.write(body, off, size);
+            baos.write("\r\n".getBytes("UTF-8"));
+        }
+        baos.write("0\r\n\r\n".getBytes("UTF-8"));
+        return baos.toByteArray();
+    }
+
+    @Test
+    public void testExecute_gzip() throws IOException {
+        Response response = httpClient.execute(new Request("/gzip"));
+        Assert.assertEquals(TEXT, response.getBodyAsString());
+        Assert.assertNull(response.getHeader("Content-Encoding"));
+        Assert.assertNull(response.getHeader("Content-Length"));
+        Assert.assertEquals("gzip, deflate", server.getRequests().get(0).header("Accept-Encoding"));
+
+        Assert.assertEquals(TEXT, httpClient.execute(new Request("/gzip-chunked")).getBodyAsString());
+        Assert.assertEquals("hello world", httpClient.execute(new Request("/gzip-members")).getBodyAsString());
+        Assert.assertEquals(TEXT, httpClient.execute(new Request("/deflate")).getBodyAsString());
+        Assert.assertEquals(TEXT, httpClient.execute(new Request("/raw-deflate")).getBodyAsString());
+        Assert.assertEquals(TEXT, httpClient.execute(new Request("/plain")).getBodyAsString());
+        Assert.assertEquals(1, server.getConnectionCount());
+    }
+
+    @Test
+    public void testStream_gzip() throws IOException {
+        StreamingResponse response = httpClient.stream(new Request("/gzip-chunked"));
+        try {
+            Assert.assertTrue(response.isDecompressed());
+            InputStream body = response.getBody();
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            byte[] buffer = new byte[100];
+            int count;
+            while ((count = body.read(buffer)) != -1) {
+                baos.write(buffer, 0, count);
+            }
+            Assert.assertEquals(TEXT, baos.toString("UTF-8"));
+        } finally {
+            response.close();
+        }
+        Assert.assertEquals(1, httpClient.getConnectionPool().getIdleCount());
+    }
+
+    @Test
+    public void testPipeline_gzip() throws IOException {
+        List<Response> responses = httpClient.fetchAll(Arrays.asList(
+                new Request("/gzip"), new Request("/deflate"), new Request("/plain")));
+        for (Response response : responses) {
+            Assert.assertEquals(TEXT, response.getBodyAsString());
+        }
+        Assert.assertEquals(1, server.getConnectionCount());
+    }
+
+    @Test(expected = ZipException.class)
+    public void testExecute_corrupt() throws IOException {
+        httpClient.execute(new Request("/corrupt"));
+    }
+
+    @Test
+    public void testExecute_disabled() throws IOException {
+        httpClient.setCompressionEnabled(false);
+        Response response = httpClient.execute(new Request("/gzip"));
+        Assert.assertEquals("gzip", response.getHeader("Content-Encoding"));
+        Assert.assertNull(server.getRequests().get(0).header("Accept-Encoding"));
+    }
+}
@@ -0,0 +1,151 @@
+package com.coketea.jcurl;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+
+public class ConnectionPoolTest {
+
+    private MockHttpServer server;
+
+    @After
+    public void destroy() throws IOException {
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testFetch_reuseConnection() throws Exception {
+        server = new MockHttpServer(new MockHttpServer.Handler() {
+            @Override
+            public byte[] handle(MockHttpServer.RecordedRequest request) {
+                return MockHttpServer.response(200, "hello " + request.uri);
+            }
+        });
+        HttpClient httpClient = new HttpClient(server.getHost(), server.getPort());
+        try {
+            for (int i = 0; i < 5; i++) {
+                Assert.assertEquals("hello /" + i, httpClient.fetchString("/" + i));
+            }
+            Assert.assertEquals(1, server.getConnectionCount());
+            Assert.assertEquals(1, httpClient.getConnectionPool().getIdleCount());
+        } finally {
+            httpClient.close();
+        }
+    }
+
+    @Test
+    public void testFetch_reuseConnectionAfterChunked() throws Exception {
+        server = new MockHttpServer(new MockHttpServer.Handler() {
+            @Override
+            public byte[] handle(MockHttpServer.RecordedRequest request) {
+                return ("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n"
+                        + "5\r\nhello\r\n0\r\nX-Trailer: 1\r\n\r\n").getBytes();
+            }
+        });
+        HttpClient httpClient = new HttpClient(server.getHost(), server.getPort());
+        try {
+            Assert.assertEquals("hello", httpClient.fetchString("/a"));
+            Assert.assertEquals("hello", httpClient.fetchString("/b"));
+            Assert.assertEquals(1, server.getConnectionCount());
+        } finally {
+            httpClient.close();
+        }
+    }
+
+    @Test
+    public void testFetch_connectionClose() throws Exception {
+        server = new MockHttpServer(new MockHttpServer.Handler() {
+            @Override
+            public byte[] handle(MockHttpServer.RecordedRequest request) {
+                return MockHttpServer.response(200, "bye", "Connection: close");
+            }
+        });
+        HttpClient httpClient = new HttpClient(server.getHost(), server.getPort());
+        try {
+            Assert.assertEquals("bye", httpClient.fetchString("/a"));
+            Assert.assertEquals("bye", httpClient.fetchString("/b"));
+            Assert.assertEquals(2, server.getConnectionCount());
+            Assert.assertEquals(0, httpClient.getConnectionPool().getIdleCount());
+        } finally {
+            httpClient.close();
+        }
+    }
+
+    @Test
+    public void testFetch_staleConnectionRetried() throws Exception {
+        server = new MockHttpServer(new MockHttpServer.Handler() {
+            @Override
+            public byte[] handle(MockHttpServer.RecordedRequest request) {
+                //第二个请求不响应直接断开，模拟服务器端关闭了空闲连接
+                if (request.uri.equals("/drop")) {
+                    return null;
+                }
+                return MockHttpServer.response(200, "ok");
+            }
+        });
+        HttpClient httpClient = new HttpClient(server.getHost(), server.getPort());
+        try {
+            Assert.assertEquals("ok", httpClient.fetchString("/a"));
+            try {
+                httpClient.fetchString("/drop");
+                Assert.fail();
+            } catch (IOException expected) {
+            }
+            Assert.assertEquals("ok", httpClient.fetchString("/b"));
+        } finally {
+            httpClient.close();
+        }
+    }
+
+    @Test
+    public void testAcquire_borrowTimeout() throws Exception {
+        server = new MockHttpServer(new MockHttpServer.Handler() {
+            @Override
+            public byte[] handle(MockHttpServer.RecordedRequest request) {
+                return MockHttpServer.response(200, "ok");
+            }
+        });
+        ConnectionPool pool = new ConnectionPool(1, 60000, 100);
+        try {
+            HttpConnection connection = pool.acquire(server.getHost(), server.getPort());
+            try {
+                pool.acquire(server.getHost(), server.getPort());
+                Assert.fail();
+            } catch (ConnectionPoolTimeoutException expected) {
+            }
+            pool.release(connection, true);
+            HttpConnection reused = pool.acquire(server.getHost(), server.getPort());
+            Assert.assertSame(connection, reused);
+            pool.release(reused, false);
+            Assert.assertEquals(0, pool.getIdleCount());
+            Assert.assertEquals(0, pool.getLeasedCount());
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testEvictExpired() throws Exception {
+        server = new MockHttpServer(new MockHttpServer.Handler() {
+            @Override
+            public byte[] handle(MockHttpServer.RecordedRequest request) {
+                return MockHttpServer.response(200, "ok");
+            }
+        });
+        ConnectionPool pool = new ConnectionPool(2, 10, 1000);
+        try {
+            HttpConnection connection = pool.acquire(server.getHost(), server.getPort());
+            pool.release(connection, true);
+            Assert.assertEquals(1, pool.getIdleCount());
+            Thread.sleep(50);
+            pool.evictExpired();
+            Assert.assertEquals(0, pool.getIdleCount());
+        } finally {
+            pool.close();
+        }
+    }
+}
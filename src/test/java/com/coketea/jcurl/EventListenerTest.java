@@ -0,0 +1,210 @@
+package com.coketea.jcurl;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class EventListenerTest {
+
+    private MockHttpServer server;
+
+    private HttpClient httpClient;
+
+    private final RecordingListener listener = new RecordingListener();
+
+    @Before
+    public void init() throws IOException {
+        server = new MockHttpServer(new MockHttpServer.Handler() {
+            @Override
+            public byte[] handle(MockHttpServer.RecordedRequest request) {
+                return MockHttpServer.response(200, "hello");
+            }
+        });
+        httpClient = new HttpClient(server.getHost(), server.getPort());
+        httpClient.setEventListener(listener);
+    }
+
+    @After
+    public void destroy() throws IOException {
+        httpClient.close();
+        server.close();
+    }
+
+    @Test
+    public void testExecute() throws IOException {
+        httpClient.execute(new Request("POST", "/a", Collections.<String, String>emptyMap(), "body"));
+        Assert.assertEquals(Arrays.asList("callStart", "dnsStart", "dnsEnd", "connectStart", "connectEnd",
+                "poolAcquire new", "requestHeadersSent 4", "firstByte", "responseHeadersEnd 200", "bodyEnd 5",
+                "poolRelease true", "callEnd"), listener.events);
+        for (int i = 1; i < listener.times.size(); i++) {
+            Assert.assertTrue(listener.times.get(i) >= listener.times.get(i - 1));
+        }
+
+        listener.events.clear();
+        httpClient.execute(new Request("/b"));
+        Assert.assertEquals(Arrays.asList("callStart", "poolAcquire reused", "requestHeadersSent 0", "firstByte",
+                "responseHeadersEnd 200", "bodyEnd 5", "poolRelease true", "callEnd"), listener.events);
+    }
+
+    @Test
+    public void testStream() throws IOException {
+        httpClient.execute(new Request("/warm-up"));
+        listener.events.clear();
+        StreamingResponse response = httpClient.stream(new Request("/a"));
+        Assert.assertFalse(listener.events.contains("callEnd"));
+        response.close();
+        Assert.assertEquals(Arrays.asList("callStart", "poolAcquire reused", "requestHeadersSent 0", "firstByte",
+                "responseHeadersEnd 200", "poolRelease false", "callEnd"), listener.events);
+    }
+
+    @Test
+    public void testConnectFailed() throws IOException {
+        ServerSocket closed = new ServerSocket(0);
+        int port = closed.getLocalPort();
+        closed.close();
+        HttpClient client = new HttpClient(server.getHost(), port);
+        client.setEventListener(listener);
+        try {
+            client.execute(new Request("/a"));
+            Assert.fail();
+        } catch (IOException expected) {
+        } finally {
+            client.close();
+        }
+        Assert.assertEquals(Arrays.asList("callStart", "dnsStart", "dnsEnd", "connectStart", "connectFailed",
+                "callFailed"), listener.events);
+    }
+
+    @Test
+    public void testLatencyRecorder() throws IOException {
+        LatencyRecorder recorder = new LatencyRecorder();
+        httpClient.setEventListenerFactory(recorder);
+        for (int i = 0; i < 20; i++) {
+            httpClient.execute(new Request("/a"));
+        }
+        String route = server.getHost() + ":" + server.getPort();
+        Assert.assertEquals(Arrays.asList(route), new ArrayList<String>(recorder.getRoutes()));
+        LatencyHistogram total = recorder.getHistogram(route, LatencyRecorder.Phase.TOTAL);
+        Assert.assertEquals(20, total.getTotalCount());
+        Assert.assertEquals(1, recorder.getHistogram(route, LatencyRecorder.Phase.CONNECT).getTotalCount());
+        Assert.assertEquals(20, recorder.getHistogram(route, LatencyRecorder.Phase.TIME_TO_FIRST_BYTE)
+                .getTotalCount());
+        Assert.assertTrue(total.getValueAtPercentile(50) > 0);
+        Assert.assertTrue(total.getValueAtPercentile(99) <= total.getMax());
+        Assert.assertEquals(0, recorder.getFailureCount(route));
+    }
+
+    @Test
+    public void testHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100000; i++) {
+            histogram.record(i);
+        }
+        Assert.assertEquals(100000, histogram.getTotalCount());
+        Assert.assertEquals(100000, histogram.getValueAtPercentile(100));
+        Assert.assertEquals(50000.5, histogram.getMean(), 0.001);
+        long p50 = histogram.getValueAtPercentile(50);
+        Assert.assertTrue(p50 >= 50000 && p50 <= 50000 + 50000 / 32);
+        long p99 = histogram.getValueAtPercentile(99);
+        Assert.assertTrue(p99 >= 99000 && p99 <= 99000 + 99000 / 32);
+        Assert.assertEquals(1, histogram.getValueAtPercentile(0));
+        for (long value = 0; value < 1L << 40; value = value * 3 + 1) {
+            long highest = LatencyHistogram.highestValue(LatencyHistogram.index(value));
+            Assert.assertTrue(highest >= value && highest - value <= value / 32);
+        }
+        Assert.assertEquals(Long.MAX_VALUE, LatencyHistogram.highestValue(LatencyHistogram.index(Long.MAX_VALUE)));
+    }
+
+    private static class RecordingListener extends EventListener {
+
+        final List<String> events = new ArrayList<String>();
+
+        final List<Long> times = new ArrayList<Long>();
+
+        private void event(String event, long nanoTime) {
+            events.add(event);
+            times.add(nanoTime);
+        }
+
+        @Override
+        public void callStart(Request request, long nanoTime) {
+            event("callStart", nanoTime);
+        }
+
+        @Override
+        public void dnsStart(String host, long nanoTime) {
+            event("dnsStart", nanoTime);
+        }
+
+        @Override
+        public void dnsEnd(String host, InetAddress address, long nanoTime) {
+            event("dnsEnd", nanoTime);
+        }
+
+        @Override
+        public void connectStart(InetSocketAddress address, long nanoTime) {
+            event("connectStart", nanoTime);
+        }
+
+        @Override
+        public void connectEnd(InetSocketAddress address, long nanoTime) {
+            event("connectEnd", nanoTime);
+        }
+
+        @Override
+        public void connectFailed(InetSocketAddress address, IOException cause, long nanoTime) {
+            event("connectFailed", nanoTime);
+        }
+
+        @Override
+        public void poolAcquire(boolean reused, long nanoTime) {
+            event(reused ? "poolAcquire reused" : "poolAcquire new", nanoTime);
+        }
+
+        @Override
+        public void requestHeadersSent(long headerBytes, long bodyBytes, long nanoTime) {
+            Assert.assertTrue(headerBytes > 0);
+            event("requestHeadersSent " + bodyBytes, nanoTime);
+        }
+
+        @Override
+        public void firstByte(long nanoTime) {
+            event("firstByte", nanoTime);
+        }
+
+        @Override
+        public void responseHeadersEnd(int code, long nanoTime) {
+            event("responseHeadersEnd " + code, nanoTime);
+        }
+
+        @Override
+        public void bodyEnd(long bodyBytes, long nanoTime) {
+            event("bodyEnd " + bodyBytes, nanoTime);
+        }
+
+        @Override
+        public void poolRelease(boolean reusable, long nanoTime) {
+            event("poolRelease " + reusable, nanoTime);
+        }
+
+        @Override
+        public void callEnd(long nanoTime) {
+            event("callEnd", nanoTime);
+        }
+
+        @Override
+        public void callFailed(Exception cause, long nanoTime) {
+            event("callFailed", nanoTime);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.coketea.jcurl;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+public class FetchToFileTest {
+
+    private static final byte[] CONTENT = new byte[300000];
+
+    static {
+        for (int i = 0; i < CONTENT.length; i++) {
+            CONTENT[i] = (byte) (i * 31);
+        }
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MockHttpServer server;
+
+    private HttpClient httpClient;
+
+    @Before
+    public void init() throws IOException {
+        server = new MockHttpServer(new MockHttpServer.Handler() {
+            @Override
+            public byte[] handle(MockHttpServer.RecordedRequest request) throws IOException {
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                if (request.uri.equals("/chunked")) {
+                    baos.write("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n".getBytes("UTF-8"));
+                    for (int i = 0; i < CONTENT.length; i += 70000) {
+                        int length = Math.min(70000, CONTENT.length - i);
+                        baos.write((Integer.toHexString(length) + "\r\n").getBytes("UTF-8"));
+                        baos.write(CONTENT, i, length);
+                        baos.write("\r\n".getBytes("UTF-8"));
+                    }
+                    baos.write("0\r\n\r\n".getBytes("UTF-8"));
+                    return baos.toByteArray();
+                }
+                if (request.uri.equals("/missing")) {
+                    return MockHttpServer.response(404, "not found");
+                }
+                String range = request.header("Range");
+                int start = range == null ? 0 : Integer.parseInt(range.substring(6, range.length() - 1));
+                if (start >= CONTENT.length) {
+                    return MockHttpServer.response(416, "");
+                }
+                String status = range == null ? "200 OK" : "206 Partial Content";
+                baos.write(("HTTP/1.1 " + status + "\r\nContent-Length: " + (CONTENT.length - start) + "\r\n"
+                        + (range == null ? "" : "Content-Range: bytes " + start + "-" + (CONTENT.length - 1)
+                        + "/" + CONTENT.length + "\r\n") + "\r\n").getBytes("UTF-8"));
+                baos.write(CONTENT, start, CONTENT.length - start);
+                return baos.toByteArray();
+            }
+        });
+        httpClient = new HttpClient(server.getHost(), server.getPort());
+    }
+
+    @After
+    public void destroy() throws IOException {
+        httpClient.close();
+        server.close();
+    }
+
+    @Test
+    public void testFetchToFile_contentLength() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("content.bin");
+        Response response = httpClient.fetchToFile(new Request("/file"), path);
+        Assert.assertEquals(200, response.getCode());
+        Assert.assertArrayEquals(CONTENT, Files.readAllBytes(path));
+        Assert.assertEquals(1, httpClient.getConnectionPool().getIdleCount());
+    }
+
+    @Test
+    public void testFetchToFile_chunked() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("chunked.bin");
+        httpClient.fetchToFile(new Request("/chunked"), path);
+        Assert.assertArrayEquals(CONTENT, Files.readAllBytes(path));
+    }
+
+    @Test
+    public void testFetchToFile_resume() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("partial.bin");
+        Files.write(path, Arrays.copyOf(CONTENT, 123456));
+        Response response = httpClient.fetchToFile(new Request("/file"), path);
+        Assert.assertEquals(206, response.getCode());
+        Assert.assertEquals("bytes=123456-", server.getRequests().get(0).header("Range"));
+        Assert.assertArrayEquals(CONTENT, Files.readAllBytes(path));
+
+        response = httpClient.fetchToFile(new Request("/file"), path);
+        Assert.assertEquals(416, response.getCode());
+        Assert.assertArrayEquals(CONTENT, Files.readAllBytes(path));
+    }
+
+    @Test
+    public void testFetchToFile_errorKeepsFile() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("missing.bin");
+        Response response = httpClient.fetchToFile(new Request("/missing"), path);
+        Assert.assertEquals(404, response.getCode());
+        Assert.assertEquals("not found", response.getBodyAsString());
+        Assert.assertFalse(Files.exists(path));
+    }
+
+    @Test
+    public void testFetchTo_channel() throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        httpClient.fetchTo(new Request("/chunked"), Channels.newChannel(baos));
+        Assert.assertArrayEquals(CONTENT, baos.toByteArray());
+    }
+}
@@ -0,0 +1,232 @@
+package com.coketea.jcurl;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class HostLimiterTest {
+
+    private MockHttpServer server;
+
+    private HttpClient httpClient;
+
+    private final AtomicInteger active = new AtomicInteger();
+
+    private final AtomicInteger maxActive = new AtomicInteger();
+
+    private volatile CountDownLatch release = new CountDownLatch(0);
+
+    @Before
+    public void init() throws IOException {
+        server = new MockHttpServer(new MockHttpServer.Handler() {
+            @Override
+            public byte[] handle(MockHttpServer.RecordedRequest request) throws IOException {
+                int current = active.incrementAndGet();
+                while (true) {
+                    int max = maxActive.get();
+                    if (current <= max || maxActive.compareAndSet(max, current)) {
+                        break;
+                    }
+                }
+                try {
+                    if (request.uri.startsWith("/block")) {
+                        release.await(5, TimeUnit.SECONDS);
+                    } else if (request.uri.startsWith("/slow")) {
+                        Thread.sleep(100);
+                    }
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                } finally {
+                    active.decrementAndGet();
+                }
+                if (request.uri.equals("/overloaded")) {
+                    return MockHttpServer.response(503, "busy");
+                }
+                return MockHttpServer.response(200, request.uri);
+            }
+        });
+        httpClient = new HttpClient(server.getHost(), server.getPort());
+    }
+
+    @After
+    public void destroy() throws IOException {
+        httpClient.close();
+        server.close();
+    }
+
+    @Test
+    public void testRateLimiter() throws IOException {
+        RateLimiter limiter = new RateLimiter(10, 2);
+        Assert.assertTrue(limiter.tryAcquire(0));
+        Assert.assertTrue(limiter.tryAcquire(0));
+        Assert.assertFalse(limiter.tryAcquire(0));
+        //每100毫秒生成一个令牌
+        long start = System.nanoTime();
+        Assert.assertTrue(limiter.tryAcquire(500));
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 50);
+        //失败的请求不预约令牌
+        Assert.assertFalse(limiter.tryAcquire(10));
+        Assert.assertTrue(limiter.getAvailablePermits() > -0.5);
+    }
+
+    @Test
+    public void testConcurrencyLimiter() throws IOException {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(4, 1, 8);
+        for (int i = 0; i < 4; i++) {
+            Assert.assertTrue(limiter.tryAcquire(0));
+        }
+        Assert.assertFalse(limiter.tryAcquire(10));
+        Assert.assertEquals(4, limiter.getInFlight());
+
+        //满负载下延迟稳定，每轮加1
+        long latency = TimeUnit.MILLISECONDS.toNanos(1);
+        for (int i = 0; i < 20; i++) {
+            limiter.onSuccess(latency);
+            Assert.assertTrue(limiter.tryAcquire(0));
+        }
+        Assert.assertTrue(limiter.getLimit() > 4);
+        Assert.assertTrue(limiter.getLimit() <= 8);
+
+        //过载时乘性减小
+        int before = limiter.getLimit();
+        limiter.onDropped();
+        Assert.assertTrue(limiter.getLimit() < before);
+        Assert.assertEquals(3, limiter.getInFlight());
+        //同一批在途请求的拥塞信号只减小一次
+        limiter.onDropped();
+        Assert.assertEquals(before * 9 / 10, limiter.getLimit());
+    }
+
+    @Test
+    public void testLatencyGradient() throws IOException {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(10, 1, 10);
+        Assert.assertTrue(limiter.tryAcquire(0));
+        limiter.onSuccess(TimeUnit.MILLISECONDS.toNanos(1));
+        Assert.assertEquals(10, limiter.getLimit());
+        //延迟明显高于最小延迟，下游开始排队
+        Assert.assertTrue(limiter.tryAcquire(0));
+        limiter.onSuccess(TimeUnit.MILLISECONDS.toNanos(10));
+        Assert.assertEquals(9, limiter.getLimit());
+    }
+
+    @Test
+    public void testFailFast() throws Exception {
+        httpClient.setHostLimiter(new HostLimiter().setConcurrency(1, 1, 1));
+        release = new CountDownLatch(1);
+        final AtomicReference<Response> blocked = new AtomicReference<Response>();
+        Thread worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    blocked.set(httpClient.execute(new Request("/block")));
+                } catch (IOException ignored) {
+                }
+            }
+        });
+        worker.start();
+        ConcurrencyLimiter limiter = null;
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (limiter == null || limiter.getInFlight() == 0) {
+            Assert.assertTrue(System.nanoTime() < deadline);
+            Thread.sleep(5);
+            limiter = httpClient.getHostLimiter().getConcurrencyLimiter(server.getHost(), server.getPort());
+        }
+        try {
+            httpClient.execute(new Request("/other"));
+            Assert.fail();
+        } catch (LimitExceededException expected) {
+        }
+        release.countDown();
+        worker.join();
+        Assert.assertEquals("/block", blocked.get().getBodyAsString());
+        Assert.assertEquals(0, limiter.getInFlight());
+        Assert.assertEquals(1, server.getRequests().size());
+    }
+
+    @Test
+    public void testQueueing() throws Exception {
+        httpClient.setHostLimiter(new HostLimiter().setConcurrency(2, 2, 2).setMaxWaitMillis(5000));
+        final List<Throwable> errors = new ArrayList<Throwable>();
+        List<Thread> workers = new ArrayList<Thread>();
+        for (int i = 0; i < 6; i++) {
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        httpClient.execute(new Request("/slow"));
+                    } catch (IOException e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        Assert.assertTrue(errors.toString(), errors.isEmpty());
+        Assert.assertEquals(6, server.getRequests().size());
+        Assert.assertTrue(maxActive.get() <= 2);
+    }
+
+    @Test
+    public void testRateLimit() throws IOException {
+        httpClient.setHostLimiter(new HostLimiter().setRate(1, 1));
+        Assert.assertEquals("/a", httpClient.execute(new Request("/a")).getBodyAsString());
+        try {
+            httpClient.execute(new Request("/b"));
+            Assert.fail();
+        } catch (LimitExceededException expected) {
+        }
+        Assert.assertEquals(1, server.getRequests().size());
+    }
+
+    @Test
+    public void testOverloadedResponse() throws IOException {
+        HostLimiter hostLimiter = new HostLimiter().setConcurrency(10, 1, 10);
+        httpClient.setHostLimiter(hostLimiter);
+        Assert.assertEquals(503, httpClient.execute(new Request("/overloaded")).getCode());
+        ConcurrencyLimiter limiter = hostLimiter.getConcurrencyLimiter(server.getHost(), server.getPort());
+        Assert.assertEquals(9, limiter.getLimit());
+        Assert.assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void testStreamingReleasesOnClose() throws IOException {
+        HostLimiter hostLimiter = new HostLimiter().setConcurrency(1, 1, 1);
+        httpClient.setHostLimiter(hostLimiter);
+        StreamingResponse response = httpClient.stream(new Request("/a"));
+        ConcurrencyLimiter limiter = hostLimiter.getConcurrencyLimiter(server.getHost(), server.getPort());
+        //报文体读完之前一直占用名额
+        Assert.assertEquals(1, limiter.getInFlight());
+        response.close();
+        Assert.assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void testFetchAll() throws IOException {
+        HostLimiter hostLimiter = new HostLimiter().setConcurrency(3, 3, 3);
+        httpClient.setHostLimiter(hostLimiter);
+        List<Request> requests = new ArrayList<Request>();
+        for (int i = 0; i < 10; i++) {
+            requests.add(new Request("/" + i));
+        }
+        List<Response> responses = httpClient.fetchAll(requests);
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals("/" + i, responses.get(i).getBodyAsString());
+        }
+        Assert.assertEquals(0, hostLimiter.getConcurrencyLimiter(server.getHost(), server.getPort()).getInFlight());
+    }
+}
@@ -0,0 +1,124 @@
+package com.coketea.jcurl;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class HpackTest {
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b & 0xff));
+        }
+        return sb.toString();
+    }
+
+    private static byte[] huffman(String value) {
+        byte[] bytes = value.getBytes(Hpack.ISO_8859_1);
+        BodyBuffer out = new BodyBuffer(BufferPool.DEFAULT, 64);
+        out.ensureWritable(Huffman.encodedLength(bytes));
+        Huffman.encode(bytes, out);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testHuffman() throws IOException {
+        //RFC 7541 附录C.4中的例子
+        Assert.assertEquals("f1e3c2e5f23a6ba0ab90f4ff", hex(huffman("www.example.com")));
+        Assert.assertEquals("a8eb10649cbf", hex(huffman("no-cache")));
+        Assert.assertEquals("25a849e95ba97d7f", hex(huffman("custom-key")));
+        Assert.assertEquals("25a849e95bb8e8b4bf", hex(huffman("custom-value")));
+
+        byte[] all = new byte[256];
+        for (int i = 0; i < all.length; i++) {
+            all[i] = (byte) i;
+        }
+        byte[] encoded = huffman(new String(all, Hpack.ISO_8859_1));
+        Assert.assertArrayEquals(all, Huffman.decode(encoded, 0, encoded.length));
+    }
+
+    @Test
+    public void testHuffmanInvalidPadding() {
+        //填充必须是EOS的前缀，即全1
+        byte[] encoded = huffman("a");
+        encoded[encoded.length - 1] &= (byte) 0xfe;
+        try {
+            Huffman.decode(encoded, 0, encoded.length);
+            Assert.fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        HpackEncoder encoder = new HpackEncoder();
+        HpackDecoder decoder = new HpackDecoder();
+        List<String> headers = Arrays.asList(":method", "GET", ":scheme", "http", ":authority", "www.example.com",
+                ":path", "/index.html", "user-agent", "jcurl", "cookie", "secret", "x-custom", "été");
+        int firstSize = 0;
+        for (int i = 0; i < 3; i++) {
+            BodyBuffer block = new BodyBuffer(BufferPool.DEFAULT, 64);
+            encoder.beginBlock(block);
+            for (int j = 0; j < headers.size(); j += 2) {
+                encoder.encode(headers.get(j), headers.get(j + 1), block);
+            }
+            List<String> decoded = new ArrayList<String>();
+            decoder.decode(block.array(), 0, block.size(), decoded);
+            Assert.assertEquals(headers, decoded);
+            if (i == 0) {
+                firstSize = block.size();
+            } else {
+                //之后的请求头部块引用动态表中的表项
+                Assert.assertTrue(block.size() < firstSize / 2);
+            }
+        }
+    }
+
+    @Test
+    public void testSensitiveNeverIndexed() throws IOException {
+        HpackEncoder encoder = new HpackEncoder();
+        BodyBuffer block = new BodyBuffer(BufferPool.DEFAULT, 64);
+        encoder.encode("authorization", "Bearer token", block);
+        //0001xxxx：不索引的字面量
+        Assert.assertEquals(0x10, block.array()[0] & 0xf0);
+        BodyBuffer second = new BodyBuffer(BufferPool.DEFAULT, 64);
+        encoder.encode("authorization", "Bearer token", second);
+        Assert.assertEquals(block.size(), second.size());
+    }
+
+    @Test
+    public void testTableSizeUpdate() throws IOException {
+        HpackEncoder encoder = new HpackEncoder();
+        HpackDecoder decoder = new HpackDecoder();
+        BodyBuffer block = new BodyBuffer(BufferPool.DEFAULT, 64);
+        encoder.beginBlock(block);
+        encoder.encode("x-a", "1", block);
+        decoder.decode(block.array(), 0, block.size(), new ArrayList<String>());
+
+        encoder.setMaxTableSize(0);
+        block.clear();
+        encoder.beginBlock(block);
+        //001xxxxx：动态表大小更新
+        Assert.assertEquals(0x20, block.array()[0] & 0xe0);
+        encoder.encode("x-a", "1", block);
+        List<String> decoded = new ArrayList<String>();
+        decoder.decode(block.array(), 0, block.size(), decoded);
+        Assert.assertEquals(Arrays.asList("x-a", "1"), decoded);
+    }
+
+    @Test
+    public void testInvalidIndex() {
+        HpackDecoder decoder = new HpackDecoder();
+        byte[] block = {(byte) 0xbe};
+        try {
+            decoder.decode(block, 0, block.length, new ArrayList<String>());
+            Assert.fail();
+        } catch (IOException expected) {
+        }
+    }
+}
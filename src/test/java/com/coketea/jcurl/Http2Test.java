@@ -0,0 +1,267 @@
+package com.coketea.jcurl;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+public class Http2Test {
+
+    private static final byte[] LARGE = new byte[5 * 1024 * 1024];
+
+    static {
+        for (int i = 0; i < LARGE.length; i++) {
+            LARGE[i] = (byte) (i * 31 + (i >>> 10));
+        }
+    }
+
+    private MockHttp2Server server;
+
+    private HttpClient httpClient;
+
+    private final AtomicInteger refused = new AtomicInteger();
+
+    private volatile CountDownLatch arrivals = new CountDownLatch(0);
+
+    @Before
+    public void init() throws IOException {
+        server = this.start(Integer.MAX_VALUE, 16 * 1024);
+    }
+
+    private MockHttp2Server start(int maxConcurrentStreams, int initialWindowSize) throws IOException {
+        MockHttp2Server server = new MockHttp2Server(new MockHttp2Server.Handler() {
+            @Override
+            public MockHttp2Server.Reply handle(MockHttpServer.RecordedRequest request) throws IOException {
+                if (request.uri.equals("/large")) {
+                    return new MockHttp2Server.Reply(200, LARGE);
+                }
+                if (request.uri.equals("/echo")) {
+                    return new MockHttp2Server.Reply(200, request.body);
+                }
+                if (request.uri.equals("/gzip")) {
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+                    gzip.write("hello gzip".getBytes("UTF-8"));
+                    gzip.close();
+                    return new MockHttp2Server.Reply(200, bytes.toByteArray(), "Content-Encoding: gzip");
+                }
+                if (request.uri.equals("/refuse") && refused.getAndIncrement() == 0) {
+                    return null;
+                }
+                if (request.uri.startsWith("/slow")) {
+                    sleep(300);
+                }
+                if (request.uri.startsWith("/wait")) {
+                    //所有请求都到达之后才响应，只有并发发送时才能完成
+                    arrivals.countDown();
+                    try {
+                        arrivals.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                }
+                return new MockHttp2Server.Reply(200, request.method + " " + request.uri, "Content-Type: text/plain",
+                        "X-Authority: " + request.headers.get(":authority"));
+            }
+        }, maxConcurrentStreams, initialWindowSize);
+        if (httpClient != null) {
+            httpClient.close();
+        }
+        httpClient = new HttpClient(server.getHost(), server.getPort());
+        httpClient.setHttp2PriorKnowledge(true);
+        return server;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @After
+    public void destroy() throws IOException {
+        httpClient.close();
+        server.close();
+    }
+
+    @Test
+    public void testExecute() throws IOException {
+        httpClient.addDefaultHeader("User-Agent", "jcurl");
+        Response response = httpClient.execute(new Request("/hello"));
+        Assert.assertEquals(200, response.getCode());
+        Assert.assertEquals("GET /hello", response.getBodyAsString());
+        //HTTP/2的响应头名称为小写，按名称查找不区分大小写
+        Assert.assertEquals("text/plain", response.getHeader("Content-Type"));
+        Assert.assertEquals(server.getHost() + ":" + server.getPort(), response.getHeader("x-authority"));
+        MockHttpServer.RecordedRequest request = server.getRequests().get(0);
+        Assert.assertEquals("http", request.headers.get(":scheme"));
+        Assert.assertEquals("jcurl", request.headers.get("user-agent"));
+        Assert.assertNull(request.headers.get("host"));
+
+        httpClient.execute(new Request("/again"));
+        Assert.assertEquals(1, server.getConnectionCount());
+    }
+
+    @Test
+    public void testPostLargerThanSendWindow() throws IOException {
+        //请求报文体超过服务器端声明的16K流窗口，发送方必须等待WINDOW_UPDATE
+        byte[] body = Arrays.copyOf(LARGE, 200 * 1024);
+        Response response = httpClient.execute(new Request("POST", "/echo", Collections.<String, String>emptyMap(),
+                body));
+        Assert.assertArrayEquals(body, response.getBody());
+        Assert.assertEquals(String.valueOf(body.length), server.getRequests().get(0).headers.get("content-length"));
+    }
+
+    @Test
+    public void testLargeResponse() throws IOException {
+        //响应超过客户端的流窗口，读取时归还窗口服务器端才能继续发送
+        StreamingResponse response = httpClient.stream(new Request("/large"));
+        try {
+            InputStream body = response.getBody();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = body.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+            Assert.assertArrayEquals(LARGE, out.toByteArray());
+        } finally {
+            response.close();
+        }
+        Assert.assertArrayEquals(LARGE, httpClient.execute(new Request("/large")).getBody());
+    }
+
+    @Test
+    public void testConcurrentStreams() throws Exception {
+        final int threads = 8;
+        arrivals = new CountDownLatch(threads);
+        final List<String> bodies = Collections.synchronizedList(new ArrayList<String>());
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        List<Thread> workers = new ArrayList<Thread>();
+        for (int i = 0; i < threads; i++) {
+            final int index = i;
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        bodies.add(httpClient.execute(new Request("/wait/" + index)).getBodyAsString());
+                    } catch (Throwable e) {
+                        errors.add(e);
+                    }
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        Assert.assertTrue(errors.toString(), errors.isEmpty());
+        Assert.assertEquals(threads, bodies.size());
+        Assert.assertEquals(1, server.getConnectionCount());
+        Assert.assertEquals(threads, server.getMaxActiveStreams());
+    }
+
+    @Test
+    public void testMaxConcurrentStreams() throws Exception {
+        server.close();
+        server = this.start(2, 65535);
+        List<Request> requests = new ArrayList<Request>();
+        for (int i = 0; i < 6; i++) {
+            requests.add(new Request("/slow/" + i));
+        }
+        List<Response> responses = httpClient.fetchAll(requests);
+        for (int i = 0; i < 6; i++) {
+            Assert.assertEquals("GET /slow/" + i, responses.get(i).getBodyAsString());
+        }
+        Assert.assertEquals(2, server.getMaxActiveStreams());
+    }
+
+    @Test
+    public void testFetchAll() throws IOException {
+        httpClient.setPipelineDepth(10);
+        arrivals = new CountDownLatch(10);
+        List<Request> requests = new ArrayList<Request>();
+        for (int i = 0; i < 40; i++) {
+            requests.add(new Request("/wait/" + i));
+        }
+        List<Response> responses = httpClient.fetchAll(requests);
+        Assert.assertEquals(40, responses.size());
+        for (int i = 0; i < 40; i++) {
+            Assert.assertEquals("GET /wait/" + i, responses.get(i).getBodyAsString());
+        }
+        Assert.assertEquals(1, server.getConnectionCount());
+        Assert.assertEquals(10, server.getMaxActiveStreams());
+    }
+
+    @Test
+    public void testRefusedStreamRetried() throws IOException {
+        Assert.assertEquals("GET /refuse", httpClient.execute(new Request("/refuse")).getBodyAsString());
+        Assert.assertEquals(2, server.getRequests().size());
+    }
+
+    @Test
+    public void testCloseEarly() throws IOException {
+        StreamingResponse response = httpClient.stream(new Request("/large"));
+        Assert.assertEquals(200, response.getCode());
+        response.getBody().read(new byte[1024]);
+        //提前关闭只重置该流，连接继续使用
+        response.close();
+        Assert.assertEquals("GET /next", httpClient.execute(new Request("/next")).getBodyAsString());
+        Assert.assertEquals(1, server.getConnectionCount());
+    }
+
+    @Test
+    public void testReadTimeout() throws IOException {
+        httpClient.setReadTimeoutMillis(100);
+        try {
+            httpClient.execute(new Request("/slow"));
+            Assert.fail();
+        } catch (ReadTimeoutException expected) {
+        }
+        httpClient.setReadTimeoutMillis(0);
+        Assert.assertEquals("GET /next", httpClient.execute(new Request("/next")).getBodyAsString());
+        Assert.assertEquals(1, server.getConnectionCount());
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        final Call call = httpClient.newCall(new Request("/slow"));
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                sleep(100);
+                call.cancel();
+            }
+        }).start();
+        try {
+            call.execute();
+            Assert.fail();
+        } catch (CallCanceledException expected) {
+        }
+        Assert.assertEquals("GET /next", httpClient.execute(new Request("/next")).getBodyAsString());
+    }
+
+    @Test
+    public void testCompression() throws IOException {
+        httpClient.setCompressionEnabled(true);
+        Response response = httpClient.execute(new Request("/gzip"));
+        Assert.assertEquals("hello gzip", response.getBodyAsString());
+        Assert.assertNull(response.getHeader("Content-Encoding"));
+        Assert.assertEquals("gzip, deflate", server.getRequests().get(0).headers.get("accept-encoding"));
+    }
+}
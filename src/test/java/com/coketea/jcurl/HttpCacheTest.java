@@ -0,0 +1,144 @@
+package com.coketea.jcurl;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class HttpCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MockHttpServer server;
+
+    private HttpClient httpClient;
+
+    private final AtomicInteger version = new AtomicInteger(1);
+
+    @Before
+    public void init() throws IOException {
+        server = new MockHttpServer(new MockHttpServer.Handler() {
+            @Override
+            public byte[] handle(MockHttpServer.RecordedRequest request) {
+                String etag = "\"v" + version.get() + "\"";
+                if (request.uri.startsWith("/fresh")) {
+                    return MockHttpServer.response(200, "fresh " + request.uri, "Cache-Control: max-age=60");
+                } else if (request.uri.equals("/etag")) {
+                    if (etag.equals(request.header("If-None-Match"))) {
+                        return MockHttpServer.response(304, "", "ETag: " + etag, "X-Revalidated: yes");
+                    }
+                    return MockHttpServer.response(200, "etag " + etag, "Cache-Control: no-cache", "ETag: " + etag);
+                } else if (request.uri.equals("/no-store")) {
+                    return MockHttpServer.response(200, "no-store", "Cache-Control: no-store, max-age=60");
+                } else if (request.uri.startsWith("/large")) {
+                    char[] chars = new char[1000];
+                    Arrays.fill(chars, 'x');
+                    return MockHttpServer.response(200, new String(chars), "Cache-Control: max-age=60");
+                }
+                return MockHttpServer.response(200, request.method + " " + request.uri);
+            }
+        });
+        httpClient = new HttpClient(server.getHost(), server.getPort());
+    }
+
+    @After
+    public void destroy() throws IOException {
+        httpClient.close();
+        server.close();
+    }
+
+    @Test
+    public void testFresh() throws Exception {
+        HttpCache cache = new HttpCache(1024 * 1024);
+        httpClient.setCache(cache);
+        Assert.assertEquals("fresh /fresh", httpClient.execute(new Request("/fresh")).getBodyAsString());
+        Assert.assertEquals("fresh /fresh", httpClient.execute(new Request("/fresh")).getBodyAsString());
+        Assert.assertEquals("fresh /fresh", httpClient.fetchString("/fresh"));
+        Assert.assertEquals(1, server.getRequests().size());
+        Assert.assertEquals(2, cache.getHitCount());
+        Assert.assertEquals(1, cache.getMissCount());
+
+        //请求要求重新验证时不能直接使用缓存
+        httpClient.execute(new Request("/fresh").withHeader("Cache-Control", "no-cache"));
+        Assert.assertEquals(2, server.getRequests().size());
+    }
+
+    @Test
+    public void testRevalidate() throws IOException {
+        HttpCache cache = new HttpCache(1024 * 1024);
+        httpClient.setCache(cache);
+        Assert.assertEquals("etag \"v1\"", httpClient.execute(new Request("/etag")).getBodyAsString());
+        Response response = httpClient.execute(new Request("/etag"));
+        Assert.assertEquals(200, response.getCode());
+        Assert.assertEquals("etag \"v1\"", response.getBodyAsString());
+        Assert.assertEquals("yes", response.getHeader("X-Revalidated"));
+        Assert.assertEquals("\"v1\"", server.getRequests().get(1).header("If-None-Match"));
+        Assert.assertEquals(1, cache.getHitCount());
+
+        version.set(2);
+        Assert.assertEquals("etag \"v2\"", httpClient.execute(new Request("/etag")).getBodyAsString());
+        Assert.assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void testNotCached() throws IOException {
+        HttpCache cache = new HttpCache(1024 * 1024);
+        httpClient.setCache(cache);
+        httpClient.execute(new Request("/no-store"));
+        httpClient.execute(new Request("/no-store"));
+        httpClient.execute(new Request("/plain"));
+        httpClient.execute(new Request("/plain"));
+        Assert.assertEquals(4, server.getRequests().size());
+        Assert.assertEquals(0, cache.getHitCount());
+        Assert.assertEquals(0, cache.getEntryCount());
+
+        httpClient.execute(new Request("/fresh"));
+        httpClient.execute(new Request("POST", "/fresh"));
+        httpClient.execute(new Request("/fresh"));
+        Assert.assertEquals(7, server.getRequests().size());
+    }
+
+    @Test
+    public void testEviction() throws IOException {
+        HttpCache cache = new HttpCache(2500);
+        httpClient.setCache(cache);
+        for (int i = 0; i < 3; i++) {
+            httpClient.execute(new Request("/large" + i));
+        }
+        Assert.assertEquals(1, cache.getEvictionCount());
+        Assert.assertEquals(2, cache.getEntryCount());
+        Assert.assertTrue(cache.getMemorySize() <= 2500);
+        //最久未使用的/large0已经被淘汰
+        httpClient.execute(new Request("/large2"));
+        httpClient.execute(new Request("/large0"));
+        Assert.assertEquals(4, server.getRequests().size());
+    }
+
+    @Test
+    public void testDiskTier() throws IOException {
+        HttpCache cache = new HttpCache(2500, folder.getRoot().toPath(), 1024 * 1024);
+        httpClient.setCache(cache);
+        for (int i = 0; i < 5; i++) {
+            httpClient.execute(new Request("/large" + i));
+        }
+        Assert.assertEquals(0, cache.getEvictionCount());
+        Assert.assertEquals(5, cache.getEntryCount());
+        Assert.assertTrue(cache.getDiskSize() > 0);
+        Assert.assertEquals(1000, httpClient.execute(new Request("/large0")).getBody().length);
+        Assert.assertEquals(5, server.getRequests().size());
+
+        //新的缓存实例继续使用磁盘上的缓存文件
+        HttpCache reopened = new HttpCache(2500, folder.getRoot().toPath(), 1024 * 1024);
+        httpClient.setCache(reopened);
+        Assert.assertEquals(1000, httpClient.execute(new Request("/large1")).getBody().length);
+        Assert.assertEquals(1, reopened.getHitCount());
+        Assert.assertEquals(5, server.getRequests().size());
+    }
+}
@@ -5,10 +5,17 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
 import java.io.InputStream;
-import java.io.UnsupportedEncodingException;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Created by Johnson Wong on 2017/11/8.
@@ -52,114 +59,241 @@ public class HttpClientTest {
     }
 
     @Test
-    public void testReadLine() throws NoSuchMethodException,
-            InvocationTargetException, IllegalAccessException, UnsupportedEncodingException {
-        Class[] parameterTypes = { InputStream.class };
-        Object[] arguments = {chunkedInputStream};
-        HttpClient httpClient = new HttpClient();
-        Method method = httpClient.getClass().getDeclaredMethod("readLine", parameterTypes);
-        method.setAccessible(true);
-        byte[] bytes = (byte[])method.invoke(httpClient, arguments);
-        method.setAccessible(false);
-        Assert.assertEquals(new String(bytes, "UTF-8"), "HTTP/1.1 200 OK");
+    public void testReadLine() throws IOException {
+        ResponseParser parser = new ResponseParser(chunkedInputStream);
+        Assert.assertEquals(parser.readLine(), 15);
+        Assert.assertEquals(parser.lineString(), "HTTP/1.1 200 OK");
     }
 
-    private void parseResponseStatus(InputStream is) throws UnsupportedEncodingException,
-            NoSuchMethodException, InvocationTargetException, IllegalAccessException {
-        Class[] parameterTypes = { InputStream.class };
-        Object[] arguments = { is };
-        HttpClient httpClient = new HttpClient();
-        Method method = httpClient.getClass().getDeclaredMethod("parseResponseStatus", parameterTypes);
-        method.setAccessible(true);
-        method.invoke(httpClient, arguments);
-        method.setAccessible(false);
-        Assert.assertEquals(httpClient.getResponseCode(), "200");
-        Assert.assertEquals(httpClient.getResponseStatus(), "OK");
+    @Test
+    public void testReadLine_loneCarriageReturn() throws IOException {
+        ResponseParser parser = new ResponseParser(new ByteArrayInputStream("a\rb\r\nc\nd".getBytes("UTF-8")));
+        parser.readLine();
+        Assert.assertEquals(parser.lineString(), "a\rb");
+        parser.readLine();
+        Assert.assertEquals(parser.lineString(), "c");
+        parser.readLine();
+        Assert.assertEquals(parser.lineString(), "d");
+        Assert.assertEquals(parser.readLine(), -1);
+    }
+
+    @Test
+    public void testParseResponseHeader_truncated() throws IOException {
+        ResponseParser parser = new ResponseParser(new ByteArrayInputStream(
+                "HTTP/1.1 200 OK\r\nX-A: 1\r\nTransfer-Enc".getBytes("UTF-8")));
+        parser.parseResponseStatus();
+        try {
+            parser.parseResponseHeader();
+            Assert.fail("expected EOFException");
+        } catch (EOFException e) {
+            //连接在响应头结束之前关闭
+        }
     }
 
     @Test
-    public void testParseResponseStatus_chunked() throws UnsupportedEncodingException,
-            NoSuchMethodException, InvocationTargetException, IllegalAccessException {
+    public void testParseResponseHeader_missingColon() throws IOException {
+        ResponseParser parser = new ResponseParser(new ByteArrayInputStream(
+                "HTTP/1.1 200 OK\r\nX-A 1\r\n\r\n".getBytes("UTF-8")));
+        parser.parseResponseStatus();
+        try {
+            parser.parseResponseHeader();
+            Assert.fail("expected IOException");
+        } catch (IOException e) {
+            Assert.assertEquals("Malformed response header: X-A 1", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testParseResponseBody_contentLengthExceedsData() throws IOException {
+        ResponseParser parser = new ResponseParser(new ByteArrayInputStream(
+                "HTTP/1.1 200 OK\r\nContent-Length: 2000000000\r\n\r\nhello".getBytes("UTF-8")));
+        try {
+            //声明的长度不会在收到数据之前一次分配
+            parser.parse("GET");
+            Assert.fail("expected EOFException");
+        } catch (EOFException e) {
+            Assert.assertEquals("Connection closed with 1999999995 bytes of response body remaining", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testParseResponseHeader_longLine() throws IOException {
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            value.append((char) ('a' + i % 26));
+        }
+        String content = "HTTP/1.1 404 Not Found\r\nX-Long:  " + value + " \r\nContent-Length: 2\r\n\r\nno";
+        ResponseParser parser = new ResponseParser(new ByteArrayInputStream(content.getBytes("UTF-8")));
+        Response response = parser.parse("GET");
+        Assert.assertEquals(response.getCode(), 404);
+        Assert.assertEquals(response.getStatus(), "Not Found");
+        Assert.assertEquals(response.getHeader("X-Long"), value.toString());
+        Assert.assertEquals(response.getBodyAsString(), "no");
+    }
+
+    private ResponseParser parseResponseStatus(InputStream is) throws IOException {
+        ResponseParser parser = new ResponseParser(is);
+        parser.parseResponseStatus();
+        Assert.assertEquals(parser.getCode(), 200);
+        Assert.assertEquals(parser.getReason(), "OK");
+        return parser;
+    }
+
+    @Test
+    public void testParseResponseStatus_chunked() throws IOException {
         this.parseResponseStatus(chunkedInputStream);
     }
 
     @Test
-    public void testParseResponseStatus_not_chunked() throws UnsupportedEncodingException,
-            NoSuchMethodException, InvocationTargetException, IllegalAccessException {
+    public void testParseResponseStatus_not_chunked() throws IOException {
         this.parseResponseStatus(notChunkedInputStream);
     }
 
+    private ResponseParser parseResponseHeader_chunked() throws IOException {
+        ResponseParser parser = this.parseResponseStatus(chunkedInputStream);
+        parser.parseResponseHeader();
+        return parser;
+    }
+
     @Test
-    public void testParseResponseHeader_chunked() throws UnsupportedEncodingException,
-            NoSuchMethodException, InvocationTargetException, IllegalAccessException {
-        this.parseResponseStatus(chunkedInputStream);
-        Class[] parameterTypes = { InputStream.class };
-        Object[] arguments = { chunkedInputStream };
-        HttpClient httpClient = new HttpClient();
-        Method method = httpClient.getClass().getDeclaredMethod("parseResponseHeader", parameterTypes);
-        method.setAccessible(true);
-        method.invoke(httpClient, arguments);
-        method.setAccessible(false);
-        Assert.assertEquals(httpClient.getResponseHeader("X-Powered-By"), "Servlet/3.1");
-        Assert.assertEquals(httpClient.getResponseHeader("Content-Type"), "text/html; charset=utf-8");
-        Assert.assertEquals(httpClient.getResponseHeader("Content-Language"), "zh-CN");
-        Assert.assertEquals(httpClient.getResponseHeader("Transfer-Encoding"), "chunked");
-        Assert.assertEquals(httpClient.getResponseHeader("Date"), "Wed, 08 Nov 2017 01:04:40 GMT");
-    }
-
-    @Test
-    public void testParseResponseBodyChunked() throws InvocationTargetException,
-            NoSuchMethodException, IllegalAccessException, UnsupportedEncodingException {
-        this.testParseResponseHeader_chunked();
-        Class[] parameterTypes = { InputStream.class };
-        Object[] arguments = {chunkedInputStream};
-        HttpClient httpClient = new HttpClient();
-        Method method = httpClient.getClass().getDeclaredMethod("parseResponseBodyChunked", parameterTypes);
-        method.setAccessible(true);
-        byte[] bytes = (byte[])method.invoke(httpClient, arguments);
-        method.setAccessible(false);
+    public void testParseResponseHeader_chunked() throws IOException {
+        ResponseParser parser = this.parseResponseHeader_chunked();
+        Assert.assertEquals(parser.getHeaders().get("X-Powered-By"), "Servlet/3.1");
+        Assert.assertEquals(parser.getHeaders().get("Content-Type"), "text/html; charset=utf-8");
+        Assert.assertEquals(parser.getHeaders().get("Content-Language"), "zh-CN");
+        Assert.assertEquals(parser.getHeaders().get("Transfer-Encoding"), "chunked");
+        Assert.assertEquals(parser.getHeaders().get("Date"), "Wed, 08 Nov 2017 01:04:40 GMT");
+    }
+
+    @Test
+    public void testParseResponseBodyChunked() throws IOException {
+        ResponseParser parser = this.parseResponseHeader_chunked();
+        byte[] bytes = parser.parseResponseBodyChunked();
         Assert.assertEquals(new String(bytes, "UTF-8"), "{\"resultFlag\":\"0\",\"resultList\":[]," +
                 "\"recordsTotal\":\"0\"}");
     }
 
-    private HttpClient parseResponseHeader_not_chunked() throws UnsupportedEncodingException,
-            NoSuchMethodException, InvocationTargetException, IllegalAccessException {
-        this.parseResponseStatus(notChunkedInputStream);
-        Class[] parameterTypes = { InputStream.class };
-        Object[] arguments = { notChunkedInputStream };
-        HttpClient httpClient = new HttpClient();
-        Method method = httpClient.getClass().getDeclaredMethod("parseResponseHeader", parameterTypes);
-        method.setAccessible(true);
-        method.invoke(httpClient, arguments);
-        method.setAccessible(false);
-        return httpClient;
-    }
-
-    @Test
-    public void testParseResponseHeader_not_chunked() throws UnsupportedEncodingException,
-            NoSuchMethodException, InvocationTargetException, IllegalAccessException {
-        HttpClient httpClient = this.parseResponseHeader_not_chunked();
-        Assert.assertEquals(httpClient.getResponseHeader("X-Powered-By"), "Servlet/3.1");
-        Assert.assertEquals(httpClient.getResponseHeader("Content-Type"), "text/html; charset=utf-8");
-        Assert.assertEquals(httpClient.getResponseHeader("Content-Language"), "zh-CN");
-        Assert.assertEquals(httpClient.getResponseHeader("Content-Length"), "53");
-        Assert.assertEquals(httpClient.getResponseHeader("Date"), "Wed, 08 Nov 2017 01:04:40 GMT");
-    }
-
-    @Test
-    public void testParseResponseBody() throws InvocationTargetException,
-            NoSuchMethodException, IllegalAccessException, UnsupportedEncodingException {
-        HttpClient httpClient = this.parseResponseHeader_not_chunked();
-        Class[] parameterTypes = { InputStream.class };
-        Object[] arguments = {notChunkedInputStream};
-        Method method = httpClient.getClass().getDeclaredMethod("parseResponseBody", parameterTypes);
-        method.setAccessible(true);
-        byte[] bytes = (byte[])method.invoke(httpClient, arguments);
-        method.setAccessible(false);
+    private ResponseParser parseResponseHeader_not_chunked() throws IOException {
+        ResponseParser parser = this.parseResponseStatus(notChunkedInputStream);
+        parser.parseResponseHeader();
+        return parser;
+    }
+
+    @Test
+    public void testParseResponseHeader_not_chunked() throws IOException {
+        ResponseParser parser = this.parseResponseHeader_not_chunked();
+        Assert.assertEquals(parser.getHeaders().get("X-Powered-By"), "Servlet/3.1");
+        Assert.assertEquals(parser.getHeaders().get("Content-Type"), "text/html; charset=utf-8");
+        Assert.assertEquals(parser.getHeaders().get("Content-Language"), "zh-CN");
+        Assert.assertEquals(parser.getHeaders().get("Content-Length"), "53");
+        Assert.assertEquals(parser.getHeaders().get("Date"), "Wed, 08 Nov 2017 01:04:40 GMT");
+    }
+
+    @Test
+    public void testParseResponseHeader_caseInsensitive() throws IOException {
+        String content = "HTTP/1.1 200 OK\r\ntransfer-encoding: chunked\r\nSet-Cookie: a=1\r\nset-cookie: b=2\r\n"
+                + "Content-Type: text/plain\r\n\r\n3\r\nabc\r\n0\r\n\r\n";
+        ResponseParser parser = new ResponseParser(new ByteArrayInputStream(content.getBytes("UTF-8")));
+        Response response = parser.parse("GET");
+        //小写的transfer-encoding同样按chunked解析
+        Assert.assertEquals("abc", response.getBodyAsString());
+        Headers headers = response.getHeaders();
+        Assert.assertEquals(4, headers.size());
+        Assert.assertEquals("chunked", headers.get("Transfer-Encoding"));
+        Assert.assertEquals("b=2", headers.get("SET-COOKIE"));
+        Assert.assertEquals(Arrays.asList("a=1", "b=2"), headers.values("Set-Cookie"));
+        Assert.assertTrue(headers.values("X-Missing").isEmpty());
+        //常见的名称返回共享的实例，原始大小写保持不变
+        Assert.assertSame("transfer-encoding", headers.getName(0));
+        Assert.assertSame(Constance.HTTP_REQUEST_HEADER_KEY_CONTENT_TYPE, headers.getName(3));
+        Assert.assertEquals("set-cookie", headers.getName(2));
+    }
+
+    @Test
+    public void testHeadersWith() {
+        Headers stored = Headers.of("Set-Cookie", "a=1", "ETag", "\"v1\"", "Set-Cookie", "b=2");
+        Headers merged = stored.with(Headers.of("etag", "\"v2\"", "Date", "now"));
+        Assert.assertEquals(4, merged.size());
+        Assert.assertEquals(Arrays.asList("a=1", "b=2"), merged.values("set-cookie"));
+        Assert.assertEquals(Collections.singletonList("\"v2\""), merged.values("ETag"));
+        Assert.assertEquals("now", merged.get("date"));
+        Assert.assertEquals(2, merged.without("SET-COOKIE").size());
+    }
+
+    @Test
+    public void testParseResponseBody() throws IOException {
+        ResponseParser parser = this.parseResponseHeader_not_chunked();
+        byte[] bytes = parser.parseResponseBody();
         Assert.assertEquals(new String(bytes, "UTF-8"), "{\"resultFlag\":\"0\",\"resultList\":[]," +
                 "\"recordsTotal\":\"0\"}");
     }
 
+    @Test
+    public void testExecute_concurrent() throws Exception {
+        MockHttpServer server = new MockHttpServer(new MockHttpServer.Handler() {
+            @Override
+            public byte[] handle(MockHttpServer.RecordedRequest request) {
+                return MockHttpServer.response(200, request.uri, "X-Uri: " + request.uri);
+            }
+        });
+        final HttpClient httpClient = new HttpClient(server.getHost(), server.getPort());
+        try {
+            ExecutorService executor = Executors.newFixedThreadPool(8);
+            List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+            for (int i = 0; i < 200; i++) {
+                final Request request = new Request("/" + i);
+                futures.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        Response response = httpClient.execute(request);
+                        return response.getCode() == 200
+                                && response.getBodyAsString().equals(request.getUri())
+                                && response.getHeader("X-Uri").equals(request.getUri());
+                    }
+                }));
+            }
+            for (Future<Boolean> future : futures) {
+                Assert.assertTrue(future.get());
+            }
+            executor.shutdown();
+            Assert.assertTrue(server.getConnectionCount() <= httpClient.getConnectionPool().getMaxPerRoute());
+        } finally {
+            httpClient.close();
+            server.close();
+        }
+    }
+
+    @Test
+    public void testExecute_interimResponses() throws Exception {
+        MockHttpServer server = new MockHttpServer(new MockHttpServer.Handler() {
+            @Override
+            public byte[] handle(MockHttpServer.RecordedRequest request) {
+                String interim = request.uri.equals("/a")
+                        ? "HTTP/1.1 100 Continue\r\n\r\nHTTP/1.1 103 Early Hints\r\nLink: </style.css>\r\n\r\n" : "";
+                byte[] head = interim.getBytes();
+                byte[] response = MockHttpServer.response(200, request.uri, "X-Uri: " + request.uri);
+                byte[] bytes = Arrays.copyOf(head, head.length + response.length);
+                System.arraycopy(response, 0, bytes, head.length, response.length);
+                return bytes;
+            }
+        });
+        HttpClient httpClient = new HttpClient(server.getHost(), server.getPort());
+        try {
+            Response response = httpClient.execute(new Request("/a"));
+            Assert.assertEquals(200, response.getCode());
+            Assert.assertEquals("/a", response.getBodyAsString());
+            Assert.assertEquals("/a", response.getHeader("X-Uri"));
+            Assert.assertNull(response.getHeader("Link"));
+            //同一条连接上的下一个请求读到自己的响应
+            response = httpClient.execute(new Request("/b"));
+            Assert.assertEquals("/b", response.getBodyAsString());
+            Assert.assertEquals(1, server.getConnectionCount());
+        } finally {
+            httpClient.close();
+            server.close();
+        }
+    }
+
     @Test
     public void testFetch_ip() throws Exception {
         HttpClient httpClient = null;
@@ -0,0 +1,138 @@
+package com.coketea.jcurl;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class MainTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MockHttpServer server;
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    private final ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+    @Before
+    public void init() throws IOException {
+        server = new MockHttpServer(new MockHttpServer.Handler() {
+            @Override
+            public byte[] handle(MockHttpServer.RecordedRequest request) throws IOException {
+                if (request.uri.equals("/missing")) {
+                    return MockHttpServer.response(404, "not found");
+                }
+                return MockHttpServer.response(200, request.method + " " + request.uri + " "
+                        + new String(request.body, "UTF-8"), "X-Test: yes");
+            }
+        });
+    }
+
+    @After
+    public void destroy() throws IOException {
+        server.close();
+    }
+
+    private int run(String... args) {
+        return Main.run(args, new PrintStream(out, true), new PrintStream(err, true));
+    }
+
+    private String url(String path) {
+        return "http://" + server.getHost() + ":" + server.getPort() + path;
+    }
+
+    private String output() throws IOException {
+        return new String(out.toByteArray(), "UTF-8");
+    }
+
+    @Test
+    public void testGet() throws IOException {
+        Assert.assertEquals(Main.EXIT_OK, run(url("/a?b=c")));
+        Assert.assertEquals("GET /a?b=c ", output());
+    }
+
+    @Test
+    public void testPost() throws IOException {
+        Assert.assertEquals(Main.EXIT_OK, run("-d", "x=1", "-H", "X-Custom: 42", url("/form")));
+        Assert.assertEquals("POST /form x=1", output());
+        MockHttpServer.RecordedRequest request = server.getRequests().get(0);
+        Assert.assertEquals("42", request.header("X-Custom"));
+        Assert.assertEquals("application/x-www-form-urlencoded", request.header("Content-Type"));
+
+        out.reset();
+        Assert.assertEquals(Main.EXIT_OK, run("-X", "PUT", "-d", "body", url("/put")));
+        Assert.assertEquals("PUT /put body", output());
+    }
+
+    @Test
+    public void testInclude() throws IOException {
+        Assert.assertEquals(Main.EXIT_OK, run("-i", url("/")));
+        String output = output();
+        Assert.assertTrue(output, output.startsWith("HTTP/1.1 200 OK\r\n"));
+        Assert.assertTrue(output, output.contains("\r\nX-Test: yes\r\n"));
+        Assert.assertTrue(output, output.endsWith("\r\n\r\nGET / "));
+    }
+
+    @Test
+    public void testOutput() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("out.txt");
+        Assert.assertEquals(Main.EXIT_OK, run("-o", path.toString(), url("/file")));
+        Assert.assertEquals("GET /file ", new String(Files.readAllBytes(path), "UTF-8"));
+        Assert.assertEquals(0, out.size());
+    }
+
+    @Test
+    public void testLoad() throws IOException {
+        Assert.assertEquals(Main.EXIT_OK, run("--concurrency", "4", "--requests", "200", url("/load")));
+        String output = output();
+        Assert.assertTrue(output, output.contains("Requests:     200 (0 failed)"));
+        Assert.assertTrue(output, output.contains("2xx=200"));
+        Assert.assertTrue(output, output.contains("p99="));
+        Assert.assertEquals(200, server.getRequests().size());
+        Assert.assertTrue(server.getConnectionCount() <= 4);
+    }
+
+    @Test
+    public void testHttpsInsecure() throws IOException {
+        MockHttpServer secure = new MockHttpServer(new MockHttpServer.Handler() {
+            @Override
+            public byte[] handle(MockHttpServer.RecordedRequest request) {
+                return MockHttpServer.response(200, "secure " + request.uri);
+            }
+        }, MockHttpServer.testSslContext());
+        try {
+            String url = "https://localhost:" + secure.getPort() + "/s";
+            //自签名证书不被默认信任
+            Assert.assertEquals(Main.EXIT_ERROR, run(url));
+            Assert.assertEquals(Main.EXIT_OK, run("-k", url));
+            Assert.assertEquals("secure /s", output());
+        } finally {
+            secure.close();
+        }
+    }
+
+    @Test
+    public void testErrors() throws IOException {
+        Assert.assertEquals(Main.EXIT_USAGE, run("-X"));
+        Assert.assertEquals(Main.EXIT_USAGE, run("--bogus", url("/")));
+        Assert.assertEquals(Main.EXIT_URL_MALFORMED, run("ftp://example.com/"));
+        ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        int port = socket.getLocalPort();
+        socket.close();
+        Assert.assertEquals(Main.EXIT_CONNECT_FAILED, run("http://" + server.getHost() + ":" + port + "/"));
+        //服务器端返回的错误不影响退出码
+        Assert.assertEquals(Main.EXIT_OK, run(url("/missing")));
+    }
+}
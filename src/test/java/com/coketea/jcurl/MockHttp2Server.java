@@ -0,0 +1,453 @@
+package com.coketea.jcurl;
+
+import javax.net.ssl.SSLContext;
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 测试用的本地h2c服务器，只支持prior knowledge方式，指定SSLContext时为通过ALPN协商的h2服务器；
+ * 每个流在独立的线程中处理，响应按完成顺序交错写出
+ * <p>
+ * 发送响应报文体时遵守客户端的流量控制窗口，收到的请求报文体立即通过WINDOW_UPDATE归还窗口
+ */
+public class MockHttp2Server implements Closeable {
+
+    public interface Handler {
+        /**
+         * @param request 收到的请求，请求头名称为小写
+         * @return 响应，返回null表示以RST_STREAM(REFUSED_STREAM)拒绝该流
+         */
+        Reply handle(MockHttpServer.RecordedRequest request) throws IOException;
+    }
+
+    public static class Reply {
+
+        final int code;
+
+        final byte[] body;
+
+        final String[] headers;
+
+        /**
+         * @param headers "名称: 值"形式的响应头
+         */
+        public Reply(int code, byte[] body, String... headers) {
+            this.code = code;
+            this.body = body;
+            this.headers = headers;
+        }
+
+        public Reply(int code, String body, String... headers) {
+            this(code, body.getBytes(Hpack.ISO_8859_1), headers);
+        }
+    }
+
+    private final ServerSocket serverSocket;
+
+    private final Handler handler;
+
+    private final int maxConcurrentStreams;
+
+    private final int initialWindowSize;
+
+    private final AtomicInteger connectionCount = new AtomicInteger();
+
+    private final AtomicInteger activeStreams = new AtomicInteger();
+
+    private final AtomicInteger maxActiveStreams = new AtomicInteger();
+
+    private final List<MockHttpServer.RecordedRequest> requests =
+            Collections.synchronizedList(new ArrayList<MockHttpServer.RecordedRequest>());
+
+    private final List<Socket> sockets = Collections.synchronizedList(new ArrayList<Socket>());
+
+    public MockHttp2Server(Handler handler) throws IOException {
+        this(handler, Integer.MAX_VALUE, Http2Connection.DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * @param maxConcurrentStreams 通过SETTINGS声明的最大并发流数
+     * @param initialWindowSize 通过SETTINGS声明的流接收窗口，请求报文体超过该大小时客户端必须等待WINDOW_UPDATE
+     */
+    public MockHttp2Server(Handler handler, int maxConcurrentStreams, int initialWindowSize) throws IOException {
+        this(handler, maxConcurrentStreams, initialWindowSize, null);
+    }
+
+    /**
+     * @param sslContext 不为null时以TLS接受连接，通过ALPN选择h2
+     */
+    public MockHttp2Server(Handler handler, int maxConcurrentStreams, int initialWindowSize, SSLContext sslContext)
+            throws IOException {
+        this.handler = handler;
+        this.maxConcurrentStreams = maxConcurrentStreams;
+        this.initialWindowSize = initialWindowSize;
+        this.serverSocket = sslContext == null ? new ServerSocket(0, 128, InetAddress.getLoopbackAddress())
+                : MockHttpServer.secureServerSocket(sslContext, "h2");
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "mock-h2-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public String getHost() {
+        return serverSocket.getInetAddress().getHostAddress();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public int getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    public List<MockHttpServer.RecordedRequest> getRequests() {
+        return requests;
+    }
+
+    /**
+     * @return 同时在处理中的流的最大数量
+     */
+    public int getMaxActiveStreams() {
+        return maxActiveStreams.get();
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                return;
+            }
+            sockets.add(socket);
+            final int index = connectionCount.incrementAndGet();
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        new Connection(socket, index).serve();
+                    } catch (IOException ignored) {
+                    } finally {
+                        try {
+                            socket.close();
+                        } catch (IOException ignored) {
+                        }
+                    }
+                }
+            }, "mock-h2-connection-" + index);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private static class Stream {
+
+        final Map<String, String> headers = new LinkedHashMap<String, String>();
+
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        long sendWindow;
+
+        boolean reset;
+
+        /**
+         * 是否已经从activeStreams中减去，只由该流的响应线程访问
+         */
+        boolean finished;
+
+        Stream(long sendWindow) {
+            this.sendWindow = sendWindow;
+        }
+    }
+
+    private class Connection {
+
+        private final Socket socket;
+
+        private final int index;
+
+        private final DataInputStream in;
+
+        private final OutputStream out;
+
+        private final HpackDecoder decoder = new HpackDecoder();
+
+        private final HpackEncoder encoder = new HpackEncoder();
+
+        private final Map<Integer, Stream> streams = new HashMap<Integer, Stream>();
+
+        private long sendWindow = Http2Connection.DEFAULT_WINDOW_SIZE;
+
+        private int peerInitialWindowSize = Http2Connection.DEFAULT_WINDOW_SIZE;
+
+        Connection(Socket socket, int index) throws IOException {
+            this.socket = socket;
+            this.index = index;
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            this.out = new BufferedOutputStream(socket.getOutputStream());
+        }
+
+        void serve() throws IOException {
+            byte[] preface = new byte[Http2Connection.PREFACE.length];
+            in.readFully(preface);
+            if (!Arrays.equals(preface, Http2Connection.PREFACE)) {
+                return;
+            }
+            ByteArrayOutputStream settings = new ByteArrayOutputStream();
+            DataOutputStream data = new DataOutputStream(settings);
+            if (maxConcurrentStreams != Integer.MAX_VALUE) {
+                data.writeShort(Http2Connection.SETTINGS_MAX_CONCURRENT_STREAMS);
+                data.writeInt(maxConcurrentStreams);
+            }
+            if (initialWindowSize != Http2Connection.DEFAULT_WINDOW_SIZE) {
+                data.writeShort(Http2Connection.SETTINGS_INITIAL_WINDOW_SIZE);
+                data.writeInt(initialWindowSize);
+            }
+            this.writeFrame(Http2Connection.TYPE_SETTINGS, 0, 0, settings.toByteArray());
+            ByteArrayOutputStream block = null;
+            int blockStream = 0;
+            boolean blockEndStream = false;
+            while (true) {
+                int length = in.readUnsignedByte() << 16 | in.readUnsignedShort();
+                int type = in.readUnsignedByte();
+                int flags = in.readUnsignedByte();
+                int streamId = in.readInt() & 0x7fffffff;
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                ByteBuffer buffer = ByteBuffer.wrap(payload);
+                switch (type) {
+                    case Http2Connection.TYPE_SETTINGS:
+                        if ((flags & Http2Connection.FLAG_ACK) == 0) {
+                            this.applySettings(buffer);
+                            this.writeFrame(Http2Connection.TYPE_SETTINGS, Http2Connection.FLAG_ACK, 0, new byte[0]);
+                        }
+                        break;
+                    case Http2Connection.TYPE_HEADERS:
+                        block = new ByteArrayOutputStream();
+                        block.write(payload);
+                        blockStream = streamId;
+                        blockEndStream = (flags & Http2Connection.FLAG_END_STREAM) != 0;
+                        synchronized (this) {
+                            streams.put(streamId, new Stream(peerInitialWindowSize));
+                        }
+                        if ((flags & Http2Connection.FLAG_END_HEADERS) != 0) {
+                            this.headersComplete(blockStream, block.toByteArray(), blockEndStream);
+                        }
+                        break;
+                    case Http2Connection.TYPE_CONTINUATION:
+                        block.write(payload);
+                        if ((flags & Http2Connection.FLAG_END_HEADERS) != 0) {
+                            this.headersComplete(blockStream, block.toByteArray(), blockEndStream);
+                        }
+                        break;
+                    case Http2Connection.TYPE_DATA:
+                        Stream stream;
+                        synchronized (this) {
+                            stream = streams.get(streamId);
+                        }
+                        stream.body.write(payload);
+                        if (length > 0) {
+                            ByteBuffer increment = ByteBuffer.allocate(4).putInt(length);
+                            this.writeFrame(Http2Connection.TYPE_WINDOW_UPDATE, 0, 0, increment.array());
+                            this.writeFrame(Http2Connection.TYPE_WINDOW_UPDATE, 0, streamId, increment.array());
+                        }
+                        if ((flags & Http2Connection.FLAG_END_STREAM) != 0) {
+                            this.dispatch(streamId, stream);
+                        }
+                        break;
+                    case Http2Connection.TYPE_WINDOW_UPDATE:
+                        synchronized (this) {
+                            int increment = buffer.getInt() & 0x7fffffff;
+                            if (streamId == 0) {
+                                sendWindow += increment;
+                            } else if (streams.containsKey(streamId)) {
+                                streams.get(streamId).sendWindow += increment;
+                            }
+                            this.notifyAll();
+                        }
+                        break;
+                    case Http2Connection.TYPE_RST_STREAM:
+                        synchronized (this) {
+                            Stream reset = streams.remove(streamId);
+                            if (reset != null) {
+                                reset.reset = true;
+                            }
+                            this.notifyAll();
+                        }
+                        break;
+                    case Http2Connection.TYPE_PING:
+                        if ((flags & Http2Connection.FLAG_ACK) == 0) {
+                            this.writeFrame(Http2Connection.TYPE_PING, Http2Connection.FLAG_ACK, 0, payload);
+                        }
+                        break;
+                    case Http2Connection.TYPE_GOAWAY:
+                        return;
+                    default:
+                        break;
+                }
+            }
+        }
+
+        private synchronized void applySettings(ByteBuffer buffer) {
+            while (buffer.hasRemaining()) {
+                int id = buffer.getShort() & 0xffff;
+                int value = buffer.getInt();
+                if (id == Http2Connection.SETTINGS_INITIAL_WINDOW_SIZE) {
+                    for (Stream stream : streams.values()) {
+                        stream.sendWindow += value - peerInitialWindowSize;
+                    }
+                    peerInitialWindowSize = value;
+                    this.notifyAll();
+                }
+            }
+        }
+
+        private void headersComplete(int streamId, byte[] block, boolean endStream) throws IOException {
+            List<String> fields = new ArrayList<String>();
+            decoder.decode(block, 0, block.length, fields);
+            Stream stream;
+            synchronized (this) {
+                stream = streams.get(streamId);
+            }
+            for (int i = 0; i < fields.size(); i += 2) {
+                stream.headers.put(fields.get(i), fields.get(i + 1));
+            }
+            if (endStream) {
+                this.dispatch(streamId, stream);
+            }
+        }
+
+        private void dispatch(final int streamId, final Stream stream) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    int active = activeStreams.incrementAndGet();
+                    while (true) {
+                        int max = maxActiveStreams.get();
+                        if (active <= max || maxActiveStreams.compareAndSet(max, active)) {
+                            break;
+                        }
+                    }
+                    try {
+                        respond(streamId, stream);
+                    } catch (IOException ignored) {
+                    } finally {
+                        finish(stream);
+                    }
+                }
+            }, "mock-h2-stream-" + streamId);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        /**
+         * 在写出结束流的帧之前减少活跃的流数，客户端收到END_STREAM后立即发出的新请求不会被多算
+         */
+        private void finish(Stream stream) {
+            if (!stream.finished) {
+                stream.finished = true;
+                activeStreams.decrementAndGet();
+            }
+        }
+
+        private void respond(int streamId, Stream stream) throws IOException {
+            MockHttpServer.RecordedRequest request = new MockHttpServer.RecordedRequest(
+                    stream.headers.get(":method"), stream.headers.get(":path"), stream.headers,
+                    stream.body.toByteArray(), index);
+            requests.add(request);
+            Reply reply = handler.handle(request);
+            if (reply == null) {
+                synchronized (this) {
+                    streams.remove(streamId);
+                }
+                this.finish(stream);
+                this.writeFrame(Http2Connection.TYPE_RST_STREAM, 0, streamId,
+                        ByteBuffer.allocate(4).putInt(Http2Exception.REFUSED_STREAM).array());
+                return;
+            }
+            synchronized (out) {
+                BodyBuffer block = new BodyBuffer(BufferPool.DEFAULT, 256);
+                encoder.beginBlock(block);
+                encoder.encode(":status", String.valueOf(reply.code), block);
+                for (String header : reply.headers) {
+                    int colon = header.indexOf(':');
+                    encoder.encode(header.substring(0, colon).trim().toLowerCase(), header.substring(colon + 1).trim(),
+                            block);
+                }
+                int flags = Http2Connection.FLAG_END_HEADERS;
+                if (reply.body.length == 0) {
+                    flags |= Http2Connection.FLAG_END_STREAM;
+                    this.finish(stream);
+                }
+                this.writeFrame(Http2Connection.TYPE_HEADERS, flags, streamId, block.toByteArray());
+                block.release();
+            }
+            int offset = 0;
+            while (offset < reply.body.length) {
+                int length;
+                synchronized (this) {
+                    while (!stream.reset && Math.min(sendWindow, stream.sendWindow) <= 0) {
+                        try {
+                            this.wait();
+                        } catch (InterruptedException e) {
+                            throw new InterruptedIOException();
+                        }
+                    }
+                    if (stream.reset) {
+                        return;
+                    }
+                    length = (int) Math.min(Math.min(sendWindow, stream.sendWindow),
+                            Math.min(Http2Connection.DEFAULT_MAX_FRAME_SIZE, reply.body.length - offset));
+                    sendWindow -= length;
+                    stream.sendWindow -= length;
+                }
+                boolean last = offset + length == reply.body.length;
+                if (last) {
+                    this.finish(stream);
+                }
+                this.writeFrame(Http2Connection.TYPE_DATA, last ? Http2Connection.FLAG_END_STREAM : 0, streamId,
+                        Arrays.copyOfRange(reply.body, offset, offset + length));
+                offset += length;
+            }
+        }
+
+        private void writeFrame(int type, int flags, int streamId, byte[] payload) throws IOException {
+            synchronized (out) {
+                out.write(payload.length >>> 16);
+                out.write(payload.length >>> 8);
+                out.write(payload.length);
+                out.write(type);
+                out.write(flags);
+                out.write(ByteBuffer.allocate(4).putInt(streamId).array());
+                out.write(payload);
+                out.flush();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        synchronized (sockets) {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+        }
+    }
+}
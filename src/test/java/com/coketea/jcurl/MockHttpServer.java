@@ -0,0 +1,309 @@
+package com.coketea.jcurl;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 测试用的本地http服务器，每条连接一个线程，按顺序处理连接上的多个请求；
+ * 指定SSLContext时为https服务器，通过ALPN选择http/1.1
+ */
+public class MockHttpServer implements Closeable {
+
+    public interface Handler {
+        /**
+         * @param request 收到的请求
+         * @return 完整的响应报文，返回null表示直接关闭连接
+         */
+        byte[] handle(RecordedRequest request) throws IOException;
+    }
+
+    public static class RecordedRequest {
+
+        public final String method;
+
+        public final String uri;
+
+        public final Map<String, String> headers;
+
+        public final byte[] body;
+
+        public final int connectionIndex;
+
+        RecordedRequest(String method, String uri, Map<String, String> headers, byte[] body, int connectionIndex) {
+            this.method = method;
+            this.uri = uri;
+            this.headers = headers;
+            this.body = body;
+            this.connectionIndex = connectionIndex;
+        }
+
+        public String header(String name) {
+            for (Map.Entry<String, String> entry : headers.entrySet()) {
+                if (entry.getKey().equalsIgnoreCase(name)) {
+                    return entry.getValue();
+                }
+            }
+            return null;
+        }
+    }
+
+    private final ServerSocket serverSocket;
+
+    private final Handler handler;
+
+    private final AtomicInteger connectionCount = new AtomicInteger();
+
+    private final List<RecordedRequest> requests = Collections.synchronizedList(new ArrayList<RecordedRequest>());
+
+    private final List<Socket> sockets = Collections.synchronizedList(new ArrayList<Socket>());
+
+    public MockHttpServer(Handler handler) throws IOException {
+        this(handler, null);
+    }
+
+    /**
+     * @param sslContext 不为null时以TLS接受连接，例如{@link #testSslContext()}
+     */
+    public MockHttpServer(Handler handler, SSLContext sslContext) throws IOException {
+        this.handler = handler;
+        this.serverSocket = sslContext == null ? new ServerSocket(0, 128, InetAddress.getLoopbackAddress())
+                : secureServerSocket(sslContext, "http/1.1");
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "mock-http-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * @param alpn 服务器端支持的应用层协议
+     */
+    static ServerSocket secureServerSocket(SSLContext sslContext, String alpn) throws IOException {
+        SSLServerSocket serverSocket = (SSLServerSocket) sslContext.getServerSocketFactory()
+                .createServerSocket(0, 128, InetAddress.getLoopbackAddress());
+        SSLParameters parameters = serverSocket.getSSLParameters();
+        parameters.setApplicationProtocols(new String[]{alpn});
+        serverSocket.setSSLParameters(parameters);
+        return serverSocket;
+    }
+
+    /**
+     * @return 使用测试资源中自签名证书(localhost、127.0.0.1)的SSLContext，同时信任该证书，服务器端与客户端都可以使用；
+     *         每次返回新的实例，会话缓存互不影响
+     */
+    public static SSLContext testSslContext() throws IOException {
+        char[] password = "changeit".toCharArray();
+        InputStream in = MockHttpServer.class.getResourceAsStream("/test.p12");
+        try {
+            KeyStore keyStore = KeyStore.getInstance("PKCS12");
+            keyStore.load(in, password);
+            KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            keyManagers.init(keyStore, password);
+            TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(
+                    TrustManagerFactory.getDefaultAlgorithm());
+            trustManagers.init(keyStore);
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(keyManagers.getKeyManagers(), trustManagers.getTrustManagers(), null);
+            return context;
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * 构造Content-Length形式的响应报文
+     */
+    public static byte[] response(int code, String body, String... headers) {
+        try {
+            return response(code, body.getBytes("UTF-8"), headers);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 构造Content-Length形式的二进制响应报文
+     */
+    public static byte[] response(int code, byte[] bytes, String... headers) {
+        try {
+            StringBuilder sb = new StringBuilder();
+            sb.append("HTTP/1.1 ").append(code).append(" OK\r\n");
+            sb.append("Content-Length: ").append(bytes.length).append("\r\n");
+            for (String header : headers) {
+                sb.append(header).append("\r\n");
+            }
+            sb.append("\r\n");
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            baos.write(sb.toString().getBytes("UTF-8"));
+            baos.write(bytes);
+            return baos.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public String getHost() {
+        return serverSocket.getInetAddress().getHostAddress();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public int getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    public List<RecordedRequest> getRequests() {
+        synchronized (requests) {
+            return new ArrayList<RecordedRequest>(requests);
+        }
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                return;
+            }
+            sockets.add(socket);
+            final int index = connectionCount.incrementAndGet();
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    serve(socket, index);
+                }
+            }, "mock-http-worker-" + index);
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    private void serve(Socket socket, int index) {
+        try {
+            InputStream is = new BufferedInputStream(socket.getInputStream());
+            OutputStream os = socket.getOutputStream();
+            while (true) {
+                String requestLine = readLine(is);
+                //容忍请求之间多余的空行
+                while (requestLine != null && requestLine.length() == 0) {
+                    requestLine = readLine(is);
+                }
+                if (requestLine == null) {
+                    break;
+                }
+                String[] parts = requestLine.split(" ");
+                Map<String, String> headers = new LinkedHashMap<String, String>();
+                String line;
+                while ((line = readLine(is)) != null && line.length() > 0) {
+                    int idx = line.indexOf(':');
+                    headers.put(line.substring(0, idx), line.substring(idx + 1).trim());
+                }
+                byte[] body = readBody(is, headers);
+                RecordedRequest request = new RecordedRequest(parts[0], parts[1], headers, body, index);
+                requests.add(request);
+                byte[] response = handler.handle(request);
+                if (response == null) {
+                    break;
+                }
+                os.write(response);
+                os.flush();
+                if (new String(response, "ISO-8859-1").contains("\r\nConnection: close\r\n")) {
+                    break;
+                }
+            }
+        } catch (IOException ignored) {
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static byte[] readBody(InputStream is, Map<String, String> headers) throws IOException {
+        String contentLength = null;
+        String transferEncoding = null;
+        for (Map.Entry<String, String> entry : headers.entrySet()) {
+            if (entry.getKey().equalsIgnoreCase("Content-Length")) {
+                contentLength = entry.getValue();
+            } else if (entry.getKey().equalsIgnoreCase("Transfer-Encoding")) {
+                transferEncoding = entry.getValue();
+            }
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        if (transferEncoding != null && transferEncoding.equalsIgnoreCase("chunked")) {
+            while (true) {
+                int size = Integer.parseInt(readLine(is).trim(), 16);
+                if (size == 0) {
+                    while (readLine(is).length() > 0) {
+                    }
+                    break;
+                }
+                copy(is, baos, size);
+                readLine(is);
+            }
+        } else if (contentLength != null) {
+            copy(is, baos, Integer.parseInt(contentLength));
+        }
+        return baos.toByteArray();
+    }
+
+    private static void copy(InputStream is, OutputStream os, int length) throws IOException {
+        byte[] buffer = new byte[8192];
+        while (length > 0) {
+            int count = is.read(buffer, 0, Math.min(buffer.length, length));
+            if (count == -1) {
+                throw new EOFException();
+            }
+            os.write(buffer, 0, count);
+            length -= count;
+        }
+    }
+
+    private static String readLine(InputStream is) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        int b;
+        while ((b = is.read()) != -1) {
+            if (b == '\n') {
+                byte[] bytes = baos.toByteArray();
+                int length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+                return new String(bytes, 0, length, "UTF-8");
+            }
+            baos.write(b);
+        }
+        return baos.size() == 0 ? null : baos.toString("UTF-8");
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        synchronized (sockets) {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.coketea.jcurl;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class NioHttpClientTest {
+
+    private MockHttpServer server;
+
+    private NioHttpClient nioHttpClient;
+
+    @Before
+    public void init() throws IOException {
+        server = new MockHttpServer(new MockHttpServer.Handler() {
+            @Override
+            public byte[] handle(MockHttpServer.RecordedRequest request) {
+                if (request.uri.equals("/chunked")) {
+                    return ("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n"
+                            + "3\r\nabc\r\n4\r\ndefg\r\n0\r\n\r\n").getBytes();
+                }
+                if (request.uri.equals("/close")) {
+                    return "HTTP/1.1 200 OK\r\nConnection: close\r\n\r\nuntil close".getBytes();
+                }
+                if (request.uri.equals("/drop")) {
+                    return null;
+                }
+                if (request.uri.equals("/huge")) {
+                    return "HTTP/1.1 200 OK\r\nContent-Length: 2000000000\r\nConnection: close\r\n\r\nhello".getBytes();
+                }
+                if (request.uri.equals("/interim")) {
+                    return ("HTTP/1.1 100 Continue\r\n\r\nHTTP/1.1 103 Early Hints\r\nLink: </style.css>\r\n\r\n"
+                            + "HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nfinal").getBytes();
+                }
+                return MockHttpServer.response(200, request.method + " " + request.uri);
+            }
+        });
+        nioHttpClient = new NioHttpClient(server.getHost(), server.getPort(), 2);
+    }
+
+    @After
+    public void destroy() throws IOException {
+        nioHttpClient.close();
+        server.close();
+    }
+
+    @Test
+    public void testExecute_concurrent() throws Exception {
+        List<CompletableFuture<Response>> futures = new ArrayList<CompletableFuture<Response>>();
+        for (int i = 0; i < 500; i++) {
+            futures.add(nioHttpClient.execute(new Request("/" + i)));
+        }
+        for (int i = 0; i < futures.size(); i++) {
+            Response response = futures.get(i).get(10, TimeUnit.SECONDS);
+            Assert.assertEquals(200, response.getCode());
+            Assert.assertEquals("GET /" + i, response.getBodyAsString());
+        }
+    }
+
+    @Test
+    public void testExecute_reuseConnection() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals("GET /" + i,
+                    nioHttpClient.execute(new Request("/" + i)).get(10, TimeUnit.SECONDS).getBodyAsString());
+        }
+        //两个事件循环各自保留一条连接
+        Assert.assertEquals(2, server.getConnectionCount());
+    }
+
+    @Test
+    public void testExecute_chunkedAndUntilClose() throws Exception {
+        Assert.assertEquals("abcdefg",
+                nioHttpClient.execute(new Request("/chunked")).get(10, TimeUnit.SECONDS).getBodyAsString());
+        Assert.assertEquals("until close",
+                nioHttpClient.execute(new Request("/close")).get(10, TimeUnit.SECONDS).getBodyAsString());
+    }
+
+    @Test
+    public void testExecute_interimResponses() throws Exception {
+        NioHttpClient client = new NioHttpClient(server.getHost(), server.getPort(), 1);
+        try {
+            Response response = client.execute(new Request("/interim")).get(10, TimeUnit.SECONDS);
+            Assert.assertEquals(200, response.getCode());
+            Assert.assertEquals("final", response.getBodyAsString());
+            Assert.assertNull(response.getHeader("Link"));
+            //同一条连接上的下一个请求读到自己的响应
+            Assert.assertEquals("GET /a", client.execute(new Request("/a")).get(10, TimeUnit.SECONDS)
+                    .getBodyAsString());
+            Assert.assertEquals(1, server.getConnectionCount());
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void testResponseDecoder_byteByByte() throws IOException {
+        byte[] bytes = ("HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\nTransfer-Encoding: chunked\r\n\r\n"
+                + "5;ext=1\r\nhello\r\n6\r\n world\r\n0\r\nX-Trailer: 1\r\n\r\n").getBytes("UTF-8");
+        ResponseDecoder decoder = new ResponseDecoder();
+        decoder.reset("GET");
+        for (int i = 0; i < bytes.length; i++) {
+            Assert.assertFalse(decoder.isDone());
+            Assert.assertEquals(1, decoder.feed(bytes, i, 1));
+        }
+        Assert.assertTrue(decoder.isDone());
+        Assert.assertTrue(decoder.isReusable());
+        Response response = decoder.toResponse();
+        Assert.assertEquals("text/plain", response.getHeader("Content-Type"));
+        Assert.assertEquals("hello world", response.getBodyAsString());
+    }
+
+    @Test
+    public void testExecute_failure() throws Exception {
+        try {
+            nioHttpClient.execute(new Request("/drop")).get(10, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    @Test
+    public void testExecute_contentLengthExceedsData() throws Exception {
+        try {
+            //声明的长度不会在收到数据之前一次分配
+            nioHttpClient.execute(new Request("/huge")).get(10, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof EOFException);
+        }
+        for (int i = 0; i < 4; i++) {
+            Assert.assertEquals("GET /" + i,
+                    nioHttpClient.execute(new Request("/" + i)).get(10, TimeUnit.SECONDS).getBodyAsString());
+        }
+    }
+}
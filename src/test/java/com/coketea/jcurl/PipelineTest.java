@@ -0,0 +1,104 @@
+package com.coketea.jcurl;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class PipelineTest {
+
+    private MockHttpServer server;
+
+    private HttpClient httpClient;
+
+    private final AtomicInteger served = new AtomicInteger();
+
+    @Before
+    public void init() throws IOException {
+        server = new MockHttpServer(new MockHttpServer.Handler() {
+            @Override
+            public byte[] handle(MockHttpServer.RecordedRequest request) {
+                //第一条连接上只响应3个请求就关闭
+                if (request.uri.startsWith("/flaky") && request.connectionIndex == 1
+                        && served.incrementAndGet() == 3) {
+                    return MockHttpServer.response(200, request.method + " " + request.uri, "Connection: close");
+                }
+                if (request.uri.startsWith("/hints")) {
+                    byte[] hints = "HTTP/1.1 103 Early Hints\r\nLink: </style.css>\r\n\r\n".getBytes();
+                    byte[] response = MockHttpServer.response(200, request.method + " " + request.uri);
+                    byte[] bytes = Arrays.copyOf(hints, hints.length + response.length);
+                    System.arraycopy(response, 0, bytes, hints.length, response.length);
+                    return bytes;
+                }
+                return MockHttpServer.response(200, request.method + " " + request.uri);
+            }
+        });
+        httpClient = new HttpClient(server.getHost(), server.getPort());
+    }
+
+    @After
+    public void destroy() throws IOException {
+        httpClient.close();
+        server.close();
+    }
+
+    private static List<Request> requests(String prefix, int count) {
+        List<Request> requests = new ArrayList<Request>();
+        for (int i = 0; i < count; i++) {
+            requests.add(new Request(prefix + i));
+        }
+        return requests;
+    }
+
+    @Test
+    public void testFetchAll_singleConnection() throws IOException {
+        List<Request> requests = requests("/", 40);
+        List<Response> responses = httpClient.fetchAll(requests);
+        Assert.assertEquals(40, responses.size());
+        for (int i = 0; i < 40; i++) {
+            Assert.assertEquals("GET /" + i, responses.get(i).getBodyAsString());
+        }
+        Assert.assertEquals(1, server.getConnectionCount());
+    }
+
+    @Test
+    public void testFetchAll_interimResponse() throws IOException {
+        List<Request> requests = requests("/", 6);
+        requests.set(2, new Request("/hints"));
+        List<Response> responses = httpClient.fetchAll(requests);
+        for (int i = 0; i < 6; i++) {
+            Assert.assertEquals(200, responses.get(i).getCode());
+            Assert.assertEquals("GET " + requests.get(i).getUri(), responses.get(i).getBodyAsString());
+        }
+        Assert.assertNull(responses.get(2).getHeader("Link"));
+        Assert.assertEquals(1, server.getConnectionCount());
+    }
+
+    @Test
+    public void testFetchAll_serverClosesMidPipeline() throws IOException {
+        List<Request> requests = requests("/flaky", 10);
+        List<Response> responses = httpClient.fetchAll(requests);
+        Assert.assertEquals(10, responses.size());
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals("GET /flaky" + i, responses.get(i).getBodyAsString());
+        }
+        Assert.assertTrue(server.getConnectionCount() > 1);
+    }
+
+    @Test
+    public void testFetchAll_nonIdempotentSentAlone() throws IOException {
+        List<Request> requests = requests("/", 3);
+        requests.add(1, new Request("POST", "/post"));
+        List<Response> responses = httpClient.fetchAll(requests);
+        Assert.assertEquals("GET /0", responses.get(0).getBodyAsString());
+        Assert.assertEquals("POST /post", responses.get(1).getBodyAsString());
+        Assert.assertEquals("GET /1", responses.get(2).getBodyAsString());
+        Assert.assertEquals("GET /2", responses.get(3).getBodyAsString());
+    }
+}
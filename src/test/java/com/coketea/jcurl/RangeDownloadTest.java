@@ -0,0 +1,159 @@
+package com.coketea.jcurl;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class RangeDownloadTest {
+
+    private static final byte[] CONTENT = new byte[1000000];
+
+    static {
+        for (int i = 0; i < CONTENT.length; i++) {
+            CONTENT[i] = (byte) (i * 31 + i / 256);
+        }
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final AtomicBoolean truncated = new AtomicBoolean();
+
+    private MockHttpServer server;
+
+    private HttpClient httpClient;
+
+    @Before
+    public void init() throws IOException {
+        server = new MockHttpServer(new MockHttpServer.Handler() {
+            @Override
+            public byte[] handle(MockHttpServer.RecordedRequest request) throws IOException {
+                if (request.uri.equals("/missing")) {
+                    return MockHttpServer.response(404, "not found");
+                }
+                byte[] content = request.uri.equals("/small") ? "small".getBytes("UTF-8") : CONTENT;
+                boolean ranges = !request.uri.equals("/norange");
+                if (request.method.equals("HEAD")) {
+                    return head(content.length, ranges);
+                }
+                String range = request.header("Range");
+                if (range == null || !ranges || request.uri.equals("/ignored")) {
+                    return MockHttpServer.response(200, content);
+                }
+                int idx = range.indexOf('-');
+                int start = Integer.parseInt(range.substring(6, idx));
+                int end = Integer.parseInt(range.substring(idx + 1));
+                if (request.uri.equals("/flaky") && start == 0 && truncated.compareAndSet(false, true)) {
+                    //声明了完整的长度却只发送一半，然后关闭连接
+                    return partial(start, end, (end - start + 1) / 2);
+                }
+                return partial(start, end, end - start + 1);
+            }
+        });
+        httpClient = new HttpClient(server.getHost(), server.getPort());
+    }
+
+    @After
+    public void destroy() throws IOException {
+        httpClient.close();
+        server.close();
+    }
+
+    private static byte[] head(int length, boolean ranges) throws IOException {
+        return ("HTTP/1.1 200 OK\r\nContent-Length: " + length + "\r\nETag: \"v1\"\r\n"
+                + (ranges ? "Accept-Ranges: bytes\r\n" : "") + "\r\n").getBytes("UTF-8");
+    }
+
+    private static byte[] partial(int start, int end, int sent) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        baos.write(("HTTP/1.1 206 Partial Content\r\nContent-Length: " + (end - start + 1)
+                + "\r\nContent-Range: bytes " + start + "-" + end + "/" + CONTENT.length + "\r\n"
+                + (sent <= end - start ? "Connection: close\r\n" : "") + "\r\n").getBytes("UTF-8"));
+        baos.write(CONTENT, start, sent);
+        return baos.toByteArray();
+    }
+
+    private List<String> ranges() {
+        List<String> ranges = new ArrayList<String>();
+        for (MockHttpServer.RecordedRequest request : server.getRequests()) {
+            if (request.header("Range") != null) {
+                ranges.add(request.header("Range"));
+            }
+        }
+        return ranges;
+    }
+
+    @Test
+    public void testDownloadParallel() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("content.bin");
+        Files.write(path, "old content".getBytes("UTF-8"));
+        Response response = httpClient.downloadParallel(new Request("/file"), path, 4);
+        Assert.assertEquals(200, response.getCode());
+        Assert.assertArrayEquals(CONTENT, Files.readAllBytes(path));
+        Assert.assertEquals(4, ranges().size());
+        Assert.assertTrue(ranges().contains("bytes=750000-999999"));
+        for (MockHttpServer.RecordedRequest request : server.getRequests()) {
+            if (request.header("Range") != null) {
+                Assert.assertEquals("\"v1\"", request.header("If-Range"));
+            }
+        }
+        Assert.assertTrue(server.getConnectionCount() > 1);
+    }
+
+    @Test
+    public void testSegmentRetry() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("content.bin");
+        httpClient.downloadParallel(new Request("/flaky"), path, 4);
+        Assert.assertArrayEquals(CONTENT, Files.readAllBytes(path));
+        //失败的分段从已经写入的位置继续，其他分段不重新下载
+        List<String> ranges = ranges();
+        Assert.assertEquals(5, ranges.size());
+        Assert.assertTrue(ranges.contains("bytes=0-249999"));
+        Assert.assertTrue(ranges.contains("bytes=125000-249999"));
+    }
+
+    @Test
+    public void testFallbackWithoutRanges() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("content.bin");
+        Assert.assertEquals(200, httpClient.downloadParallel(new Request("/norange"), path, 4).getCode());
+        Assert.assertArrayEquals(CONTENT, Files.readAllBytes(path));
+        Assert.assertTrue(ranges().isEmpty());
+    }
+
+    @Test
+    public void testFallbackWhenRangeIgnored() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("content.bin");
+        Assert.assertEquals(200, httpClient.downloadParallel(new Request("/ignored"), path, 4).getCode());
+        Assert.assertArrayEquals(CONTENT, Files.readAllBytes(path));
+    }
+
+    @Test
+    public void testSmallBody() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("small.bin");
+        httpClient.downloadParallel("/small", path, 4);
+        Assert.assertEquals("200", httpClient.getResponseCode());
+        Assert.assertEquals("small", new String(Files.readAllBytes(path), "UTF-8"));
+        Assert.assertTrue(ranges().isEmpty());
+    }
+
+    @Test
+    public void testMissing() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("content.bin");
+        Files.write(path, "old content".getBytes("UTF-8"));
+        Response response = httpClient.downloadParallel(new Request("/missing"), path, 4);
+        Assert.assertEquals(404, response.getCode());
+        Assert.assertEquals("not found", response.getBodyAsString());
+        Assert.assertEquals("old content", new String(Files.readAllBytes(path), "UTF-8"));
+    }
+}
@@ -0,0 +1,195 @@
+package com.coketea.jcurl;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class RequestBodyTest {
+
+    private static final byte[] CONTENT = new byte[300000];
+
+    static {
+        for (int i = 0; i < CONTENT.length; i++) {
+            CONTENT[i] = (byte) (i * 17 + i / 512);
+        }
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MockHttpServer server;
+
+    private HttpClient httpClient;
+
+    @Before
+    public void init() throws IOException {
+        server = new MockHttpServer(new MockHttpServer.Handler() {
+            @Override
+            public byte[] handle(MockHttpServer.RecordedRequest request) throws IOException {
+                if (request.uri.equals("/unavailable")) {
+                    return MockHttpServer.response(503, "unavailable");
+                }
+                return MockHttpServer.response(200, String.valueOf(request.body.length));
+            }
+        });
+        httpClient = new HttpClient(server.getHost(), server.getPort());
+    }
+
+    @After
+    public void destroy() throws IOException {
+        httpClient.close();
+        server.close();
+    }
+
+    private Response post(String uri, RequestBody body) throws IOException {
+        return httpClient.execute(new Request("POST", uri, Collections.<String, String>emptyMap(), body));
+    }
+
+    @Test
+    public void testFileBody() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("upload.bin");
+        Files.write(path, CONTENT);
+        RequestBody body = RequestBody.of(path);
+        Assert.assertEquals(CONTENT.length, body.contentLength());
+        Assert.assertEquals("300000", this.post("/file", body).getBodyAsString());
+        //文件报文体可以重复发送
+        Assert.assertEquals("300000", this.post("/file", body).getBodyAsString());
+        MockHttpServer.RecordedRequest request = server.getRequests().get(0);
+        Assert.assertEquals("300000", request.header("Content-Length"));
+        Assert.assertNull(request.header("Transfer-Encoding"));
+        Assert.assertArrayEquals(CONTENT, request.body);
+        Assert.assertEquals(1, server.getConnectionCount());
+    }
+
+    @Test
+    public void testChunkedStream() throws IOException {
+        RequestBody body = RequestBody.of(new ByteArrayInputStream(CONTENT));
+        Assert.assertEquals(-1, body.contentLength());
+        Assert.assertFalse(body.isReplayable());
+        Assert.assertEquals("300000", this.post("/stream", body).getBodyAsString());
+        MockHttpServer.RecordedRequest request = server.getRequests().get(0);
+        Assert.assertEquals("chunked", request.header("Transfer-Encoding"));
+        Assert.assertNull(request.header("Content-Length"));
+        Assert.assertArrayEquals(CONTENT, request.body);
+        //chunked报文体结束后连接仍然可以复用
+        Assert.assertEquals("0", httpClient.execute(new Request("/next")).getBodyAsString());
+        Assert.assertEquals(1, server.getConnectionCount());
+    }
+
+    @Test
+    public void testStreamShorterThanLength() throws IOException {
+        RequestBody body = RequestBody.of(new ByteArrayInputStream(new byte[50]), 100);
+        try {
+            this.post("/short", body);
+            Assert.fail("expected IOException");
+        } catch (IOException e) {
+            //预期的异常
+        }
+        //发送失败的连接被关闭，之后的请求使用新连接
+        Assert.assertEquals("0", httpClient.execute(new Request("/next")).getBodyAsString());
+    }
+
+    @Test
+    public void testStreamNotRetried() throws IOException {
+        httpClient.setRetryPolicy(new RetryPolicy().setBackoff(1, 10));
+        Request request = new Request("PUT", "/unavailable", Collections.<String, String>emptyMap(),
+                RequestBody.of(new ByteArrayInputStream(CONTENT, 0, 1000)));
+        Assert.assertEquals(503, httpClient.execute(request).getCode());
+        Assert.assertEquals(1, server.getRequests().size());
+
+        Request replayable = new Request("PUT", "/unavailable", Collections.<String, String>emptyMap(),
+                RequestBody.of(Arrays.copyOf(CONTENT, 1000)));
+        Assert.assertEquals(503, httpClient.execute(replayable).getCode());
+        Assert.assertEquals(1 + 3, server.getRequests().size());
+    }
+
+    @Test
+    public void testMultipart() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("data.bin");
+        Files.write(path, Arrays.copyOf(CONTENT, 1000));
+        MultipartBody body = new MultipartBody.Builder("xyz")
+                .addField("title", "hello")
+                .addFile("file", "a\"b.bin", "application/octet-stream", RequestBody.of(path))
+                .build();
+        Assert.assertEquals(2, body.size());
+        Assert.assertEquals("multipart/form-data; boundary=xyz", body.contentType());
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(("--xyz\r\nContent-Disposition: form-data; name=\"title\"\r\n\r\nhello\r\n"
+                + "--xyz\r\nContent-Disposition: form-data; name=\"file\"; filename=\"a%22b.bin\"\r\n"
+                + "Content-Type: application/octet-stream\r\n\r\n").getBytes("UTF-8"));
+        expected.write(CONTENT, 0, 1000);
+        expected.write("\r\n--xyz--\r\n".getBytes("UTF-8"));
+        Assert.assertEquals(expected.size(), body.contentLength());
+
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        body.writeTo(Channels.newChannel(written));
+        Assert.assertArrayEquals(expected.toByteArray(), written.toByteArray());
+
+        this.post("/multipart", body);
+        MockHttpServer.RecordedRequest request = server.getRequests().get(0);
+        Assert.assertEquals("multipart/form-data; boundary=xyz", request.header("Content-Type"));
+        Assert.assertEquals(String.valueOf(expected.size()), request.header("Content-Length"));
+        Assert.assertArrayEquals(expected.toByteArray(), request.body);
+    }
+
+    @Test
+    public void testMultipartWithStream() throws IOException {
+        Map<String, String> headers = new LinkedHashMap<String, String>();
+        headers.put("Content-Type", "multipart/mixed; boundary=b");
+        MultipartBody body = new MultipartBody.Builder("b")
+                .addFile("log", "log.txt", null, RequestBody.of(new ByteArrayInputStream(CONTENT)))
+                .build();
+        Assert.assertEquals(-1, body.contentLength());
+        Assert.assertFalse(body.isReplayable());
+        //显式指定的Content-Type优先
+        httpClient.execute(new Request("POST", "/mixed", headers, body));
+        MockHttpServer.RecordedRequest request = server.getRequests().get(0);
+        Assert.assertEquals("multipart/mixed; boundary=b", request.header("Content-Type"));
+        Assert.assertEquals("chunked", request.header("Transfer-Encoding"));
+        Assert.assertEquals(CONTENT.length + 80, request.body.length);
+    }
+
+    @Test
+    public void testHttp2Stream() throws IOException {
+        MockHttp2Server http2Server = new MockHttp2Server(new MockHttp2Server.Handler() {
+            @Override
+            public MockHttp2Server.Reply handle(MockHttpServer.RecordedRequest request) throws IOException {
+                return new MockHttp2Server.Reply(200, request.body);
+            }
+        }, Integer.MAX_VALUE, 16 * 1024);
+        HttpClient client = new HttpClient(http2Server.getHost(), http2Server.getPort());
+        try {
+            client.setHttp2PriorKnowledge(true);
+            //长度未知且超过流窗口的报文体分帧发送，最后以空的DATA帧结束流
+            Response response = client.execute(new Request("POST", "/echo", Collections.<String, String>emptyMap(),
+                    RequestBody.of(new ByteArrayInputStream(CONTENT))));
+            Assert.assertArrayEquals(CONTENT, response.getBody());
+            Assert.assertNull(http2Server.getRequests().get(0).headers.get("content-length"));
+
+            Path path = folder.getRoot().toPath().resolve("upload.bin");
+            Files.write(path, CONTENT);
+            response = client.execute(new Request("PUT", "/echo", Collections.<String, String>emptyMap(),
+                    RequestBody.of(path)));
+            Assert.assertArrayEquals(CONTENT, response.getBody());
+            Assert.assertEquals("300000", http2Server.getRequests().get(1).headers.get("content-length"));
+        } finally {
+            client.close();
+            http2Server.close();
+        }
+    }
+}
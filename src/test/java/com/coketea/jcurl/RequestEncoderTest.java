@@ -0,0 +1,128 @@
+package com.coketea.jcurl;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class RequestEncoderTest {
+
+    private static String encode(RequestEncoder encoder, Request request, ByteBuffer buffer) throws IOException {
+        ByteBuffer head = encoder.encode(request, buffer);
+        head.flip();
+        byte[] bytes = new byte[head.remaining()];
+        head.get(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    @Test
+    public void testEncode() throws IOException {
+        Map<String, String> defaults = new LinkedHashMap<String, String>();
+        defaults.put("User-Agent", "jcurl");
+        defaults.put("Accept", "*/*");
+        RequestEncoder encoder = new RequestEncoder("example.com", 8080, defaults);
+
+        Assert.assertEquals("GET /a HTTP/1.1\r\nHost: example.com:8080\r\nUser-Agent: jcurl\r\nAccept: */*\r\n"
+                        + "Content-Length: 0\r\n\r\n",
+                encode(encoder, new Request("/a"), RequestEncoder.allocate()));
+
+        Map<String, String> headers = new LinkedHashMap<String, String>();
+        headers.put("Accept", "text/plain");
+        headers.put("X-Name", "中文");
+        Request request = new Request("POST", "/b", headers, "hello world");
+        Assert.assertEquals("POST /b HTTP/1.1\r\nHost: example.com:8080\r\nUser-Agent: jcurl\r\n"
+                        + "Content-Length: 11\r\nAccept: text/plain\r\nX-Name: 中文\r\n\r\n",
+                encode(encoder, request, RequestEncoder.allocate()));
+    }
+
+    @Test
+    public void testEncode_overrideCaseInsensitive() throws IOException {
+        Map<String, String> defaults = new LinkedHashMap<String, String>();
+        defaults.put("User-Agent", "jcurl");
+        defaults.put("Accept", "*/*");
+        RequestEncoder encoder = new RequestEncoder("example.com", 80, defaults);
+
+        //请求头名称不区分大小写，请求中的user-agent覆盖默认的User-Agent
+        Request request = new Request("GET", "/a", Collections.singletonMap("user-agent", "curl"), (String) null);
+        Assert.assertEquals("GET /a HTTP/1.1\r\nHost: example.com\r\nAccept: */*\r\nContent-Length: 0\r\n"
+                        + "user-agent: curl\r\n\r\n",
+                encode(encoder, request, RequestEncoder.allocate()));
+    }
+
+    @Test
+    public void testWithHeader_replaceCaseInsensitive() throws IOException {
+        RequestEncoder encoder = new RequestEncoder("example.com", 80, Collections.<String, String>emptyMap());
+        Request request = new Request("GET", "/a", Collections.singletonMap("accept-encoding", "gzip"), (String) null)
+                .withHeader("Accept-Encoding", "identity");
+        Assert.assertEquals(1, request.getHeaders().size());
+        Assert.assertEquals("identity", request.getHeader("accept-encoding"));
+        Assert.assertEquals("GET /a HTTP/1.1\r\nHost: example.com\r\nContent-Length: 0\r\n"
+                        + "Accept-Encoding: identity\r\n\r\n",
+                encode(encoder, request, RequestEncoder.allocate()));
+    }
+
+    @Test
+    public void testEncode_framingHeadersIgnored() throws IOException {
+        RequestEncoder encoder = new RequestEncoder("example.com", 80, Collections.<String, String>emptyMap());
+        Map<String, String> headers = new LinkedHashMap<String, String>();
+        headers.put("Content-Length", "5");
+        headers.put("host", "evil.example.com");
+        headers.put("X-A", "1");
+        //长度未知的报文体只以chunked编码发送，不能同时带有请求中的Content-Length
+        Request request = new Request("POST", "/a", headers,
+                RequestBody.of(new ByteArrayInputStream("hello".getBytes("UTF-8"))));
+        Assert.assertEquals("POST /a HTTP/1.1\r\nHost: example.com\r\nTransfer-Encoding: chunked\r\nX-A: 1\r\n\r\n",
+                encode(encoder, request, RequestEncoder.allocate()));
+
+        headers.put("Transfer-Encoding", "chunked");
+        request = new Request("POST", "/a", headers, "hello");
+        Assert.assertEquals("POST /a HTTP/1.1\r\nHost: example.com\r\nContent-Length: 5\r\nX-A: 1\r\n\r\n",
+                encode(encoder, request, RequestEncoder.allocate()));
+    }
+
+    @Test
+    public void testEncode_grow() throws IOException {
+        RequestEncoder encoder = new RequestEncoder("localhost", 80, Collections.<String, String>emptyMap());
+        char[] chars = new char[100];
+        Arrays.fill(chars, 'x');
+        String uri = "/" + new String(chars);
+        String encoded = encode(encoder, new Request(uri), ByteBuffer.allocateDirect(16));
+        Assert.assertEquals("GET " + uri + " HTTP/1.1\r\nHost: localhost\r\nContent-Length: 0\r\n\r\n", encoded);
+    }
+
+    @Test
+    public void testExecute_binaryBody() throws IOException {
+        MockHttpServer server = new MockHttpServer(new MockHttpServer.Handler() {
+            @Override
+            public byte[] handle(MockHttpServer.RecordedRequest request) {
+                return MockHttpServer.response(200, request.body.length + " " + request.header("X-Default"));
+            }
+        });
+        HttpClient httpClient = new HttpClient(server.getHost(), server.getPort());
+        try {
+            httpClient.addDefaultHeader("X-Default", "yes");
+            byte[] body = new byte[100000];
+            for (int i = 0; i < body.length; i++) {
+                body[i] = (byte) i;
+            }
+            Map<String, String> headers = Collections.emptyMap();
+            Response response = httpClient.execute(new Request("POST", "/bytes", headers, body));
+            Assert.assertEquals("100000 yes", response.getBodyAsString());
+            ByteBuffer direct = ByteBuffer.allocateDirect(1000);
+            direct.put(body, 0, 1000).flip();
+            response = httpClient.execute(new Request("PUT", "/buffer", headers, direct));
+            Assert.assertEquals("1000 yes", response.getBodyAsString());
+            Assert.assertArrayEquals(body, server.getRequests().get(0).body);
+            Assert.assertEquals(1, server.getConnectionCount());
+        } finally {
+            httpClient.close();
+            server.close();
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.coketea.jcurl;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ResolverTest {
+
+    @Test
+    public void testCachingResolver() throws IOException {
+        CountingResolver delegate = new CountingResolver();
+        CachingResolver resolver = new CachingResolver(delegate, 60000, 60000);
+        Assert.assertEquals(Arrays.asList(InetAddress.getByName("127.0.0.1")), resolver.resolve("backend"));
+        Assert.assertEquals(Arrays.asList(InetAddress.getByName("127.0.0.1")), resolver.resolve("backend"));
+        Assert.assertEquals(1, delegate.count.get());
+        Assert.assertEquals(1, resolver.getHitCount());
+        Assert.assertEquals(1, resolver.getMissCount());
+
+        //解析失败同样被缓存
+        for (int i = 0; i < 2; i++) {
+            try {
+                resolver.resolve("missing");
+                Assert.fail();
+            } catch (UnknownHostException expected) {
+            }
+        }
+        Assert.assertEquals(2, delegate.count.get());
+
+        resolver.invalidate("backend");
+        resolver.resolve("backend");
+        Assert.assertEquals(3, delegate.count.get());
+    }
+
+    @Test
+    public void testExpiry() throws Exception {
+        CountingResolver delegate = new CountingResolver();
+        CachingResolver resolver = new CachingResolver(delegate, 100, 0);
+        resolver.resolve("backend");
+        Thread.sleep(150);
+        resolver.resolve("backend");
+        Assert.assertEquals(2, delegate.count.get());
+        for (int i = 0; i < 2; i++) {
+            try {
+                resolver.resolve("missing");
+                Assert.fail();
+            } catch (UnknownHostException expected) {
+            }
+        }
+        Assert.assertEquals(4, delegate.count.get());
+    }
+
+    @Test
+    public void testRefreshAhead() throws Exception {
+        CountingResolver delegate = new CountingResolver();
+        CachingResolver resolver = new CachingResolver(delegate, 1000, 0);
+        resolver.resolve("backend");
+        Thread.sleep(800);
+        //超过ttl的3/4，返回缓存的结果并在后台刷新
+        resolver.resolve("backend");
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (delegate.count.get() < 2 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(2, delegate.count.get());
+        Assert.assertEquals(1, resolver.getRefreshCount());
+        Assert.assertEquals(1, resolver.getMissCount());
+        //刷新后的结果重新计算ttl，原来的过期时间之后仍然命中
+        Thread.sleep(300);
+        resolver.resolve("backend");
+        Assert.assertEquals(1, resolver.getMissCount());
+    }
+
+    @Test
+    public void testStaticResolver() throws IOException {
+        InetAddress address = InetAddress.getByName("10.0.0.1");
+        StaticResolver resolver = new StaticResolver().put("backend", address);
+        Assert.assertEquals(Arrays.asList(address), resolver.resolve("backend"));
+        try {
+            resolver.resolve("other");
+            Assert.fail();
+        } catch (UnknownHostException expected) {
+        }
+        StaticResolver fallback = new StaticResolver(resolver);
+        Assert.assertEquals(Arrays.asList(address), fallback.resolve("backend"));
+    }
+
+    @Test
+    public void testInterleave() throws IOException {
+        InetAddress v4a = InetAddress.getByName("10.0.0.1");
+        InetAddress v4b = InetAddress.getByName("10.0.0.2");
+        InetAddress v6a = InetAddress.getByName("::1");
+        InetAddress v6b = InetAddress.getByName("fe80::1");
+        Assert.assertEquals(Arrays.asList(v6a, v4a, v6b, v4b),
+                ConnectRacer.interleave(Arrays.asList(v6a, v6b, v4a, v4b)));
+        Assert.assertEquals(Arrays.asList(v4a, v6a, v4b),
+                ConnectRacer.interleave(Arrays.asList(v4a, v4b, v6a)));
+        Assert.assertEquals(Arrays.asList(v4a, v4b), ConnectRacer.interleave(Arrays.asList(v4a, v4b)));
+    }
+
+    @Test
+    public void testFailover() throws IOException {
+        MockHttpServer server = new MockHttpServer(new MockHttpServer.Handler() {
+            @Override
+            public byte[] handle(MockHttpServer.RecordedRequest request) {
+                return MockHttpServer.response(200, "hello");
+            }
+        });
+        //服务器只监听127.0.0.1，连接127.0.0.2会被拒绝
+        StaticResolver resolver = new StaticResolver().put("backend", InetAddress.getByName("127.0.0.2"),
+                InetAddress.getByName(server.getHost()));
+        ConnectionPool pool = new ConnectionPool(1, 60000, 1000);
+        pool.setResolver(resolver);
+        HttpClient client = new HttpClient("backend", server.getPort(), pool);
+        try {
+            Assert.assertEquals("hello", client.execute(new Request("/a")).getBodyAsString());
+            pool.evictAll();
+            //第二次新建连接直接从上次成功的地址开始
+            RecordingListener listener = new RecordingListener();
+            client.setEventListener(listener);
+            Assert.assertEquals("hello", client.execute(new Request("/b")).getBodyAsString());
+            Assert.assertEquals(1, listener.connectStarts.get());
+        } finally {
+            pool.close();
+            server.close();
+        }
+    }
+
+    @Test
+    public void testAllAddressesFail() throws IOException {
+        StaticResolver resolver = new StaticResolver().put("backend", InetAddress.getByName("127.0.0.2"),
+                InetAddress.getByName("127.0.0.3"));
+        ConnectionPool pool = new ConnectionPool();
+        pool.setResolver(resolver);
+        HttpClient client = new HttpClient("backend", 1, pool);
+        RecordingListener listener = new RecordingListener();
+        client.setEventListener(listener);
+        try {
+            client.execute(new Request("/a"));
+            Assert.fail();
+        } catch (IOException expected) {
+        } finally {
+            pool.close();
+        }
+        Assert.assertEquals(2, listener.connectStarts.get());
+        Assert.assertEquals(2, listener.connectFailures.get());
+        Assert.assertEquals(0, pool.getLeasedCount());
+    }
+
+    private static class CountingResolver implements Resolver {
+
+        final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public List<InetAddress> resolve(String host) throws UnknownHostException {
+            count.incrementAndGet();
+            if (host.equals("missing")) {
+                throw new UnknownHostException(host);
+            }
+            return Arrays.asList(InetAddress.getByName("127.0.0.1"));
+        }
+    }
+
+    private static class RecordingListener extends EventListener {
+
+        final AtomicInteger connectStarts = new AtomicInteger();
+
+        final AtomicInteger connectFailures = new AtomicInteger();
+
+        @Override
+        public void connectStart(InetSocketAddress address, long nanoTime) {
+            connectStarts.incrementAndGet();
+        }
+
+        @Override
+        public void connectFailed(InetSocketAddress address, IOException cause, long nanoTime) {
+            connectFailures.incrementAndGet();
+        }
+    }
+}
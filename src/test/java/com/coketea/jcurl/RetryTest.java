@@ -0,0 +1,207 @@
+package com.coketea.jcurl;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RetryTest {
+
+    private final AtomicInteger failures = new AtomicInteger();
+
+    private final AtomicInteger slowRequests = new AtomicInteger();
+
+    private final CountDownLatch unblock = new CountDownLatch(1);
+
+    private MockHttpServer server;
+
+    private HttpClient httpClient;
+
+    @Before
+    public void init() throws IOException {
+        server = new MockHttpServer(new MockHttpServer.Handler() {
+            @Override
+            public byte[] handle(MockHttpServer.RecordedRequest request) {
+                if (request.uri.equals("/flaky")) {
+                    //前两次返回503
+                    if (failures.incrementAndGet() <= 2) {
+                        return MockHttpServer.response(503, "busy");
+                    }
+                } else if (request.uri.equals("/down")) {
+                    return MockHttpServer.response(503, "down");
+                } else if (request.uri.equals("/retry-after")) {
+                    return MockHttpServer.response(503, "later", "Retry-After: 1");
+                } else if (request.uri.equals("/slow")) {
+                    //只有第一个请求落在慢的副本上
+                    if (slowRequests.incrementAndGet() == 1) {
+                        try {
+                            unblock.await(10, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        return MockHttpServer.response(200, "slow");
+                    }
+                }
+                return MockHttpServer.response(200, "hello");
+            }
+        });
+        httpClient = new HttpClient(server.getHost(), server.getPort());
+        httpClient.setRetryPolicy(new RetryPolicy().setBackoff(10, 100));
+    }
+
+    @After
+    public void destroy() throws IOException {
+        unblock.countDown();
+        httpClient.close();
+        server.close();
+    }
+
+    @Test
+    public void testRetryStatusCode() throws IOException {
+        Response response = httpClient.execute(new Request("/flaky"));
+        Assert.assertEquals(200, response.getCode());
+        Assert.assertEquals("hello", response.getBodyAsString());
+        Assert.assertEquals(3, server.getRequests().size());
+    }
+
+    @Test
+    public void testRetryStream() throws IOException {
+        StreamingResponse response = httpClient.stream(new Request("/flaky"));
+        try {
+            Assert.assertEquals("hello", new String(response.readBody(), "UTF-8"));
+        } finally {
+            response.close();
+        }
+        Assert.assertEquals(3, server.getRequests().size());
+    }
+
+    @Test
+    public void testMaxAttempts() throws IOException {
+        httpClient.getRetryPolicy().setMaxAttempts(2);
+        Assert.assertEquals(503, httpClient.execute(new Request("/down")).getCode());
+        Assert.assertEquals(2, server.getRequests().size());
+    }
+
+    @Test
+    public void testNonIdempotent() throws IOException {
+        Response response = httpClient.execute(new Request("POST", "/down", Collections.<String, String>emptyMap(),
+                "body"));
+        Assert.assertEquals(503, response.getCode());
+        Assert.assertEquals(1, server.getRequests().size());
+    }
+
+    @Test
+    public void testRetryAfterTooLong() throws IOException {
+        Assert.assertEquals(503, httpClient.execute(new Request("/retry-after")).getCode());
+        Assert.assertEquals(1, server.getRequests().size());
+    }
+
+    @Test
+    public void testBudget() throws IOException {
+        httpClient.getRetryPolicy().setBudget(0, 1);
+        Assert.assertEquals(503, httpClient.execute(new Request("/down")).getCode());
+        Assert.assertEquals(2, server.getRequests().size());
+        //预算用完之后不再重试
+        Assert.assertEquals(503, httpClient.execute(new Request("/down")).getCode());
+        Assert.assertEquals(3, server.getRequests().size());
+        Assert.assertEquals(0, httpClient.getRetryPolicy().getBudget(), 0);
+    }
+
+    @Test
+    public void testConnectFailure() throws IOException {
+        ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        int port = socket.getLocalPort();
+        socket.close();
+        final AtomicInteger attempts = new AtomicInteger();
+        HttpClient client = new HttpClient(server.getHost(), port);
+        client.setRetryPolicy(new RetryPolicy().setBackoff(1, 10));
+        client.setEventListener(new EventListener() {
+            @Override
+            public void callStart(Request request, long nanoTime) {
+                attempts.incrementAndGet();
+            }
+        });
+        try {
+            client.execute(new Request("/"));
+            Assert.fail();
+        } catch (ConnectException expected) {
+        } finally {
+            client.close();
+        }
+        Assert.assertEquals(RetryPolicy.DEFAULT_MAX_ATTEMPTS, attempts.get());
+    }
+
+    @Test
+    public void testCallTimeoutCoversBackoff() throws IOException {
+        httpClient.getRetryPolicy().setBackoff(10, 5000);
+        httpClient.setCallTimeoutMillis(300);
+        long start = System.nanoTime();
+        try {
+            httpClient.execute(new Request("/retry-after"));
+            Assert.fail();
+        } catch (CallTimeoutException expected) {
+        }
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 900);
+        Assert.assertEquals(1, server.getRequests().size());
+    }
+
+    @Test
+    public void testCancelDuringBackoff() throws Exception {
+        httpClient.getRetryPolicy().setBackoff(10, 5000);
+        final Call call = httpClient.newCall(new Request("/retry-after"));
+        Thread canceler = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException ignored) {
+                }
+                call.cancel();
+            }
+        });
+        canceler.start();
+        long start = System.nanoTime();
+        try {
+            call.execute();
+            Assert.fail();
+        } catch (CallCanceledException expected) {
+        }
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 900);
+        canceler.join();
+    }
+
+    @Test
+    public void testHedging() throws IOException {
+        RetryPolicy policy = httpClient.getRetryPolicy().setHedging(95, 50);
+        for (int i = 0; i < RetryPolicy.MIN_HEDGE_SAMPLES; i++) {
+            Assert.assertEquals("hello", httpClient.execute(new Request("/fast")).getBodyAsString());
+        }
+        Assert.assertEquals(RetryPolicy.MIN_HEDGE_SAMPLES, policy.getLatencies().getTotalCount());
+        long start = System.nanoTime();
+        //第一个请求被阻塞，对冲请求先返回
+        Response response = httpClient.execute(new Request("/slow"));
+        Assert.assertEquals("hello", response.getBodyAsString());
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5000);
+        Assert.assertEquals(2, slowRequests.get());
+    }
+
+    @Test
+    public void testHedgingNotForPost() throws IOException {
+        httpClient.getRetryPolicy().setHedging(95, 0);
+        for (int i = 0; i < RetryPolicy.MIN_HEDGE_SAMPLES; i++) {
+            httpClient.execute(new Request("/fast"));
+        }
+        Assert.assertEquals(-1, httpClient.getRetryPolicy().hedgeDelayMillis(
+                new Request("POST", "/slow", Collections.<String, String>emptyMap(), "body")));
+        Assert.assertTrue(httpClient.getRetryPolicy().hedgeDelayMillis(new Request("/slow")) >= 0);
+    }
+}
@@ -0,0 +1,128 @@
+package com.coketea.jcurl;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+public class StreamingResponseTest {
+
+    private static final String CHUNKED_RESPONSE = "HTTP/1.1 200 OK\r\n" +
+            "Transfer-Encoding: chunked\r\n" +
+            "\r\n" +
+            "14\r\n" +
+            "{\"resultFlag\":\"0\",\"r\r\n" +
+            "21\r\n" +
+            "esultList\":[],\"recordsTotal\":\"0\"}\r\n" +
+            "0\r\n" +
+            "\r\n";
+
+    private static final String BODY = "{\"resultFlag\":\"0\",\"resultList\":[],\"recordsTotal\":\"0\"}";
+
+    private MockHttpServer server;
+
+    private HttpClient httpClient;
+
+    @Before
+    public void init() throws IOException {
+        server = new MockHttpServer(new MockHttpServer.Handler() {
+            @Override
+            public byte[] handle(MockHttpServer.RecordedRequest request) {
+                if (request.uri.equals("/chunked")) {
+                    return CHUNKED_RESPONSE.getBytes();
+                }
+                if (request.uri.equals("/large")) {
+                    StringBuilder sb = new StringBuilder();
+                    for (int i = 0; i < 100000; i++) {
+                        sb.append((char) ('a' + i % 26));
+                    }
+                    return MockHttpServer.response(200, sb.toString());
+                }
+                return MockHttpServer.response(200, BODY);
+            }
+        });
+        httpClient = new HttpClient(server.getHost(), server.getPort());
+    }
+
+    @After
+    public void destroy() throws IOException {
+        httpClient.close();
+        server.close();
+    }
+
+    @Test
+    public void testStream_contentLength() throws IOException {
+        StreamingResponse response = httpClient.stream(new Request("/"));
+        try {
+            InputStream body = response.getBody();
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            byte[] buffer = new byte[7];
+            int count;
+            while ((count = body.read(buffer)) != -1) {
+                baos.write(buffer, 0, count);
+            }
+            Assert.assertEquals(BODY, baos.toString("UTF-8"));
+        } finally {
+            response.close();
+        }
+        Assert.assertEquals(1, httpClient.getConnectionPool().getIdleCount());
+        Assert.assertEquals(BODY, httpClient.execute(new Request("/")).getBodyAsString());
+        Assert.assertEquals(1, server.getConnectionCount());
+    }
+
+    @Test
+    public void testStream_chunkedConsumer() throws IOException {
+        StreamingResponse response = httpClient.stream(new Request("/chunked"));
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        long total = response.consume(new BodyConsumer() {
+            @Override
+            public void accept(ByteBuffer slice) {
+                byte[] bytes = new byte[slice.remaining()];
+                slice.get(bytes);
+                baos.write(bytes, 0, bytes.length);
+            }
+        });
+        response.close();
+        Assert.assertEquals(BODY.length(), total);
+        Assert.assertEquals(BODY, new String(baos.toByteArray(), "UTF-8"));
+        Assert.assertEquals(BODY, httpClient.execute(new Request("/chunked")).getBodyAsString());
+        Assert.assertEquals(1, server.getConnectionCount());
+    }
+
+    @Test
+    public void testStream_directChannel() throws IOException {
+        StreamingResponse response = httpClient.stream(new Request("/large"));
+        try {
+            ReadableByteChannel channel = response.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocateDirect(4096);
+            long total = 0;
+            int count;
+            while ((count = channel.read(buffer)) != -1) {
+                total += count;
+                buffer.clear();
+            }
+            Assert.assertEquals(100000, total);
+        } finally {
+            response.close();
+        }
+        Assert.assertEquals(1, httpClient.getConnectionPool().getIdleCount());
+    }
+
+    @Test
+    public void testStream_closeEarly() throws IOException {
+        StreamingResponse response = httpClient.stream(new Request("/large"));
+        Assert.assertEquals(200, response.getCode());
+        Assert.assertEquals('a', response.getBody().read());
+        response.close();
+        Assert.assertEquals(0, httpClient.getConnectionPool().getIdleCount());
+        Assert.assertEquals(0, httpClient.getConnectionPool().getLeasedCount());
+        Assert.assertEquals(100000, httpClient.execute(new Request("/large")).getBody().length);
+        Assert.assertEquals(2, server.getConnectionCount());
+    }
+}
@@ -0,0 +1,209 @@
+package com.coketea.jcurl;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class TimeoutTest {
+
+    private final CountDownLatch unblock = new CountDownLatch(1);
+
+    private MockHttpServer server;
+
+    private HttpClient httpClient;
+
+    @Before
+    public void init() throws IOException {
+        server = new MockHttpServer(new MockHttpServer.Handler() {
+            @Override
+            public byte[] handle(MockHttpServer.RecordedRequest request) {
+                if (request.uri.equals("/slow")) {
+                    try {
+                        unblock.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                } else if (request.uri.equals("/truncated")) {
+                    //声明了10个字节却只发送5个，之后连接上不再有数据
+                    return "HTTP/1.1 200 OK\r\nContent-Length: 10\r\n\r\nhello".getBytes();
+                }
+                return MockHttpServer.response(200, "hello");
+            }
+        });
+        httpClient = new HttpClient(server.getHost(), server.getPort());
+    }
+
+    @After
+    public void destroy() throws IOException {
+        unblock.countDown();
+        httpClient.close();
+        server.close();
+    }
+
+    @Test
+    public void testReadTimeout() throws IOException {
+        httpClient.setReadTimeoutMillis(200);
+        long start = System.nanoTime();
+        try {
+            httpClient.execute(new Request("/slow"));
+            Assert.fail();
+        } catch (ReadTimeoutException expected) {
+        }
+        Assert.assertTrue(elapsedMillis(start) < 5000);
+        //超时的连接被关闭，之后的请求使用新连接
+        Assert.assertEquals("hello", httpClient.execute(new Request("/fast")).getBodyAsString());
+        Assert.assertEquals(2, server.getConnectionCount());
+    }
+
+    @Test
+    public void testCallTimeout() throws IOException {
+        httpClient.setCallTimeoutMillis(300);
+        Assert.assertEquals("hello", httpClient.execute(new Request("/fast")).getBodyAsString());
+        long start = System.nanoTime();
+        try {
+            httpClient.execute(new Request("/slow"));
+            Assert.fail();
+        } catch (CallTimeoutException expected) {
+        }
+        Assert.assertTrue(elapsedMillis(start) < 5000);
+    }
+
+    @Test
+    public void testCallTimeoutCoversBody() throws IOException {
+        httpClient.setCallTimeoutMillis(300);
+        StreamingResponse response = httpClient.stream(new Request("/truncated"));
+        InputStream body = response.getBody();
+        try {
+            byte[] buffer = new byte[16];
+            while (body.read(buffer) != -1) {
+            }
+            Assert.fail();
+        } catch (CallTimeoutException expected) {
+        } finally {
+            response.close();
+        }
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        final Call call = httpClient.newCall(new Request("/slow"));
+        Thread canceler = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException ignored) {
+                }
+                call.cancel();
+            }
+        });
+        canceler.start();
+        long start = System.nanoTime();
+        try {
+            call.execute();
+            Assert.fail();
+        } catch (CallCanceledException expected) {
+        }
+        Assert.assertTrue(elapsedMillis(start) < 5000);
+        Assert.assertTrue(call.isCanceled());
+        canceler.join();
+        Assert.assertEquals(0, httpClient.getConnectionPool().getLeasedCount());
+    }
+
+    @Test
+    public void testCancelBeforeExecute() throws IOException {
+        Call call = httpClient.newCall(new Request("/fast"));
+        call.cancel();
+        try {
+            call.execute();
+            Assert.fail();
+        } catch (CallCanceledException expected) {
+        }
+        Assert.assertEquals(0, server.getRequests().size());
+        try {
+            call.execute();
+            Assert.fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void testCancelAfterComplete() throws IOException {
+        Call call = httpClient.newCall(new Request("/fast"));
+        Assert.assertEquals("hello", call.execute().getBodyAsString());
+        call.cancel();
+        Assert.assertFalse(call.isCanceled());
+        //连接已经归还连接池，取消不会关闭它
+        Assert.assertEquals("hello", httpClient.execute(new Request("/fast")).getBodyAsString());
+        Assert.assertEquals(1, server.getConnectionCount());
+    }
+
+    @Test
+    public void testCallTimeoutWaitingForPool() throws IOException {
+        HttpClient client = new HttpClient(server.getHost(), server.getPort(), new ConnectionPool(1, 60000, 5000));
+        try {
+            //唯一的连接被尚未读取报文体的响应占用
+            StreamingResponse held = client.stream(new Request("/fast"));
+            client.setCallTimeoutMillis(300);
+            long start = System.nanoTime();
+            try {
+                client.execute(new Request("/fast"));
+                Assert.fail();
+            } catch (CallTimeoutException expected) {
+                //超时检查中断了等待，或者等待本身以请求剩余的时间为上限而超时
+                Assert.assertTrue(expected.getCause() instanceof InterruptedIOException);
+            }
+            Assert.assertTrue(elapsedMillis(start) < 2000);
+            held.close();
+            Assert.assertEquals("hello", client.execute(new Request("/fast")).getBodyAsString());
+            Assert.assertEquals(0, client.getConnectionPool().getLeasedCount());
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void testCancelWaitingForPool() throws Exception {
+        HttpClient client = new HttpClient(server.getHost(), server.getPort(), new ConnectionPool(1, 60000, 5000));
+        try {
+            StreamingResponse held = client.stream(new Request("/fast"));
+            final Call call = client.newCall(new Request("/fast"));
+            Thread canceler = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Thread.sleep(200);
+                    } catch (InterruptedException ignored) {
+                    }
+                    call.cancel();
+                }
+            });
+            canceler.start();
+            long start = System.nanoTime();
+            try {
+                call.execute();
+                Assert.fail();
+            } catch (CallCanceledException expected) {
+            }
+            Assert.assertTrue(elapsedMillis(start) < 2000);
+            canceler.join();
+            //等待被中断后线程的中断标记已经清除，之后的请求不受影响
+            Assert.assertFalse(Thread.currentThread().isInterrupted());
+            held.close();
+            Assert.assertEquals("hello", client.execute(new Request("/fast")).getBodyAsString());
+        } finally {
+            client.close();
+        }
+    }
+
+    private static long elapsedMillis(long start) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+}
@@ -0,0 +1,236 @@
+package com.coketea.jcurl;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.net.ssl.SSLHandshakeException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class TlsTest {
+
+    private static final byte[] CONTENT = new byte[200000];
+
+    static {
+        for (int i = 0; i < CONTENT.length; i++) {
+            CONTENT[i] = (byte) (i * 31 + i / 1024);
+        }
+    }
+
+    private MockHttpServer server;
+
+    private TlsConfig tls;
+
+    private HttpClient httpClient;
+
+    private final TlsListener listener = new TlsListener();
+
+    @Before
+    public void init() throws IOException {
+        server = new MockHttpServer(new MockHttpServer.Handler() {
+            @Override
+            public byte[] handle(MockHttpServer.RecordedRequest request) {
+                if (request.uri.equals("/large")) {
+                    return MockHttpServer.response(200, CONTENT);
+                }
+                return MockHttpServer.response(200, request.method + " " + request.uri + " " + request.body.length);
+            }
+        }, MockHttpServer.testSslContext());
+        tls = new TlsConfig(MockHttpServer.testSslContext());
+        httpClient = this.client(server.getHost());
+    }
+
+    @After
+    public void destroy() throws IOException {
+        httpClient.close();
+        server.close();
+    }
+
+    private HttpClient client(String host) {
+        HttpClient client = new HttpClient(host, server.getPort());
+        client.setTlsConfig(tls);
+        client.setEventListener(listener);
+        return client;
+    }
+
+    @Test
+    public void testExecute() throws IOException {
+        Assert.assertEquals("GET /a 0", httpClient.execute(new Request("/a")).getBodyAsString());
+        Assert.assertEquals("POST /b 4", httpClient.execute(
+                new Request("POST", "/b", Collections.<String, String>emptyMap(), "body")).getBodyAsString());
+        //长度未知的报文体以chunked编码经过TLS写出
+        Assert.assertEquals("PUT /c 200000", httpClient.execute(new Request("PUT", "/c",
+                Collections.<String, String>emptyMap(), RequestBody.of(new ByteArrayInputStream(CONTENT))))
+                .getBodyAsString());
+        Assert.assertArrayEquals(CONTENT, server.getRequests().get(2).body);
+        Assert.assertArrayEquals(CONTENT, httpClient.execute(new Request("/large")).getBody());
+        Assert.assertEquals(1, server.getConnectionCount());
+        Assert.assertEquals("127.0.0.1:" + server.getPort(), server.getRequests().get(0).header("Host"));
+        Assert.assertEquals(Collections.singletonList("http/1.1 full"), listener.handshakes);
+    }
+
+    @Test
+    public void testSessionResumption() throws IOException {
+        httpClient.execute(new Request("/a"));
+        httpClient.getConnectionPool().evictAll();
+        httpClient.execute(new Request("/b"));
+        Assert.assertEquals(2, server.getConnectionCount());
+        //第二条连接恢复第一次握手得到的会话
+        Assert.assertEquals(Arrays.asList("http/1.1 full", "http/1.1 resumed"), listener.handshakes);
+        Assert.assertEquals(2, listener.secureConnectStarts);
+    }
+
+    @Test
+    public void testWarmUp() throws IOException {
+        Assert.assertEquals(3, httpClient.warmUp(3));
+        Assert.assertEquals(3, server.getConnectionCount());
+        Assert.assertEquals(3, httpClient.getConnectionPool().getIdleCount());
+        //已经有足够的空闲连接
+        Assert.assertEquals(0, httpClient.warmUp(2));
+        Assert.assertEquals(1, httpClient.warmUp(4));
+        Assert.assertEquals(4, httpClient.getConnectionPool().getIdleCount());
+
+        listener.handshakes.clear();
+        Assert.assertEquals("GET /a 0", httpClient.execute(new Request("/a")).getBodyAsString());
+        Assert.assertEquals(Collections.singletonList("poolAcquire reused"), listener.acquires);
+        Assert.assertTrue(listener.handshakes.isEmpty());
+        Assert.assertEquals(4, server.getConnectionCount());
+    }
+
+    @Test
+    public void testWarmUpLimitedByPool() throws IOException {
+        int max = httpClient.getConnectionPool().getMaxPerRoute();
+        Assert.assertEquals(max, httpClient.warmUp(max + 5));
+        Assert.assertEquals(max, httpClient.getConnectionPool().getIdleCount());
+    }
+
+    @Test
+    public void testHostnameVerification() throws IOException {
+        StaticResolver resolver = new StaticResolver().put("jcurl.test", InetAddress.getByName(server.getHost()));
+        HttpClient client = this.client("jcurl.test");
+        client.getConnectionPool().setResolver(resolver);
+        try {
+            try {
+                client.execute(new Request("/a"));
+                Assert.fail("expected SSLHandshakeException");
+            } catch (SSLHandshakeException e) {
+                //证书中没有jcurl.test
+            }
+            tls.setHostnameVerification(false);
+            Assert.assertEquals("GET /a 0", client.execute(new Request("/a")).getBodyAsString());
+            Assert.assertEquals("jcurl.test:" + server.getPort(), server.getRequests().get(0).header("Host"));
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void testUntrustedCertificate() throws IOException {
+        HttpClient client = new HttpClient(server.getHost(), server.getPort());
+        client.setTlsConfig(new TlsConfig());
+        try {
+            client.execute(new Request("/a"));
+            Assert.fail("expected SSLHandshakeException");
+        } catch (SSLHandshakeException e) {
+            //默认只信任JDK自带的根证书
+        } finally {
+            client.close();
+        }
+        Assert.assertEquals(0, client.getConnectionPool().getLeasedCount());
+    }
+
+    @Test
+    public void testNio() throws Exception {
+        NioHttpClient client = new NioHttpClient(server.getHost(), server.getPort(), 2, BufferPool.DEFAULT, tls);
+        try {
+            List<CompletableFuture<Response>> futures = new ArrayList<CompletableFuture<Response>>();
+            for (int i = 0; i < 20; i++) {
+                futures.add(client.execute(new Request(i % 4 == 0 ? "/large" : "/" + i)));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                Response response = futures.get(i).get(10, TimeUnit.SECONDS);
+                if (i % 4 == 0) {
+                    Assert.assertArrayEquals(CONTENT, response.getBody());
+                } else {
+                    Assert.assertEquals("GET /" + i + " 0", response.getBodyAsString());
+                }
+            }
+            //复用的连接上继续发送请求
+            Assert.assertArrayEquals(CONTENT, client.execute(new Request("/large")).get(10, TimeUnit.SECONDS)
+                    .getBody());
+            Assert.assertTrue(server.getConnectionCount() <= 20);
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void testHttp2() throws IOException {
+        MockHttp2Server http2Server = new MockHttp2Server(new MockHttp2Server.Handler() {
+            @Override
+            public MockHttp2Server.Reply handle(MockHttpServer.RecordedRequest request) {
+                return new MockHttp2Server.Reply(200, request.headers.get(":scheme") + " " + request.uri);
+            }
+        }, Integer.MAX_VALUE, Http2Connection.DEFAULT_WINDOW_SIZE, MockHttpServer.testSslContext());
+        HttpClient client = new HttpClient(http2Server.getHost(), http2Server.getPort());
+        try {
+            client.setTlsConfig(tls);
+            client.setHttp2PriorKnowledge(true);
+            client.setEventListener(listener);
+            Assert.assertEquals(1, client.warmUp(4));
+            Assert.assertEquals("https /a", client.execute(new Request("/a")).getBodyAsString());
+            Assert.assertEquals("https /b", client.execute(new Request("/b")).getBodyAsString());
+            Assert.assertEquals(1, http2Server.getConnectionCount());
+            Assert.assertEquals(Arrays.asList("poolAcquire reused", "poolAcquire reused"), listener.acquires);
+        } finally {
+            client.close();
+            http2Server.close();
+        }
+    }
+
+    @Test
+    public void testHttp2RequiresAlpn() throws IOException {
+        //服务器端只支持http/1.1，不能按HTTP/2发送
+        httpClient.setHttp2PriorKnowledge(true);
+        try {
+            httpClient.execute(new Request("/a"));
+            Assert.fail("expected IOException");
+        } catch (IOException e) {
+            //预期的异常
+        }
+        Assert.assertTrue(server.getRequests().isEmpty());
+    }
+
+    private static class TlsListener extends EventListener {
+
+        final List<String> handshakes = Collections.synchronizedList(new ArrayList<String>());
+
+        final List<String> acquires = Collections.synchronizedList(new ArrayList<String>());
+
+        volatile int secureConnectStarts;
+
+        @Override
+        public void secureConnectStart(long nanoTime) {
+            secureConnectStarts++;
+        }
+
+        @Override
+        public void secureConnectEnd(String protocol, String applicationProtocol, boolean resumed, long nanoTime) {
+            handshakes.add(applicationProtocol + (resumed ? " resumed" : " full"));
+        }
+
+        @Override
+        public void poolAcquire(boolean reused, long nanoTime) {
+            acquires.add(reused ? "poolAcquire reused" : "poolAcquire new");
+        }
+    }
+}